@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import de.uzl.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder#decode} and
+ * {@link de.uzl.itm.ncoap.communication.codec.CoapMessageEncoder#encode} with all {@link MessageShape}s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+
+    private static final InetSocketAddress REMOTE_SOCKET = new InetSocketAddress("127.0.0.1", 5683);
+
+    @Param
+    private MessageShape shape;
+
+    private CoapBenchmarkEncoder encoder;
+    private CoapBenchmarkDecoder decoder;
+
+    private CoapMessage coapMessage;
+    private ChannelBuffer encodedMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        this.encoder = new CoapBenchmarkEncoder();
+        this.decoder = new CoapBenchmarkDecoder();
+        this.coapMessage = shape.createMessage();
+        this.encodedMessage = encoder.encode(coapMessage);
+    }
+
+    @Benchmark
+    public ChannelBuffer encode() throws Exception {
+        return encoder.encode(coapMessage);
+    }
+
+    @Benchmark
+    public CoapMessage decode() throws Exception {
+        // the decoder reads the buffer, i.e. it is to be rewound for every invocation
+        encodedMessage.readerIndex(0);
+        return decoder.decode(REMOTE_SOCKET, encodedMessage);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import de.uzl.itm.ncoap.message.options.Option;
+import de.uzl.itm.ncoap.message.options.StringOptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the message model, i.e. the creation of {@link CoapRequest}s, the addition of options and the
+ * (re-)construction of the path from the Uri-Path options. All benchmarks use the target URI of
+ * {@link MessageShape#GET_4_URI_PATHS}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MessageBenchmark {
+
+    private static final InetSocketAddress REMOTE_SOCKET = new InetSocketAddress("127.0.0.1", 5683);
+
+    private StringOptionValue[] uriPathOptions;
+    private CoapRequest coapRequest;
+
+    private CoapBenchmarkDecoder decoder;
+    private ChannelBuffer encodedRequest;
+
+    @Setup
+    public void setup() throws Exception {
+        String[] segments = MessageShape.TARGET_URI.getPath().substring(1).split("/");
+        this.uriPathOptions = new StringOptionValue[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            this.uriPathOptions[i] = new StringOptionValue(Option.URI_PATH, segments[i]);
+        }
+
+        this.coapRequest = (CoapRequest) MessageShape.GET_4_URI_PATHS.createMessage();
+
+        this.decoder = new CoapBenchmarkDecoder();
+        this.encodedRequest = new CoapBenchmarkEncoder().encode(coapRequest);
+    }
+
+    /**
+     * Creates a new {@link CoapRequest} from a {@link java.net.URI}, i.e. including the URI parsing and the
+     * creation of the Uri-Host and Uri-Path options.
+     */
+    @Benchmark
+    public CoapRequest createRequest() {
+        return new CoapRequest(MessageType.CON, MessageCode.GET, MessageShape.TARGET_URI);
+    }
+
+    /**
+     * Creates a new {@link CoapRequest} without any options and adds 4 (pre-built) Uri-Path options.
+     */
+    @Benchmark
+    public CoapRequest addOption() {
+        CoapRequest request = new CoapRequest(MessageType.CON, MessageCode.GET);
+        for (StringOptionValue uriPathOption : uriPathOptions) {
+            request.addOption(Option.URI_PATH, uriPathOption);
+        }
+        return request;
+    }
+
+    /**
+     * Reconstructs the path from the Uri-Path options of a locally created {@link CoapRequest}.
+     */
+    @Benchmark
+    public String getUriPath() {
+        return coapRequest.getUriPath();
+    }
+
+    /**
+     * Decodes a {@link CoapRequest} and reconstructs the path from its Uri-Path options, i.e. the way a server
+     * looks up the targeted resource.
+     */
+    @Benchmark
+    public String decodeAndGetUriPath() throws Exception {
+        encodedRequest.readerIndex(0);
+        return ((CoapRequest) decoder.decode(REMOTE_SOCKET, encodedRequest)).getUriPath();
+    }
+}
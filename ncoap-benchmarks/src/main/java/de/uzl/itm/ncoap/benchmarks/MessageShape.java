@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.*;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * The realistic shapes of {@link CoapMessage}s the benchmarks are run with.
+ */
+public enum MessageShape {
+
+    /**
+     * An empty acknowledgement, i.e. the header only
+     */
+    EMPTY_ACK {
+        @Override
+        public CoapMessage createMessage() {
+            return CoapMessage.createEmptyAcknowledgement(MESSAGE_ID);
+        }
+    },
+
+    /**
+     * A confirmable GET request with 4 Uri-Path options
+     */
+    GET_4_URI_PATHS {
+        @Override
+        public CoapMessage createMessage() throws Exception {
+            CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, TARGET_URI);
+            coapRequest.setMessageID(MESSAGE_ID);
+            coapRequest.setToken(new Token(TOKEN));
+            return coapRequest;
+        }
+    },
+
+    /**
+     * A piggy-backed response with a Block2 option and 1024 bytes of payload
+     */
+    BLOCK2_RESPONSE_1024 {
+        @Override
+        public CoapMessage createMessage() {
+            CoapResponse coapResponse = new CoapResponse(MessageType.ACK, MessageCode.CONTENT_205);
+            coapResponse.setMessageID(MESSAGE_ID);
+            coapResponse.setToken(new Token(TOKEN));
+            coapResponse.setBlock2(1, true, 6);
+
+            byte[] payload = new byte[1024];
+            Arrays.fill(payload, (byte) 'x');
+            coapResponse.setContent(payload, ContentFormat.TEXT_PLAIN_UTF8);
+            return coapResponse;
+        }
+    },
+
+    /**
+     * An update notification with Observe, ETag and Max-Age option and a short payload
+     */
+    OBSERVE_NOTIFICATION {
+        @Override
+        public CoapMessage createMessage() {
+            CoapResponse coapResponse = new CoapResponse(MessageType.NON, MessageCode.CONTENT_205);
+            coapResponse.setMessageID(MESSAGE_ID);
+            coapResponse.setToken(new Token(TOKEN));
+            coapResponse.setObserve(4711);
+            coapResponse.setEtag(new byte[]{0x12, 0x34, 0x56, 0x78});
+            coapResponse.setMaxAge(120);
+            coapResponse.setContent("21.5 C".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+            return coapResponse;
+        }
+    };
+
+    /**
+     * The target URI (with 4 path segments) of the requests used for benchmarking
+     */
+    public static final URI TARGET_URI = URI.create("coap://example.org/sensors/building-1/room-2/temperature");
+
+    private static final int MESSAGE_ID = 12345;
+    private static final byte[] TOKEN = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+
+    /**
+     * Returns a new instance of {@link CoapMessage} of this shape
+     *
+     * @return a new instance of {@link CoapMessage} of this shape
+     *
+     * @throws Exception if the message could not be created (should never happen)
+     */
+    public abstract CoapMessage createMessage() throws Exception;
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.ClientCallback;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.application.server.resource.NotObservableWebresource;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uzl.itm.ncoap.communication.loopback.LoopbackNetwork;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the full handler pipeline of a {@link CoapClient} and a {@link CoapServer} (i.e. reliability,
+ * blockwise transfer, observation and dispatching) for request/response round trips via a {@link LoopbackNetwork},
+ * i.e. without kernel socket overhead and without any datagram loss.
+ *
+ * <p><b>Note:</b> A new client is created for each iteration because there are only 65536 message IDs per remote
+ * endpoint within the exchange lifetime of 247 seconds.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PipelineBenchmark {
+
+    private static final String SERVICE_PATH = "/benchmark";
+    private static final int TIMEOUT_SECONDS = 10;
+
+    @Param({"CON", "NON"})
+    public String messageType;
+
+    private int coapMessageType;
+    private LoopbackNetwork network;
+    private CoapServer server;
+    private CoapClient client;
+    private InetSocketAddress serverSocket;
+    private URI serviceUri;
+
+    @Setup(Level.Trial)
+    public void setupServer() throws Exception {
+        this.coapMessageType = "CON".equals(messageType) ? MessageType.CON : MessageType.NON;
+
+        this.network = new LoopbackNetwork();
+        this.server = new CoapServer("Benchmark Server", NotFoundHandler.getDefault(), CoapServer.getDefaultSocket(),
+                BlockSize.UNBOUND, BlockSize.UNBOUND, this.network);
+        this.server.registerWebresource(new BenchmarkWebresource(this.server.getExecutor()));
+
+        this.serverSocket = new InetSocketAddress("localhost", this.server.getPort());
+        this.serviceUri = new URI("coap://localhost:" + this.server.getPort() + SERVICE_PATH);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupClient() {
+        this.client = new CoapClient("Benchmark Client", new InetSocketAddress(0), this.network);
+    }
+
+    @TearDown(Level.Iteration)
+    public void shutdownClient() {
+        this.client.shutdown();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdownServer() throws Exception {
+        this.server.shutdown().get();
+    }
+
+    /**
+     * Sends a GET request and awaits the response.
+     */
+    @Benchmark
+    public CoapResponse roundTrip() throws Exception {
+        CoapRequest coapRequest = new CoapRequest(coapMessageType, MessageCode.GET, serviceUri);
+        BenchmarkCallback callback = new BenchmarkCallback();
+        client.sendCoapRequest(coapRequest, serverSocket, callback);
+        return callback.responseFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    private static class BenchmarkCallback extends ClientCallback {
+
+        private final SettableFuture<CoapResponse> responseFuture = SettableFuture.create();
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            this.responseFuture.set(coapResponse);
+        }
+
+        @Override
+        public void processTransmissionTimeout() {
+            this.responseFuture.setException(new IllegalStateException("Transmission timeout."));
+        }
+
+        @Override
+        public void processNoMessageIDAvailable() {
+            this.responseFuture.setException(new IllegalStateException("No message ID available."));
+        }
+    }
+
+
+    private static class BenchmarkWebresource extends NotObservableWebresource<String> {
+
+        private BenchmarkWebresource(ScheduledExecutorService executor) {
+            super(SERVICE_PATH, "Hello World!", 0, executor);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                InetSocketAddress remoteSocket) throws Exception {
+
+            CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageType(), MessageCode.CONTENT_205);
+            coapResponse.setContent(getSerializedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8),
+                    ContentFormat.TEXT_PLAIN_UTF8);
+            responseFuture.set(coapResponse);
+        }
+
+        @Override
+        public byte[] getSerializedResourceStatus(long contentFormat) {
+            return getResourceStatus().getBytes(CoapMessage.CHARSET);
+        }
+
+        @Override
+        public byte[] getEtag(long contentFormat) {
+            return new byte[0];
+        }
+
+        @Override
+        public void updateEtag(String resourceStatus) {
+            //nothing to do
+        }
+
+        @Override
+        public void shutdown() {
+            //nothing to do
+        }
+    }
+}
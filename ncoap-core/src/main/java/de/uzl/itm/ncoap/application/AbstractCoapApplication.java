@@ -27,8 +27,13 @@ package de.uzl.itm.ncoap.application;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.loopback.LoopbackDatagramChannelFactory;
+import de.uzl.itm.ncoap.communication.loopback.LoopbackNetwork;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.communication.tracing.MessageTracer;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.FixedReceiveBufferSizePredictor;
@@ -37,8 +42,12 @@ import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.jboss.netty.channel.socket.oio.OioDatagramChannelFactory;
 import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.ThreadRenamingRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
@@ -49,6 +58,8 @@ import java.util.concurrent.*;
  */
 public abstract class AbstractCoapApplication {
 
+    private static Logger LOG = LoggerFactory.getLogger(AbstractCoapApplication.class.getName());
+
     /**
      * {@value #RECEIVE_BUFFER_SIZE}
      */
@@ -61,6 +72,8 @@ public abstract class AbstractCoapApplication {
 
     private ScheduledThreadPoolExecutor executor;
     private DatagramChannel channel;
+    private List<DatagramChannel> channels;
+    private CoapChannelPipelineFactory pipelineFactory;
     private String applicationName;
 
 
@@ -90,25 +103,100 @@ public abstract class AbstractCoapApplication {
     }
 
     /**
-     * Starts this application
+     * Starts this application with a single {@link DatagramChannel}
      *
      * @param pipelineFactory the {@link CoapChannelPipelineFactory} that creates the instances of
      * {@link AbstractCoapChannelHandler}s that deal with inbound and outbound messages
      * @param localSocket the socket address to be used for inbound and outbound messages
      */
     protected void startApplication(CoapChannelPipelineFactory pipelineFactory, InetSocketAddress localSocket) {
-        //ChannelFactory channelFactory = new NioDatagramChannelFactory(executor, executor.getCorePoolSize() / 2 );
-        ChannelFactory channelFactory = new NioDatagramChannelFactory(executor, 1 );
+        startApplication(pipelineFactory, localSocket, 1);
+    }
+
+    /**
+     * <p>Starts this application with the given number of {@link DatagramChannel}s (receive shards) that are bound to
+     * the same socket address using <code>SO_REUSEPORT</code>. Each channel is served by its own I/O worker thread
+     * and has its own pipeline. However, all pipelines share the same {@link ChannelHandler} instances (see
+     * {@link CoapChannelPipelineFactory}), i.e. the state of all message exchanges is consistent no matter which
+     * channel received a message. Outbound messages are always sent via the first channel (see
+     * {@link #getChannel()}).</p>
+     *
+     * <p>If <code>SO_REUSEPORT</code> is not supported on this platform (see
+     * {@link ReusePortDatagramChannelFactory#isSupported()}), the application is started with a single channel.</p>
+     *
+     * @param pipelineFactory the {@link CoapChannelPipelineFactory} that creates the instances of
+     * {@link AbstractCoapChannelHandler}s that deal with inbound and outbound messages
+     * @param localSocket the socket address to be used for inbound and outbound messages
+     * @param receiveShards the number of channels to be bound to the given socket address
+     *
+     * @throws java.lang.IllegalArgumentException if the given number of receive shards is smaller than 1
+     */
+    protected void startApplication(CoapChannelPipelineFactory pipelineFactory, InetSocketAddress localSocket,
+            int receiveShards) throws IllegalArgumentException {
+
+        if (receiveShards < 1) {
+            throw new IllegalArgumentException("Number of receive shards must be at least 1 (but was "
+                    + receiveShards + ").");
+        }
+
+        if (receiveShards > 1 && !ReusePortDatagramChannelFactory.isSupported()) {
+            LOG.warn("SO_REUSEPORT is not supported (start \"{}\" with a single channel instead of {}).",
+                    this.applicationName, receiveShards);
+            receiveShards = 1;
+        }
+
+        ChannelFactory channelFactory;
+        if (receiveShards == 1) {
+            channelFactory = new NioDatagramChannelFactory(executor, 1);
+        } else {
+            // every I/O worker permanently occupies a thread of the executor
+            this.executor.setCorePoolSize(this.executor.getCorePoolSize() + receiveShards - 1);
+            channelFactory = new ReusePortDatagramChannelFactory(executor, receiveShards);
+        }
+
+        startApplication(pipelineFactory, localSocket, channelFactory, receiveShards);
+    }
+
+    /**
+     * Starts this application attached to the given {@link LoopbackNetwork}, i.e. without a real UDP socket. This
+     * application can then only communicate with other applications attached to the same {@link LoopbackNetwork}.
+     *
+     * @param pipelineFactory the {@link CoapChannelPipelineFactory} that creates the instances of
+     * {@link AbstractCoapChannelHandler}s that deal with inbound and outbound messages
+     * @param localSocket the (virtual) socket address to be used for inbound and outbound messages
+     * @param network the {@link LoopbackNetwork} to attach this application to
+     */
+    protected void startApplication(CoapChannelPipelineFactory pipelineFactory, InetSocketAddress localSocket,
+            LoopbackNetwork network) {
+
+        startApplication(pipelineFactory, localSocket, new LoopbackDatagramChannelFactory(network, executor), 1);
+    }
+
+    private void startApplication(CoapChannelPipelineFactory pipelineFactory, InetSocketAddress localSocket,
+            ChannelFactory channelFactory, int receiveShards) {
 
-        //System.out.println("Threads: " + (executor.getCorePoolSize() - 1));
         //Create and configure bootstrap
         ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
         bootstrap.setPipelineFactory(pipelineFactory);
         bootstrap.setOption("receiveBufferSizePredictor",
                 new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE));
 
-        //Create datagram channel
+        //Create datagram channel(s), i.e. the further channels are bound to the (possibly ephemeral) local port of
+        //the first channel
+        this.pipelineFactory = pipelineFactory;
         this.channel = (DatagramChannel) bootstrap.bind(localSocket);
+        this.channels = new ArrayList<>(receiveShards);
+        this.channels.add(this.channel);
+
+        int port = this.channel.getLocalAddress().getPort();
+        InetSocketAddress boundSocket = new InetSocketAddress(localSocket.getAddress(), port);
+        for (int i = 1; i < receiveShards; i++) {
+            this.channels.add((DatagramChannel) bootstrap.bind(boundSocket));
+        }
+
+        if (receiveShards > 1) {
+            LOG.info("Bound {} channels to \"{}\" (SO_REUSEPORT).", receiveShards, boundSocket);
+        }
 
         // set the channel handler contexts
         for (ChannelHandler handler : pipelineFactory.getChannelHandlers()) {
@@ -119,6 +207,29 @@ public abstract class AbstractCoapApplication {
         }
     }
 
+    /**
+     * Closes all {@link DatagramChannel}s of this application, i.e. the further channels (receive shards) if any
+     * and finally the channel returned by {@link #getChannel()}.
+     *
+     * @return the {@link ChannelFuture} that is set when the channel returned by {@link #getChannel()} was closed
+     */
+    protected ChannelFuture closeChannels() {
+        for (int i = 1; i < this.channels.size(); i++) {
+            this.channels.get(i).close().awaitUninterruptibly();
+        }
+        return this.channel.close();
+    }
+
+    /**
+     * Returns the number of {@link DatagramChannel}s this application is bound to (see
+     * {@link #startApplication(CoapChannelPipelineFactory, InetSocketAddress, int)}).
+     *
+     * @return the number of {@link DatagramChannel}s this application is bound to
+     */
+    public int getReceiveShards() {
+        return this.channels == null ? 0 : this.channels.size();
+    }
+
     /**
      * Returns the local port number the {@link org.jboss.netty.channel.socket.DatagramChannel} of this
      * {@link de.uzl.itm.ncoap.application.client.CoapClient} is bound to or
@@ -136,6 +247,53 @@ public abstract class AbstractCoapApplication {
         }
     }
 
+    /**
+     * Sets the {@link MessageTracer} to be notified about all inbound and outbound messages of this application
+     * (see {@link CoapChannelPipelineFactory#setMessageTracer(MessageTracer)}).
+     *
+     * @param messageTracer the {@link MessageTracer} to be notified or <code>null</code> to disable tracing
+     */
+    public void setMessageTracer(MessageTracer messageTracer) {
+        this.pipelineFactory.setMessageTracer(messageTracer);
+    }
+
+
+    /**
+     * Sets the {@link TransmissionParameters} (e.g. ACK_TIMEOUT) to be used for all remote endpoints without
+     * specific transmission parameters (see {@link #setTransmissionParameters(InetSocketAddress,
+     * TransmissionParameters)}). The message ID lifetimes are derived from these parameters.
+     *
+     * @param parameters the {@link TransmissionParameters} to be used by default
+     */
+    public void setTransmissionParameters(TransmissionParameters parameters) {
+        this.pipelineFactory.getTransmissionParametersProvider().setDefaultTransmissionParameters(parameters);
+    }
+
+
+    /**
+     * Sets the {@link TransmissionParameters} (e.g. ACK_TIMEOUT) to be used for the given remote endpoint, e.g. to
+     * account for a constrained network with higher latency.
+     *
+     * @param remoteSocket the socket address of the remote endpoint
+     * @param parameters the {@link TransmissionParameters} to be used for the given remote endpoint or
+     *                   <code>null</code> to use the default transmission parameters again
+     */
+    public void setTransmissionParameters(InetSocketAddress remoteSocket, TransmissionParameters parameters) {
+        this.pipelineFactory.getTransmissionParametersProvider().setTransmissionParameters(remoteSocket, parameters);
+    }
+
+
+    /**
+     * Returns the {@link TransmissionParameters} to be used for the given remote endpoint
+     *
+     * @param remoteSocket the socket address of the remote endpoint
+     *
+     * @return the {@link TransmissionParameters} to be used for the given remote endpoint
+     */
+    public TransmissionParameters getTransmissionParameters(InetSocketAddress remoteSocket) {
+        return this.pipelineFactory.getTransmissionParametersProvider().getTransmissionParameters(remoteSocket);
+    }
+
     /**
      * Returns the {@link java.util.concurrent.ScheduledExecutorService} which is used by this
      * {@link de.uzl.itm.ncoap.application.AbstractCoapApplication} to handle tasks, e.g. write and
@@ -152,6 +310,26 @@ public abstract class AbstractCoapApplication {
     }
 
 
+    /**
+     * Returns an {@link Executor} that executes every task by a new thread, i.e. not by a thread of
+     * {@link #getExecutor()}. This is required to release the external resources (including the executor returned
+     * by {@link #getExecutor()}) upon shutdown.
+     *
+     * @return an {@link Executor} that executes every task by a new thread
+     */
+    protected Executor getShutdownExecutor() {
+        final ThreadFactory threadFactory =
+                new ThreadFactoryBuilder().setNameFormat(this.applicationName + " Shutdown #%d").build();
+
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                threadFactory.newThread(task).start();
+            }
+        };
+    }
+
+
     /**
      * Returns the {@link DatagramChannel} instance this application uses to communicate with other endpoints
      *
@@ -24,8 +24,11 @@
  */
 package de.uzl.itm.ncoap.application;
 
+import de.uzl.itm.ncoap.communication.PeerRegistry;
 import de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder;
 import de.uzl.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParametersProvider;
+import de.uzl.itm.ncoap.communication.tracing.MessageTracer;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -48,16 +51,61 @@ public abstract class CoapChannelPipelineFactory implements ChannelPipelineFacto
 
     private Set<ChannelHandler> channelHandlers;
 
+    private CoapMessageEncoder encoder;
+    private CoapMessageDecoder decoder;
+    private TransmissionParametersProvider transmissionParametersProvider;
+    private PeerRegistry peerRegistry;
+
 
     protected CoapChannelPipelineFactory(ScheduledExecutorService executor) {
         this.channelHandlers = new LinkedHashSet<>();
+        this.transmissionParametersProvider = new TransmissionParametersProvider();
+        this.peerRegistry = new PeerRegistry(this.transmissionParametersProvider);
+        this.encoder = new CoapMessageEncoder();
+        this.decoder = new CoapMessageDecoder(this.peerRegistry);
 
         addChannelHandler(new ExecutionHandler(executor));
-        addChannelHandler(new CoapMessageEncoder());
-        addChannelHandler(new CoapMessageDecoder());
+        addChannelHandler(this.encoder);
+        addChannelHandler(this.decoder);
      }
 
 
+    /**
+     * Sets the {@link MessageTracer} to be notified about all inbound and outbound messages of the pipelines
+     * created by this factory, i.e. after decoding and after encoding, respectively.
+     *
+     * @param messageTracer the {@link MessageTracer} to be notified or <code>null</code> to disable tracing
+     */
+    public void setMessageTracer(MessageTracer messageTracer) {
+        this.encoder.setMessageTracer(messageTracer);
+        this.decoder.setMessageTracer(messageTracer);
+    }
+
+
+    /**
+     * Returns the {@link TransmissionParametersProvider} providing the transmission parameters (e.g. ACK_TIMEOUT)
+     * to be used by the pipelines created by this factory
+     *
+     * @return the {@link TransmissionParametersProvider} providing the transmission parameters to be used by the
+     * pipelines created by this factory
+     */
+    public TransmissionParametersProvider getTransmissionParametersProvider() {
+        return this.transmissionParametersProvider;
+    }
+
+
+    /**
+     * Returns the {@link PeerRegistry} assigning the peer IDs to the messages received by the pipelines created by
+     * this factory
+     *
+     * @return the {@link PeerRegistry} assigning the peer IDs to the messages received by the pipelines created by
+     * this factory
+     */
+    public PeerRegistry getPeerRegistry() {
+        return this.peerRegistry;
+    }
+
+
     protected void addChannelHandler(ChannelHandler channelHandler) {
         this.channelHandlers.add(channelHandler);
     }
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.application;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Factory methods for {@link ExecutorService}s to process inbound requests separately from the I/O and protocol
+ * timer threads (see {@link de.uzl.itm.ncoap.application.server.CoapServer#setResourceExecutor(
+ * java.util.concurrent.Executor)}).</p>
+ *
+ * <p><b>Note:</b> Virtual threads are available since Java 21 (see {@link #isVirtualThreadSupported()}). As this
+ * project is compiled for older runtimes, the factory method is invoked via reflection.</p>
+ */
+public class ResourceExecutors {
+
+    private static Logger LOG = LoggerFactory.getLogger(ResourceExecutors.class.getName());
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = getVirtualThreadPerTaskExecutorMethod();
+
+    private ResourceExecutors() {
+        // no instances
+    }
+
+
+    /**
+     * Returns <code>true</code> if virtual threads are supported on this runtime and <code>false</code> otherwise.
+     *
+     * @return <code>true</code> if virtual threads are supported on this runtime and <code>false</code> otherwise
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+
+    /**
+     * Returns a new {@link ExecutorService} that starts a new virtual thread for each request, i.e. a
+     * {@link de.uzl.itm.ncoap.application.server.resource.Webresource} may block (e.g. for database I/O) without
+     * occupying a platform thread.
+     *
+     * @return a new {@link ExecutorService} that starts a new virtual thread for each request
+     *
+     * @throws java.lang.UnsupportedOperationException if virtual threads are not supported on this runtime
+     */
+    public static ExecutorService newVirtualThreadPerRequestExecutor() throws UnsupportedOperationException {
+        if (!isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported on this runtime.");
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (Exception ex) {
+            LOG.error("Could not create virtual thread executor.", ex);
+            throw new UnsupportedOperationException("Could not create virtual thread executor.", ex);
+        }
+    }
+
+
+    private static Method getVirtualThreadPerTaskExecutorMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.application;
+
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannel;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>A {@link DatagramChannelFactory} that creates {@link NioDatagramChannel}s with the socket option
+ * <code>SO_REUSEPORT</code> enabled. This allows multiple channels to be bound to the same socket address. The
+ * kernel then distributes the inbound datagrams among these channels based on the remote socket address, i.e. all
+ * datagrams from the same remote endpoint are received by the same channel.</p>
+ *
+ * <p><b>Note:</b> <code>SO_REUSEPORT</code> is available since Java 9 and not supported on all platforms (see
+ * {@link #isSupported()}). Netty 3 does not provide access to the underlying {@link java.nio.channels.DatagramChannel}
+ * before binding, so the option is set via reflection.</p>
+ */
+public class ReusePortDatagramChannelFactory implements DatagramChannelFactory {
+
+    private static Logger LOG = LoggerFactory.getLogger(ReusePortDatagramChannelFactory.class.getName());
+
+    private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
+    private static final Method GET_DATAGRAM_CHANNEL = getDatagramChannelMethod();
+
+    private NioDatagramChannelFactory channelFactory;
+
+    /**
+     * Creates a new instance of {@link ReusePortDatagramChannelFactory}.
+     *
+     * @param executor the {@link Executor} to provide the I/O worker threads
+     * @param workerCount the number of I/O worker threads, i.e. usually the number of channels to be bound
+     */
+    public ReusePortDatagramChannelFactory(Executor executor, int workerCount) {
+        this.channelFactory = new NioDatagramChannelFactory(executor, workerCount);
+    }
+
+
+    /**
+     * Returns <code>true</code> if the socket option <code>SO_REUSEPORT</code> is supported for datagram channels
+     * on this platform and <code>false</code> otherwise.
+     *
+     * @return <code>true</code> if the socket option <code>SO_REUSEPORT</code> is supported for datagram channels
+     * on this platform and <code>false</code> otherwise
+     */
+    public static boolean isSupported() {
+        if (SO_REUSEPORT == null || GET_DATAGRAM_CHANNEL == null) {
+            return false;
+        }
+
+        try (java.nio.channels.DatagramChannel channel = java.nio.channels.DatagramChannel.open()) {
+            return channel.supportedOptions().contains(SO_REUSEPORT);
+        } catch (Exception ex) {
+            LOG.warn("Could not determine support for SO_REUSEPORT.", ex);
+            return false;
+        }
+    }
+
+
+    @Override
+    public DatagramChannel newChannel(ChannelPipeline pipeline) {
+        DatagramChannel channel = this.channelFactory.newChannel(pipeline);
+        try {
+            java.nio.channels.DatagramChannel datagramChannel =
+                    (java.nio.channels.DatagramChannel) GET_DATAGRAM_CHANNEL.invoke(channel);
+            datagramChannel.setOption(SO_REUSEPORT, true);
+            return channel;
+        } catch (Exception ex) {
+            channel.close();
+            throw new ChannelException("Could not enable SO_REUSEPORT.", ex);
+        }
+    }
+
+
+    @Override
+    public void shutdown() {
+        this.channelFactory.shutdown();
+    }
+
+
+    @Override
+    public void releaseExternalResources() {
+        this.channelFactory.releaseExternalResources();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+
+    private static Method getDatagramChannelMethod() {
+        try {
+            Method method = NioDatagramChannel.class.getDeclaredMethod("getDatagramChannel");
+            method.setAccessible(true);
+            return method;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
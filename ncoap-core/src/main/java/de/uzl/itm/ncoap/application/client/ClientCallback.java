@@ -25,6 +25,7 @@
 package de.uzl.itm.ncoap.application.client;
 
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.message.CoapResponse;
 import org.jboss.netty.buffer.ChannelBuffer;
 import de.uzl.itm.ncoap.message.options.Option;
@@ -202,16 +203,25 @@ public abstract class ClientCallback {
         //to be overridden by extending classes
     }
 
+    /**
+     * This method is invoked by the framework if the {@link de.uzl.itm.ncoap.message.CoapRequest} that is
+     * associated with this callback was discarded as there were already NSTART outstanding requests to the
+     * same remote endpoint and the queue of pending requests for that endpoint was full.
+     */
+    public void processRequestQueueOverflow() {
+        //to be overridden by extending classes
+    }
+
 
-//    /**
-//     * This method is invoked by the framework if the {@link de.uzl.itm.ncoap.message.CoapRequest} that is
-//     * associated with this callback is assigned a {@link Token}.
-//     *
-//     * @param token the {@link Token} that was assigned to the
-//     *              {@link de.uzl.itm.ncoap.message.CoapRequest} that is associated with this callback
-//     */
-//    public void processTokenAssignment(Token token) {
-//        //to be overridden by extending classes
-//    }
+    /**
+     * This method is invoked by the framework if the {@link de.uzl.itm.ncoap.message.CoapRequest} that is
+     * associated with this callback is assigned a {@link Token}.
+     *
+     * @param token the {@link Token} that was assigned to the
+     *              {@link de.uzl.itm.ncoap.message.CoapRequest} that is associated with this callback
+     */
+    public void processTokenAssignment(Token token) {
+        //to be overridden by extending classes
+    }
 
 }
@@ -27,6 +27,7 @@ package de.uzl.itm.ncoap.application.client;
 import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
 import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock1Handler;
 import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock2Handler;
+import de.uzl.itm.ncoap.communication.caching.ClientCachingHandler;
 import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
 import de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory;
 import de.uzl.itm.ncoap.communication.identification.ClientIdentificationHandler;
@@ -58,11 +59,14 @@ public class ClientChannelPipelineFactory extends CoapChannelPipelineFactory {
 
         super(executor);
         addChannelHandler(new ClientIdentificationHandler(executor));
-        addChannelHandler(new ClientOutboundReliabilityHandler(executor, new MessageIDFactory(executor)));
+        addChannelHandler(new ClientOutboundReliabilityHandler(executor, new MessageIDFactory(
+                executor, getTransmissionParametersProvider()
+        ), getPeerRegistry()));
         addChannelHandler(new ClientInboundReliabilityHandler(executor));
         addChannelHandler(new ClientBlock2Handler(executor));
         addChannelHandler(new ClientBlock1Handler(executor));
         addChannelHandler(new ClientObservationHandler(executor));
+        addChannelHandler(new ClientCachingHandler(executor));
         addChannelHandler(new ResponseDispatcher(executor, new TokenFactory()));
     }
 
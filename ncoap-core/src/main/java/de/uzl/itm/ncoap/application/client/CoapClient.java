@@ -24,9 +24,13 @@
  */
 package de.uzl.itm.ncoap.application.client;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import de.uzl.itm.ncoap.application.AbstractCoapApplication;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.caching.ClientCachingHandler;
 import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
+import de.uzl.itm.ncoap.communication.loopback.LoopbackNetwork;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import de.uzl.itm.ncoap.message.CoapRequest;
 import de.uzl.itm.ncoap.message.CoapResponse;
@@ -36,6 +40,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An instance of {@link CoapClient} is the entry point to send {@link CoapMessage}s to a (remote)
@@ -93,10 +99,27 @@ public class CoapClient extends AbstractCoapApplication {
      * @param clientSocket the socket to send {@link CoapMessage}s
      */
     public CoapClient(String name, InetSocketAddress clientSocket) {
+        this(name, clientSocket, null);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapClient} that is attached to the given {@link LoopbackNetwork} instead of
+     * a real UDP socket, i.e. it can only communicate with applications attached to the same network. If the given
+     * network is <code>null</code>, a real UDP socket is used.
+     *
+     * @param name the name of the application (used for logging purposes)
+     * @param clientSocket the (virtual) socket to send {@link CoapMessage}s
+     * @param network the {@link LoopbackNetwork} to attach this client to (or <code>null</code>)
+     */
+    public CoapClient(String name, InetSocketAddress clientSocket, LoopbackNetwork network) {
         super(name);
 
         ClientChannelPipelineFactory factory = new ClientChannelPipelineFactory(this.getExecutor());
-        startApplication(factory, clientSocket);
+        if (network == null) {
+            startApplication(factory, clientSocket);
+        } else {
+            startApplication(factory, clientSocket, network);
+        }
 
         this.responseDispatcher = getChannel().getPipeline().get(ResponseDispatcher.class);
     }
@@ -123,6 +146,44 @@ public class CoapClient extends AbstractCoapApplication {
     }
 
 
+    /**
+     * Sends a {@link de.uzl.itm.ncoap.message.CoapRequest} to the given remote endpoint and returns a
+     * {@link ListenableFuture} to be completed with the first response (in the thread that received the response).
+     *
+     * @param coapRequest the {@link de.uzl.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteSocket the desired recipient of the given {@link de.uzl.itm.ncoap.message.CoapRequest}
+     *
+     * @return a {@link ListenableFuture} to be completed with the first response
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteSocket) {
+        return sendCoapRequest(coapRequest, remoteSocket, MoreExecutors.sameThreadExecutor(), 0, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Sends a {@link de.uzl.itm.ncoap.message.CoapRequest} to the given remote endpoint and returns a
+     * {@link ListenableFuture} to be completed with the first response. The future fails with a
+     * {@link java.util.concurrent.TimeoutException} if there was no response within the given timeout and with a
+     * {@link de.uzl.itm.ncoap.application.client.RequestFailedException} for any other failure (e.g. a RST).
+     *
+     * Cancellation of the returned future (as well as a timeout) immediately releases the token and stops
+     * further retransmissions of the request.
+     *
+     * @param coapRequest the {@link de.uzl.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteSocket the desired recipient of the given {@link de.uzl.itm.ncoap.message.CoapRequest}
+     * @param completionExecutor the {@link Executor} to complete the returned future, i.e. to run listeners
+     *                           added with {@link MoreExecutors#sameThreadExecutor()}
+     * @param timeout the maximum time to wait for a response (or <code>0</code> for no timeout)
+     * @param unit the {@link TimeUnit} of the given timeout
+     *
+     * @return a {@link ListenableFuture} to be completed with the first response
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteSocket,
+            Executor completionExecutor, long timeout, TimeUnit unit) {
+        return this.responseDispatcher.sendCoapRequest(coapRequest, remoteSocket, completionExecutor, timeout, unit);
+    }
+
+
     /**
      * Sends a CoAP PING, i.e. a {@link de.uzl.itm.ncoap.message.CoapMessage} with
      * {@link de.uzl.itm.ncoap.message.MessageType#CON} and
@@ -148,6 +209,47 @@ public class CoapClient extends AbstractCoapApplication {
     }
 
 
+    /**
+     * Sets the length of the {@link de.uzl.itm.ncoap.communication.dispatching.Token}s for outbound requests (see
+     * {@link de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory#setTokenLength(int)}). Shorter tokens
+     * reduce the message size but also the number of requests that can be in progress at the same time.
+     *
+     * @param tokenLength the length of the tokens for outbound requests in bytes (1 to 8)
+     *
+     * @throws java.lang.IllegalArgumentException if the given length is out of range
+     */
+    public void setTokenLength(int tokenLength) throws IllegalArgumentException {
+        this.responseDispatcher.getTokenFactory().setTokenLength(tokenLength);
+    }
+
+
+    /**
+     * Sets the maximum number of responses to be cached by this {@link CoapClient} (see
+     * {@link de.uzl.itm.ncoap.communication.caching.ClientCachingHandler}). The cache is disabled by default.
+     *
+     * @param maximumSize the maximum number of cached responses (or <code>0</code> to disable the cache)
+     *
+     * @throws java.lang.IllegalArgumentException if the given size is negative
+     */
+    public void setResponseCacheSize(int maximumSize) throws IllegalArgumentException {
+        getChannel().getPipeline().get(ClientCachingHandler.class).setMaximumSize(maximumSize);
+    }
+
+
+    /**
+     * Enables or disables the coalescing of identical requests by this {@link CoapClient}, i.e. identical
+     * {@link de.uzl.itm.ncoap.message.MessageCode#GET} requests to the same remote endpoint share a single message
+     * exchange while one of them is in flight (see {@link ResponseDispatcher#setRequestCoalescing(boolean)}).
+     * Coalescing is disabled by default.
+     *
+     * @param enabled <code>true</code> to enable the coalescing of identical requests and <code>false</code> to
+     *                disable it
+     */
+    public void setRequestCoalescing(boolean enabled) {
+        this.responseDispatcher.setRequestCoalescing(enabled);
+    }
+
+
     /**
      * Shuts this {@link CoapClient} down by closing its
      * {@link org.jboss.netty.channel.socket.DatagramChannel} which includes to unbind
@@ -157,7 +259,7 @@ public class CoapClient extends AbstractCoapApplication {
     public final void shutdown() {
         LOG.warn("Start to shutdown " + this.getApplicationName() + " (Port : " + this.getPort() + ")");
 
-        getChannel().close().awaitUninterruptibly().addListener(new ChannelFutureListener() {
+        closeChannels().awaitUninterruptibly().addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture future) throws Exception {
                 LOG.warn("Channel closed ({}).", CoapClient.this.getApplicationName());
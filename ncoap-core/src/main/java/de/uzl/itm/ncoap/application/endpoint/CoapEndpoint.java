@@ -28,23 +28,31 @@ package de.uzl.itm.ncoap.application.endpoint;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import de.uzl.itm.ncoap.application.AbstractCoapApplication;
+import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
 import de.uzl.itm.ncoap.application.server.CoapServer;
 import de.uzl.itm.ncoap.application.server.resource.Webresource;
 import de.uzl.itm.ncoap.application.client.ClientCallback;
+import de.uzl.itm.ncoap.communication.admission.ServerAdmissionHandler;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.caching.ClientCachingHandler;
 import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
 import de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory;
 import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
 import de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher;
+import de.uzl.itm.ncoap.communication.loopback.LoopbackNetwork;
 import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link CoapEndpoint} combines both, client and server functionality, i.e.
@@ -129,13 +137,58 @@ public class CoapEndpoint extends AbstractCoapApplication {
     public CoapEndpoint(String applicationName, NotFoundHandler notFoundHandler, InetSocketAddress localSocket,
                         BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
 
+        this(applicationName, notFoundHandler, localSocket, maxBlock1Size, maxBlock2Size, 1);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapEndpoint} that receives inbound messages via the given number of
+     * sockets bound to the same socket address (see
+     * {@link #startApplication(CoapChannelPipelineFactory, InetSocketAddress, int)}).
+     *
+     * @param applicationName the name of this {@link CoapEndpoint} (for logging only)
+     * @param notFoundHandler the {@link NotFoundHandler} to handle inbound requests for unknown resources
+     * @param localSocket the socket address to send and receive messages
+     * @param maxBlock1Size the maximum BLOCK 1 size (<b>for inbound requests only</b>)
+     * @param maxBlock2Size the maximum BLOCK 2 size (<b>for outbound responses only</b>)
+     * @param receiveShards the number of sockets to receive inbound messages
+     */
+    public CoapEndpoint(String applicationName, NotFoundHandler notFoundHandler, InetSocketAddress localSocket,
+                        BlockSize maxBlock1Size, BlockSize maxBlock2Size, int receiveShards) {
+
+        this(applicationName, notFoundHandler, localSocket, maxBlock1Size, maxBlock2Size, receiveShards, null);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapEndpoint} that is attached to the given {@link LoopbackNetwork} instead
+     * of a real UDP socket, i.e. it can only communicate with applications attached to the same network.
+     *
+     * @param applicationName the name of this {@link CoapEndpoint} (for logging only)
+     * @param notFoundHandler the {@link NotFoundHandler} to handle inbound requests for unknown resources
+     * @param localSocket the (virtual) socket address to send and receive messages
+     * @param maxBlock1Size the maximum BLOCK 1 size (<b>for inbound requests only</b>)
+     * @param maxBlock2Size the maximum BLOCK 2 size (<b>for outbound responses only</b>)
+     * @param network the {@link LoopbackNetwork} to attach this endpoint to
+     */
+    public CoapEndpoint(String applicationName, NotFoundHandler notFoundHandler, InetSocketAddress localSocket,
+                        BlockSize maxBlock1Size, BlockSize maxBlock2Size, LoopbackNetwork network) {
+
+        this(applicationName, notFoundHandler, localSocket, maxBlock1Size, maxBlock2Size, 1, network);
+    }
+
+    private CoapEndpoint(String applicationName, NotFoundHandler notFoundHandler, InetSocketAddress localSocket,
+                        BlockSize maxBlock1Size, BlockSize maxBlock2Size, int receiveShards, LoopbackNetwork network) {
+
         super(applicationName);
 
         CoapEndpointChannelPipelineFactory pipelineFactory = new CoapEndpointChannelPipelineFactory(
                 this.getExecutor(), new TokenFactory(), notFoundHandler, maxBlock1Size, maxBlock2Size
         );
 
-        startApplication(pipelineFactory, localSocket);
+        if (network == null) {
+            startApplication(pipelineFactory, localSocket, receiveShards);
+        } else {
+            startApplication(pipelineFactory, localSocket, network);
+        }
 
         // retrieve the request dispatcher (server component)
         this.requestDispatcher = getChannel().getPipeline().get(RequestDispatcher.class);
@@ -167,6 +220,44 @@ public class CoapEndpoint extends AbstractCoapApplication {
     }
 
 
+    /**
+     * Sends a {@link de.uzl.itm.ncoap.message.CoapRequest} to the given remote endpoint and returns a
+     * {@link ListenableFuture} to be completed with the first response (in the thread that received the response).
+     *
+     * @param coapRequest the {@link de.uzl.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteSocket the desired recipient of the given {@link de.uzl.itm.ncoap.message.CoapRequest}
+     *
+     * @return a {@link ListenableFuture} to be completed with the first response
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteSocket) {
+        return sendCoapRequest(coapRequest, remoteSocket, MoreExecutors.sameThreadExecutor(), 0, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Sends a {@link de.uzl.itm.ncoap.message.CoapRequest} to the given remote endpoint and returns a
+     * {@link ListenableFuture} to be completed with the first response. The future fails with a
+     * {@link java.util.concurrent.TimeoutException} if there was no response within the given timeout and with a
+     * {@link de.uzl.itm.ncoap.application.client.RequestFailedException} for any other failure (e.g. a RST).
+     *
+     * Cancellation of the returned future (as well as a timeout) immediately releases the token and stops
+     * further retransmissions of the request.
+     *
+     * @param coapRequest the {@link de.uzl.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteSocket the desired recipient of the given {@link de.uzl.itm.ncoap.message.CoapRequest}
+     * @param completionExecutor the {@link Executor} to complete the returned future, i.e. to run listeners
+     *                           added with {@link MoreExecutors#sameThreadExecutor()}
+     * @param timeout the maximum time to wait for a response (or <code>0</code> for no timeout)
+     * @param unit the {@link TimeUnit} of the given timeout
+     *
+     * @return a {@link ListenableFuture} to be completed with the first response
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteSocket,
+            Executor completionExecutor, long timeout, TimeUnit unit) {
+        return this.responseDispatcher.sendCoapRequest(coapRequest, remoteSocket, completionExecutor, timeout, unit);
+    }
+
+
     /**
      * Sends a CoAP PING, i.e. a {@link de.uzl.itm.ncoap.message.CoapMessage} with
      * {@link de.uzl.itm.ncoap.message.MessageType#CON} and
@@ -192,6 +283,47 @@ public class CoapEndpoint extends AbstractCoapApplication {
 
     }
 
+    /**
+     * Sets the length of the {@link de.uzl.itm.ncoap.communication.dispatching.Token}s for outbound requests (see
+     * {@link de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory#setTokenLength(int)}). Shorter tokens
+     * reduce the message size but also the number of requests that can be in progress at the same time.
+     *
+     * @param tokenLength the length of the tokens for outbound requests in bytes (1 to 8)
+     *
+     * @throws java.lang.IllegalArgumentException if the given length is out of range
+     */
+    public void setTokenLength(int tokenLength) throws IllegalArgumentException {
+        this.responseDispatcher.getTokenFactory().setTokenLength(tokenLength);
+    }
+
+
+    /**
+     * Sets the maximum number of responses to be cached by this {@link CoapEndpoint} (see
+     * {@link de.uzl.itm.ncoap.communication.caching.ClientCachingHandler}). The cache is disabled by default.
+     *
+     * @param maximumSize the maximum number of cached responses (or <code>0</code> to disable the cache)
+     *
+     * @throws java.lang.IllegalArgumentException if the given size is negative
+     */
+    public void setResponseCacheSize(int maximumSize) throws IllegalArgumentException {
+        getChannel().getPipeline().get(ClientCachingHandler.class).setMaximumSize(maximumSize);
+    }
+
+
+    /**
+     * Enables or disables the coalescing of identical requests by this {@link CoapEndpoint}, i.e. identical
+     * {@link de.uzl.itm.ncoap.message.MessageCode#GET} requests to the same remote endpoint share a single message
+     * exchange while one of them is in flight (see {@link ResponseDispatcher#setRequestCoalescing(boolean)}).
+     * Coalescing is disabled by default.
+     *
+     * @param enabled <code>true</code> to enable the coalescing of identical requests and <code>false</code> to
+     *                disable it
+     */
+    public void setRequestCoalescing(boolean enabled) {
+        this.responseDispatcher.setRequestCoalescing(enabled);
+    }
+
+
     /**
      * Registers a new {@link de.uzl.itm.ncoap.application.server.resource.Webresource} at this
      * {@link de.uzl.itm.ncoap.application.server.CoapServer}.
@@ -207,6 +339,40 @@ public class CoapEndpoint extends AbstractCoapApplication {
     }
 
 
+    /**
+     * Enables (or disables) the admission control of this {@link CoapEndpoint}, i.e. new requests are answered with
+     * {@link de.uzl.itm.ncoap.message.MessageCode#SERVICE_UNAVAILABLE_503} (or dropped if non-confirmable) as long as
+     * one of the given limits is exceeded (see {@link ServerAdmissionHandler}). Admission control is disabled by
+     * default.
+     *
+     * @param maxInFlightRequests the maximum number of requests being processed at the same time (or
+     *                            <code>0</code> for no limit)
+     * @param maxExecutorLag the maximum lag of the I/O executor in milliseconds (or <code>0</code> for no limit)
+     * @param retryAfter the value of the Max-Age option of 5.03 responses in seconds
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given values is negative
+     */
+    public void setAdmissionControl(int maxInFlightRequests, long maxExecutorLag, long retryAfter)
+            throws IllegalArgumentException {
+        getChannel().getPipeline().get(ServerAdmissionHandler.class).setLimits(
+                maxInFlightRequests, maxExecutorLag, retryAfter
+        );
+    }
+
+    /**
+     * Sets the {@link java.util.concurrent.Executor} to process inbound requests with, i.e. to invoke the
+     * {@link Webresource}s (see {@link RequestDispatcher#setResourceExecutor(java.util.concurrent.Executor)}). A
+     * dedicated executor keeps the protocol timing (e.g. retransmissions) accurate no matter how long the
+     * {@link Webresource}s take. By default, requests are processed by the threads of {@link #getExecutor()}.
+     *
+     * @param resourceExecutor the {@link java.util.concurrent.Executor} to process inbound requests with (e.g.
+     *                         {@link de.uzl.itm.ncoap.application.ResourceExecutors#newVirtualThreadPerRequestExecutor()})
+     *                         or <code>null</code> to process requests by {@link #getExecutor()}
+     */
+    public void setResourceExecutor(Executor resourceExecutor) {
+        this.getRequestDispatcher().setResourceExecutor(resourceExecutor);
+    }
+
     private RequestDispatcher getRequestDispatcher() {
         return getChannel().getPipeline().get(RequestDispatcher.class);
     }
@@ -224,18 +390,34 @@ public class CoapEndpoint extends AbstractCoapApplication {
         this.getRequestDispatcher().shutdownWebresource(uriPath);
     }
 
+    /**
+     * Sets the maximum time to await pending message exchanges (i.e. responses to inbound requests, unacknowledged
+     * confirmable responses and shutdown notifications to observers) upon {@link #shutdown()} (see
+     * {@link RequestDispatcher#setShutdownTimeout(long)}).
+     *
+     * @param timeoutMillis the maximum time (in milliseconds) to await pending message exchanges upon shutdown
+     */
+    public void setShutdownTimeout(long timeoutMillis) {
+        this.getRequestDispatcher().setShutdownTimeout(timeoutMillis);
+    }
+
     /**
      * Gracefully shuts down the endpoint by sequentially shutting down all its components, i.e. the registered
      * {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s and the
-     * {@link org.jboss.netty.channel.socket.DatagramChannel} to write and receive messages.
+     * {@link org.jboss.netty.channel.socket.DatagramChannel} to write and receive messages. The channel is closed as
+     * soon as all pending message exchanges are completed or the shutdown timeout expired (see
+     * {@link #setShutdownTimeout(long)}).
      */
     public ListenableFuture<Void> shutdown() {
         LOG.warn("Shutdown server...");
         final SettableFuture<Void> shutdownFuture = SettableFuture.create();
-        Futures.addCallback(this.requestDispatcher.shutdown(), new FutureCallback<Void>() {
+        ListenableFuture<Void> drainedFuture = this.requestDispatcher.shutdown();
+        // if there were pending message exchanges the channel must not be closed by a thread of the executor
+        Executor callbackExecutor = drainedFuture.isDone() ? MoreExecutors.sameThreadExecutor() : getShutdownExecutor();
+        Futures.addCallback(drainedFuture, new FutureCallback<Void>() {
             @Override
             public void onSuccess(Void aVoid) {
-                ChannelFuture channelClosedFuture = getChannel().close();
+                ChannelFuture channelClosedFuture = closeChannels();
 
                 //Await the closure and let the factory release its external resource to finalize the shutdown
                 channelClosedFuture.addListener(new ChannelFutureListener() {
@@ -259,7 +441,7 @@ public class CoapEndpoint extends AbstractCoapApplication {
             public void onFailure(Throwable throwable) {
                 onSuccess(null);
             }
-        });
+        }, callbackExecutor);
         return shutdownFuture;
     }
 
@@ -26,11 +26,13 @@ package de.uzl.itm.ncoap.application.endpoint;
 
 import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
 //import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock2Handler;
+import de.uzl.itm.ncoap.communication.admission.ServerAdmissionHandler;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock1Handler;
 import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock2Handler;
 import de.uzl.itm.ncoap.communication.blockwise.server.ServerBlock1Handler;
 import de.uzl.itm.ncoap.communication.blockwise.server.ServerBlock2Handler;
+import de.uzl.itm.ncoap.communication.caching.ClientCachingHandler;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
 import de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory;
@@ -71,26 +73,29 @@ public class CoapEndpointChannelPipelineFactory extends CoapChannelPipelineFacto
                              NotFoundHandler notFoundHandler, BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
 
         super(executor);
-        MessageIDFactory factory = new MessageIDFactory(executor);
+        MessageIDFactory factory = new MessageIDFactory(executor, getTransmissionParametersProvider());
 
         // identification
         addChannelHandler(new ClientIdentificationHandler(executor));
         addChannelHandler(new ServerIdentificationHandler(executor));
 
         // client specific handlers
-        addChannelHandler(new ClientOutboundReliabilityHandler(executor, factory));
+        addChannelHandler(new ClientOutboundReliabilityHandler(executor, factory, getPeerRegistry()));
         addChannelHandler(new ClientInboundReliabilityHandler(executor));
         addChannelHandler(new ClientBlock2Handler(executor));
         addChannelHandler(new ClientBlock1Handler(executor));
         addChannelHandler(new ClientObservationHandler(executor));
+        addChannelHandler(new ClientCachingHandler(executor));
         addChannelHandler(new ResponseDispatcher(executor, tokenFactory));
 
         // server specific handlers
         addChannelHandler(new ServerOutboundReliabilityHandler(executor, factory));
-        addChannelHandler(new ServerInboundReliabilityHandler(executor));
+        addChannelHandler(new ServerInboundReliabilityHandler(executor, getTransmissionParametersProvider(),
+                getPeerRegistry()));
         addChannelHandler(new ServerBlock1Handler(executor, maxBlock1Size));
         addChannelHandler(new ServerBlock2Handler(executor, maxBlock2Size));
         addChannelHandler(new ServerObservationHandler(executor));
+        addChannelHandler(new ServerAdmissionHandler(executor, getTransmissionParametersProvider()));
         addChannelHandler(new RequestDispatcher(notFoundHandler, executor));
     }
 
@@ -57,7 +57,9 @@ public class LinkValueList {
         LinkValueList result = new LinkValueList();
         Collection<String> linkValues = getLinkValues(linkValueList);
         for(String linkValue : linkValues) {
-            result.addLinkValue(LinkValue.decode(linkValue));
+            if (!linkValue.isEmpty()) {
+                result.addLinkValue(LinkValue.decode(linkValue));
+            }
         }
         return result;
     }
@@ -27,18 +27,23 @@ package de.uzl.itm.ncoap.application.server;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import de.uzl.itm.ncoap.application.AbstractCoapApplication;
+import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
 import de.uzl.itm.ncoap.application.server.resource.Webresource;
+import de.uzl.itm.ncoap.communication.admission.ServerAdmissionHandler;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
 import de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher;
+import de.uzl.itm.ncoap.communication.loopback.LoopbackNetwork;
 import de.uzl.itm.ncoap.message.CoapRequest;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -174,12 +179,57 @@ public class CoapServer extends AbstractCoapApplication {
     public CoapServer(String name, NotFoundHandler notFoundHandler, InetSocketAddress serverSocket,
                       BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
 
+        this(name, notFoundHandler, serverSocket, maxBlock1Size, maxBlock2Size, 1);
+    }
+
+    /**
+     * <p>Creates a new instance of {@link CoapServer} that receives inbound messages via the given number of
+     * sockets bound to the same socket address (see
+     * {@link #startApplication(CoapChannelPipelineFactory, InetSocketAddress, int)}).</p>
+     *
+     * @param name the name of this {@link CoapServer} (for logging only)
+     * @param notFoundHandler the {@link NotFoundHandler} to handle inbound requests for unknown resources
+     * @param serverSocket the socket address for the server to listen at
+     * @param maxBlock1Size the maximum blocksize for inbound requests
+     * @param maxBlock2Size the maximum blocksize for outbound responses
+     * @param receiveShards the number of sockets to receive inbound messages
+     */
+    public CoapServer(String name, NotFoundHandler notFoundHandler, InetSocketAddress serverSocket,
+                      BlockSize maxBlock1Size, BlockSize maxBlock2Size, int receiveShards) {
+
+        this(name, notFoundHandler, serverSocket, maxBlock1Size, maxBlock2Size, receiveShards, null);
+    }
+
+    /**
+     * <p>Creates a new instance of {@link CoapServer} that is attached to the given {@link LoopbackNetwork} instead
+     * of a real UDP socket, i.e. it is only reachable for applications attached to the same network.</p>
+     *
+     * @param name the name of this {@link CoapServer} (for logging only)
+     * @param notFoundHandler the {@link NotFoundHandler} to handle inbound requests for unknown resources
+     * @param serverSocket the (virtual) socket address for the server to listen at
+     * @param maxBlock1Size the maximum blocksize for inbound requests
+     * @param maxBlock2Size the maximum blocksize for outbound responses
+     * @param network the {@link LoopbackNetwork} to attach this server to
+     */
+    public CoapServer(String name, NotFoundHandler notFoundHandler, InetSocketAddress serverSocket,
+                      BlockSize maxBlock1Size, BlockSize maxBlock2Size, LoopbackNetwork network) {
+
+        this(name, notFoundHandler, serverSocket, maxBlock1Size, maxBlock2Size, 1, network);
+    }
+
+    private CoapServer(String name, NotFoundHandler notFoundHandler, InetSocketAddress serverSocket,
+                      BlockSize maxBlock1Size, BlockSize maxBlock2Size, int receiveShards, LoopbackNetwork network) {
+
         super(name);
 
         CoapServerChannelPipelineFactory pipelineFactory =
                 new CoapServerChannelPipelineFactory(this.getExecutor(), notFoundHandler, maxBlock1Size, maxBlock2Size);
 
-        startApplication(pipelineFactory, serverSocket);
+        if (network == null) {
+            startApplication(pipelineFactory, serverSocket, receiveShards);
+        } else {
+            startApplication(pipelineFactory, serverSocket, network);
+        }
         
         // set the request dispatcher and register .well-known/core
         this.requestDispatcher = getChannel().getPipeline().get(RequestDispatcher.class);
@@ -222,6 +272,40 @@ public class CoapServer extends AbstractCoapApplication {
         this.getRequestDispatcher().registerWebresource(webresource);
     }
 
+    /**
+     * Enables (or disables) the admission control of this {@link CoapServer}, i.e. new requests are answered with
+     * {@link de.uzl.itm.ncoap.message.MessageCode#SERVICE_UNAVAILABLE_503} (or dropped if non-confirmable) as long as
+     * one of the given limits is exceeded (see {@link ServerAdmissionHandler}). Admission control is disabled by
+     * default.
+     *
+     * @param maxInFlightRequests the maximum number of requests being processed at the same time (or
+     *                            <code>0</code> for no limit)
+     * @param maxExecutorLag the maximum lag of the I/O executor in milliseconds (or <code>0</code> for no limit)
+     * @param retryAfter the value of the Max-Age option of 5.03 responses in seconds
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given values is negative
+     */
+    public void setAdmissionControl(int maxInFlightRequests, long maxExecutorLag, long retryAfter)
+            throws IllegalArgumentException {
+        getChannel().getPipeline().get(ServerAdmissionHandler.class).setLimits(
+                maxInFlightRequests, maxExecutorLag, retryAfter
+        );
+    }
+
+    /**
+     * Sets the {@link java.util.concurrent.Executor} to process inbound requests with, i.e. to invoke the
+     * {@link Webresource}s (see {@link RequestDispatcher#setResourceExecutor(java.util.concurrent.Executor)}). A
+     * dedicated executor keeps the protocol timing (e.g. retransmissions) accurate no matter how long the
+     * {@link Webresource}s take. By default, requests are processed by the threads of {@link #getExecutor()}.
+     *
+     * @param resourceExecutor the {@link java.util.concurrent.Executor} to process inbound requests with (e.g.
+     *                         {@link de.uzl.itm.ncoap.application.ResourceExecutors#newVirtualThreadPerRequestExecutor()})
+     *                         or <code>null</code> to process requests by {@link #getExecutor()}
+     */
+    public void setResourceExecutor(Executor resourceExecutor) {
+        this.getRequestDispatcher().setResourceExecutor(resourceExecutor);
+    }
+
     private RequestDispatcher getRequestDispatcher() {
         return getChannel().getPipeline().get(RequestDispatcher.class);
     }
@@ -238,18 +322,34 @@ public class CoapServer extends AbstractCoapApplication {
         this.getRequestDispatcher().shutdownWebresource(uriPath);
     }
 
+    /**
+     * Sets the maximum time to await pending message exchanges (i.e. responses to inbound requests, unacknowledged
+     * confirmable responses and shutdown notifications to observers) upon {@link #shutdown()} (see
+     * {@link RequestDispatcher#setShutdownTimeout(long)}).
+     *
+     * @param timeoutMillis the maximum time (in milliseconds) to await pending message exchanges upon shutdown
+     */
+    public void setShutdownTimeout(long timeoutMillis) {
+        this.getRequestDispatcher().setShutdownTimeout(timeoutMillis);
+    }
+
     /**
      * Gracefully shuts down the server by sequentially shutting down all its components, i.e. the registered
      * {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s and the
-     * {@link org.jboss.netty.channel.socket.DatagramChannel} to write and receive messages.
+     * {@link org.jboss.netty.channel.socket.DatagramChannel} to write and receive messages. The channel is closed as
+     * soon as all pending message exchanges are completed or the shutdown timeout expired (see
+     * {@link #setShutdownTimeout(long)}).
      */
     public ListenableFuture<Void> shutdown() {
         LOG.warn("Shutdown server...");
         final SettableFuture<Void> shutdownFuture = SettableFuture.create();
-        Futures.addCallback(this.requestDispatcher.shutdown(), new FutureCallback<Void>() {
+        ListenableFuture<Void> drainedFuture = this.requestDispatcher.shutdown();
+        // if there were pending message exchanges the channel must not be closed by a thread of the executor
+        Executor callbackExecutor = drainedFuture.isDone() ? MoreExecutors.sameThreadExecutor() : getShutdownExecutor();
+        Futures.addCallback(drainedFuture, new FutureCallback<Void>() {
             @Override
             public void onSuccess(Void aVoid) {
-                ChannelFuture channelClosedFuture = getChannel().close();
+                ChannelFuture channelClosedFuture = closeChannels();
 
                 //Await the closure and let the factory release its external resource to finalize the shutdown
                 channelClosedFuture.addListener(new ChannelFutureListener() {
@@ -274,7 +374,7 @@ public class CoapServer extends AbstractCoapApplication {
             public void onFailure(Throwable throwable) {
                 onSuccess(null);
             }
-        });
+        }, callbackExecutor);
         return shutdownFuture;
     }
 }
\ No newline at end of file
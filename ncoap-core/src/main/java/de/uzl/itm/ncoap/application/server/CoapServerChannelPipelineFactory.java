@@ -25,6 +25,7 @@
 package de.uzl.itm.ncoap.application.server;
 
 import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
+import de.uzl.itm.ncoap.communication.admission.ServerAdmissionHandler;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.blockwise.server.ServerBlock1Handler;
 import de.uzl.itm.ncoap.communication.blockwise.server.ServerBlock2Handler;
@@ -60,11 +61,15 @@ public class CoapServerChannelPipelineFactory extends CoapChannelPipelineFactory
 
         super(executor);
         addChannelHandler(new ServerIdentificationHandler(executor));
-        addChannelHandler(new ServerOutboundReliabilityHandler(executor, new MessageIDFactory(executor)));
-        addChannelHandler(new ServerInboundReliabilityHandler(executor));
+        addChannelHandler(new ServerOutboundReliabilityHandler(executor, new MessageIDFactory(
+                executor, getTransmissionParametersProvider()
+        )));
+        addChannelHandler(new ServerInboundReliabilityHandler(executor, getTransmissionParametersProvider(),
+                getPeerRegistry()));
         addChannelHandler(new ServerBlock1Handler(executor, maxBlock1Size));
         addChannelHandler(new ServerBlock2Handler(executor, maxBlock2Size));
         addChannelHandler(new ServerObservationHandler(executor));
+        addChannelHandler(new ServerAdmissionHandler(executor, getTransmissionParametersProvider()));
         addChannelHandler(new RequestDispatcher(notFoundHandler, executor));
     }
 }
@@ -82,7 +82,8 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
 
 
     /**
-     * Creates a new instance of {@link ObservableWebresource}.
+     * Creates a new instance of {@link ObservableWebresource}. The initial status is set synchronously, i.e. it is
+     * available (and {@link #updateEtag(Object)} was invoked) as soon as this constructor returns.
      *
      * @param uriPath the uriPath this {@link ObservableWebresource} is registered at.
      * @param initialStatus the initial status of this {@link ObservableWebresource}.
@@ -96,7 +97,9 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
         this.linkParams = new LinkedHashMap<>();
         this.statusLock = new ReentrantReadWriteLock();
         this.executor = executor;
-        setResourceStatus(initialStatus, lifetime);
+
+        // there are no observers yet, i.e. there is no need to set the initial status on the executor
+        applyResourceStatus(initialStatus, lifetime);
     }
 
 
@@ -180,12 +183,7 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
                 try{
                     statusLock.writeLock().lock();
 
-                    ObservableWebresource.this.status = status;
-                    ObservableWebresource.this.statusExpiryDate = System.currentTimeMillis() + (lifetime * 1000);
-                    ObservableWebresource.this.updateEtag(status);
-
-                    log.debug("New status of {} successfully set (expires in {} seconds).",
-                            ObservableWebresource.this.getUriPath(), lifetime);
+                    applyResourceStatus(status, lifetime);
 
                     setChanged();
                     notifyObservers(UPDATE);
@@ -200,6 +198,15 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
     }
 
 
+    private void applyResourceStatus(T status, long lifetime) {
+        this.status = status;
+        this.statusExpiryDate = System.currentTimeMillis() + (lifetime * 1000);
+        this.updateEtag(status);
+
+        log.debug("New status of {} successfully set (expires in {} seconds).", this.getUriPath(), lifetime);
+    }
+
+
     /**
      * <p>This method and {@link #getWrappedResourceStatus(java.util.Set)} are the only recommended way to retrieve
      * the actual resource status that is used for a {@link de.uzl.itm.ncoap.message.CoapResponse} to answer an inbound
@@ -28,10 +28,13 @@ import de.uzl.itm.ncoap.communication.events.*;
 //import de.uzl.itm.ncoap.communication.events.client.LazyObservationTerminationEvent;
 import de.uzl.itm.ncoap.communication.events.client.ContinueResponseReceivedEvent;
 import de.uzl.itm.ncoap.communication.events.client.RemoteServerSocketChangedEvent;
+import de.uzl.itm.ncoap.communication.events.client.RequestCancelledEvent;
+import de.uzl.itm.ncoap.communication.events.client.RequestQueueOverflowEvent;
 import de.uzl.itm.ncoap.communication.events.client.ResponseBlockReceivedEvent;
 import de.uzl.itm.ncoap.communication.events.client.TokenReleasedEvent;
 import de.uzl.itm.ncoap.communication.events.server.ObserverAcceptedEvent;
 import de.uzl.itm.ncoap.communication.events.server.RemoteClientSocketChangedEvent;
+import de.uzl.itm.ncoap.communication.events.server.RequestDroppedEvent;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
@@ -102,6 +105,12 @@ public abstract class AbstractCoapChannelHandler extends SimpleChannelHandler{
             ((ContinueResponseReceivedEvent.Handler) this).handleEvent((ContinueResponseReceivedEvent) message);
         } else if (message instanceof MessageIDReleasedEvent && this instanceof MessageIDReleasedEvent.Handler) {
             ((MessageIDReleasedEvent.Handler) this).handleEvent((MessageIDReleasedEvent) message);
+        } else if (message instanceof RequestQueueOverflowEvent && this instanceof RequestQueueOverflowEvent.Handler) {
+            ((RequestQueueOverflowEvent.Handler) this).handleEvent((RequestQueueOverflowEvent) message);
+        } else if (message instanceof RequestCancelledEvent && this instanceof RequestCancelledEvent.Handler) {
+            ((RequestCancelledEvent.Handler) this).handleEvent((RequestCancelledEvent) message);
+        } else if (message instanceof RequestDroppedEvent && this instanceof RequestDroppedEvent.Handler) {
+            ((RequestDroppedEvent.Handler) this).handleEvent((RequestDroppedEvent) message);
         }
 
         ctx.sendUpstream(me);
@@ -129,7 +138,8 @@ public abstract class AbstractCoapChannelHandler extends SimpleChannelHandler{
         Object message = me.getMessage();
 
         if (me.getMessage() instanceof CoapMessage) {
-            if (!handleOutboundCoapMessage((CoapMessage) message, (InetSocketAddress) me.getRemoteAddress())) {
+            InetSocketAddress remoteSocket = (InetSocketAddress) me.getRemoteAddress();
+            if (!handleOutboundCoapMessage((CoapMessage) message, remoteSocket, me.getFuture())) {
                 me.getFuture().cancel();
                 return;
             }
@@ -171,6 +181,25 @@ public abstract class AbstractCoapChannelHandler extends SimpleChannelHandler{
     public abstract boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket);
 
 
+    /**
+     * This method is called by the framework for every outbound {@link CoapMessage}. Handlers that hold back a
+     * message to send it later (e.g. to comply with NSTART) override this method to complete the given future
+     * once the message was finally sent or discarded. The default implementation invokes
+     * {@link #handleOutboundCoapMessage(CoapMessage, InetSocketAddress)}.
+     *
+     * @param coapMessage the {@link CoapMessage} that is to be sent
+     * @param remoteSocket the recipient of the message
+     * @param future the {@link ChannelFuture} to be set with the result of the message writing process
+     *
+     * @return <code>true</code> if this {@link AbstractCoapChannelHandler} is to be
+     * further processed by the next handler(s) and <code>false</code> otherwise.
+     */
+    protected boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket,
+                                                ChannelFuture future) {
+        return handleOutboundCoapMessage(coapMessage, remoteSocket);
+    }
+
+
     /**
      * Triggers an internal event, i.e. some extension of {@link AbstractMessageExchangeEvent}
      *
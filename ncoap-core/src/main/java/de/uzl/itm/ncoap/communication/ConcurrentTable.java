@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A thread-safe table with two keys (row and column) to keep the state of message exchanges, e.g. with the remote
+ * socket as row key and the token or message ID as column key.</p>
+ *
+ * <p>Reads do not acquire any lock. Writes acquire one of several locks (stripes), selected by the hash code of the
+ * row key, i.e. writes concerning different remote endpoints usually do not contend for the same lock. The cells of
+ * a row are kept in a {@link ConcurrentHashMap} which is removed from the table as soon as it becomes empty.</p>
+ *
+ * <p>All operations concerning a single cell are atomic. Operations concerning several cells (e.g. {@link #row(Object)})
+ * return a snapshot.</p>
+ *
+ * @param <R> the type of the row keys
+ * @param <C> the type of the column keys
+ * @param <V> the type of the values
+ */
+public class ConcurrentTable<R, C, V> {
+
+    private final ConcurrentMap<R, ConcurrentMap<C, V>> rows;
+    private final Object[] stripes;
+    private final AtomicInteger size;
+
+    /**
+     * Creates a new instance of {@link ConcurrentTable} with four stripes per available processor.
+     */
+    public ConcurrentTable() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new instance of {@link ConcurrentTable}.
+     *
+     * @param concurrencyLevel the estimated number of threads concurrently writing into this table (rounded up to the
+     *                         next power of two to get the number of stripes)
+     *
+     * @throws java.lang.IllegalArgumentException if the given concurrency level is not positive
+     */
+    public ConcurrentTable(int concurrencyLevel) throws IllegalArgumentException {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("Concurrency level must be positive (was " + concurrencyLevel + ")");
+        }
+        int stripeCount = Integer.highestOneBit(concurrencyLevel);
+        if (stripeCount < concurrencyLevel) {
+            stripeCount <<= 1;
+        }
+
+        this.stripes = new Object[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Object();
+        }
+        this.rows = new ConcurrentHashMap<>(16, 0.75f, stripeCount);
+        this.size = new AtomicInteger(0);
+    }
+
+    /**
+     * Returns the value of the given cell or <code>null</code> if there is no such cell.
+     *
+     * @param rowKey the row key
+     * @param columnKey the column key
+     *
+     * @return the value of the given cell or <code>null</code> if there is no such cell
+     */
+    public V get(R rowKey, C columnKey) {
+        Map<C, V> row = this.rows.get(rowKey);
+        return row == null ? null : row.get(columnKey);
+    }
+
+    /**
+     * Returns <code>true</code> if there is a value for the given cell and <code>false</code> otherwise.
+     *
+     * @param rowKey the row key
+     * @param columnKey the column key
+     *
+     * @return <code>true</code> if there is a value for the given cell and <code>false</code> otherwise
+     */
+    public boolean contains(R rowKey, C columnKey) {
+        return get(rowKey, columnKey) != null;
+    }
+
+    /**
+     * Sets the value of the given cell.
+     *
+     * @param rowKey the row key
+     * @param columnKey the column key
+     * @param value the value
+     *
+     * @return the previous value of the given cell or <code>null</code> if there was no such cell
+     */
+    public V put(R rowKey, C columnKey, V value) {
+        synchronized (getStripe(rowKey)) {
+            V previous = getOrCreateRow(rowKey).put(columnKey, value);
+            if (previous == null) {
+                this.size.incrementAndGet();
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Sets the value of the given cell if there is no such cell yet.
+     *
+     * @param rowKey the row key
+     * @param columnKey the column key
+     * @param value the value
+     *
+     * @return the current value of the given cell (i.e. the given value was not set) or <code>null</code> if there
+     * was no such cell (i.e. the given value was set)
+     */
+    public V putIfAbsent(R rowKey, C columnKey, V value) {
+        V current = get(rowKey, columnKey);
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (getStripe(rowKey)) {
+            current = getOrCreateRow(rowKey).putIfAbsent(columnKey, value);
+            if (current == null) {
+                this.size.incrementAndGet();
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Removes the given cell.
+     *
+     * @param rowKey the row key
+     * @param columnKey the column key
+     *
+     * @return the removed value or <code>null</code> if there was no such cell
+     */
+    public V remove(R rowKey, C columnKey) {
+        if (!this.rows.containsKey(rowKey)) {
+            return null;
+        }
+
+        synchronized (getStripe(rowKey)) {
+            Map<C, V> row = this.rows.get(rowKey);
+            if (row == null) {
+                return null;
+            }
+            V previous = row.remove(columnKey);
+            if (previous != null) {
+                this.size.decrementAndGet();
+                removeIfEmpty(rowKey, row);
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Removes the given cell if its value equals the given value.
+     *
+     * @param rowKey the row key
+     * @param columnKey the column key
+     * @param value the expected value
+     *
+     * @return <code>true</code> if the cell was removed and <code>false</code> otherwise
+     */
+    public boolean remove(R rowKey, C columnKey, V value) {
+        V current = get(rowKey, columnKey);
+        if (current == null || !current.equals(value)) {
+            return false;
+        }
+
+        synchronized (getStripe(rowKey)) {
+            ConcurrentMap<C, V> row = this.rows.get(rowKey);
+            if (row != null && row.remove(columnKey, value)) {
+                this.size.decrementAndGet();
+                removeIfEmpty(rowKey, row);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sets the value of the given cell if its current value equals the given previous value.
+     *
+     * @param rowKey the row key
+     * @param columnKey the column key
+     * @param previousValue the expected current value
+     * @param value the value to be set
+     *
+     * @return <code>true</code> if the value was set and <code>false</code> otherwise
+     */
+    public boolean replace(R rowKey, C columnKey, V previousValue, V value) {
+        ConcurrentMap<C, V> row = this.rows.get(rowKey);
+        return row != null && row.replace(columnKey, previousValue, value);
+    }
+
+    /**
+     * Returns a snapshot of the cells of the given row as {@link Map} from column keys to values.
+     *
+     * @param rowKey the row key
+     *
+     * @return a snapshot of the cells of the given row (possibly empty but never <code>null</code>)
+     */
+    public Map<C, V> row(R rowKey) {
+        Map<C, V> row = this.rows.get(rowKey);
+        if (row == null) {
+            return Collections.emptyMap();
+        }
+        return new HashMap<>(row);
+    }
+
+    /**
+     * Returns a snapshot of the keys of all (non-empty) rows.
+     *
+     * @return a snapshot of the keys of all rows (possibly empty but never <code>null</code>)
+     */
+    public Set<R> rowKeySet() {
+        return new HashSet<>(this.rows.keySet());
+    }
+
+    /**
+     * Returns a snapshot of the values of all cells.
+     *
+     * @return a snapshot of the values of all cells (possibly empty but never <code>null</code>)
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(this.size.get());
+        for (Map<C, V> row : this.rows.values()) {
+            values.addAll(row.values());
+        }
+        return values;
+    }
+
+    /**
+     * Returns the number of cells.
+     *
+     * @return the number of cells
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Returns <code>true</code> if there are no cells and <code>false</code> otherwise.
+     *
+     * @return <code>true</code> if there are no cells and <code>false</code> otherwise
+     */
+    public boolean isEmpty() {
+        return this.size.get() == 0;
+    }
+
+
+    private ConcurrentMap<C, V> getOrCreateRow(R rowKey) {
+        ConcurrentMap<C, V> row = this.rows.get(rowKey);
+        if (row == null) {
+            row = new ConcurrentHashMap<>(4, 0.75f, 1);
+            this.rows.put(rowKey, row);
+        }
+        return row;
+    }
+
+    private void removeIfEmpty(R rowKey, Map<C, V> row) {
+        if (row.isEmpty()) {
+            this.rows.remove(rowKey);
+        }
+    }
+
+    private Object getStripe(R rowKey) {
+        int hash = rowKey.hashCode();
+        hash ^= (hash >>> 16);
+        return this.stripes[hash & (this.stripes.length - 1)];
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParametersProvider;
+import de.uzl.itm.ncoap.message.CoapMessage;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The {@link PeerRegistry} assigns a compact integer ID to each remote socket (peer). The ID is assigned once per
+ * inbound message (by the {@link de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder}) and carried with the
+ * decoded {@link CoapMessage} (see {@link CoapMessage#getPeerID()}). Tables for the state of message exchanges can
+ * thus use primitive keys (see {@link #getExchangeKey(int, int)}) instead of hashing and retaining
+ * {@link InetSocketAddress} instances for every exchange.</p>
+ *
+ * <p>The ID of a peer is released after some time without any lookup (see {@link #getIdleTimeout()}), i.e. not
+ * before the state of all message exchanges with that peer (and thus keyed by its ID) expired. IDs are assigned in
+ * ascending order, i.e. a released ID is not assigned again before all other (about 2<sup>31</sup>) IDs were
+ * assigned.</p>
+ */
+public class PeerRegistry {
+
+    /**
+     * The peer ID of messages that were not (yet) assigned to a peer ({@value #UNDEFINED_PEER_ID})
+     */
+    public static final int UNDEFINED_PEER_ID = -1;
+
+    /**
+     * The number of milliseconds ({@value #PEER_IDLE_MARGIN_MILLIS}) the ID of a peer is retained in addition to the
+     * largest lifetime of a message exchange
+     */
+    public static final long PEER_IDLE_MARGIN_MILLIS = 60000;
+
+    private final TransmissionParametersProvider parametersProvider;
+    private final AtomicInteger nextPeerID;
+    private final AtomicLong nextRemoval;
+    private final ConcurrentMap<InetSocketAddress, Peer> peers;
+    private final ConcurrentMap<Integer, InetSocketAddress> remoteSockets;
+
+    /**
+     * Creates a new instance of {@link PeerRegistry} for message exchanges with the default transmission parameters.
+     */
+    public PeerRegistry() {
+        this(new TransmissionParametersProvider());
+    }
+
+    /**
+     * Creates a new instance of {@link PeerRegistry}.
+     *
+     * @param parametersProvider the {@link TransmissionParametersProvider} providing the transmission parameters of
+     *                           the message exchanges with the registered peers (i.e. their lifetimes)
+     */
+    public PeerRegistry(TransmissionParametersProvider parametersProvider) {
+        this.parametersProvider = parametersProvider;
+        this.nextPeerID = new AtomicInteger(0);
+        this.nextRemoval = new AtomicLong(System.currentTimeMillis() + PEER_IDLE_MARGIN_MILLIS);
+        this.peers = new ConcurrentHashMap<>();
+        this.remoteSockets = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the ID of the given peer (and assigns a new ID if there is none yet).
+     *
+     * @param remoteSocket the socket address of the peer
+     *
+     * @return the ID of the given peer
+     */
+    public int getPeerID(InetSocketAddress remoteSocket) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Peer peer = this.peers.get(remoteSocket);
+            if (peer == null) {
+                removeIdlePeers(now);
+                Peer newPeer = new Peer(this.nextPeerID.getAndIncrement() & Integer.MAX_VALUE, now);
+                peer = this.peers.putIfAbsent(remoteSocket, newPeer);
+                if (peer == null) {
+                    this.remoteSockets.put(newPeer.peerID, remoteSocket);
+                    return newPeer.peerID;
+                }
+            }
+
+            if (peer.touch(now)) {
+                return peer.peerID;
+            }
+            // the peer was removed as idle concurrently (retry with a new ID)
+            this.peers.remove(remoteSocket, peer);
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds without any lookup until the ID of a peer is released, i.e. the largest
+     * lifetime of a message exchange (see {@link TransmissionParametersProvider#getMaxLifetime()}) plus
+     * {@link #PEER_IDLE_MARGIN_MILLIS}.
+     *
+     * @return the number of milliseconds without any lookup until the ID of a peer is released
+     */
+    public long getIdleTimeout() {
+        return this.parametersProvider.getMaxLifetime() + PEER_IDLE_MARGIN_MILLIS;
+    }
+
+    /**
+     * Returns the ID of the peer the given {@link CoapMessage} was received from (if set by the decoder) or the ID of
+     * the given peer otherwise.
+     *
+     * @param coapMessage the {@link CoapMessage} that was received from or is to be sent to the given peer
+     * @param remoteSocket the socket address of the peer
+     *
+     * @return the ID of the peer the given {@link CoapMessage} was received from or is to be sent to
+     */
+    public int getPeerID(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+        int peerID = coapMessage.getPeerID();
+        return peerID == UNDEFINED_PEER_ID ? getPeerID(remoteSocket) : peerID;
+    }
+
+    /**
+     * Returns the socket address of the peer with the given ID or <code>null</code> if the ID is not assigned.
+     *
+     * @param peerID the ID of the peer
+     *
+     * @return the socket address of the peer with the given ID or <code>null</code> if the ID is not assigned
+     */
+    public InetSocketAddress getRemoteSocket(int peerID) {
+        return this.remoteSockets.get(peerID);
+    }
+
+    /**
+     * Returns the number of peers with an assigned ID.
+     *
+     * @return the number of peers with an assigned ID
+     */
+    public long size() {
+        return this.peers.size();
+    }
+
+    /**
+     * Returns a key for the message exchange with the given message ID and the given peer, i.e. the peer ID in the
+     * upper and the message ID in the lower 32 bits.
+     *
+     * @param peerID the ID of the peer
+     * @param messageID the message ID
+     *
+     * @return a key for the message exchange with the given message ID and the given peer
+     */
+    public static long getExchangeKey(int peerID, int messageID) {
+        return ((long) peerID << 32) | (messageID & 0xFFFFFFFFL);
+    }
+
+    // removes the peers without any lookup within the idle timeout (at most once per margin, i.e. only when new peers
+    // are assigned, as idle peers do not matter as long as the number of peers does not grow)
+    private void removeIdlePeers(long now) {
+        long nextRemoval = this.nextRemoval.get();
+        if (now < nextRemoval || !this.nextRemoval.compareAndSet(nextRemoval, now + PEER_IDLE_MARGIN_MILLIS)) {
+            return;
+        }
+
+        long threshold = now - getIdleTimeout();
+        for (Map.Entry<InetSocketAddress, Peer> entry : this.peers.entrySet()) {
+            Peer peer = entry.getValue();
+            if (peer.remove(threshold)) {
+                this.peers.remove(entry.getKey(), peer);
+                this.remoteSockets.remove(peer.peerID, entry.getKey());
+            }
+        }
+    }
+
+
+    private static class Peer {
+
+        // the last access of a removed peer (i.e. the ID must not be returned anymore)
+        private static final long REMOVED = -1;
+
+        private final int peerID;
+        private final AtomicLong lastAccess;
+
+        private Peer(int peerID, long lastAccess) {
+            this.peerID = peerID;
+            this.lastAccess = new AtomicLong(lastAccess);
+        }
+
+        // returns false if the peer was removed, i.e. a lookup is either recorded or the removal is noticed
+        private boolean touch(long now) {
+            while (true) {
+                long lastAccess = this.lastAccess.get();
+                if (lastAccess == REMOVED) {
+                    return false;
+                } else if (lastAccess >= now || this.lastAccess.compareAndSet(lastAccess, now)) {
+                    return true;
+                }
+            }
+        }
+
+        // returns true if the peer was removed, i.e. if there was no lookup since the given threshold
+        private boolean remove(long threshold) {
+            long lastAccess = this.lastAccess.get();
+            return lastAccess != REMOVED && lastAccess < threshold
+                    && this.lastAccess.compareAndSet(lastAccess, REMOVED);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.admission;
+
+import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.ConcurrentTable;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.events.server.RequestDroppedEvent;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParametersProvider;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The {@link ServerAdmissionHandler} protects a server against overload. It is located right below the
+ * {@link de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher} and watches</p>
+ * <ul>
+ *     <li>the number of inbound requests that were passed to the
+ *     {@link de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher} but not yet answered, and</li>
+ *     <li>the lag of the {@link ScheduledExecutorService}, i.e. the delay between the scheduled and the actual
+ *     execution time of a periodic probe task.</li>
+ * </ul>
+ *
+ * <p>If any of these values exceeds its limit (see {@link #setLimits(int, long, long)}), new confirmable requests
+ * are immediately answered with {@link MessageCode#SERVICE_UNAVAILABLE_503} and a Max-Age option as back-off hint
+ * and new non-confirmable requests are dropped. Admission control is disabled by default.</p>
+ *
+ * <p>Requests that were not answered within their EXCHANGE_LIFETIME (e.g. as a resource never completed the response
+ * future) are no longer counted as in flight.</p>
+ */
+public class ServerAdmissionHandler extends AbstractCoapChannelHandler {
+
+    /**
+     * The default value of the Max-Age option of {@link MessageCode#SERVICE_UNAVAILABLE_503} responses
+     * ({@value #DEFAULT_RETRY_AFTER} seconds)
+     */
+    public static final long DEFAULT_RETRY_AFTER = 5;
+
+    private static final long PROBE_INTERVAL_MILLIS = 100;
+
+    private static Logger LOG = LoggerFactory.getLogger(ServerAdmissionHandler.class.getName());
+
+    private TransmissionParametersProvider parametersProvider;
+
+    // column keys are tokens or (for requests without token) message IDs, values are the expiry times
+    private ConcurrentTable<InetSocketAddress, Object, Long> inFlightRequests;
+    private AtomicLong nextExpiryCheck;
+    private AtomicBoolean probing;
+    private AtomicLong rejectedRequests;
+
+    private volatile int maxInFlightRequests;
+    private volatile long maxExecutorLag;
+    private volatile long retryAfter;
+    private volatile long executorLag;
+
+
+    /**
+     * Creates a new (disabled) instance of {@link ServerAdmissionHandler} using {@link TransmissionParameters#DEFAULT}
+     * for all remote endpoints.
+     *
+     * @param executor the {@link ScheduledExecutorService} to execute the tasks of this handler (and to be watched)
+     */
+    public ServerAdmissionHandler(ScheduledExecutorService executor) {
+        this(executor, new TransmissionParametersProvider());
+    }
+
+
+    /**
+     * Creates a new (disabled) instance of {@link ServerAdmissionHandler}
+     *
+     * @param executor the {@link ScheduledExecutorService} to execute the tasks of this handler (and to be watched)
+     * @param parametersProvider the {@link TransmissionParametersProvider} to provide the EXCHANGE_LIFETIME per
+     *                           remote endpoint, i.e. how long unanswered requests are considered to be in flight
+     */
+    public ServerAdmissionHandler(ScheduledExecutorService executor, TransmissionParametersProvider parametersProvider) {
+        super(executor);
+        this.parametersProvider = parametersProvider;
+        this.inFlightRequests = new ConcurrentTable<>();
+        this.nextExpiryCheck = new AtomicLong(0);
+        this.probing = new AtomicBoolean(false);
+        this.rejectedRequests = new AtomicLong(0);
+        this.retryAfter = DEFAULT_RETRY_AFTER;
+    }
+
+
+    /**
+     * Sets the limits to reject inbound requests.
+     *
+     * @param maxInFlightRequests the maximum number of requests being processed at the same time (or
+     *                            <code>0</code> for no limit)
+     * @param maxExecutorLag the maximum lag of the {@link ScheduledExecutorService} in milliseconds (or
+     *                       <code>0</code> for no limit)
+     * @param retryAfter the value of the Max-Age option of {@link MessageCode#SERVICE_UNAVAILABLE_503} responses in
+     *                   seconds, i.e. the time clients are supposed to wait before sending the request again
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given values is negative
+     */
+    public void setLimits(int maxInFlightRequests, long maxExecutorLag, long retryAfter)
+            throws IllegalArgumentException {
+
+        if (maxInFlightRequests < 0 || maxExecutorLag < 0 || retryAfter < 0) {
+            throw new IllegalArgumentException("Limits must not be negative (but were: " + maxInFlightRequests
+                    + ", " + maxExecutorLag + ", " + retryAfter + ")");
+        }
+
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.maxExecutorLag = maxExecutorLag;
+        this.retryAfter = retryAfter;
+
+        if (maxExecutorLag > 0 && this.probing.compareAndSet(false, true)) {
+            scheduleProbe();
+        }
+    }
+
+
+    /**
+     * Returns the number of requests that were passed to the
+     * {@link de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher} but not yet answered (including
+     * expired requests that were not yet removed)
+     *
+     * @return the number of requests that were passed to the
+     * {@link de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher} but not yet answered
+     */
+    public int getInFlightRequests() {
+        return this.inFlightRequests.size();
+    }
+
+
+    /**
+     * Returns the number of requests that were rejected (or dropped) due to overload
+     *
+     * @return the number of requests that were rejected (or dropped) due to overload
+     */
+    public long getRejectedRequests() {
+        return this.rejectedRequests.get();
+    }
+
+
+    @Override
+    public boolean handleInboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+        if (!(coapMessage instanceof CoapRequest)) {
+            return true;
+        }
+
+        int maxInFlightRequests = this.maxInFlightRequests;
+        if (maxInFlightRequests > 0 && this.inFlightRequests.size() >= maxInFlightRequests) {
+            removeExpiredRequests();
+        }
+        if (maxInFlightRequests > 0 && this.inFlightRequests.size() >= maxInFlightRequests) {
+            LOG.warn("Reject request from \"{}\" ({} requests in flight).", remoteSocket,
+                    this.inFlightRequests.size());
+            rejectRequest((CoapRequest) coapMessage, remoteSocket);
+            return false;
+        }
+
+        long maxExecutorLag = this.maxExecutorLag;
+        if (maxExecutorLag > 0 && this.executorLag > maxExecutorLag) {
+            LOG.warn("Reject request from \"{}\" (executor lag: {} ms).", remoteSocket, this.executorLag);
+            rejectRequest((CoapRequest) coapMessage, remoteSocket);
+            return false;
+        }
+
+        if (maxInFlightRequests > 0) {
+            long lifetime = this.parametersProvider.getTransmissionParameters(remoteSocket).getExchangeLifetime();
+            this.inFlightRequests.put(remoteSocket, getRequestKey(coapMessage),
+                    System.currentTimeMillis() + lifetime);
+        }
+        return true;
+    }
+
+
+    @Override
+    public boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+        if (coapMessage instanceof CoapResponse) {
+            this.inFlightRequests.remove(remoteSocket, getRequestKey(coapMessage));
+        }
+        return true;
+    }
+
+
+    private static Object getRequestKey(CoapMessage coapMessage) {
+        // requests without token are distinguished by their message ID (which the response is sent with)
+        Token token = coapMessage.getToken();
+        return token.getBytes().length > 0 ? token : Integer.valueOf(coapMessage.getMessageID());
+    }
+
+
+    private void removeExpiredRequests() {
+        // at most once per probe interval, i.e. not for every request during overload
+        long now = System.currentTimeMillis();
+        long nextExpiryCheck = this.nextExpiryCheck.get();
+        if (now < nextExpiryCheck
+                || !this.nextExpiryCheck.compareAndSet(nextExpiryCheck, now + PROBE_INTERVAL_MILLIS)) {
+            return;
+        }
+
+        for (InetSocketAddress remoteSocket : this.inFlightRequests.rowKeySet()) {
+            for (Map.Entry<Object, Long> request : this.inFlightRequests.row(remoteSocket).entrySet()) {
+                if (request.getValue() < now
+                        && this.inFlightRequests.remove(remoteSocket, request.getKey(), request.getValue())) {
+                    LOG.warn("Request from \"{}\" was not answered within EXCHANGE_LIFETIME (key: {}).",
+                            remoteSocket, request.getKey());
+                }
+            }
+        }
+    }
+
+
+    private void rejectRequest(CoapRequest coapRequest, InetSocketAddress remoteSocket) {
+        this.rejectedRequests.incrementAndGet();
+        if (coapRequest.getMessageType() == MessageType.NON) {
+            triggerEvent(new RequestDroppedEvent(
+                    remoteSocket, coapRequest.getMessageID(), coapRequest.getToken()
+            ), true);
+        } else {
+            CoapResponse coapResponse = CoapResponse.createErrorResponse(coapRequest.getMessageType(),
+                    MessageCode.SERVICE_UNAVAILABLE_503, "Server is overloaded (try again later).");
+            coapResponse.setMaxAge(this.retryAfter);
+            coapResponse.setMessageID(coapRequest.getMessageID());
+            coapResponse.setPeerID(coapRequest.getPeerID());
+            coapResponse.setToken(coapRequest.getToken());
+            sendCoapMessage(coapResponse, remoteSocket);
+        }
+    }
+
+
+    private void scheduleProbe() {
+        final long scheduled = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_INTERVAL_MILLIS);
+        try {
+            scheduleTask(new Runnable() {
+                @Override
+                public void run() {
+                    executorLag = Math.max(0, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduled));
+                    if (maxExecutorLag > 0) {
+                        scheduleProbe();
+                    } else {
+                        executorLag = 0;
+                        probing.set(false);
+                    }
+                }
+            }, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Executor rejected lag probe (shutdown?).");
+            this.probing.set(false);
+        }
+    }
+}
@@ -24,9 +24,9 @@
  */
 package de.uzl.itm.ncoap.communication.blockwise.client;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.primitives.Bytes;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.ConcurrentTable;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.client.BlockwiseResponseTransferFailedEvent;
 import de.uzl.itm.ncoap.communication.events.client.RemoteServerSocketChangedEvent;
@@ -47,7 +47,6 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * <p>The {@link ClientBlock2Handler} handles the {@link Option#BLOCK_2} for
@@ -68,8 +67,7 @@ public class ClientBlock2Handler extends AbstractCoapChannelHandler implements T
 
     private static Logger LOG = LoggerFactory.getLogger(ClientBlock2Handler.class.getName());
 
-    private HashBasedTable<InetSocketAddress, Token, ClientBlock2Helper> block2HelperTable;
-    private ReentrantReadWriteLock lock;
+    private ConcurrentTable<InetSocketAddress, Token, ClientBlock2Helper> block2HelperTable;
 
     /**
      * Creates a new instance of {@link ClientBlock2Handler}
@@ -78,8 +76,7 @@ public class ClientBlock2Handler extends AbstractCoapChannelHandler implements T
      */
     public ClientBlock2Handler(ScheduledExecutorService executor) {
         super(executor);
-        this.block2HelperTable = HashBasedTable.create();
-        this.lock = new ReentrantReadWriteLock();
+        this.block2HelperTable = new ConcurrentTable<>();
     }
 
     @Override
@@ -139,34 +136,29 @@ public class ClientBlock2Handler extends AbstractCoapChannelHandler implements T
 
     private byte[] addResponseBlock(InetSocketAddress remoteSocket, Token token, byte[] etag,
                                            ChannelBuffer responsePayloadBlock) {
-        try {
-            this.lock.writeLock().lock();
-            ClientBlock2Helper helper = this.block2HelperTable.get(remoteSocket, token);
-            if (helper != null) {
-                byte[] result =  helper.addResponseBlock(responsePayloadBlock, etag);
-                LOG.debug("Payload (Concatenation of blocks received so far):\n{}", new String(result, CoapMessage.CHARSET));
-                return result;
-            } else {
-//                return ChannelBuffers.EMPTY_BUFFER;
-                return new byte[0];
+        ClientBlock2Helper helper = this.block2HelperTable.get(remoteSocket, token);
+        if (helper != null) {
+            byte[] result;
+            synchronized (helper) {
+                result = helper.addResponseBlock(responsePayloadBlock, etag);
             }
-        } finally {
-            this.lock.writeLock().unlock();
+            LOG.debug("Payload (Concatenation of blocks received so far):\n{}", new String(result, CoapMessage.CHARSET));
+            return result;
+        } else {
+//            return ChannelBuffers.EMPTY_BUFFER;
+            return new byte[0];
         }
     }
 
     private CoapRequest getRequestForResponseBlock(InetSocketAddress remoteSocket, Token token,
                                                    long block2num, long block2szx) {
-        try {
-            this.lock.readLock().lock();
-            ClientBlock2Helper helper = this.block2HelperTable.get(remoteSocket, token);
-            if (helper != null) {
+        ClientBlock2Helper helper = this.block2HelperTable.get(remoteSocket, token);
+        if (helper != null) {
+            synchronized (helper) {
                 return helper.getCoapRequestForResponseBlock(block2num, block2szx);
-            } else {
-                return null;
             }
-        } finally {
-            this.lock.readLock().unlock();
+        } else {
+            return null;
         }
     }
 
@@ -186,41 +178,28 @@ public class ClientBlock2Handler extends AbstractCoapChannelHandler implements T
 
 
     private ClientBlock2Helper addHelper(CoapRequest coapRequest, InetSocketAddress remoteSocket) {
-        try {
-            this.lock.writeLock().lock();
-            ClientBlock2Helper clientBlock2Helper = new ClientBlock2Helper(coapRequest);
-            this.block2HelperTable.put(remoteSocket, coapRequest.getToken(), clientBlock2Helper);
-            return clientBlock2Helper;
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+        ClientBlock2Helper clientBlock2Helper = new ClientBlock2Helper(coapRequest);
+        this.block2HelperTable.put(remoteSocket, coapRequest.getToken(), clientBlock2Helper);
+        return clientBlock2Helper;
     }
 
     private void resetHelper(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.writeLock().lock();
-            ClientBlock2Helper clientBlock2Helper = this.block2HelperTable.get(remoteSocket, token);
-            if (clientBlock2Helper != null) {
+        ClientBlock2Helper clientBlock2Helper = this.block2HelperTable.get(remoteSocket, token);
+        if (clientBlock2Helper != null) {
+            synchronized (clientBlock2Helper) {
                 clientBlock2Helper.reset();
-                LOG.debug("BLOCK2 helper reseted (Remote Socket: {}, Token: {})", remoteSocket, token);
-            } else {
-                LOG.debug("No BLOCK2 helper found to be reseted (Remote Socket: {}, Token: {})", remoteSocket, token);
             }
-        } finally {
-            this.lock.writeLock().unlock();
+            LOG.debug("BLOCK2 helper reseted (Remote Socket: {}, Token: {})", remoteSocket, token);
+        } else {
+            LOG.debug("No BLOCK2 helper found to be reseted (Remote Socket: {}, Token: {})", remoteSocket, token);
         }
     }
 
     private void removeHelper(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.writeLock().lock();
-            if (this.block2HelperTable.remove(remoteSocket, token) == null) {
-                LOG.debug("No BLOCK2 helper found to be removed (Remote Socket: {}, Token: {})", remoteSocket, token);
-            } else {
-                LOG.debug("Successfully removed BLOCK2 helper (Remote Socket: {}, Token: {})", remoteSocket, token);
-            }
-        } finally {
-            this.lock.writeLock().unlock();
+        if (this.block2HelperTable.remove(remoteSocket, token) == null) {
+            LOG.debug("No BLOCK2 helper found to be removed (Remote Socket: {}, Token: {})", remoteSocket, token);
+        } else {
+            LOG.debug("Successfully removed BLOCK2 helper (Remote Socket: {}, Token: {})", remoteSocket, token);
         }
     }
 
@@ -228,23 +207,11 @@ public class ClientBlock2Handler extends AbstractCoapChannelHandler implements T
     public void handleEvent(RemoteServerSocketChangedEvent event) {
         InetSocketAddress previous = event.getPreviousRemoteSocket();
         Token token = event.getToken();
-        try {
-            this.lock.readLock().lock();
-            if (!this.block2HelperTable.contains(previous, token)) {
-                return;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
-
-        InetSocketAddress actual = event.getRemoteSocket();
-        try {
-            this.lock.writeLock().lock();
-            ClientBlock2Helper helper = this.block2HelperTable.remove(previous, token);
-            this.block2HelperTable.put(event.getRemoteSocket(), token, helper);
+        ClientBlock2Helper helper = this.block2HelperTable.remove(previous, token);
+        if (helper != null) {
+            InetSocketAddress actual = event.getRemoteSocket();
+            this.block2HelperTable.put(actual, token, helper);
             LOG.debug("Successfully updated remote socket (previous: {}, actual: {})", previous, actual);
-        } finally {
-            this.lock.writeLock().unlock();
         }
     }
 
@@ -24,8 +24,8 @@
  */
 package de.uzl.itm.ncoap.communication.blockwise.server;
 
-import com.google.common.collect.HashBasedTable;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.ConcurrentTable;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.message.CoapMessage;
@@ -45,7 +45,6 @@ import static de.uzl.itm.ncoap.message.MessageCode.*;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * <p>The {@link ServerBlock2Handler} handles the {@link Option#BLOCK_2} for
@@ -63,8 +62,7 @@ public class ServerBlock2Handler extends AbstractCoapChannelHandler {
     private static Logger LOG = LoggerFactory.getLogger(ServerBlock2Handler.class.getName());
 
     private BlockSize maxBlock2Size;
-    private HashBasedTable<InetSocketAddress, Token, ServerBlock2Helper> block2Helpers;
-    private ReentrantReadWriteLock lock;
+    private ConcurrentTable<InetSocketAddress, Token, ServerBlock2Helper> block2Helpers;
 
     /**
      * Creates a new instance of {@link ServerBlock2Handler}
@@ -75,8 +73,7 @@ public class ServerBlock2Handler extends AbstractCoapChannelHandler {
     public ServerBlock2Handler(ScheduledExecutorService executor, BlockSize maxBlock2Size) {
         super(executor);
         this.maxBlock2Size = maxBlock2Size;
-        this.block2Helpers = HashBasedTable.create();
-        this.lock = new ReentrantReadWriteLock();
+        this.block2Helpers = new ConcurrentTable<>();
     }
 
     @Override
@@ -129,6 +126,7 @@ public class ServerBlock2Handler extends AbstractCoapChannelHandler {
         final CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageType(), PRECONDITION_FAILED_412);
         coapResponse.setToken(coapRequest.getToken());
         coapResponse.setMessageID(coapRequest.getMessageID());
+        coapResponse.setPeerID(coapRequest.getPeerID());
 
         String message = "Request for block " + coapRequest.getBlock2Number() + " without prior request for block 0";
         coapResponse.setContent(message.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
@@ -144,12 +142,7 @@ public class ServerBlock2Handler extends AbstractCoapChannelHandler {
 
 
     private ServerBlock2Helper getBlock2Helper(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.readLock().lock();
-            return this.block2Helpers.get(remoteSocket, token);
-        } finally {
-            this.lock.readLock().unlock();
-        }
+        return this.block2Helpers.get(remoteSocket, token);
     }
 
 
@@ -192,29 +185,19 @@ public class ServerBlock2Handler extends AbstractCoapChannelHandler {
 
 
     private ServerBlock2Helper addHelper(CoapResponse coapResponse, InetSocketAddress remoteSocket) {
-        try {
-            this.lock.writeLock().lock();
-            // add new response to be sent blockwise
-            ServerBlock2Helper helper = new ServerBlock2Helper(coapResponse, remoteSocket);
-            this.block2Helpers.put(remoteSocket, coapResponse.getToken(), helper);
-            LOG.debug("Added Block2 Helper (Remote Socket: {}, Token: {})", remoteSocket, coapResponse.getToken());
-            return helper;
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+        // add new response to be sent blockwise
+        ServerBlock2Helper helper = new ServerBlock2Helper(coapResponse, remoteSocket);
+        this.block2Helpers.put(remoteSocket, coapResponse.getToken(), helper);
+        LOG.debug("Added Block2 Helper (Remote Socket: {}, Token: {})", remoteSocket, coapResponse.getToken());
+        return helper;
     }
 
     private void removeHelper(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.writeLock().lock();
-            // remove response to be sent blockwise
-            if (this.block2Helpers.remove(remoteSocket, token) != null) {
-                LOG.debug("Removed response blocks (remote socket: {}, token: {})", remoteSocket, token);
-            } else {
-                LOG.warn("Could not remove response blocks (remote socket: {}, token: {})", remoteSocket, token);
-            }
-        } finally {
-            this.lock.writeLock().unlock();
+        // remove response to be sent blockwise
+        if (this.block2Helpers.remove(remoteSocket, token) != null) {
+            LOG.debug("Removed response blocks (remote socket: {}, token: {})", remoteSocket, token);
+        } else {
+            LOG.warn("Could not remove response blocks (remote socket: {}, token: {})", remoteSocket, token);
         }
     }
 
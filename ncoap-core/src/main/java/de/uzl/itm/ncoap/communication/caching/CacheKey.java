@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.caching;
+
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.options.OpaqueOptionValue;
+import de.uzl.itm.ncoap.message.options.Option;
+import de.uzl.itm.ncoap.message.options.OptionList;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Helper class to decide whether a {@link CoapRequest} may be answered with a response to another request and to
+ * create the key identifying such equivalent requests. According to RFC 7252 (section 5.4.6 and 5.6) two requests are
+ * equivalent if they are sent to the same endpoint and all their options are equal except for the options that are
+ * marked as NoCacheKey (e.g. Size1 or the endpoint ID options). This is used by the {@link ClientCachingHandler} to
+ * look up cached responses and by the {@link de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher}
+ * to coalesce requests.
+ */
+public final class CacheKey {
+
+    private CacheKey() {
+        // utility class (not to be instantiated)
+    }
+
+
+    /**
+     * Returns <code>true</code> if the given {@link CoapMessage} is a {@link MessageCode#GET} request that may be
+     * answered with the response to an equivalent request and <code>false</code> otherwise. Observation requests,
+     * requests with ETags and requests via a proxy are excluded.
+     *
+     * @param coapMessage the {@link CoapMessage} to be checked
+     *
+     * @return <code>true</code> if the given {@link CoapMessage} may be answered with the response to an equivalent
+     * request and <code>false</code> otherwise
+     */
+    public static boolean isApplicable(CoapMessage coapMessage) {
+        if (!(coapMessage instanceof CoapRequest) || coapMessage.getMessageCode() != MessageCode.GET) {
+            return false;
+        }
+        CoapRequest coapRequest = (CoapRequest) coapMessage;
+        return !coapRequest.isObservationRequest() && !coapRequest.containsOption(Option.ETAG)
+                && !coapRequest.containsOption(Option.PROXY_URI) && !coapRequest.containsOption(Option.PROXY_SCHEME);
+    }
+
+
+    /**
+     * Returns the key of the given {@link CoapRequest}, i.e. a {@link String} consisting of the remote socket and
+     * all options of the request that are not marked as NoCacheKey (see {@link Option#isCacheKey(int)}). Equivalent
+     * requests have equal keys.
+     *
+     * @param coapRequest the {@link CoapRequest} to create the key for
+     * @param remoteSocket the recipient of the given {@link CoapRequest}
+     *
+     * @return the key of the given {@link CoapRequest}
+     */
+    public static String create(CoapRequest coapRequest, InetSocketAddress remoteSocket) {
+        StringBuilder key = new StringBuilder(64).append(remoteSocket);
+        OptionList options = coapRequest.getOptionList();
+        for (int index = 0; index < options.size(); index++) {
+            int optionNumber = options.getOptionNumber(index);
+            if (Option.isCacheKey(optionNumber)) {
+                // the (hex) value cannot contain the separators, i.e. different options result in different keys
+                key.append('|').append(optionNumber).append('=')
+                        .append(OpaqueOptionValue.toHexString(options.getOptionValue(index).getValue()));
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.caching;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.ConcurrentTable;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.events.client.TokenReleasedEvent;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * <p>The {@link ClientCachingHandler} is an (optional) response cache for clients. It is disabled by default (see
+ * {@link #setMaximumSize(int)}).</p>
+ *
+ * <p>Responses with {@link MessageCode#CONTENT_205} to {@link MessageCode#GET} requests are cached by the remote
+ * endpoint and all options of the request that are not marked as NoCacheKey (see {@link CacheKey}). As long as a
+ * cached response is fresh (according to its Max-Age option), further requests with the same key are answered from
+ * the cache, i.e. without being sent. Requests for a stale response with an ETag are sent as a copy with that ETag
+ * and a {@link MessageCode#VALID_203} response refreshes the cached response (including its Max-Age option). The
+ * refreshed response is then delivered to the application instead of the 2.03 response.</p>
+ *
+ * <p>Observation requests, requests with ETags set by the application and requests via a proxy bypass the
+ * cache. If the cache is full, the least recently used responses are evicted.</p>
+ */
+public class ClientCachingHandler extends AbstractCoapChannelHandler implements TokenReleasedEvent.Handler {
+
+    private static Logger LOG = LoggerFactory.getLogger(ClientCachingHandler.class.getName());
+
+    private volatile Cache<String, CachedResponse> cache;
+    private ConcurrentTable<InetSocketAddress, Token, PendingRequest> pendingRequests;
+
+
+    /**
+     * Creates a new (disabled) instance of {@link ClientCachingHandler}
+     *
+     * @param executor the {@link ScheduledExecutorService} to execute the tasks of this handler
+     */
+    public ClientCachingHandler(ScheduledExecutorService executor) {
+        super(executor);
+        this.pendingRequests = new ConcurrentTable<>();
+    }
+
+
+    /**
+     * Sets the maximum number of cached responses. Setting the maximum size discards all cached responses.
+     *
+     * @param maximumSize the maximum number of cached responses (or <code>0</code> to disable the cache)
+     *
+     * @throws java.lang.IllegalArgumentException if the given size is negative
+     */
+    public void setMaximumSize(int maximumSize) throws IllegalArgumentException {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Maximum size must not be negative (was: " + maximumSize + ")");
+        }
+        this.cache = maximumSize == 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .<String, CachedResponse>build();
+    }
+
+
+    @Override
+    public boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+        return handleOutboundCoapMessage(coapMessage, remoteSocket, Channels.future(getContext().getChannel()));
+    }
+
+
+    @Override
+    protected boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket,
+                                                ChannelFuture future) {
+        Cache<String, CachedResponse> cache = this.cache;
+        if (cache == null || !CacheKey.isApplicable(coapMessage)) {
+            return true;
+        }
+
+        CoapRequest coapRequest = (CoapRequest) coapMessage;
+        String key = CacheKey.create(coapRequest, remoteSocket);
+        CachedResponse cachedResponse = cache.getIfPresent(key);
+
+        if (cachedResponse != null && cachedResponse.isFresh()) {
+            LOG.debug("Answer request from cache (remote socket: \"{}\", key: {}).", remoteSocket, key);
+            continueMessageProcessing(cachedResponse.createCopy(coapRequest.getToken()), remoteSocket);
+            return false;
+        }
+
+        if (cachedResponse != null && cachedResponse.etag != null) {
+            // the application's request remains unchanged, i.e. the ETag is added to a copy
+            LOG.debug("Revalidate cached response (remote socket: \"{}\", key: {}).", remoteSocket, key);
+            CoapRequest revalidation = CoapRequest.createCopy(coapRequest);
+            revalidation.setEtags(cachedResponse.etag);
+            this.pendingRequests.put(remoteSocket, coapRequest.getToken(), new PendingRequest(key, cachedResponse));
+            sendCoapMessage(revalidation, remoteSocket, future);
+            return false;
+        }
+
+        this.pendingRequests.put(remoteSocket, coapRequest.getToken(), new PendingRequest(key, null));
+        return true;
+    }
+
+
+    @Override
+    public boolean handleInboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+        if (!(coapMessage instanceof CoapResponse)) {
+            return true;
+        }
+
+        CoapResponse coapResponse = (CoapResponse) coapMessage;
+        PendingRequest pendingRequest = this.pendingRequests.remove(remoteSocket, coapResponse.getToken());
+        Cache<String, CachedResponse> cache = this.cache;
+        if (pendingRequest == null || cache == null) {
+            return true;
+        }
+
+        int messageCode = coapResponse.getMessageCode();
+        CachedResponse validated = pendingRequest.validated;
+        if (messageCode == MessageCode.VALID_203 && validated != null
+                && Arrays.equals(validated.etag, coapResponse.getEtag())) {
+
+            // the cached response is still valid (with the Max-Age of the 2.03 response, see RFC 7252, 5.9.1.3)
+            CachedResponse refreshed = new CachedResponse(validated.coapResponse, coapResponse.getMaxAge());
+            cache.put(pendingRequest.key, refreshed);
+            LOG.debug("Refreshed cached response (remote socket: \"{}\", key: {}).", remoteSocket, pendingRequest.key);
+            continueMessageProcessing(refreshed.createCopy(coapResponse.getToken()), remoteSocket);
+            return false;
+        } else if (messageCode == MessageCode.CONTENT_205 && !coapResponse.isUpdateNotification()
+                && (coapResponse.getMaxAge() > 0 || coapResponse.getEtag() != null)) {
+            cache.put(pendingRequest.key, new CachedResponse(coapResponse, coapResponse.getMaxAge()));
+        } else {
+            cache.invalidate(pendingRequest.key);
+        }
+        return true;
+    }
+
+
+    @Override
+    public void handleEvent(TokenReleasedEvent event) {
+        this.pendingRequests.remove(event.getRemoteSocket(), event.getToken());
+    }
+
+
+    private static class CachedResponse {
+
+        private final CoapResponse coapResponse;
+        private final byte[] etag;
+        private final long expiry;
+
+        private CachedResponse(CoapResponse coapResponse, long maxAge) {
+            // keep a private copy as the application may read (i.e. drain) the content of the given response
+            this.coapResponse = CoapResponse.createUpdateNotification(
+                    coapResponse, coapResponse.getMessageType(), coapResponse.getToken()
+            );
+            this.coapResponse.setContent(coapResponse.getContent().copy());
+            if (this.coapResponse.getMaxAge() != maxAge) {
+                this.coapResponse.setMaxAge(maxAge);
+            }
+            this.etag = coapResponse.getEtag();
+            this.expiry = System.currentTimeMillis() + maxAge * 1000;
+        }
+
+        private boolean isFresh() {
+            return System.currentTimeMillis() < this.expiry;
+        }
+
+        private CoapResponse createCopy(Token token) {
+            // the option values and the bytes of the content are shared with the cached response (but not the
+            // reader index of the content)
+            return CoapResponse.createUpdateNotification(this.coapResponse, this.coapResponse.getMessageType(), token);
+        }
+    }
+
+
+    private static class PendingRequest {
+
+        private final String key;
+        // the (stale) response to be validated by the request (or null)
+        private final CachedResponse validated;
+
+        private PendingRequest(String key, CachedResponse validated) {
+            this.key = key;
+            this.validated = validated;
+        }
+    }
+}
@@ -24,7 +24,9 @@
  */
 package de.uzl.itm.ncoap.communication.codec;
 
+import de.uzl.itm.ncoap.communication.PeerRegistry;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.tracing.MessageTracer;
 import de.uzl.itm.ncoap.message.*;
 import de.uzl.itm.ncoap.message.options.*;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -62,6 +64,12 @@ import static de.uzl.itm.ncoap.message.MessageCode.*;
  *         {@link de.uzl.itm.ncoap.message.MessageCode#EMPTY} only the header, i.e. the first 4 bytes are decoded and
  *         further processed. Any following bytes contained in the same encoded message are ignored.
  *     </li>
+ *     <li>
+ *         The options of inbound {@link de.uzl.itm.ncoap.message.CoapMessage}s are validated but not converted
+ *         into {@link de.uzl.itm.ncoap.message.options.OptionValue} instances. The message only keeps an index of
+ *         the options' positions within the received buffer and creates the instances on demand, i.e. if (and only
+ *         if) the options are actually asked for.
+ *     </li>
  * </ul>
  *
  * @author Oliver Kleine
@@ -70,6 +78,29 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
+    private final PeerRegistry peerRegistry;
+    private volatile MessageTracer messageTracer;
+
+
+    /**
+     * Creates a new instance of {@link CoapMessageDecoder}.
+     *
+     * @param peerRegistry the {@link PeerRegistry} to set the peer ID of every decoded {@link CoapMessage}
+     */
+    public CoapMessageDecoder(PeerRegistry peerRegistry) {
+        this.peerRegistry = peerRegistry;
+    }
+
+
+    /**
+     * Sets the {@link MessageTracer} to be notified about every decoded {@link CoapMessage}.
+     *
+     * @param messageTracer the {@link MessageTracer} to be notified or <code>null</code> to disable tracing
+     */
+    public void setMessageTracer(MessageTracer messageTracer) {
+        this.messageTracer = messageTracer;
+    }
+
 
     @Override
     public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
@@ -88,9 +119,17 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
         messageEvent.getFuture().setSuccess();
 
         InetSocketAddress remoteSocket = (InetSocketAddress) messageEvent.getRemoteAddress();
-        CoapMessage coapMessage = decode(remoteSocket, (ChannelBuffer) messageEvent.getMessage());
+        ChannelBuffer encodedMessage = (ChannelBuffer) messageEvent.getMessage();
+        int encodedLength = encodedMessage.readableBytes();
+        CoapMessage coapMessage = decode(remoteSocket, encodedMessage);
+
+        MessageTracer tracer = this.messageTracer;
+        if (coapMessage != null && tracer != null) {
+            tracer.traceInbound(remoteSocket, coapMessage, encodedLength);
+        }
 
         if (coapMessage != null) {
+            coapMessage.setPeerID(this.peerRegistry.getPeerID(remoteSocket));
             Channels.fireMessageReceived(ctx, coapMessage, remoteSocket);
         }
     }
@@ -184,17 +223,16 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
 
         //The remaining bytes (if any) are the messages payload. If there is no payload, reader and writer index are
-        //at the same position (buf.readableBytes() == 0).
-        buffer.discardReadBytes();
-
+        //at the same position (buf.readableBytes() == 0). As the options were not yet decoded, i.e. still refer to
+        //the given buffer, the payload is a slice of that buffer.
         try {
-            coapMessage.setContent(buffer);
+            coapMessage.setContent(buffer.slice());
         } catch (IllegalArgumentException e) {
             String warning = "Message code {} does not allow content. Ignore {} bytes.";
             log.warn(warning, coapMessage.getMessageCode(), buffer.readableBytes());
         }
 
-        log.info("Decoded Message: {}", coapMessage);
+        log.debug("Decoded Message: {}", coapMessage);
 
         return coapMessage;
     }
@@ -207,7 +245,9 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
         int firstByte = buffer.readByte() & 0xFF;
 
         while(firstByte != 0xFF && buffer.readableBytes() >= 0) {
-            log.debug("First byte: {} ({})", toBinaryString(firstByte), firstByte);
+            if (log.isDebugEnabled()) {
+                log.debug("First byte: {} ({})", toBinaryString(firstByte), firstByte);
+            }
             int optionDelta =   (firstByte & 0xF0) >>> 4;
             int optionLength =   firstByte & 0x0F;
             log.debug("temp. delta: {}, temp. length {}", optionDelta, optionLength);
@@ -225,41 +265,16 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
             }
 
 
-            log.info("Previous option: {}, Option delta: {}", previousOptionNumber, optionDelta);
+            log.debug("Previous option: {}, Option delta: {}", previousOptionNumber, optionDelta);
 
             int actualOptionNumber = previousOptionNumber + optionDelta;
-            log.info("Decode option no. {} with length of {} bytes.", actualOptionNumber, optionLength);
+            log.debug("Decode option no. {} with length of {} bytes.", actualOptionNumber, optionLength);
 
             try {
-                byte[] optionValue = new byte[optionLength];
-                buffer.readBytes(optionValue);
-
-                switch(OptionValue.getType(actualOptionNumber)) {
-                    case EMPTY: {
-                        EmptyOptionValue value = new EmptyOptionValue(actualOptionNumber);
-                        coapMessage.addOption(actualOptionNumber, value);
-                        break;
-                    }
-                    case OPAQUE: {
-                        OpaqueOptionValue value = new OpaqueOptionValue(actualOptionNumber, optionValue);
-                        coapMessage.addOption(actualOptionNumber, value);
-                        break;
-                    }
-                    case STRING: {
-                        StringOptionValue value = new StringOptionValue(actualOptionNumber, optionValue, true);
-                        coapMessage.addOption(actualOptionNumber, value);
-                        break;
-                    }
-                    case UINT: {
-                        UintOptionValue value = new UintOptionValue(actualOptionNumber, optionValue, true);
-                        coapMessage.addOption(actualOptionNumber, value);
-                        break;
-                    }
-                    default: {
-                        log.error("This should never happen!");
-                        throw new RuntimeException("This should never happen!");
-                    }
-                }
+                //The option value is not copied but only indexed, i.e. it is decoded on demand
+                int offset = buffer.readerIndex();
+                buffer.skipBytes(optionLength);
+                coapMessage.addEncodedOption(actualOptionNumber, buffer, offset, optionLength);
             } catch (IllegalArgumentException e) {
                 //failed option creation leads to an illegal argument exception
                 log.warn("Exception while decoding option!", e);
@@ -71,11 +71,14 @@
 
 package de.uzl.itm.ncoap.communication.codec;
 
-import com.google.common.primitives.Ints;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.MiscellaneousErrorEvent;
+import de.uzl.itm.ncoap.communication.tracing.MessageTracer;
 import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapResponse;
 import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.options.Option;
+import de.uzl.itm.ncoap.message.options.OptionList;
 import de.uzl.itm.ncoap.message.options.OptionValue;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -107,6 +110,18 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
      */
     public static final int MAX_OPTION_LENGTH = 65804;
 
+    private volatile MessageTracer messageTracer;
+
+
+    /**
+     * Sets the {@link MessageTracer} to be notified about every encoded {@link CoapMessage}.
+     *
+     * @param messageTracer the {@link MessageTracer} to be notified or <code>null</code> to disable tracing
+     */
+    public void setMessageTracer(MessageTracer messageTracer) {
+        this.messageTracer = messageTracer;
+    }
+
 
     @Override
     public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent event) throws Exception {
@@ -121,6 +136,12 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
 
         try {
             ChannelBuffer encodedMessage = encode(coapMessage);
+
+            MessageTracer tracer = this.messageTracer;
+            if (tracer != null) {
+                tracer.traceOutbound(remoteSocket, coapMessage, encodedMessage.readableBytes());
+            }
+
             Channels.write(ctx, event.getFuture(), encodedMessage, remoteSocket);
         } catch(Exception ex) {
             event.getFuture().setFailure(ex);
@@ -132,35 +153,44 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
 
 
     protected ChannelBuffer encode(CoapMessage coapMessage) throws OptionCodecException {
-        LOG.info("CoapMessage to be encoded: {}", coapMessage);
-
-        // start encoding
-        ChannelBuffer encodedMessage = ChannelBuffers.dynamicBuffer(0);
-
-        // encode HEADER and TOKEN
-        encodeHeader(encodedMessage, coapMessage);
-        LOG.debug("Encoded length of message (after HEADER + TOKEN): {}", encodedMessage.readableBytes());
-
+        // empty messages consist of the HEADER only (i.e. without TOKEN)
         if (coapMessage.getMessageCode() == MessageCode.EMPTY) {
-            encodedMessage = ChannelBuffers.wrappedBuffer(Ints.toByteArray(encodedMessage.getInt(0) & 0xF0FFFFFF));
+            ChannelBuffer encodedMessage = ChannelBuffers.buffer(4);
+            encodedMessage.writeInt(getEncodedHeader(coapMessage, 0));
             return encodedMessage;
         }
 
-        if (coapMessage.getAllOptions().size() == 0 && coapMessage.getContent().readableBytes() == 0) {
-            return encodedMessage;
+        // update notifications of the same resource status share the encoded options and content
+        if (coapMessage instanceof CoapResponse && coapMessage.containsOption(Option.OBSERVE)) {
+            UpdateNotificationTemplate template = ((CoapResponse) coapMessage).getUpdateNotificationTemplate();
+            if (template != null) {
+                ChannelBuffer encodedMessage = encode(coapMessage, template);
+                if (encodedMessage != null) {
+                    return encodedMessage;
+                }
+                LOG.debug("Update notification does not match template (encode from scratch).");
+            }
         }
 
+        // start encoding (the buffer is allocated once with the exact size of the encoded message)
+        ChannelBuffer content = coapMessage.getContent();
+        ChannelBuffer encodedMessage = ChannelBuffers.buffer(getEncodedLength(coapMessage));
+
+        // encode HEADER and TOKEN
+        encodeHeader(encodedMessage, coapMessage);
+        LOG.debug("Encoded length of message (after HEADER + TOKEN): {}", encodedMessage.readableBytes());
+
         // encode OPTIONS (if any)
         encodeOptions(encodedMessage, coapMessage);
         LOG.debug("Encoded length of message (after OPTIONS): {}", encodedMessage.readableBytes());
 
         // encode payload (if any)
-        if (coapMessage.getContent().readableBytes() > 0) {
+        if (content.readableBytes() > 0) {
             // add END-OF-OPTIONS marker only if there is payload
             encodedMessage.writeByte(255);
 
-            // add payload
-            encodedMessage = ChannelBuffers.wrappedBuffer(encodedMessage, coapMessage.getContent());
+            // add payload (without modifying the reader index of the content, e.g. for retransmissions)
+            encodedMessage.writeBytes(content, content.readerIndex(), content.readableBytes());
             LOG.debug("Encoded length of message (after CONTENT): {}", encodedMessage.readableBytes());
         }
 
@@ -168,16 +198,157 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
     }
 
 
+    /**
+     * Encodes the given update notification using the given {@link UpdateNotificationTemplate}, i.e. only the header,
+     * the token and the observe option are written into a new buffer. The encoded remainder, i.e. the other options
+     * and the content, is shared with all other update notifications using the same template. If the template was not
+     * yet initialized, it is initialized with the given update notification.
+     *
+     * @param coapMessage the update notification to be encoded
+     * @param template the {@link UpdateNotificationTemplate} to be used
+     *
+     * @return the encoded update notification or <code>null</code> if the given update notification does not match
+     * the given template
+     *
+     * @throws OptionCodecException if the template could not be initialized with the given update notification
+     */
+    protected ChannelBuffer encode(CoapMessage coapMessage, UpdateNotificationTemplate template)
+            throws OptionCodecException {
+
+        if (!template.isInitialized()) {
+            initializeTemplate(template, coapMessage);
+        }
+
+        if (!template.matches(coapMessage)) {
+            return null;
+        }
+
+        OptionValue observe = coapMessage.getOptionList().getFirst(Option.OBSERVE);
+        int previousOptionNumber = template.getPreviousOptionNumber();
+        byte[] encodedOptionsBeforeObserve = template.getEncodedOptionsBeforeObserve();
+
+        int length = 4 + coapMessage.getToken().getBytes().length + encodedOptionsBeforeObserve.length +
+                getEncodedOptionLength(Option.OBSERVE - previousOptionNumber, observe.getValue().length);
+
+        ChannelBuffer encodedHead = ChannelBuffers.buffer(length);
+        encodeHeader(encodedHead, coapMessage);
+        encodedHead.writeBytes(encodedOptionsBeforeObserve);
+        encodeOption(encodedHead, Option.OBSERVE, observe, previousOptionNumber);
+
+        return ChannelBuffers.wrappedBuffer(encodedHead, template.getEncodedRemainder());
+    }
+
+
+    private void initializeTemplate(UpdateNotificationTemplate template, CoapMessage coapMessage)
+            throws OptionCodecException {
+
+        OptionList options = coapMessage.getOptionList();
+        int observeIndex = 0;
+        while (options.getOptionNumber(observeIndex) != Option.OBSERVE) {
+            observeIndex++;
+        }
+        int previousOptionNumber = observeIndex == 0 ? 0 : options.getOptionNumber(observeIndex - 1);
+
+        // options before OBSERVE
+        ChannelBuffer encodedOptionsBeforeObserve = encodeOptions(options, 0, observeIndex, 0, 0);
+
+        // options after OBSERVE, END-OF-OPTIONS marker and payload
+        ChannelBuffer content = coapMessage.getContent();
+        int contentLength = content.readableBytes() > 0 ? 1 + content.readableBytes() : 0;
+        ChannelBuffer encodedRemainder =
+                encodeOptions(options, observeIndex + 1, options.size(), Option.OBSERVE, contentLength);
+
+        if (content.readableBytes() > 0) {
+            encodedRemainder.writeByte(255);
+            encodedRemainder.writeBytes(content, content.readerIndex(), content.readableBytes());
+        }
+
+        template.initialize(coapMessage, previousOptionNumber, encodedOptionsBeforeObserve.array(), encodedRemainder);
+    }
+
+
+    private ChannelBuffer encodeOptions(OptionList options, int fromIndex, int toIndex, int previousOptionNumber,
+            int additionalCapacity) throws OptionCodecException {
+
+        int length = additionalCapacity;
+        int prevNumber = previousOptionNumber;
+        for (int index = fromIndex; index < toIndex; index++) {
+            int optionNumber = options.getOptionNumber(index);
+            int valueLength = options.getOptionValue(index).getValue().length;
+            length += getEncodedOptionLength(optionNumber - prevNumber, valueLength);
+            prevNumber = optionNumber;
+        }
+
+        ChannelBuffer buffer = ChannelBuffers.buffer(length);
+        prevNumber = previousOptionNumber;
+        for (int index = fromIndex; index < toIndex; index++) {
+            int optionNumber = options.getOptionNumber(index);
+            encodeOption(buffer, optionNumber, options.getOptionValue(index), prevNumber);
+            prevNumber = optionNumber;
+        }
+        return buffer;
+    }
+
+
+    /**
+     * Returns the number of bytes of the encoded representation of the given (non-empty) {@link CoapMessage}, i.e.
+     * the sum of the lengths of header, token, options, end-of-options marker (if any) and payload.
+     *
+     * @param coapMessage the {@link CoapMessage} to calculate the encoded length of
+     *
+     * @return the number of bytes of the encoded representation of the given {@link CoapMessage}
+     */
+    protected int getEncodedLength(CoapMessage coapMessage) {
+        int length = 4 + coapMessage.getToken().getBytes().length;
+
+        OptionList options = coapMessage.getOptionList();
+        int previousOptionNumber = 0;
+        for(int index = 0; index < options.size(); index++) {
+            int optionNumber = options.getOptionNumber(index);
+            length += getEncodedOptionLength(optionNumber - previousOptionNumber,
+                    options.getOptionValue(index).getValue().length);
+            previousOptionNumber = optionNumber;
+        }
+
+        int contentLength = coapMessage.getContent().readableBytes();
+        if (contentLength > 0) {
+            length += 1 + contentLength;
+        }
+
+        return length;
+    }
+
+
+    /**
+     * Returns the number of bytes of an encoded option with the given option delta and value length, i.e. the
+     * first byte, the extended option delta and length (if any) and the value.
+     *
+     * @param optionDelta the difference between the number of the option and the number of the previous option
+     * @param valueLength the length of the encoded option value
+     *
+     * @return the number of bytes of an encoded option with the given option delta and value length
+     */
+    protected static int getEncodedOptionLength(int optionDelta, int valueLength) {
+        return 1 + getExtendedFieldLength(optionDelta) + getExtendedFieldLength(valueLength) + valueLength;
+    }
+
+
+    private static int getExtendedFieldLength(int value) {
+        if (value < 13) {
+            return 0;
+        } else if (value < 269) {
+            return 1;
+        } else {
+            return 2;
+        }
+    }
+
+
     protected void encodeHeader(ChannelBuffer buffer, CoapMessage coapMessage) {
 
         byte[] token = coapMessage.getToken().getBytes();
 
-        int encodedHeader = ((coapMessage.getProtocolVersion()  & 0x03)     << 30)
-                          | ((coapMessage.getMessageType()      & 0x03)     << 28)
-                          | ((token.length                      & 0x0F)     << 24)
-                          | ((coapMessage.getMessageCode()      & 0xFF)     << 16)
-                          | ((coapMessage.getMessageID()        & 0xFFFF));
-
+        int encodedHeader = getEncodedHeader(coapMessage, token.length);
         buffer.writeInt(encodedHeader);
 
         if (LOG.isDebugEnabled()) {
@@ -195,16 +366,25 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
     }
 
 
+    private static int getEncodedHeader(CoapMessage coapMessage, int tokenLength) {
+        return ((coapMessage.getProtocolVersion()  & 0x03)     << 30)
+             | ((coapMessage.getMessageType()      & 0x03)     << 28)
+             | ((tokenLength                       & 0x0F)     << 24)
+             | ((coapMessage.getMessageCode()      & 0xFF)     << 16)
+             | ((coapMessage.getMessageID()        & 0xFFFF));
+    }
+
+
     protected void encodeOptions(ChannelBuffer buffer, CoapMessage coapMessage) throws OptionCodecException {
 
         //Encode options one after the other and append buf option to the buf
+        OptionList options = coapMessage.getOptionList();
         int previousOptionNumber = 0;
 
-        for(int optionNumber : coapMessage.getAllOptions().keySet()) {
-            for(OptionValue optionValue : coapMessage.getOptions(optionNumber)) {
-                encodeOption(buffer, optionNumber, optionValue, previousOptionNumber);
-                previousOptionNumber = optionNumber;
-            }
+        for(int index = 0; index < options.size(); index++) {
+            int optionNumber = options.getOptionNumber(index);
+            encodeOption(buffer, optionNumber, options.getOptionValue(index), previousOptionNumber);
+            previousOptionNumber = optionNumber;
         }
     }
 
@@ -284,8 +464,10 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
 
         //Write option value
         buffer.writeBytes(optionValue.getValue());
-        LOG.debug("Encoded option no {} with value {}", optionNumber, optionValue.getDecodedValue());
-        LOG.debug("Encoded message length is now: {}", buffer.readableBytes());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Encoded option no {} with value {}", optionNumber, optionValue.getDecodedValue());
+            LOG.debug("Encoded message length is now: {}", buffer.readableBytes());
+        }
     }
 
 
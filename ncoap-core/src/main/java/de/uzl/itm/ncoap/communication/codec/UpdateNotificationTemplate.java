@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.codec;
+
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.options.Option;
+import de.uzl.itm.ncoap.message.options.OptionList;
+import de.uzl.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * <p>An {@link UpdateNotificationTemplate} holds the encoded representation of those parts of an update notification
+ * that are the same for all observers of a resource status (with the same content format and block size), i.e. all
+ * options but the {@link Option#OBSERVE} option as well as the content. It is shared by all update notifications of
+ * such a group (see {@link de.uzl.itm.ncoap.message.CoapResponse#createUpdateNotification}).</p>
+ *
+ * <p>The template is initialized by the {@link CoapMessageEncoder} with the first update notification of the group
+ * to be encoded. For all subsequent update notifications the encoder only writes the header, the token and the
+ * {@link Option#OBSERVE} option and appends the shared encoded remainder, i.e. without copying. Update notifications
+ * that were changed by other handlers in a way that they no longer match the template (e.g. by adding an endpoint ID)
+ * are encoded from scratch.</p>
+ */
+public class UpdateNotificationTemplate {
+
+    private volatile boolean initialized;
+
+    private OptionList options;
+    private ChannelBuffer content;
+
+    private int previousOptionNumber;
+    private byte[] encodedOptionsBeforeObserve;
+    private ChannelBuffer encodedRemainder;
+
+    /**
+     * Creates a new (uninitialized) instance of {@link UpdateNotificationTemplate}.
+     */
+    public UpdateNotificationTemplate() {
+        this.initialized = false;
+    }
+
+
+    boolean isInitialized() {
+        return this.initialized;
+    }
+
+
+    synchronized void initialize(CoapMessage coapMessage, int previousOptionNumber,
+            byte[] encodedOptionsBeforeObserve, ChannelBuffer encodedRemainder) {
+
+        if (this.initialized) {
+            return;
+        }
+
+        OptionList optionList = coapMessage.getOptionList();
+        this.options = new OptionList();
+        for (int index = 0; index < optionList.size(); index++) {
+            if (optionList.getOptionNumber(index) != Option.OBSERVE) {
+                this.options.add(optionList.getOptionNumber(index), optionList.getOptionValue(index));
+            }
+        }
+
+        this.content = coapMessage.getContent().slice();
+        this.previousOptionNumber = previousOptionNumber;
+        this.encodedOptionsBeforeObserve = encodedOptionsBeforeObserve;
+        this.encodedRemainder = encodedRemainder;
+        this.initialized = true;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the given {@link CoapMessage} contains the same options (except for the
+     * {@link Option#OBSERVE} option) and the same content as the update notification this template was initialized
+     * with and <code>false</code> otherwise.
+     *
+     * @param coapMessage the {@link CoapMessage} to be encoded
+     *
+     * @return <code>true</code> if the given {@link CoapMessage} can be encoded using this template and
+     * <code>false</code> otherwise
+     */
+    boolean matches(CoapMessage coapMessage) {
+        OptionList optionList = coapMessage.getOptionList();
+        if (optionList.size() != options.size() + 1 || !optionList.contains(Option.OBSERVE)) {
+            return false;
+        }
+
+        int index = 0;
+        for (int otherIndex = 0; otherIndex < optionList.size(); otherIndex++) {
+            int optionNumber = optionList.getOptionNumber(otherIndex);
+            if (optionNumber == Option.OBSERVE) {
+                continue;
+            }
+
+            if (optionNumber != options.getOptionNumber(index)) {
+                return false;
+            }
+
+            OptionValue value1 = options.getOptionValue(index);
+            OptionValue value2 = optionList.getOptionValue(otherIndex);
+            if (value1 != value2 && !value1.equals(value2)) {
+                return false;
+            }
+            index++;
+        }
+
+        return isSameContent(coapMessage.getContent());
+    }
+
+
+    private boolean isSameContent(ChannelBuffer otherContent) {
+        if (otherContent.readableBytes() != content.readableBytes()) {
+            return false;
+        }
+
+        // the content of update notifications of the same group is usually backed by the same array
+        if (otherContent.hasArray() && content.hasArray() && otherContent.array() == content.array()) {
+            int otherOffset = otherContent.arrayOffset() + otherContent.readerIndex();
+            if (otherOffset == content.arrayOffset() + content.readerIndex()) {
+                return true;
+            }
+        }
+
+        return otherContent.equals(content);
+    }
+
+
+    int getPreviousOptionNumber() {
+        return this.previousOptionNumber;
+    }
+
+
+    byte[] getEncodedOptionsBeforeObserve() {
+        return this.encodedOptionsBeforeObserve;
+    }
+
+
+    ChannelBuffer getEncodedRemainder() {
+        return this.encodedRemainder;
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.dispatching.client;
+
+import de.uzl.itm.ncoap.application.client.ClientCallback;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link ClientCallback} that represents a group of identical requests sharing a single message exchange (see
+ * {@link ResponseDispatcher#setRequestCoalescing(boolean)}). All invocations are forwarded to the callbacks of the
+ * requests that joined the exchange, i.e. the (single) response is delivered to all of them.
+ *
+ * Once the exchange is finished the group is closed, i.e. further requests start a new exchange.
+ */
+class CoalescedClientCallback extends ClientCallback {
+
+    private static Logger LOG = LoggerFactory.getLogger(CoalescedClientCallback.class.getName());
+
+    private final String key;
+    private final List<ClientCallback> callbacks;
+
+    private boolean closed;
+    private volatile Token token;
+    private volatile int messageID;
+
+    CoalescedClientCallback(String key, ClientCallback callback) {
+        this.key = key;
+        this.callbacks = new CopyOnWriteArrayList<>();
+        this.callbacks.add(callback);
+        this.messageID = CoapMessage.UNDEFINED_MESSAGE_ID;
+    }
+
+    String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Adds the given callback to this group unless the group was already closed.
+     *
+     * @param callback the {@link ClientCallback} to join the exchange
+     *
+     * @return <code>true</code> if the callback joined the exchange and <code>false</code> otherwise
+     */
+    boolean addCallback(ClientCallback callback) {
+        synchronized (this) {
+            if (this.closed) {
+                return false;
+            }
+            this.callbacks.add(callback);
+        }
+
+        // the late joiner needs to know what the others already know
+        Token token = this.token;
+        if (token != null) {
+            callback.processTokenAssignment(token);
+        }
+        int messageID = this.messageID;
+        if (messageID != CoapMessage.UNDEFINED_MESSAGE_ID) {
+            callback.processMessageIDAssignment(messageID);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the given callback from this group. If it was the last one, the group is closed.
+     *
+     * @param callback the {@link ClientCallback} to leave the exchange
+     *
+     * @return <code>true</code> if the group was closed, i.e. the exchange is no longer needed, and
+     * <code>false</code> otherwise
+     */
+    synchronized boolean removeCallback(ClientCallback callback) {
+        if (this.callbacks.remove(callback) && this.callbacks.isEmpty()) {
+            this.closed = true;
+        }
+        return this.closed;
+    }
+
+    synchronized void close() {
+        this.closed = true;
+    }
+
+    /**
+     * Delivers a copy of the given {@link CoapResponse} to each of the joined callbacks, i.e. reading the content
+     * (and thus moving its reader index) in one callback does not affect the others. The options are decoded before,
+     * so the callbacks (and the threads they might pass the response to) do not decode them concurrently.
+     *
+     * @param coapResponse the {@link CoapResponse} to be delivered to all joined callbacks
+     */
+    @Override
+    public void processCoapResponse(CoapResponse coapResponse) {
+        coapResponse.getOptionList();
+        for (ClientCallback callback : this.callbacks) {
+            try {
+                callback.processCoapResponse(createCopy(coapResponse));
+            } catch (Exception ex) {
+                LOG.error("Exception while processing response (token: {}).", this.token, ex);
+            }
+        }
+    }
+
+    private static CoapResponse createCopy(CoapResponse coapResponse) {
+        CoapResponse copy = CoapResponse.createUpdateNotification(
+                coapResponse, coapResponse.getMessageType(), coapResponse.getToken()
+        );
+        copy.setMessageID(coapResponse.getMessageID());
+        copy.setContent(coapResponse.getContent().copy());
+        return copy;
+    }
+
+    @Override
+    public void processRemoteSocketChanged(InetSocketAddress remoteSocket, InetSocketAddress previous) {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processRemoteSocketChanged(remoteSocket, previous);
+        }
+    }
+
+    @Override
+    public void processTransmissionTimeout() {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processTransmissionTimeout();
+        }
+    }
+
+    @Override
+    public void processReset() {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processReset();
+        }
+    }
+
+    @Override
+    public void processRetransmission() {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processRetransmission();
+        }
+    }
+
+    @Override
+    public void processResponseBlockReceived(long receivedLength, long expectedLength) {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processResponseBlockReceived(receivedLength, expectedLength);
+        }
+    }
+
+    @Override
+    public void processContinueResponseReceived(BlockSize block1Size) {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processContinueResponseReceived(block1Size);
+        }
+    }
+
+    @Override
+    public void processBlockwiseResponseTransferFailed() {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processBlockwiseResponseTransferFailed();
+        }
+    }
+
+    @Override
+    public void processEmptyAcknowledgement() {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processEmptyAcknowledgement();
+        }
+    }
+
+    @Override
+    public void processMiscellaneousError(String description) {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processMiscellaneousError(description);
+        }
+    }
+
+    @Override
+    public void processMessageIDAssignment(int messageID) {
+        this.messageID = messageID;
+        for (ClientCallback callback : this.callbacks) {
+            callback.processMessageIDAssignment(messageID);
+        }
+    }
+
+    @Override
+    public void processNoMessageIDAvailable() {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processNoMessageIDAvailable();
+        }
+    }
+
+    @Override
+    public void processRequestQueueOverflow() {
+        for (ClientCallback callback : this.callbacks) {
+            callback.processRequestQueueOverflow();
+        }
+    }
+
+    @Override
+    public void processTokenAssignment(Token token) {
+        this.token = token;
+        for (ClientCallback callback : this.callbacks) {
+            callback.processTokenAssignment(token);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.dispatching.client;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.ClientCallback;
+import de.uzl.itm.ncoap.application.client.RequestFailedException;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link ClientCallback} that completes a {@link ListenableFuture} with the first response (or failure) of the
+ * associated request (see {@link ResponseDispatcher#sendCoapRequest(de.uzl.itm.ncoap.message.CoapRequest,
+ * InetSocketAddress, Executor, long, java.util.concurrent.TimeUnit)}).
+ *
+ * If the future is cancelled by the application or the request timed out, the {@link Token}, the callback and the
+ * (re-)transmissions of the request are released immediately.
+ */
+class FutureClientCallback extends ClientCallback implements Runnable {
+
+    private static Logger LOG = LoggerFactory.getLogger(FutureClientCallback.class.getName());
+
+    private final ResponseDispatcher dispatcher;
+    private final Executor completionExecutor;
+    private final SettableFuture<CoapResponse> future;
+    private final AtomicBoolean released;
+
+    private volatile InetSocketAddress remoteSocket;
+    private volatile Token token;
+    private volatile int messageID;
+    private volatile boolean finished;
+    private volatile ScheduledFuture timeout;
+
+    FutureClientCallback(ResponseDispatcher dispatcher, InetSocketAddress remoteSocket, Executor completionExecutor) {
+        this.dispatcher = dispatcher;
+        this.remoteSocket = remoteSocket;
+        this.completionExecutor = completionExecutor;
+        this.messageID = CoapMessage.UNDEFINED_MESSAGE_ID;
+        this.released = new AtomicBoolean(false);
+        this.future = SettableFuture.create();
+        this.future.addListener(this, MoreExecutors.sameThreadExecutor());
+    }
+
+    ListenableFuture<CoapResponse> getFuture() {
+        return this.future;
+    }
+
+    void setTimeout(ScheduledFuture timeout) {
+        this.timeout = timeout;
+        if (this.future.isDone()) {
+            timeout.cancel(false);
+        }
+    }
+
+    void processRequestTimeout() {
+        complete(null, new TimeoutException("No response from \"" + this.remoteSocket + "\" within timeout."));
+    }
+
+    /**
+     * Invoked once the future is done (i.e. completed, failed or cancelled)
+     */
+    @Override
+    public void run() {
+        ScheduledFuture timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        if (!this.finished && this.token != null) {
+            // cancelled by the application or timed out
+            release();
+        }
+    }
+
+    @Override
+    public void processTokenAssignment(Token token) {
+        this.token = token;
+        if (this.future.isDone() && !this.finished) {
+            // cancelled before the token was assigned
+            release();
+        }
+    }
+
+    @Override
+    public void processMessageIDAssignment(int messageID) {
+        this.messageID = messageID;
+    }
+
+    @Override
+    public void processRemoteSocketChanged(InetSocketAddress remoteSocket, InetSocketAddress previous) {
+        this.remoteSocket = remoteSocket;
+    }
+
+    @Override
+    public void processCoapResponse(CoapResponse coapResponse) {
+        finish(coapResponse, null);
+    }
+
+    @Override
+    public void processTransmissionTimeout() {
+        finish(null, new TimeoutException("Transmission to \"" + this.remoteSocket + "\" timed out."));
+    }
+
+    @Override
+    public void processReset() {
+        finish(null, new RequestFailedException("Request was answered with RST."));
+    }
+
+    @Override
+    public void processBlockwiseResponseTransferFailed() {
+        finish(null, new RequestFailedException("Blockwise response transfer failed."));
+    }
+
+    @Override
+    public void processMiscellaneousError(String description) {
+        finish(null, new RequestFailedException(description));
+    }
+
+    @Override
+    public void processNoMessageIDAvailable() {
+        finish(null, new RequestFailedException("No message ID available for \"" + this.remoteSocket + "\"."));
+    }
+
+    @Override
+    public void processRequestQueueOverflow() {
+        finish(null, new RequestFailedException("Request queue for \"" + this.remoteSocket + "\" is full."));
+    }
+
+    private void finish(CoapResponse coapResponse, Throwable cause) {
+        // the exchange was terminated by the framework, i.e. there is nothing to be released
+        this.finished = true;
+        complete(coapResponse, cause);
+    }
+
+    private void complete(final CoapResponse coapResponse, final Throwable cause) {
+        Runnable completion = new Runnable() {
+            @Override
+            public void run() {
+                if (cause == null) {
+                    future.set(coapResponse);
+                } else {
+                    future.setException(cause);
+                }
+            }
+        };
+
+        try {
+            this.completionExecutor.execute(completion);
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Completion executor rejected task (complete future in current thread).");
+            completion.run();
+        }
+    }
+
+    private void release() {
+        if (this.released.compareAndSet(false, true)) {
+            this.dispatcher.cancelCoapRequest(this.remoteSocket, this.token, this.messageID, this);
+        }
+    }
+}
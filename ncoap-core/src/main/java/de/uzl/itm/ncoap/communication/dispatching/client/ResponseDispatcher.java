@@ -24,9 +24,11 @@
  */
 package de.uzl.itm.ncoap.communication.dispatching.client;
 
-import com.google.common.collect.HashBasedTable;
+import com.google.common.util.concurrent.ListenableFuture;
 import de.uzl.itm.ncoap.application.client.ClientCallback;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.ConcurrentTable;
+import de.uzl.itm.ncoap.communication.caching.CacheKey;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.client.*;
 import de.uzl.itm.ncoap.communication.events.*;
@@ -39,8 +41,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>The {@link ResponseDispatcher} is responsible for
@@ -61,14 +66,17 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
         MessageRetransmittedEvent.Handler, TransmissionTimeoutEvent.Handler, NoMessageIDAvailableEvent.Handler,
         MiscellaneousErrorEvent.Handler, TokenReleasedEvent.Handler, ResponseBlockReceivedEvent.Handler,
         BlockwiseResponseTransferFailedEvent.Handler, ContinueResponseReceivedEvent.Handler,
-        MessageIDReleasedEvent.Handler {
+        MessageIDReleasedEvent.Handler, RequestQueueOverflowEvent.Handler {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     private TokenFactory tokenFactory;
 
-    private HashBasedTable<InetSocketAddress, Token, ClientCallback> clientCallbacks;
-    private ReentrantReadWriteLock lock;
+    private ConcurrentTable<InetSocketAddress, Token, ClientCallback> clientCallbacks;
+    private ConcurrentTable<InetSocketAddress, Token, WriteCoapMessageTask> pendingWrites;
+
+    private volatile boolean requestCoalescing;
+    private ConcurrentMap<String, CoalescedClientCallback> coalescedRequests;
 
 
     /**
@@ -82,12 +90,51 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
      */
     public ResponseDispatcher(ScheduledExecutorService executor, TokenFactory tokenFactory) {
         super(executor);
-        this.clientCallbacks = HashBasedTable.create();
-        this.lock = new ReentrantReadWriteLock();
+        this.clientCallbacks = new ConcurrentTable<>();
+        this.pendingWrites = new ConcurrentTable<>();
+        this.coalescedRequests = new ConcurrentHashMap<>();
         this.tokenFactory = tokenFactory;
     }
 
 
+    /**
+     * Returns the {@link TokenFactory} to provide {@link Token}s for outbound
+     * {@link de.uzl.itm.ncoap.message.CoapRequest}s
+     *
+     * @return the {@link TokenFactory} to provide {@link Token}s for outbound
+     * {@link de.uzl.itm.ncoap.message.CoapRequest}s
+     */
+    public TokenFactory getTokenFactory() {
+        return this.tokenFactory;
+    }
+
+
+    /**
+     * Enables or disables the coalescing of identical requests. If enabled, a {@link MessageCode#GET} request that
+     * is identical to a request already in flight (i.e. same remote endpoint, message type and options except for
+     * those marked as NoCacheKey, see {@link CacheKey}) is not sent but joins the ongoing message exchange. The
+     * response is then delivered to the {@link ClientCallback}s of all joined requests. Observation requests,
+     * requests with ETags and requests via a proxy are never coalesced. Coalescing is disabled by default.
+     *
+     * @param enabled <code>true</code> to enable the coalescing of identical requests and <code>false</code> to
+     *                disable it
+     */
+    public void setRequestCoalescing(boolean enabled) {
+        this.requestCoalescing = enabled;
+    }
+
+
+    /**
+     * Returns <code>true</code> if identical requests are coalesced and <code>false</code> otherwise (see
+     * {@link #setRequestCoalescing(boolean)})
+     *
+     * @return <code>true</code> if identical requests are coalesced and <code>false</code> otherwise
+     */
+    public boolean isRequestCoalescing() {
+        return this.requestCoalescing;
+    }
+
+
     @Override
     public boolean handleInboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
         if (coapMessage instanceof CoapResponse) {
@@ -188,6 +235,19 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
     }
 
 
+    @Override
+    public void handleEvent(RequestQueueOverflowEvent event) {
+        InetSocketAddress remoteSocket = event.getRemoteSocket();
+        Token token = event.getToken();
+        ClientCallback callback = removeCallback(remoteSocket, token);
+        if (callback != null) {
+            callback.processRequestQueueOverflow();
+        } else {
+            log.warn("No callback found for queue overflow (remote socket: \"{}\", token: {}", remoteSocket, token);
+        }
+    }
+
+
     @Override
     public void handleEvent(MessageRetransmittedEvent event) {
         InetSocketAddress remoteSocket = event.getRemoteSocket();
@@ -278,6 +338,78 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
         getExecutor().submit(new WriteCoapMessageTask(coapRequest, remoteSocket, callback));
     }
 
+
+    /**
+     * This method is called by the {@link de.uzl.itm.ncoap.application.client.CoapClient} or by the
+     * {@link de.uzl.itm.ncoap.application.endpoint.CoapEndpoint} to send a request to a remote endpoint (server)
+     * and get the first response as {@link ListenableFuture}.
+     *
+     * The future fails with a {@link java.util.concurrent.TimeoutException} if there was no response within the
+     * given timeout (or the transmission timed out) and with a
+     * {@link de.uzl.itm.ncoap.application.client.RequestFailedException} for any other failure. Cancellation of the
+     * future (as well as a timeout) immediately releases the token and stops further retransmissions.
+     *
+     * @param coapRequest the {@link de.uzl.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteSocket the {@link java.net.InetSocketAddress} of the recipient
+     * @param completionExecutor the {@link Executor} to complete the returned future (i.e. to invoke listeners
+     *                           added with {@link com.google.common.util.concurrent.MoreExecutors#sameThreadExecutor()})
+     * @param timeout the maximum time to wait for a response (or <code>0</code> for no timeout)
+     * @param unit the {@link TimeUnit} of the given timeout
+     *
+     * @return a {@link ListenableFuture} to be completed with the first response
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteSocket,
+            Executor completionExecutor, long timeout, TimeUnit unit) {
+
+        final FutureClientCallback callback = new FutureClientCallback(this, remoteSocket, completionExecutor);
+        if (timeout > 0) {
+            callback.setTimeout(getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    callback.processRequestTimeout();
+                }
+            }, timeout, unit));
+        }
+        sendCoapRequest(coapRequest, remoteSocket, callback);
+        return callback.getFuture();
+    }
+
+
+    /**
+     * Cancels the request with the given {@link Token} if the given callback is still waiting for a response, i.e.
+     * releases the token and stops further retransmissions of the request.
+     *
+     * @param remoteSocket the {@link java.net.InetSocketAddress} of the recipient of the request
+     * @param token the {@link Token} of the request
+     * @param messageID the message ID of the request (or {@link CoapMessage#UNDEFINED_MESSAGE_ID} if not assigned)
+     * @param callback the {@link ClientCallback} associated with the request
+     */
+    void cancelCoapRequest(InetSocketAddress remoteSocket, Token token, int messageID, ClientCallback callback) {
+        ClientCallback registered = getCallback(remoteSocket, token);
+        if (registered instanceof CoalescedClientCallback && registered != callback) {
+            // the exchange is only cancelled if no other request is waiting for the response
+            if (!((CoalescedClientCallback) registered).removeCallback(callback)) {
+                log.info("Cancelled coalesced request (remote endpoint: {}, token: {}).", remoteSocket, token);
+                return;
+            }
+            callback = registered;
+        }
+
+        if (this.clientCallbacks.remove(remoteSocket, token, callback)) {
+            closeCoalescedRequest(callback);
+            log.info("Cancelled request (remote endpoint: {}, token: {}, message ID: {}).",
+                    new Object[]{remoteSocket, token, messageID});
+            triggerEvent(new RequestCancelledEvent(remoteSocket, messageID, token), true);
+            triggerEvent(new TokenReleasedEvent(remoteSocket, token), true);
+
+            // a request that is just being written is possibly not yet known to the reliability handler
+            WriteCoapMessageTask pendingWrite = this.pendingWrites.get(remoteSocket, token);
+            if (pendingWrite != null) {
+                pendingWrite.cancelled = true;
+            }
+        }
+    }
+
 //    /**
 //     * This method is called by the {@link de.uzl.itm.ncoap.application.client.CoapClient} or by the
 //     * {@link de.uzl.itm.ncoap.application.endpoint.CoapEndpoint} to send a request to a remote endpoint (server).
@@ -304,90 +436,52 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
 
 
     private ClientCallback updateCallback(InetSocketAddress remoteSocket, InetSocketAddress previous, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (getCallback(previous, token) == null) {
-                return null;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
-
-        try {
-            this.lock.writeLock().lock();
-            ClientCallback callback = this.clientCallbacks.remove(previous, token);
-            if (callback != null) {
-                this.clientCallbacks.put(remoteSocket, token, callback);
-                log.info("Updated remote socket (old: \"{}\", new: \"{}\")", previous, remoteSocket);
-            }
-            return callback;
-        } finally {
-            this.lock.writeLock().unlock();
+        ClientCallback callback = this.clientCallbacks.remove(previous, token);
+        if (callback != null) {
+            this.clientCallbacks.put(remoteSocket, token, callback);
+            log.info("Updated remote socket (old: \"{}\", new: \"{}\")", previous, remoteSocket);
         }
+        return callback;
     }
 
 
-    private void addCallback(InetSocketAddress remoteSocket, Token token, ClientCallback clientCallback) {
-        try {
-            this.lock.readLock().lock();
-            if (this.clientCallbacks.contains(remoteSocket, token)) {
-                log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteSocket, token);
-                return;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
-
-        try {
-            this.lock.writeLock().lock();
-            if (this.clientCallbacks.contains(remoteSocket, token)) {
-                log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteSocket, token);
-            } else {
-                clientCallbacks.put(remoteSocket, token, clientCallback);
-                log.info("Added callback (remote endpoint: {}, token: {})", remoteSocket, token);
-                if (this.clientCallbacks.size() > 1000) {
-                    log.error("More than 1000 callbacks!");
-                }
+    private ClientCallback addCallback(InetSocketAddress remoteSocket, Token token, ClientCallback clientCallback) {
+        ClientCallback registered = this.clientCallbacks.putIfAbsent(remoteSocket, token, clientCallback);
+        if (registered != null) {
+            log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteSocket, token);
+            return registered;
+        } else {
+            log.info("Added callback (remote endpoint: {}, token: {})", remoteSocket, token);
+            if (this.clientCallbacks.size() > 1000) {
+                log.error("More than 1000 callbacks!");
             }
-        } finally {
-            this.lock.writeLock().unlock();
+            return clientCallback;
         }
     }
 
 
     private ClientCallback removeCallback(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (!this.clientCallbacks.contains(remoteSocket, token)) {
-                log.info("No callback found to be removed (remote endpoint: {}, token: {})", remoteSocket, token);
-                return null;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
-
-        try {
-            this.lock.writeLock().lock();
-            ClientCallback callback = clientCallbacks.remove(remoteSocket, token);
-            if (callback == null) {
-                log.info("No callback found to be removed (remote endpoint: {}, token: {})", remoteSocket, token);
-            } else {
-                log.info("Removed callback (remote endpoint: {}, token: {}). Remaining: {}",
-                        new Object[]{remoteSocket, token, this.clientCallbacks.size()});
-                triggerEvent(new TokenReleasedEvent(remoteSocket, token), true);
-            }
-            return callback;
-        } finally {
-            this.lock.writeLock().unlock();
+        ClientCallback callback = this.clientCallbacks.remove(remoteSocket, token);
+        if (callback == null) {
+            log.info("No callback found to be removed (remote endpoint: {}, token: {})", remoteSocket, token);
+        } else {
+            log.info("Removed callback (remote endpoint: {}, token: {}). Remaining: {}",
+                    new Object[]{remoteSocket, token, this.clientCallbacks.size()});
+            closeCoalescedRequest(callback);
+            triggerEvent(new TokenReleasedEvent(remoteSocket, token), true);
         }
+        return callback;
     }
 
     private ClientCallback getCallback(InetSocketAddress remoteAddress, Token token) {
-        try {
-            this.lock.readLock().lock();
-            return this.clientCallbacks.get(remoteAddress, token);
-        } finally {
-            this.lock.readLock().unlock();
+        return this.clientCallbacks.get(remoteAddress, token);
+    }
+
+    private void closeCoalescedRequest(ClientCallback callback) {
+        if (callback instanceof CoalescedClientCallback) {
+            CoalescedClientCallback coalescedCallback = (CoalescedClientCallback) callback;
+            coalescedCallback.close();
+            this.coalescedRequests.remove(coalescedCallback.getKey(), coalescedCallback);
         }
     }
 
@@ -430,7 +524,8 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
 
         private final CoapMessage coapMessage;
         private final InetSocketAddress remoteSocket;
-        private final ClientCallback callback;
+        private ClientCallback callback;
+        private volatile boolean cancelled;
 
         public WriteCoapMessageTask(CoapMessage coapMessage, InetSocketAddress remoteSocket, ClientCallback callback) {
 
@@ -462,10 +557,15 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
                     return;
                 }
             } else {
+                if (requestCoalescing && CacheKey.isApplicable(this.coapMessage) && joinCoalescedRequest()) {
+                    return;
+                }
+
                 //Prepare CoAP request, the response reception and then send the CoAP request
                 Token token = tokenFactory.getNextToken();
                 if (token == null) {
                     String description = "No token available for remote endpoint " + remoteSocket + ".";
+                    closeCoalescedRequest(this.callback);
                     this.callback.processMiscellaneousError(description);
                     return;
                 } else {
@@ -474,23 +574,74 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
             }
 
             //Add the response callback to wait for the inbound response
-            addCallback(this.remoteSocket, this.coapMessage.getToken(), this.callback);
-            sendRequest();
+            Token token = this.coapMessage.getToken();
+            // a request to stop an observation is answered to the callback of the observation
+            ClientCallback registered = addCallback(this.remoteSocket, token, this.callback);
+            this.callback.processTokenAssignment(token);
+            sendRequest(registered);
         }
 
-        private void sendRequest() {
+        /**
+         * Joins an identical request in flight or registers this request to be joined by subsequent identical
+         * requests (in which case the callback of this task is replaced by a {@link CoalescedClientCallback}).
+         *
+         * @return <code>true</code> if an identical request in flight was joined, i.e. this request is not to be sent
+         */
+        private boolean joinCoalescedRequest() {
+            String key = CacheKey.create((CoapRequest) this.coapMessage, this.remoteSocket) + "|"
+                    + this.coapMessage.getMessageType();
+            CoalescedClientCallback coalescedCallback = new CoalescedClientCallback(key, this.callback);
+            CoalescedClientCallback ongoing = coalescedRequests.putIfAbsent(key, coalescedCallback);
+            while (ongoing != null) {
+                if (ongoing.addCallback(this.callback)) {
+                    log.debug("Joined identical request in flight (remote endpoint: {}, key: {}).",
+                            this.remoteSocket, key);
+                    return true;
+                } else if (coalescedRequests.replace(key, ongoing, coalescedCallback)) {
+                    break;
+                } else {
+                    ongoing = coalescedRequests.putIfAbsent(key, coalescedCallback);
+                }
+            }
+            this.callback = coalescedCallback;
+            return false;
+        }
+
+        private void sendRequest(ClientCallback registered) {
+            Token token = this.coapMessage.getToken();
+            pendingWrites.put(this.remoteSocket, token, this);
+            if (getCallback(this.remoteSocket, token) != registered) {
+                pendingWrites.remove(this.remoteSocket, token, this);
+                log.info("Request was cancelled before it was sent (remote endpoint: {}, token: {}).",
+                        this.remoteSocket, token);
+                return;
+            }
+
             ChannelFuture future = Channels.future(getContext().getChannel());
             Channels.write(getContext(), future, coapMessage, this.remoteSocket);
+            pendingWrites.remove(this.remoteSocket, token, this);
+
+            // a cancellation during the write (i.e. before the request was registered by the reliability handler)
+            // was possibly missed, so it is repeated (now with the assigned message ID, if any)
+            if (this.cancelled) {
+                log.debug("Request was cancelled while it was sent (remote endpoint: {}, token: {}).",
+                        this.remoteSocket, token);
+                triggerEvent(new RequestCancelledEvent(this.remoteSocket, coapMessage.getMessageID(), token), true);
+            }
+
             future.addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture future) throws Exception {
                     if (!future.isSuccess()) {
                         ClientCallback callback = removeCallback(remoteSocket, coapMessage.getToken());
-                        log.error("Could not write CoAP Request!", future.getCause());
-                        if (callback != null) {
-                            callback.processMiscellaneousError("Message could not be sent (Reason: \"" +
-                                    future.getCause().getMessage() + ")\"");
+                        if (callback == null) {
+                            // e.g. a queued request that was cancelled (or discarded) before it was sent
+                            log.debug("Request was not written: {}", future.getCause().getMessage());
+                            return;
                         }
+                        log.error("Could not write CoAP Request!", future.getCause());
+                        callback.processMiscellaneousError("Message could not be sent (Reason: \"" +
+                                future.getCause().getMessage() + ")\"");
                     }
                 }
             });
@@ -29,10 +29,13 @@ import de.uzl.itm.ncoap.communication.dispatching.Token;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Random;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The TokenFactory generates tokens to match inbound responses with open requests and enable the
@@ -47,96 +50,122 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * This leads to 257 (<code>(2^8) + 1</code>) different tokens for a maximum token length of 1 or 65793 different
  * tokens (<code>(2^16) + (2^8) + 1</code>) for a maximum token length of 2 and so on and so forth...
  *
+ * Tokens are generated without locking from a sequence number that is scrambled by a random (bijective)
+ * permutation of the token space, i.e. the tokens are hard to guess but consecutive tokens never collide before the
+ * token space is exhausted. Tokens that are still in use (e.g. for long lasting observations) are skipped.
+ *
  * @author Oliver Kleine
  */
 public class TokenFactory {
 
+    /**
+     * The default length of generated tokens in bytes ({@value #DEFAULT_TOKEN_LENGTH})
+     */
+    public static final int DEFAULT_TOKEN_LENGTH = 8;
+
+    /**
+     * The maximum number of attempts ({@value #MAX_ATTEMPTS}) to find an unused token
+     */
+    public static final int MAX_ATTEMPTS = 65536;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private SortedSet<Token> activeTokens;
-    private ReentrantReadWriteLock lock;
-    private Random random;
+    private final Set<Token> activeTokens;
+    private final AtomicLong sequenceNumber;
+    private final long multiplier;
+    private final long key;
+    private volatile int tokenLength;
 
     /**
      * Creates a new instance of {@link de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory}
-     * producing {@link Token}s where the length of
-     * {@link Token#getBytes()} is not longer than the given
-     * maximum length.
+     * producing {@link Token}s with a length of {@value #DEFAULT_TOKEN_LENGTH} bytes.
      */
     public TokenFactory() {
-        this.lock = new ReentrantReadWriteLock();
-        this.activeTokens = new TreeSet<>();
-        this.random = new Random(System.currentTimeMillis());
+        this(DEFAULT_TOKEN_LENGTH);
     }
 
-    public Token getNextToken() {
-        try{
-            this.lock.writeLock().lock();
-            Token token;
-            do {
-                token = new Token(Longs.toByteArray(this.random.nextLong()));
-            } while (!this.activeTokens.add(token));
-
-            return token;
-        }
-        finally {
-            this.lock.writeLock().unlock();
+    /**
+     * Creates a new instance of {@link de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory}
+     * producing {@link Token}s with the given length.
+     *
+     * @param tokenLength the length of the {@link Token}s to be generated in bytes (1 to 8)
+     *
+     * @throws java.lang.IllegalArgumentException if the given length is out of range
+     */
+    public TokenFactory(int tokenLength) throws IllegalArgumentException {
+        setTokenLength(tokenLength);
+        this.activeTokens = Collections.newSetFromMap(new ConcurrentHashMap<Token, Boolean>());
+
+        Random random = new SecureRandom();
+        this.sequenceNumber = new AtomicLong(random.nextLong());
+        // multiplication with an odd number is a bijection of the token space
+        this.multiplier = random.nextLong() | 1L;
+        this.key = random.nextLong();
+    }
+
+    /**
+     * Sets the length of the {@link Token}s to be generated. Shorter tokens reduce the size of all messages but
+     * also the number of requests that can be in progress at the same time (i.e. 256 for a length of 1).
+     *
+     * @param tokenLength the length of the {@link Token}s to be generated in bytes (1 to 8)
+     *
+     * @throws java.lang.IllegalArgumentException if the given length is out of range
+     */
+    public void setTokenLength(int tokenLength) throws IllegalArgumentException {
+        if (tokenLength < 1 || tokenLength > Token.MAX_LENGTH) {
+            throw new IllegalArgumentException("Token length " + tokenLength + " is out of range (1 to "
+                    + Token.MAX_LENGTH + ").");
         }
+        this.tokenLength = tokenLength;
     }
 
+    /**
+     * Returns the length of the {@link Token}s to be generated in bytes
+     *
+     * @return the length of the {@link Token}s to be generated in bytes
+     */
+    public int getTokenLength() {
+        return this.tokenLength;
+    }
 
-    public synchronized boolean releaseToken(Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (!this.activeTokens.contains(token)) {
-                log.error("Could not release (unknown) Token ({})", token);
-                return false;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
+    /**
+     * Returns a {@link Token} that is currently not in use (or <code>null</code> if there is no such token).
+     *
+     * @return a {@link Token} that is currently not in use (or <code>null</code> if there is no such token)
+     */
+    public Token getNextToken() {
+        int length = this.tokenLength;
+        long mask = length == Longs.BYTES ? -1L : (1L << (8 * length)) - 1;
 
-        try{
-            this.lock.writeLock().lock();
-            if (this.activeTokens.remove(token)) {
-                log.info("Released Token ({})", token);
-                return true;
-            } else {
-                log.error("Could not release Token ({})", token);
-                return false;
+        // a token space with less than MAX_ATTEMPTS tokens is entirely searched
+        long attempts = mask > 0 && mask < MAX_ATTEMPTS ? mask + 1 : MAX_ATTEMPTS;
+        for (long i = 0; i < attempts; i++) {
+            long value = ((this.sequenceNumber.getAndIncrement() * this.multiplier) ^ this.key) & mask;
+            Token token = new Token(Arrays.copyOfRange(Longs.toByteArray(value), Longs.BYTES - length, Longs.BYTES));
+            if (this.activeTokens.add(token)) {
+                return token;
             }
-        } finally {
-            this.lock.writeLock().unlock();
         }
+
+        log.error("No token available (length: {}, tokens in use: {})", length, this.activeTokens.size());
+        return null;
     }
 
 
-//    private static Token getSuccessor(Token token) {
-//
-//        boolean allBitsSet = true;
-//
-//        //Check if all bits in the given byte array are set to 1
-//        for(byte b : token.getBytes()) {
-//            if (b != -1) {
-//                allBitsSet = false;
-//                break;
-//            }
-//        }
-//
-//        if (allBitsSet) {
-//            //make e.g. ([00000000], [00000000]) the successor of ([11111111])
-//            if (token.getBytes().length < Token.MAX_LENGTH) {
-//                return new Token(new byte[token.getBytes().length + 1]);
-//            }
-//
-//            //make [00000000] the successor of the byte array with 8 [11111111] bytes
-//            else{
-//                return new Token(new byte[1]);
-//            }
-//        }
-//
-//        long tmp = Longs.fromByteArray(Bytes.concat(new byte[8-token.getBytes().length], token.getBytes())) + 1;
-//        byte[] result = Longs.toByteArray(tmp);
-//        return new Token(Arrays.copyOfRange(result, 8 - token.getBytes().length, 8));
-//    }
+    /**
+     * Releases the given {@link Token}, i.e. makes it available for further requests
+     *
+     * @param token the {@link Token} to be released
+     *
+     * @return <code>true</code> if the given {@link Token} was released and <code>false</code> if it was unknown
+     */
+    public boolean releaseToken(Token token) {
+        if (this.activeTokens.remove(token)) {
+            log.debug("Released Token ({})", token);
+            return true;
+        } else {
+            log.error("Could not release (unknown) Token ({})", token);
+            return false;
+        }
+    }
 }
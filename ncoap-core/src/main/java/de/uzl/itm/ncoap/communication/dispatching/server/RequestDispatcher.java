@@ -34,6 +34,7 @@ import de.uzl.itm.ncoap.application.server.resource.ObservableWebresource;
 import de.uzl.itm.ncoap.application.server.resource.Webresource;
 import de.uzl.itm.ncoap.application.server.resource.WellKnownCoreResource;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.Drainable;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.server.ObserverAcceptedEvent;
@@ -49,13 +50,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static de.uzl.itm.ncoap.message.MessageCode.INTERNAL_SERVER_ERROR_500;
 import static de.uzl.itm.ncoap.message.MessageCode.PRECONDITION_FAILED_412;
+import static de.uzl.itm.ncoap.message.MessageCode.SERVICE_UNAVAILABLE_503;
 
 /**
 * The {@link RequestDispatcher} is the topmost {@link ChannelHandler} of the {@link ChannelPipeline} returned
@@ -84,14 +87,24 @@ import static de.uzl.itm.ncoap.message.MessageCode.PRECONDITION_FAILED_412;
 *
 * @author Oliver Kleine
 */
-public class RequestDispatcher extends AbstractCoapChannelHandler {
+public class RequestDispatcher extends AbstractCoapChannelHandler implements Drainable {
 
     private static Logger LOG = LoggerFactory.getLogger(RequestDispatcher.class.getName());
 
-    //This map holds all registered webresources (key: URI path, value: Webservice instance)
-    private Map<String, Webresource> registeredServices;
+    /**
+     * The default maximum time to await pending message exchanges upon {@link #shutdown()} ({@value} ms)
+     */
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private static final long SHUTDOWN_POLL_INTERVAL_MILLIS = 20;
+
+    //This router holds all registered webresources (see UriRouter for template and wildcard segments)
+    private UriRouter registeredServices;
 
     private NotFoundHandler notFoundHandler;
+    private volatile Executor resourceExecutor;
+    private AtomicInteger pendingResponses;
+    private volatile long shutdownTimeout;
     //private Channel channel;
     private boolean shutdown;
 
@@ -104,8 +117,10 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
      */
     public RequestDispatcher(NotFoundHandler notFoundHandler, ScheduledExecutorService executor) {
         super(executor);
-        this.registeredServices = Collections.synchronizedMap(new HashMap<String, Webresource>());
+        this.registeredServices = new UriRouter();
         this.notFoundHandler = notFoundHandler;
+        this.pendingResponses = new AtomicInteger(0);
+        this.shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
         this.shutdown = false;
     }
 
@@ -127,27 +142,32 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
         }
 
         final CoapRequest coapRequest = (CoapRequest) coapMessage;
+        this.pendingResponses.incrementAndGet();
 
         //Create settable future to wait for response
         final SettableFuture<CoapResponse> responseFuture = SettableFuture.create();
 
         //Look up web service instance to handle the request
-        final Webresource webresource = this.registeredServices.get(coapRequest.getUriPath());
-        if (webresource == null) {
-            // the requested Webservice DOES NOT exist
-            try {
-                this.notFoundHandler.processCoapRequest(responseFuture, coapRequest, remoteSocket);
-            } catch(Exception ex) {
-                responseFuture.setException(ex);
-            }
-        } else if (coapRequest.isIfNonMatchSet()) {
-                createPreconditionFailed(coapRequest.getMessageType(), coapRequest.getUriPath(), responseFuture);
+        final Webresource webresource = this.registeredServices.route(coapRequest);
+        if (webresource != null && coapRequest.isIfNonMatchSet()) {
+            createPreconditionFailed(coapRequest.getMessageType(), coapRequest.getUriPath(), responseFuture);
         } else {
-            // the requested Webservice DOES exist
-            try {
-                webresource.processCoapRequest(responseFuture, coapRequest, remoteSocket);
-            } catch (Exception ex) {
-                responseFuture.setException(ex);
+            Executor resourceExecutor = this.resourceExecutor;
+            if (resourceExecutor == null) {
+                processCoapRequest(webresource, responseFuture, coapRequest, remoteSocket);
+            } else {
+                try {
+                    resourceExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            processCoapRequest(webresource, responseFuture, coapRequest, remoteSocket);
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    LOG.warn("Resource executor rejected request from \"{}\".", remoteSocket);
+                    responseFuture.set(CoapResponse.createErrorResponse(coapRequest.getMessageType(),
+                            SERVICE_UNAVAILABLE_503, "Request could not be processed (try again later)."));
+                }
             }
         }
 
@@ -161,6 +181,68 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
     }
 
 
+    private void processCoapRequest(Webresource webresource, SettableFuture<CoapResponse> responseFuture,
+                                    CoapRequest coapRequest, InetSocketAddress remoteSocket) {
+        try {
+            if (webresource == null) {
+                // the requested Webservice DOES NOT exist
+                this.notFoundHandler.processCoapRequest(responseFuture, coapRequest, remoteSocket);
+            } else {
+                // the requested Webservice DOES exist
+                webresource.processCoapRequest(responseFuture, coapRequest, remoteSocket);
+            }
+        } catch (Exception ex) {
+            responseFuture.setException(ex);
+        }
+    }
+
+
+    /**
+     * Sets the {@link Executor} to invoke
+     * {@link Webresource#processCoapRequest(SettableFuture, CoapRequest, InetSocketAddress)} (and
+     * {@link NotFoundHandler#processCoapRequest(SettableFuture, CoapRequest, InetSocketAddress)}) with. By default
+     * (or if set to <code>null</code>), requests are processed by the threads of the applications executor (see
+     * {@link de.uzl.itm.ncoap.application.AbstractCoapApplication#getExecutor()}), i.e. blocking {@link Webresource}s
+     * delay the processing of all other inbound messages and of the scheduled protocol tasks (e.g. retransmissions).
+     *
+     * The given {@link Executor} is not shut down by the framework.
+     *
+     * @param resourceExecutor the {@link Executor} to process inbound requests with (or <code>null</code> to
+     *                         process requests by the applications executor)
+     */
+    public void setResourceExecutor(Executor resourceExecutor) {
+        this.resourceExecutor = resourceExecutor;
+    }
+
+
+    /**
+     * Sets the maximum time {@link #shutdown()} awaits the completion of pending message exchanges, i.e. responses
+     * to inbound requests, unacknowledged confirmable responses and shutdown notifications to observers.
+     *
+     * @param timeoutMillis the maximum time (in milliseconds) to await pending message exchanges upon shutdown
+     *                      (default: {@link #DEFAULT_SHUTDOWN_TIMEOUT_MILLIS})
+     *
+     * @throws java.lang.IllegalArgumentException if the given timeout is negative
+     */
+    public void setShutdownTimeout(long timeoutMillis) throws IllegalArgumentException {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Shutdown timeout must not be negative (was: " + timeoutMillis + ")");
+        }
+        this.shutdownTimeout = timeoutMillis;
+    }
+
+
+    /**
+     * Returns the number of inbound requests whose responses were not yet sent
+     *
+     * @return the number of inbound requests whose responses were not yet sent
+     */
+    @Override
+    public int getPendingExchanges() {
+        return this.pendingResponses.get();
+    }
+
+
     @Override
     public boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
         // nothing to do ...
@@ -211,30 +293,24 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
 
 
     /**
-     * Shuts the server down by closing the datagramChannel which includes to unbind the datagramChannel from a
-     * listening port and by this means free the port. All blocked or bound external resources are released.
+     * Removes all registered {@link de.uzl.itm.ncoap.application.server.resource.Webresource} instances from the
+     * server, i.e. invokes the {@link de.uzl.itm.ncoap.application.server.resource.Webresource#shutdown()} method of
+     * all registered services.
+     *
+     * The returned {@link ListenableFuture} is set as soon as all pending message exchanges of the pipeline (see
+     * {@link Drainable}) are completed, e.g. the shutdown notifications (404_NOT_FOUND) were sent to the observers,
+     * or the shutdown timeout (see {@link #setShutdownTimeout(long)}) expired, whatever happens first.
      *
-     * Prior to doing so this methods removes all registered
-     * {@link de.uzl.itm.ncoap.application.server.resource.Webresource} instances from the server, i.e.
-     * invokes the {@link de.uzl.itm.ncoap.application.server.resource.Webresource#shutdown()} method of all registered services.
+     * @return the {@link ListenableFuture} that is set when the pending message exchanges were completed
      */
     public ListenableFuture<Void> shutdown() {
         this.shutdown = true;
-        String[] uriPaths = registeredServices.keySet().toArray(new String[registeredServices.size()]);
-        for(String path : uriPaths) {
-            shutdownWebresource(path);
-        }
-
-        // some time to send possible update notifications (404_NOT_FOUND) to observers
-        try {
-            Thread.sleep(5000);
-        } catch (InterruptedException e) {
-            LOG.error("Interrupted while shutting down RequestDispatcher Manager!", e);
+        for(Webresource webresource : registeredServices.getWebresources()) {
+            shutdownWebresource(webresource.getUriPath());
         }
 
-        // TODO make this an asynchronous method
         SettableFuture<Void> future = SettableFuture.create();
-        future.set(null);
+        new DrainingTask(future, System.currentTimeMillis() + this.shutdownTimeout).run();
         return future;
     }
 
@@ -273,18 +349,28 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
      * It is not possible to register multiple webServices at a single path. If a new service is registered at the
      * server with a path from another already registered service, then the new service replaces the old one.
      *
+     * The path may contain template segments (e.g. "/sensors/{id}/temp") and a wildcard segment as last segment
+     * (e.g. "/files/*"). The matched values are available via
+     * {@link de.uzl.itm.ncoap.message.CoapRequest#getUriPathVariables()}.
+     *
      * @param webresource A {@link de.uzl.itm.ncoap.application.server.resource.Webresource} instance to be registered at the server
      *
      * @throws java.lang.IllegalArgumentException if there was already a
-     * {@link de.uzl.itm.ncoap.application.server.resource.Webresource} registered with the same path
+     * {@link de.uzl.itm.ncoap.application.server.resource.Webresource} registered with the same path or if the path
+     * contains a template segment conflicting with the path of an already registered
+     * {@link de.uzl.itm.ncoap.application.server.resource.Webresource}
      */
     public final void registerWebresource(final Webresource webresource) throws IllegalArgumentException{
-        if (registeredServices.containsKey(webresource.getUriPath())) {
-            throw new IllegalArgumentException("Resource " + webresource.getUriPath() + " is already registered");
+        // the resource is reachable via the router as soon as it is registered, i.e. it must know the dispatcher
+        // before (without being set up for paths that are rejected anyway)
+        String uriPath = webresource.getUriPath();
+        if (!registeredServices.isRegistrable(uriPath)) {
+            throw new IllegalArgumentException("Resource " + uriPath + " is already registered");
         }
-
         webresource.setRequestDispatcher(this);
-        registeredServices.put(webresource.getUriPath(), webresource);
+        if (!registeredServices.register(webresource)) {
+            throw new IllegalArgumentException("Resource " + uriPath + " is already registered");
+        }
         LOG.info("Registered new service at " + webresource.getUriPath());
 
         if (webresource instanceof ObservableWebresource) {
@@ -329,42 +415,54 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
 
         @Override
         public void onSuccess(final CoapResponse coapResponse) {
-            coapResponse.setMessageID(coapRequest.getMessageID());
-            coapResponse.setToken(coapRequest.getToken());
+            try {
+                coapResponse.setMessageID(coapRequest.getMessageID());
+                coapResponse.setPeerID(coapRequest.getPeerID());
+                coapResponse.setToken(coapRequest.getToken());
 
-            if (this.coapRequest.getBlock2Szx() != UintOptionValue.UNDEFINED) {
-                coapResponse.setPreferredBlock2Size(BlockSize.getBlockSize(this.coapRequest.getBlock2Szx()));
-            }
+                if (this.coapRequest.getBlock2Szx() != UintOptionValue.UNDEFINED) {
+                    coapResponse.setPreferredBlock2Size(BlockSize.getBlockSize(this.coapRequest.getBlock2Szx()));
+                }
 
-            if (coapResponse.isUpdateNotification()) {
-                if (webresource instanceof ObservableWebresource && coapRequest.getObserve() == 0) {
-                    // trigger new observer accepted event
-                    Token token = coapResponse.getToken();
-                    long contentFormat = coapResponse.getContentFormat();
-                    BlockSize block2Size = BlockSize.getBlockSize(coapRequest.getBlock2Szx());
-                    triggerEvent(new ObserverAcceptedEvent(
-                            remoteSocket, token, (ObservableWebresource) webresource, contentFormat, block2Size
-                    ), true);
-                } else {
-                    // the observe option is useless here (remove it)...
-                    coapResponse.removeOptions(Option.OBSERVE);
-                    LOG.warn("Removed observe option from response!");
+                if (coapResponse.isUpdateNotification()) {
+                    if (webresource instanceof ObservableWebresource && coapRequest.getObserve() == 0) {
+                        // trigger new observer accepted event
+                        Token token = coapResponse.getToken();
+                        long contentFormat = coapResponse.getContentFormat();
+                        BlockSize block2Size = BlockSize.getBlockSize(coapRequest.getBlock2Szx());
+                        triggerEvent(new ObserverAcceptedEvent(
+                                remoteSocket, token, (ObservableWebresource) webresource, contentFormat, block2Size
+                        ), true);
+                    } else {
+                        // the observe option is useless here (remove it)...
+                        coapResponse.removeOptions(Option.OBSERVE);
+                        LOG.warn("Removed observe option from response!");
+                    }
                 }
+                sendResponse(coapResponse);
+            } finally {
+                // the response was handed on (the write future is not completed if a handler drops the response,
+                // e.g. to send it blockwise)
+                pendingResponses.decrementAndGet();
             }
-            sendResponse(coapResponse);
         }
 
         @Override
         public void onFailure(Throwable throwable) {
-            LOG.error("Exception while processing inbound request", throwable);
-            CoapResponse coapResponse = CoapResponse.createErrorResponse(
-                coapRequest.getMessageType(), INTERNAL_SERVER_ERROR_500, throwable.getMessage()
-            );
-
-            coapResponse.setMessageID(coapRequest.getMessageID());
-            coapResponse.setToken(coapRequest.getToken());
-
-            sendResponse(coapResponse);
+            try {
+                LOG.error("Exception while processing inbound request", throwable);
+                CoapResponse coapResponse = CoapResponse.createErrorResponse(
+                    coapRequest.getMessageType(), INTERNAL_SERVER_ERROR_500, throwable.getMessage()
+                );
+
+                coapResponse.setMessageID(coapRequest.getMessageID());
+                coapResponse.setPeerID(coapRequest.getPeerID());
+                coapResponse.setToken(coapRequest.getToken());
+
+                sendResponse(coapResponse);
+            } finally {
+                pendingResponses.decrementAndGet();
+            }
         }
 
 
@@ -382,4 +480,40 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
             }
         }
     }
+
+
+    private class DrainingTask implements Runnable {
+
+        private final SettableFuture<Void> future;
+        private final long deadline;
+
+        private DrainingTask(SettableFuture<Void> future, long deadline) {
+            this.future = future;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            int pendingExchanges = getPendingExchangesOfPipeline();
+            if (pendingExchanges == 0) {
+                LOG.info("All pending message exchanges completed.");
+                this.future.set(null);
+            } else if (System.currentTimeMillis() >= this.deadline) {
+                LOG.warn("Shutdown timeout expired with {} pending message exchange(s).", pendingExchanges);
+                this.future.set(null);
+            } else {
+                getExecutor().schedule(this, SHUTDOWN_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private int getPendingExchangesOfPipeline() {
+            int pendingExchanges = 0;
+            for (ChannelHandler handler : getContext().getPipeline().toMap().values()) {
+                if (handler instanceof Drainable) {
+                    pendingExchanges += ((Drainable) handler).getPendingExchanges();
+                }
+            }
+            return pendingExchanges;
+        }
+    }
 }
@@ -0,0 +1,417 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.dispatching.server;
+
+import de.uzl.itm.ncoap.application.server.resource.Webresource;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.options.Option;
+import de.uzl.itm.ncoap.message.options.OptionValue;
+import de.uzl.itm.ncoap.message.options.StringOptionValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>The {@link UriRouter} maps the values of the {@link Option#URI_PATH} options of inbound {@link CoapRequest}s
+ * to the registered {@link Webresource}s. The paths are organized as a trie of path segments, i.e. a lookup walks
+ * down the trie segment by segment (without reconstructing the full path) and does not need any lock. Only the
+ * (rare) modifications are synchronized.</p>
+ *
+ * <p>Besides literal segments the path of a {@link Webresource} may contain</p>
+ * <ul>
+ *     <li>template segments (e.g. "/sensors/{id}/temp"), i.e. segments matching any single path segment, and</li>
+ *     <li>a wildcard segment as last segment (e.g. "/files/*"), i.e. a segment matching any number of (remaining)
+ *     path segments (including none).</li>
+ * </ul>
+ *
+ * <p>The values of such segments are passed to the {@link Webresource} via
+ * {@link CoapRequest#getUriPathVariables()} (the value of the wildcard segment is available with name
+ * {@link #WILDCARD}). Literal segments take precedence over template segments which take precedence over wildcard
+ * segments.</p>
+ */
+class UriRouter {
+
+    /**
+     * The wildcard segment (and the name of the variable to contain the path segments matched by a wildcard segment)
+     */
+    static final String WILDCARD = "*";
+
+    private final Node root;
+    private int size;
+
+    UriRouter() {
+        this.root = new Node(null);
+    }
+
+
+    /**
+     * Checks whether a {@link Webresource} can be registered at the given path without any modification of this
+     * {@link UriRouter}.
+     *
+     * @param uriPath the path to be checked
+     *
+     * @return <code>true</code> if a {@link Webresource} can be registered at the given path and <code>false</code>
+     * if there is already another {@link Webresource} registered at the same path
+     *
+     * @throws java.lang.IllegalArgumentException if the path contains a template segment with another variable name
+     * than an already registered path at the same position or if the wildcard segment is not the last segment
+     */
+    synchronized boolean isRegistrable(String uriPath) throws IllegalArgumentException {
+        String[] segments = getSegments(uriPath);
+        Node node = this.root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (WILDCARD.equals(segment)) {
+                if (i < segments.length - 1) {
+                    throw new IllegalArgumentException("Wildcard must be the last segment of a path (but path was \""
+                            + uriPath + "\")");
+                }
+                return node == null || node.wildcard == null;
+            }
+
+            // the remaining segments must be checked even if there is no such node yet
+            if (node != null) {
+                String variable = getVariable(segment);
+                if (variable == null) {
+                    node = node.getChild(segment);
+                } else if (node.template == null || node.template.variable.equals(variable)) {
+                    node = node.template;
+                } else {
+                    throw new IllegalArgumentException("Template variable \"" + variable + "\" conflicts with \""
+                            + node.template.variable + "\" (path: \"" + uriPath + "\")");
+                }
+            }
+        }
+        return node == null || node.webresource == null;
+    }
+
+
+    /**
+     * Registers the given {@link Webresource} at the path returned by {@link Webresource#getUriPath()}. The path is
+     * validated (see {@link #isRegistrable(String)}) before any node is created, i.e. a rejected path does not leave
+     * any (empty) nodes behind.
+     *
+     * @param webresource the {@link Webresource} to be registered
+     *
+     * @return <code>true</code> if the {@link Webresource} was registered and <code>false</code> if there was already
+     * another {@link Webresource} registered at the same path
+     *
+     * @throws java.lang.IllegalArgumentException if the path contains a template segment with another variable name
+     * than an already registered path at the same position or if the wildcard segment is not the last segment
+     */
+    synchronized boolean register(Webresource webresource) throws IllegalArgumentException {
+        if (!isRegistrable(webresource.getUriPath())) {
+            return false;
+        }
+
+        String[] segments = getSegments(webresource.getUriPath());
+        Node node = this.root;
+        for (String segment : segments) {
+            if (WILDCARD.equals(segment)) {
+                node.wildcard = webresource;
+                this.size++;
+                return true;
+            }
+
+            String variable = getVariable(segment);
+            if (variable != null) {
+                if (node.template == null) {
+                    node.template = new Node(variable);
+                }
+                node = node.template;
+            } else {
+                node = node.getOrCreateChild(segment);
+            }
+        }
+
+        node.webresource = webresource;
+        this.size++;
+        return true;
+    }
+
+
+    /**
+     * Removes the {@link Webresource} registered at the given path (including template and wildcard segments).
+     *
+     * @param uriPath the path the {@link Webresource} to be removed is registered at
+     *
+     * @return the removed {@link Webresource} or <code>null</code> if there was no {@link Webresource} registered
+     * at the given path
+     */
+    synchronized Webresource remove(String uriPath) {
+        Webresource webresource = remove(this.root, getSegments(uriPath), 0);
+        if (webresource != null) {
+            this.size--;
+        }
+        return webresource;
+    }
+
+
+    private static Webresource remove(Node node, String[] segments, int index) {
+        if (index == segments.length) {
+            Webresource webresource = node.webresource;
+            node.webresource = null;
+            return webresource;
+        }
+
+        String segment = segments[index];
+        if (WILDCARD.equals(segment) && index == segments.length - 1) {
+            Webresource webresource = node.wildcard;
+            node.wildcard = null;
+            return webresource;
+        }
+
+        String variable = getVariable(segment);
+        Node next = variable != null ? node.template : node.getChild(segment);
+        if (next == null || (variable != null && !variable.equals(next.variable))) {
+            return null;
+        }
+
+        Webresource webresource = remove(next, segments, index + 1);
+        if (webresource != null && next.isEmpty()) {
+            // prune the path to keep the memory footprint small
+            if (variable != null) {
+                node.template = null;
+            } else {
+                node.children.remove(segment);
+            }
+        }
+        return webresource;
+    }
+
+
+    /**
+     * Returns the {@link Webresource} registered at the given path (including template and wildcard segments), i.e.
+     * no matching takes place.
+     *
+     * @param uriPath the path the {@link Webresource} is registered at
+     *
+     * @return the {@link Webresource} registered at the given path or <code>null</code> if there is no such
+     * {@link Webresource}
+     */
+    Webresource get(String uriPath) {
+        String[] segments = getSegments(uriPath);
+        Node node = this.root;
+        for (int i = 0; i < segments.length && node != null; i++) {
+            String segment = segments[i];
+            if (WILDCARD.equals(segment) && i == segments.length - 1) {
+                return node.wildcard;
+            }
+            String variable = getVariable(segment);
+            if (variable != null) {
+                node = node.template;
+                if (node != null && !variable.equals(node.variable)) {
+                    return null;
+                }
+            } else {
+                node = node.getChild(segment);
+            }
+        }
+        return node == null ? null : node.webresource;
+    }
+
+
+    /**
+     * Returns the {@link Webresource} addressed by the given {@link CoapRequest} (or <code>null</code> if there is
+     * no such {@link Webresource}). If the path of the {@link Webresource} contains template or wildcard segments, the
+     * matched values are set on the given {@link CoapRequest} (see {@link CoapRequest#getUriPathVariables()}).
+     *
+     * @param coapRequest the {@link CoapRequest} to look up the addressed {@link Webresource} for
+     *
+     * @return the {@link Webresource} addressed by the given {@link CoapRequest} (or <code>null</code> if there is
+     * no such {@link Webresource})
+     */
+    Webresource route(CoapRequest coapRequest) {
+        Set<OptionValue> options = coapRequest.getOptions(Option.URI_PATH);
+        String[] segments = new String[options.size()];
+        int i = 0;
+        for (OptionValue option : options) {
+            segments[i++] = ((StringOptionValue) option).getDecodedValue();
+        }
+
+        Map<String, String> variables = new HashMap<>(4);
+        Webresource webresource = route(this.root, segments, 0, variables);
+        if (webresource != null && !variables.isEmpty()) {
+            coapRequest.setUriPathVariables(variables);
+        }
+        return webresource;
+    }
+
+
+    private static Webresource route(Node node, String[] segments, int index, Map<String, String> variables) {
+        if (index == segments.length) {
+            Webresource webresource = node.webresource;
+            if (webresource == null && (webresource = node.wildcard) != null) {
+                variables.put(WILDCARD, "");
+            }
+            return webresource;
+        }
+
+        String segment = segments[index];
+        Node next = node.getChild(segment);
+        if (next != null) {
+            Webresource webresource = route(next, segments, index + 1, variables);
+            if (webresource != null) {
+                return webresource;
+            }
+        }
+
+        next = node.template;
+        if (next != null) {
+            Webresource webresource = route(next, segments, index + 1, variables);
+            if (webresource != null) {
+                variables.put(next.variable, segment);
+                return webresource;
+            }
+        }
+
+        Webresource webresource = node.wildcard;
+        if (webresource != null) {
+            StringBuilder remainder = new StringBuilder(segment);
+            for (int i = index + 1; i < segments.length; i++) {
+                remainder.append('/').append(segments[i]);
+            }
+            variables.put(WILDCARD, remainder.toString());
+        }
+        return webresource;
+    }
+
+
+    /**
+     * Returns all registered {@link Webresource}s
+     *
+     * @return all registered {@link Webresource}s
+     */
+    List<Webresource> getWebresources() {
+        List<Webresource> webresources = new ArrayList<>();
+        collect(this.root, webresources);
+        return webresources;
+    }
+
+
+    private static void collect(Node node, List<Webresource> webresources) {
+        Webresource webresource = node.webresource;
+        if (webresource != null) {
+            webresources.add(webresource);
+        }
+        webresource = node.wildcard;
+        if (webresource != null) {
+            webresources.add(webresource);
+        }
+        Node template = node.template;
+        if (template != null) {
+            collect(template, webresources);
+        }
+        ConcurrentMap<String, Node> children = node.children;
+        if (children != null) {
+            for (Node child : children.values()) {
+                collect(child, webresources);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of registered {@link Webresource}s
+     *
+     * @return the number of registered {@link Webresource}s
+     */
+    synchronized int size() {
+        return this.size;
+    }
+
+
+    /**
+     * Returns <code>true</code> if there are no nodes besides the root, i.e. neither registered
+     * {@link Webresource}s nor any (empty) paths, and <code>false</code> otherwise
+     *
+     * @return <code>true</code> if there are no nodes besides the root and <code>false</code> otherwise
+     */
+    synchronized boolean isEmpty() {
+        return this.root.isEmpty();
+    }
+
+
+    private static String[] getSegments(String uriPath) {
+        if (uriPath.startsWith("/")) {
+            uriPath = uriPath.substring(1);
+        }
+        return uriPath.isEmpty() ? new String[0] : uriPath.split("/", -1);
+    }
+
+
+    private static String getVariable(String segment) {
+        if (segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}') {
+            return segment.substring(1, segment.length() - 1);
+        }
+        return null;
+    }
+
+
+    private static class Node {
+
+        // the name of the variable if this node represents a template segment (or null)
+        private final String variable;
+
+        // the children are created lazily as most nodes are leaves
+        private volatile ConcurrentMap<String, Node> children;
+        private volatile Node template;
+        private volatile Webresource webresource;
+        private volatile Webresource wildcard;
+
+        private Node(String variable) {
+            this.variable = variable;
+        }
+
+        private Node getChild(String segment) {
+            ConcurrentMap<String, Node> children = this.children;
+            return children == null ? null : children.get(segment);
+        }
+
+        // to be called while holding the lock of the router
+        private Node getOrCreateChild(String segment) {
+            if (this.children == null) {
+                this.children = new ConcurrentHashMap<>(4);
+            }
+            Node child = this.children.get(segment);
+            if (child == null) {
+                child = new Node(null);
+                this.children.put(segment, child);
+            }
+            return child;
+        }
+
+        private boolean isEmpty() {
+            ConcurrentMap<String, Node> children = this.children;
+            return this.webresource == null && this.wildcard == null && this.template == null
+                    && (children == null || children.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.loopback;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.AbstractChannel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelSink;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.DatagramChannelConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link DatagramChannel} that is attached to a {@link LoopbackNetwork} instead of a real UDP socket. Inbound
+ * datagrams are queued and sequentially passed to the pipeline by a task on the executor of this channel.
+ */
+class LoopbackDatagramChannel extends AbstractChannel implements DatagramChannel {
+
+    private static Logger LOG = LoggerFactory.getLogger(LoopbackDatagramChannel.class.getName());
+
+    private final LoopbackNetwork network;
+    private final ScheduledExecutorService executor;
+    private final DatagramChannelConfig config;
+
+    private final Queue<Datagram> inboundQueue;
+    private final AtomicBoolean draining;
+    private final Runnable drainTask;
+
+    private volatile InetSocketAddress localAddress;
+
+
+    LoopbackDatagramChannel(LoopbackDatagramChannelFactory factory, ChannelPipeline pipeline, ChannelSink sink,
+            LoopbackNetwork network, ScheduledExecutorService executor) {
+
+        super(null, factory, pipeline, sink);
+        this.network = network;
+        this.executor = executor;
+        this.config = new LoopbackDatagramChannelConfig();
+        this.inboundQueue = new ConcurrentLinkedQueue<>();
+        this.draining = new AtomicBoolean(false);
+        this.drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drainInboundQueue();
+            }
+        };
+
+        Channels.fireChannelOpen(this);
+    }
+
+
+    ScheduledExecutorService getExecutor() {
+        return this.executor;
+    }
+
+
+    void bindNow(ChannelFuture future, InetSocketAddress localSocket) {
+        try {
+            this.localAddress = this.network.bind(this, localSocket);
+            future.setSuccess();
+            Channels.fireChannelBound(this, this.localAddress);
+        } catch (Exception ex) {
+            future.setFailure(ex);
+            Channels.fireExceptionCaught(this, ex);
+        }
+    }
+
+
+    void closeNow(ChannelFuture future) {
+        InetSocketAddress localSocket = this.localAddress;
+        if (setClosed()) {
+            future.setSuccess();
+            if (localSocket != null) {
+                this.network.unbind(this, localSocket);
+                Channels.fireChannelUnbound(this);
+            }
+            Channels.fireChannelClosed(this);
+        } else {
+            future.setSuccess();
+        }
+    }
+
+
+    void writeNow(ChannelFuture future, Object message, InetSocketAddress remoteSocket) {
+        if (!isBound()) {
+            future.setFailure(new IllegalStateException("Channel is not bound."));
+            return;
+        }
+
+        ChannelBuffer datagram = (ChannelBuffer) message;
+        int length = datagram.readableBytes();
+        this.network.send(this.localAddress, remoteSocket, datagram);
+        future.setSuccess();
+        Channels.fireWriteComplete(this, length);
+    }
+
+
+    void deliver(ChannelBuffer datagram, InetSocketAddress sender) {
+        if (!isOpen()) {
+            return;
+        }
+
+        this.inboundQueue.add(new Datagram(datagram, sender));
+        if (this.draining.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this.drainTask);
+            } catch (RejectedExecutionException ex) {
+                LOG.debug("Executor was shut down (inbound datagrams dropped).");
+                this.inboundQueue.clear();
+                this.draining.set(false);
+            }
+        }
+    }
+
+
+    private void drainInboundQueue() {
+        while (true) {
+            Datagram datagram;
+            while ((datagram = this.inboundQueue.poll()) != null) {
+                if (isOpen()) {
+                    Channels.fireMessageReceived(this, datagram.content, datagram.sender);
+                }
+            }
+
+            this.draining.set(false);
+
+            // datagrams that were added after the last poll but before the flag was reset are processed here
+            if (this.inboundQueue.isEmpty() || !this.draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+
+    @Override
+    public DatagramChannelConfig getConfig() {
+        return this.config;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return this.localAddress;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public boolean isBound() {
+        return isOpen() && this.localAddress != null;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return false;
+    }
+
+    @Override
+    public ChannelFuture joinGroup(InetAddress multicastAddress) {
+        return getUnsupportedOperationFuture();
+    }
+
+    @Override
+    public ChannelFuture joinGroup(InetSocketAddress multicastAddress, NetworkInterface networkInterface) {
+        return getUnsupportedOperationFuture();
+    }
+
+    @Override
+    public ChannelFuture leaveGroup(InetAddress multicastAddress) {
+        return getUnsupportedOperationFuture();
+    }
+
+    @Override
+    public ChannelFuture leaveGroup(InetSocketAddress multicastAddress, NetworkInterface networkInterface) {
+        return getUnsupportedOperationFuture();
+    }
+
+
+    private static class Datagram {
+
+        private final ChannelBuffer content;
+        private final InetSocketAddress sender;
+
+        private Datagram(ChannelBuffer content, InetSocketAddress sender) {
+            this.content = content;
+            this.sender = sender;
+        }
+    }
+}
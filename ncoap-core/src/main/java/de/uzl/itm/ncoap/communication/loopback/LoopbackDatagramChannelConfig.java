@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.loopback;
+
+import org.jboss.netty.channel.DefaultChannelConfig;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.ReceiveBufferSizePredictor;
+import org.jboss.netty.channel.ReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.socket.DatagramChannelConfig;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+
+/**
+ * The {@link DatagramChannelConfig} of a {@link LoopbackDatagramChannel}. There is no underlying socket, i.e. all
+ * socket options are just stored and have no effect.
+ */
+class LoopbackDatagramChannelConfig extends DefaultChannelConfig implements DatagramChannelConfig {
+
+    private volatile int sendBufferSize = 65536;
+    private volatile int receiveBufferSize = 65536;
+    private volatile int trafficClass;
+    private volatile boolean reuseAddress;
+    private volatile boolean broadcast;
+    private volatile boolean loopbackModeDisabled;
+    private volatile int timeToLive = 1;
+    private volatile InetAddress networkInterfaceAddress;
+    private volatile NetworkInterface networkInterface;
+    private volatile ReceiveBufferSizePredictor predictor;
+    private volatile ReceiveBufferSizePredictorFactory predictorFactory =
+            new FixedReceiveBufferSizePredictorFactory(768);
+
+    @Override
+    public boolean setOption(String key, Object value) {
+        if (super.setOption(key, value)) {
+            return true;
+        }
+
+        if ("receiveBufferSizePredictor".equals(key)) {
+            setReceiveBufferSizePredictor((ReceiveBufferSizePredictor) value);
+        } else if ("receiveBufferSizePredictorFactory".equals(key)) {
+            setReceiveBufferSizePredictorFactory((ReceiveBufferSizePredictorFactory) value);
+        } else if ("sendBufferSize".equals(key)) {
+            setSendBufferSize((Integer) value);
+        } else if ("receiveBufferSize".equals(key)) {
+            setReceiveBufferSize((Integer) value);
+        } else if ("trafficClass".equals(key)) {
+            setTrafficClass((Integer) value);
+        } else if ("reuseAddress".equals(key)) {
+            setReuseAddress((Boolean) value);
+        } else if ("broadcast".equals(key)) {
+            setBroadcast((Boolean) value);
+        } else if ("loopbackModeDisabled".equals(key)) {
+            setLoopbackModeDisabled((Boolean) value);
+        } else if ("timeToLive".equals(key)) {
+            setTimeToLive((Integer) value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int getSendBufferSize() {
+        return this.sendBufferSize;
+    }
+
+    @Override
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    @Override
+    public int getReceiveBufferSize() {
+        return this.receiveBufferSize;
+    }
+
+    @Override
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    @Override
+    public int getTrafficClass() {
+        return this.trafficClass;
+    }
+
+    @Override
+    public void setTrafficClass(int trafficClass) {
+        this.trafficClass = trafficClass;
+    }
+
+    @Override
+    public boolean isReuseAddress() {
+        return this.reuseAddress;
+    }
+
+    @Override
+    public void setReuseAddress(boolean reuseAddress) {
+        this.reuseAddress = reuseAddress;
+    }
+
+    @Override
+    public boolean isBroadcast() {
+        return this.broadcast;
+    }
+
+    @Override
+    public void setBroadcast(boolean broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    @Override
+    public boolean isLoopbackModeDisabled() {
+        return this.loopbackModeDisabled;
+    }
+
+    @Override
+    public void setLoopbackModeDisabled(boolean loopbackModeDisabled) {
+        this.loopbackModeDisabled = loopbackModeDisabled;
+    }
+
+    @Override
+    public int getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    @Override
+    public void setTimeToLive(int ttl) {
+        this.timeToLive = ttl;
+    }
+
+    @Override
+    public InetAddress getInterface() {
+        return this.networkInterfaceAddress;
+    }
+
+    @Override
+    public void setInterface(InetAddress interfaceAddress) {
+        this.networkInterfaceAddress = interfaceAddress;
+    }
+
+    @Override
+    public NetworkInterface getNetworkInterface() {
+        return this.networkInterface;
+    }
+
+    @Override
+    public void setNetworkInterface(NetworkInterface networkInterface) {
+        this.networkInterface = networkInterface;
+    }
+
+    @Override
+    public ReceiveBufferSizePredictor getReceiveBufferSizePredictor() {
+        ReceiveBufferSizePredictor predictor = this.predictor;
+        if (predictor == null) {
+            try {
+                predictor = this.predictorFactory.getPredictor();
+                this.predictor = predictor;
+            } catch (Exception ex) {
+                throw new IllegalStateException("Could not create predictor.", ex);
+            }
+        }
+        return predictor;
+    }
+
+    @Override
+    public void setReceiveBufferSizePredictor(ReceiveBufferSizePredictor predictor) {
+        if (predictor == null) {
+            throw new NullPointerException("predictor");
+        }
+        this.predictor = predictor;
+    }
+
+    @Override
+    public ReceiveBufferSizePredictorFactory getReceiveBufferSizePredictorFactory() {
+        return this.predictorFactory;
+    }
+
+    @Override
+    public void setReceiveBufferSizePredictorFactory(ReceiveBufferSizePredictorFactory predictorFactory) {
+        if (predictorFactory == null) {
+            throw new NullPointerException("predictorFactory");
+        }
+        this.predictorFactory = predictorFactory;
+    }
+}
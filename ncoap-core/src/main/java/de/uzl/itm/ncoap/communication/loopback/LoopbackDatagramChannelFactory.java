@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.loopback;
+
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+import org.jboss.netty.util.internal.ExecutorUtil;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * <p>A {@link DatagramChannelFactory} that creates channels attached to a {@link LoopbackNetwork} instead of real
+ * UDP sockets. Inbound datagrams are passed to the pipeline by tasks on the given executor.</p>
+ *
+ * <p>Like {@link org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory}, this factory shuts down the given
+ * executor upon {@link #releaseExternalResources()}.</p>
+ */
+public class LoopbackDatagramChannelFactory implements DatagramChannelFactory {
+
+    private final LoopbackNetwork network;
+    private final ScheduledExecutorService executor;
+    private final LoopbackDatagramChannelSink sink;
+
+    /**
+     * Creates a new instance of {@link LoopbackDatagramChannelFactory}.
+     *
+     * @param network the {@link LoopbackNetwork} to attach the created channels to
+     * @param executor the {@link ScheduledExecutorService} to deliver (possibly delayed) inbound datagrams
+     */
+    public LoopbackDatagramChannelFactory(LoopbackNetwork network, ScheduledExecutorService executor) {
+        this.network = network;
+        this.executor = executor;
+        this.sink = new LoopbackDatagramChannelSink();
+    }
+
+    @Override
+    public DatagramChannel newChannel(ChannelPipeline pipeline) {
+        return new LoopbackDatagramChannel(this, pipeline, this.sink, this.network, this.executor);
+    }
+
+    @Override
+    public void shutdown() {
+        // nothing to do (there are no I/O workers)
+    }
+
+    @Override
+    public void releaseExternalResources() {
+        ExecutorUtil.shutdownNow(this.executor);
+    }
+}
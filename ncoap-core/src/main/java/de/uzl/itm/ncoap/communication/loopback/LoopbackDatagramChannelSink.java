@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.loopback;
+
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The {@link org.jboss.netty.channel.ChannelSink} for {@link LoopbackDatagramChannel}s, i.e. it executes bind,
+ * close and write requests on the {@link LoopbackNetwork}.
+ */
+class LoopbackDatagramChannelSink extends AbstractChannelSink {
+
+    @Override
+    public void eventSunk(ChannelPipeline pipeline, ChannelEvent event) throws Exception {
+        LoopbackDatagramChannel channel = (LoopbackDatagramChannel) event.getChannel();
+        ChannelFuture future = event.getFuture();
+
+        if (event instanceof ChannelStateEvent) {
+            ChannelStateEvent stateEvent = (ChannelStateEvent) event;
+            Object value = stateEvent.getValue();
+            switch (stateEvent.getState()) {
+                case OPEN:
+                    if (Boolean.FALSE.equals(value)) {
+                        channel.closeNow(future);
+                    }
+                    break;
+                case BOUND:
+                    if (value != null) {
+                        channel.bindNow(future, (InetSocketAddress) value);
+                    } else {
+                        channel.closeNow(future);
+                    }
+                    break;
+                case CONNECTED:
+                    future.setFailure(new UnsupportedOperationException("Loopback channels are connectionless."));
+                    break;
+                case INTEREST_OPS:
+                    future.setSuccess();
+                    break;
+            }
+        } else if (event instanceof MessageEvent) {
+            MessageEvent messageEvent = (MessageEvent) event;
+            channel.writeNow(future, messageEvent.getMessage(), (InetSocketAddress) messageEvent.getRemoteAddress());
+        }
+    }
+}
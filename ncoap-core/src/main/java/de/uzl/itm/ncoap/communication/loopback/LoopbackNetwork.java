@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.loopback;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>An in-memory network to connect CoAP applications within the same JVM without real UDP sockets (see
+ * {@link LoopbackDatagramChannelFactory}). All applications attached to the same {@link LoopbackNetwork} share a
+ * single virtual host, i.e. datagrams are addressed by port number only and the sender address of every datagram
+ * is the loopback address (unless the sending channel was bound to a specific address).</p>
+ *
+ * <p>By default, the network is perfect, i.e. every datagram is delivered immediately and in order. Optionally, it
+ * can be configured to drop datagrams (see {@link #setLossRate(double)}), to delay datagrams (see
+ * {@link #setDelay(long, long)}) and to reorder datagrams (see {@link #setReordering(double, long)}). All random
+ * decisions are taken from a single {@link Random} instance that may be seeded (see {@link #LoopbackNetwork(long)})
+ * to make scenarios reproducible.</p>
+ *
+ * <p><b>Note:</b> Datagrams to the same recipient are delivered sequentially by the executor of the recipient
+ * (i.e. the executor given to its {@link LoopbackDatagramChannelFactory}) in the order of their arrival.</p>
+ */
+public class LoopbackNetwork {
+
+    private static Logger LOG = LoggerFactory.getLogger(LoopbackNetwork.class.getName());
+
+    /**
+     * The first port number to be assigned to channels that are bound to port <code>0</code>
+     * ({@value #FIRST_EPHEMERAL_PORT})
+     */
+    public static final int FIRST_EPHEMERAL_PORT = 49152;
+
+    private static final int LAST_PORT = 65535;
+
+    private final ConcurrentHashMap<Integer, LoopbackDatagramChannel> channels;
+    private final Random random;
+    private int nextEphemeralPort;
+
+    private volatile double lossRate;
+    private volatile long minDelay;
+    private volatile long maxDelay;
+    private volatile double reorderRate;
+    private volatile long reorderDelay;
+
+    private final AtomicLong sentDatagrams;
+    private final AtomicLong droppedDatagrams;
+
+    /**
+     * Creates a new (perfect) instance of {@link LoopbackNetwork}.
+     */
+    public LoopbackNetwork() {
+        this(new Random());
+    }
+
+    /**
+     * Creates a new (perfect) instance of {@link LoopbackNetwork} with the given seed for all random decisions, i.e.
+     * loss, delay and reordering.
+     *
+     * @param seed the seed for all random decisions
+     */
+    public LoopbackNetwork(long seed) {
+        this(new Random(seed));
+    }
+
+    private LoopbackNetwork(Random random) {
+        this.channels = new ConcurrentHashMap<>();
+        this.random = random;
+        this.nextEphemeralPort = FIRST_EPHEMERAL_PORT;
+        this.sentDatagrams = new AtomicLong(0);
+        this.droppedDatagrams = new AtomicLong(0);
+    }
+
+    /**
+     * Sets the probability for every datagram to be dropped.
+     *
+     * @param lossRate the probability for every datagram to be dropped (between <code>0.0</code> and
+     * <code>1.0</code>)
+     *
+     * @throws java.lang.IllegalArgumentException if the given value is not between <code>0.0</code> and
+     * <code>1.0</code>
+     */
+    public void setLossRate(double lossRate) throws IllegalArgumentException {
+        checkProbability(lossRate);
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * Sets the range for the (uniformly distributed) delay of every datagram. Note, that datagrams with different
+     * delays may overtake each other.
+     *
+     * @param minDelay the minimum delay (in milliseconds)
+     * @param maxDelay the maximum delay (in milliseconds)
+     *
+     * @throws java.lang.IllegalArgumentException if the given minimum delay is negative or larger than the given
+     * maximum delay
+     */
+    public void setDelay(long minDelay, long maxDelay) throws IllegalArgumentException {
+        if (minDelay < 0 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("Invalid delay range (" + minDelay + " to " + maxDelay + " ms).");
+        }
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Sets the probability for every datagram to be held back for the given (additional) delay, i.e. to be overtaken
+     * by the datagrams sent in the meantime.
+     *
+     * @param reorderRate the probability for every datagram to be held back (between <code>0.0</code> and
+     * <code>1.0</code>)
+     * @param reorderDelay the additional delay of held back datagrams (in milliseconds)
+     *
+     * @throws java.lang.IllegalArgumentException if the given probability is not between <code>0.0</code> and
+     * <code>1.0</code> or the given delay is negative
+     */
+    public void setReordering(double reorderRate, long reorderDelay) throws IllegalArgumentException {
+        checkProbability(reorderRate);
+        if (reorderDelay < 0) {
+            throw new IllegalArgumentException("Invalid reorder delay (" + reorderDelay + " ms).");
+        }
+        this.reorderRate = reorderRate;
+        this.reorderDelay = reorderDelay;
+    }
+
+    /**
+     * Returns the number of datagrams that were sent via this {@link LoopbackNetwork} (including the dropped ones)
+     *
+     * @return the number of datagrams that were sent via this {@link LoopbackNetwork} (including the dropped ones)
+     */
+    public long getSentDatagrams() {
+        return this.sentDatagrams.get();
+    }
+
+    /**
+     * Returns the number of datagrams that were dropped, i.e. either by chance (see {@link #setLossRate(double)})
+     * or due to an unknown recipient
+     *
+     * @return the number of datagrams that were dropped
+     */
+    public long getDroppedDatagrams() {
+        return this.droppedDatagrams.get();
+    }
+
+
+    InetSocketAddress bind(LoopbackDatagramChannel channel, InetSocketAddress localSocket) throws ChannelException {
+        int port = localSocket.getPort();
+        if (port == 0) {
+            synchronized (this) {
+                for (int i = FIRST_EPHEMERAL_PORT; i <= LAST_PORT; i++) {
+                    int candidate = this.nextEphemeralPort;
+                    this.nextEphemeralPort = candidate == LAST_PORT ? FIRST_EPHEMERAL_PORT : candidate + 1;
+                    if (this.channels.putIfAbsent(candidate, channel) == null) {
+                        return new InetSocketAddress(localSocket.getAddress(), candidate);
+                    }
+                }
+            }
+            throw new ChannelException("No ephemeral port available.");
+        } else if (this.channels.putIfAbsent(port, channel) == null) {
+            return localSocket;
+        } else {
+            throw new ChannelException("Address already in use: " + localSocket);
+        }
+    }
+
+
+    void unbind(LoopbackDatagramChannel channel, InetSocketAddress localSocket) {
+        this.channels.remove(localSocket.getPort(), channel);
+    }
+
+
+    void send(InetSocketAddress localSocket, InetSocketAddress remoteSocket, ChannelBuffer datagram) {
+        this.sentDatagrams.incrementAndGet();
+
+        final LoopbackDatagramChannel recipient = this.channels.get(remoteSocket.getPort());
+        if (recipient == null) {
+            LOG.debug("No channel bound to port {} (datagram dropped).", remoteSocket.getPort());
+            this.droppedDatagrams.incrementAndGet();
+            return;
+        }
+
+        long delay;
+        synchronized (this.random) {
+            if (this.lossRate > 0 && this.random.nextDouble() < this.lossRate) {
+                this.droppedDatagrams.incrementAndGet();
+                return;
+            }
+            delay = this.minDelay;
+            if (this.maxDelay > this.minDelay) {
+                delay += (long) (this.random.nextDouble() * (this.maxDelay - this.minDelay + 1));
+            }
+            if (this.reorderRate > 0 && this.random.nextDouble() < this.reorderRate) {
+                delay += this.reorderDelay;
+            }
+        }
+
+        // copy the datagram (as a real socket would do) because the given buffer may share content with others
+        final ChannelBuffer copy = ChannelBuffers.copiedBuffer(datagram);
+        final InetSocketAddress sender = localSocket.getAddress().isAnyLocalAddress()
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), localSocket.getPort())
+                : localSocket;
+
+        if (delay == 0) {
+            recipient.deliver(copy, sender);
+            return;
+        }
+
+        try {
+            recipient.getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    recipient.deliver(copy, sender);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Recipient on port {} was shut down (datagram dropped).", remoteSocket.getPort());
+            this.droppedDatagrams.incrementAndGet();
+        }
+    }
+
+
+    private static void checkProbability(double value) throws IllegalArgumentException {
+        if (value < 0 || value > 1) {
+            throw new IllegalArgumentException("Probability must be between 0.0 and 1.0 (but was " + value + ").");
+        }
+    }
+}
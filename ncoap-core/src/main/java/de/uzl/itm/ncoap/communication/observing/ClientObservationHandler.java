@@ -24,9 +24,8 @@
  */
 package de.uzl.itm.ncoap.communication.observing;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.ConcurrentTable;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.client.RemoteServerSocketChangedEvent;
 import de.uzl.itm.ncoap.communication.events.client.TokenReleasedEvent;
@@ -39,7 +38,6 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * The {@link ClientObservationHandler} deals with
@@ -53,8 +51,7 @@ public class ClientObservationHandler extends AbstractCoapChannelHandler impleme
 
     private static Logger LOG = LoggerFactory.getLogger(ClientObservationHandler.class.getName());
 
-    private Table<InetSocketAddress, Token, ResourceStatusAge> observations;
-    private ReentrantReadWriteLock lock;
+    private ConcurrentTable<InetSocketAddress, Token, ResourceStatusAge> observations;
 
 
     /**
@@ -62,8 +59,7 @@ public class ClientObservationHandler extends AbstractCoapChannelHandler impleme
      */
     public ClientObservationHandler(ScheduledExecutorService executor) {
         super(executor);
-        this.observations = HashBasedTable.create();
-        this.lock = new ReentrantReadWriteLock();
+        this.observations = new ConcurrentTable<>();
     }
 
     @Override
@@ -128,31 +124,15 @@ public class ClientObservationHandler extends AbstractCoapChannelHandler impleme
     public void handleEvent(RemoteServerSocketChangedEvent event) {
         InetSocketAddress previousSocket = event.getPreviousRemoteSocket();
         Token token = event.getToken();
-        try{
-            lock.readLock().lock();
-            ResourceStatusAge statusAge = this.observations.get(previousSocket, token);
-            if (statusAge == null) {
-                LOG.info("No observation found for updated socket (token: {}, old socket: {}).", token, previousSocket);
-                return;
-            }
-        } finally {
-            lock.readLock().unlock();
-        }
-
         InetSocketAddress remoteSocket = event.getRemoteSocket();
-        try{
-            lock.writeLock().lock();
-            ResourceStatusAge statusAge = this.observations.remove(previousSocket, token);
-            if (statusAge == null) {
-                LOG.info("No observation found with token {} for updated socket (old: {}, new: {}).",
-                        new Object[]{token, previousSocket, remoteSocket});
-            } else {
-                this.observations.put(remoteSocket, token, statusAge);
-                LOG.info("Observation (Token: {}) updated with new remote socket (old: {}, new: {})!",
-                        new Object[]{token, previousSocket, remoteSocket});
-            }
-        } finally {
-            lock.writeLock().unlock();
+        ResourceStatusAge statusAge = this.observations.remove(previousSocket, token);
+        if (statusAge == null) {
+            LOG.info("No observation found with token {} for updated socket (old: {}, new: {}).",
+                    new Object[]{token, previousSocket, remoteSocket});
+        } else {
+            this.observations.put(remoteSocket, token, statusAge);
+            LOG.info("Observation (Token: {}) updated with new remote socket (old: {}, new: {})!",
+                    new Object[]{token, previousSocket, remoteSocket});
         }
     }
 
@@ -164,73 +144,27 @@ public class ClientObservationHandler extends AbstractCoapChannelHandler impleme
 
 
     private void startObservation(InetSocketAddress remoteSocket, Token token) {
-        try{
-            this.lock.readLock().lock();
-            if (this.observations.contains(remoteSocket, token)) {
-                LOG.error("Tried to override existing observation (remote endpoint: {}, token: {}).",
-                        remoteSocket, token);
-                return;
-            }
-        }
-        finally{
-            this.lock.readLock().unlock();
-        }
-
-        try{
-            this.lock.writeLock().lock();
-            if (this.observations.contains(remoteSocket, token)) {
-                LOG.error("Tried to override existing observation (remote endpoint: {}, token: {}).",
-                        remoteSocket, token);
-            }
-
-            else{
-                this.observations.put(remoteSocket, token, new ResourceStatusAge(0, 0));
-                LOG.info("New observation added (remote endpoint: {}, token: {})", remoteSocket, token);
-            }
-        }
-        finally{
-            this.lock.writeLock().unlock();
+        if (this.observations.putIfAbsent(remoteSocket, token, new ResourceStatusAge(0, 0)) != null) {
+            LOG.error("Tried to override existing observation (remote endpoint: {}, token: {}).",
+                    remoteSocket, token);
+        } else {
+            LOG.info("New observation added (remote endpoint: {}, token: {})", remoteSocket, token);
         }
     }
 
 
     private void updateStatusAge(InetSocketAddress remoteSocket, Token token, ResourceStatusAge age) {
-        try{
-            this.lock.writeLock().lock();
-            this.observations.put(remoteSocket, token, age);
-            LOG.info("Updated observation (remote endpoint: {}, token: {}): {}",
-                    new Object[]{remoteSocket, token, age});
-        }
-        finally {
-            this.lock.writeLock().unlock();
-        }
+        this.observations.put(remoteSocket, token, age);
+        LOG.info("Updated observation (remote endpoint: {}, token: {}): {}", new Object[]{remoteSocket, token, age});
     }
 
     private ResourceStatusAge stopObservation(InetSocketAddress remoteSocket, Token token) {
-        try{
-            this.lock.readLock().lock();
-            if (!this.observations.contains(remoteSocket, token)) {
-                LOG.debug("No observation found to be stopped (remote endpoint: {}, token: {})", remoteSocket, token);
-                return null;
-            }
-        }
-        finally{
-            this.lock.readLock().unlock();
-        }
-
-        try{
-            this.lock.writeLock().lock();
-            ResourceStatusAge age = this.observations.remove(remoteSocket, token);
-            if (age == null) {
-                LOG.warn("No observation found to be stopped (remote endpoint: {}, token: {})", remoteSocket, token);
-            }
-            else{
-                LOG.info("Observation stopped (remote endpoint: {}, token: {})!", remoteSocket, token);
-            }
-            return age;
-        }
-        finally{
-            this.lock.writeLock().unlock();
+        ResourceStatusAge age = this.observations.remove(remoteSocket, token);
+        if (age == null) {
+            LOG.debug("No observation found to be stopped (remote endpoint: {}, token: {})", remoteSocket, token);
+        } else {
+            LOG.info("Observation stopped (remote endpoint: {}, token: {})!", remoteSocket, token);
         }
+        return age;
     }
 }
@@ -29,7 +29,10 @@ import de.uzl.itm.ncoap.application.server.CoapServer;
 import de.uzl.itm.ncoap.application.server.resource.ObservableWebresource;
 import de.uzl.itm.ncoap.application.server.resource.WrappedResourceStatus;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.ConcurrentTable;
+import de.uzl.itm.ncoap.communication.Drainable;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.codec.UpdateNotificationTemplate;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.TransmissionTimeoutEvent;
 import de.uzl.itm.ncoap.communication.events.server.RemoteClientSocketChangedEvent;
@@ -46,7 +49,7 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The {@link ServerObservationHandler} is responsible to maintain the list of registered clients observing any
@@ -56,14 +59,13 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 public class ServerObservationHandler extends AbstractCoapChannelHandler implements Observer,
         ResetReceivedEvent.Handler, ObserverAcceptedEvent.Handler, RemoteClientSocketChangedEvent.Handler,
-        TransmissionTimeoutEvent.Handler {
+        TransmissionTimeoutEvent.Handler, Drainable {
 
     private static Logger LOG = LoggerFactory.getLogger(ServerObservationHandler.class.getName());
 
-    private HashBasedTable<InetSocketAddress, Token, ObservationParams> observations1;
-    private HashBasedTable<ObservableWebresource, InetSocketAddress, Token> observations2;
-
-    private ReentrantReadWriteLock lock;
+    private ConcurrentTable<InetSocketAddress, Token, ObservationParams> observations1;
+    private ConcurrentTable<ObservableWebresource, InetSocketAddress, Token> observations2;
+    private AtomicInteger pendingShutdownNotifications;
 
     /**
      * Creates a new instance of {@link ServerObservationHandler}
@@ -73,10 +75,9 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
      */
     public ServerObservationHandler(ScheduledExecutorService executor) {
         super(executor);
-        this.observations1 = HashBasedTable.create();
-        this.observations2 = HashBasedTable.create();
-
-        this.lock = new ReentrantReadWriteLock();
+        this.observations1 = new ConcurrentTable<>();
+        this.observations2 = new ConcurrentTable<>();
+        this.pendingShutdownNotifications = new AtomicInteger(0);
     }
 
 
@@ -145,68 +146,51 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
     private void startObservation(InetSocketAddress remoteSocket, Token token, ObservableWebresource webresource,
             long contentFormat, BlockSize block2Size) {
 
-        try {
-            this.lock.writeLock().lock();
-            ObservationParams params =
-                    new ObservationParams(webresource, remoteSocket, token, contentFormat, block2Size);
-            this.observations1.put(remoteSocket, token, params);
-            this.observations2.put(webresource, remoteSocket, token);
-            LOG.info("Client \"{}\" is now observing \"{}\".", remoteSocket, webresource.getUriPath());
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+        ObservationParams params = new ObservationParams(webresource, remoteSocket, token, contentFormat, block2Size);
+        this.observations1.put(remoteSocket, token, params);
+        this.observations2.put(webresource, remoteSocket, token);
+        LOG.info("Client \"{}\" is now observing \"{}\".", remoteSocket, webresource.getUriPath());
     }
 
 
     private ObservationParams stopObservation(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (!this.observations1.contains(remoteSocket, token)) {
-                return null;
-            }
-        } finally {
-            this.lock.readLock().unlock();
+        ObservationParams params = this.observations1.remove(remoteSocket, token);
+        if (params == null) {
+            return null;
         }
+        this.observations2.remove(params.getWebresource(), remoteSocket, token);
 
-        try {
-            this.lock.writeLock().lock();
-            ObservationParams params = this.observations1.remove(remoteSocket, token);
-            if (params == null) {
-                return null;
-            }
-            this.observations2.remove(params.getWebresource(), remoteSocket);
+        params.getWebresource().removeObserver(remoteSocket);
 
-            params.getWebresource().removeObserver(remoteSocket);
+        LOG.info("Client \"{}\" is no longer observing \"{}\" (token was: \"{}\").",
+                new Object[]{remoteSocket, params.getWebresource().getUriPath(), token});
 
-            LOG.info("Client \"{}\" is no longer observing \"{}\" (token was: \"{}\").",
-                    new Object[]{remoteSocket, params.getWebresource().getUriPath(), token});
-
-            return params;
-
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+        return params;
     }
 
 
     private boolean updateObserverSocket(InetSocketAddress previousRemoteSocket, InetSocketAddress newRemoteSocket,
                                       Token token) {
 
-        try {
-            this.lock.writeLock().lock();
-            ObservationParams params = this.observations1.remove(previousRemoteSocket, token);
-            if (params == null) {
-                return false;
-            } else {
-                this.observations2.remove(params.getWebresource(), previousRemoteSocket);
-                this.startObservation(newRemoteSocket, token, params.getWebresource(), params.getContentFormat(),
-                        params.getBlock2Size());
-                return true;
-            }
-        } finally {
-            this.lock.writeLock().unlock();
+        ObservationParams params = this.observations1.remove(previousRemoteSocket, token);
+        if (params == null) {
+            return false;
+        } else {
+            this.observations2.remove(params.getWebresource(), previousRemoteSocket, token);
+            this.startObservation(newRemoteSocket, token, params.getWebresource(), params.getContentFormat(),
+                    params.getBlock2Size());
+            return true;
         }
+    }
 
+    /**
+     * Returns the number of shutdown notifications (i.e. {@link MessageCode#NOT_FOUND_404}) that were not yet sent
+     *
+     * @return the number of shutdown notifications that were not yet sent
+     */
+    @Override
+    public int getPendingExchanges() {
+        return this.pendingShutdownNotifications.get();
     }
 
     @Override
@@ -220,60 +204,73 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
     }
 
     private void sendShutdownNotifications(ObservableWebresource webresource) {
-        try {
-            this.lock.writeLock().lock();
-            Map<InetSocketAddress, Token> observations = new HashMap<>(this.observations2.row(webresource));
-            for (Map.Entry<InetSocketAddress, Token> observation : observations.entrySet()) {
-                InetSocketAddress remoteSocket = observation.getKey();
-                Token token = observation.getValue();
-                ObservationParams params = stopObservation(remoteSocket, token);
-                if(params != null) {
-                    BlockSize block2Size = params.getBlock2Size();
-                    String uriPath = webresource.getUriPath();
-                    getExecutor().submit(new ShutdownNotificationTask(remoteSocket, token, uriPath, block2Size));
-                } else {
-                    LOG.error("This should never happen!");
-                }
+        Map<InetSocketAddress, Token> observations = this.observations2.row(webresource);
+        for (Map.Entry<InetSocketAddress, Token> observation : observations.entrySet()) {
+            InetSocketAddress remoteSocket = observation.getKey();
+            Token token = observation.getValue();
+            ObservationParams params = stopObservation(remoteSocket, token);
+            if(params != null) {
+                BlockSize block2Size = params.getBlock2Size();
+                String uriPath = webresource.getUriPath();
+                this.pendingShutdownNotifications.incrementAndGet();
+                getExecutor().submit(new ShutdownNotificationTask(remoteSocket, token, uriPath, block2Size));
+            } else {
+                LOG.debug("Observation was stopped concurrently (Remote Socket: {}, Token: {}).", remoteSocket, token);
             }
-        } finally {
-            this.lock.writeLock().unlock();
         }
-
     }
 
 
     private void sendUpdateNotifications(ObservableWebresource webresource) {
-        try {
-            this.lock.readLock().lock();
-            Map<Long, WrappedResourceStatus> representations = new HashMap<>();
-            Set<Map.Entry<InetSocketAddress, Token>> observations = this.observations2.row(webresource).entrySet();
-            LOG.info("Webresource \"{}\" was updated. Starting to send update notifications to {} observers.",
-                    webresource.getUriPath(), observations.size());
-            for(Map.Entry<InetSocketAddress, Token> observation : observations) {
-                // determine observation specific data
-                InetSocketAddress remoteSocket = observation.getKey();
-                Token token = observation.getValue();
-                ObservationParams params = this.observations1.get(remoteSocket, token);
-                long contentFormat = params.getContentFormat();
-                BlockSize block2Size = params.getBlock2Size();
+        Map<Long, WrappedResourceStatus> representations = new HashMap<>();
+        HashBasedTable<Long, BlockSize, CoapResponse> prototypes = HashBasedTable.create();
+        Set<Map.Entry<InetSocketAddress, Token>> observations = this.observations2.row(webresource).entrySet();
+        LOG.info("Webresource \"{}\" was updated. Starting to send update notifications to {} observers.",
+                webresource.getUriPath(), observations.size());
+        for(Map.Entry<InetSocketAddress, Token> observation : observations) {
+            // determine observation specific data
+            InetSocketAddress remoteSocket = observation.getKey();
+            Token token = observation.getValue();
+            ObservationParams params = this.observations1.get(remoteSocket, token);
+            if (params == null) {
+                // observation was stopped in the meantime
+                continue;
+            }
+            long contentFormat = params.getContentFormat();
+            BlockSize block2Size = params.getBlock2Size() == null ? BlockSize.UNBOUND : params.getBlock2Size();
+
+            // get the actual resource status
+            WrappedResourceStatus status = representations.get(contentFormat);
+            if (status == null) {
+                status = webresource.getWrappedResourceStatus(contentFormat);
+                representations.put(contentFormat, status);
+            }
 
-                // get the actual resource status
-                WrappedResourceStatus status = representations.get(contentFormat);
-                if (status == null) {
-                    status = webresource.getWrappedResourceStatus(contentFormat);
-                    representations.put(contentFormat, status);
-                }
-
-                // schedule update notification (immediately)
-                boolean confirmable = webresource.isUpdateNotificationConfirmable(remoteSocket);
-                int messageType =  confirmable ? MessageType.CON : MessageType.NON;
-                getExecutor().submit(new UpdateNotificationTask(remoteSocket, status, messageType, token, block2Size));
+            // get the update notification to share options, content and encoding with (per content format and
+            // block size)
+            CoapResponse prototype = prototypes.get(contentFormat, block2Size);
+            if (prototype == null) {
+                prototype = createPrototype(status, block2Size);
+                prototypes.put(contentFormat, block2Size, prototype);
             }
-        } finally {
-            this.lock.readLock().unlock();
+
+            // schedule update notification (immediately)
+            boolean confirmable = webresource.isUpdateNotificationConfirmable(remoteSocket);
+            int messageType =  confirmable ? MessageType.CON : MessageType.NON;
+            getExecutor().submit(new UpdateNotificationTask(remoteSocket, prototype, messageType, token));
         }
     }
 
+    private static CoapResponse createPrototype(WrappedResourceStatus representation, BlockSize block2Size) {
+        CoapResponse prototype = new CoapResponse(MessageType.NON, MessageCode.CONTENT_205);
+        prototype.setEtag(representation.getEtag());
+        prototype.setContent(representation.getContent(), representation.getContentFormat());
+        prototype.setMaxAge(representation.getMaxAge());
+        prototype.setPreferredBlock2Size(block2Size);
+        prototype.setUpdateNotificationTemplate(new UpdateNotificationTemplate());
+        return prototype;
+    }
+
     private class ObservationParams {
 
         private ObservableWebresource webresource;
@@ -337,27 +334,32 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
         }
 
         public void run() {
-            //prepare CoAP response
-            CoapResponse coapResponse = new CoapResponse(MessageType.NON, MessageCode.NOT_FOUND_404);
-            coapResponse.setToken(token);
-            String content = "Resource \"" + this.webresourcePath + "\" is no longer available.";
-            coapResponse.setContent(content.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
-            coapResponse.setPreferredBlock2Size(block2Size);
-
-            ChannelFuture future = sendCoapMessage(coapResponse, this.remoteSocket);
-//            ChannelFuture future = Channels.future(getContext().getChannel());
-//            Channels.write(getContext(), future, coapResponse, remoteSocket);
-
-            future.addListener(new ChannelFutureListener() {
-                @Override
-                public void operationComplete(ChannelFuture future) throws Exception {
-                    if (!future.isSuccess()) {
-                        LOG.error("Shutdown Notification Failure!", future.getCause());
-                    } else {
-                        LOG.info("Sent NOT_FOUND to \"{}\" (Token: {}).", remoteSocket, token);
+            try {
+                //prepare CoAP response
+                CoapResponse coapResponse = new CoapResponse(MessageType.NON, MessageCode.NOT_FOUND_404);
+                coapResponse.setToken(token);
+                String content = "Resource \"" + this.webresourcePath + "\" is no longer available.";
+                coapResponse.setContent(content.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+                coapResponse.setPreferredBlock2Size(block2Size);
+
+                ChannelFuture future = sendCoapMessage(coapResponse, this.remoteSocket);
+//                ChannelFuture future = Channels.future(getContext().getChannel());
+//                Channels.write(getContext(), future, coapResponse, remoteSocket);
+
+                future.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (!future.isSuccess()) {
+                            LOG.error("Shutdown Notification Failure!", future.getCause());
+                        } else {
+                            LOG.info("Sent NOT_FOUND to \"{}\" (Token: {}).", remoteSocket, token);
+                        }
                     }
-                }
-            });
+                });
+            } finally {
+                // the notification was handed on (the write future is not completed if a handler drops it)
+                pendingShutdownNotifications.decrementAndGet();
+            }
         }
     }
 
@@ -366,28 +368,22 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
         private InetSocketAddress remoteSocket;
         private int messageType;
         private Token token;
-        private BlockSize block2Size;
-        private WrappedResourceStatus representation;
+        private CoapResponse prototype;
 
-        public UpdateNotificationTask(InetSocketAddress remoteSocket, WrappedResourceStatus representation,
-                    int messageType, Token token, BlockSize block2Size) {
+        public UpdateNotificationTask(InetSocketAddress remoteSocket, CoapResponse prototype, int messageType,
+                    Token token) {
 
             this.remoteSocket = remoteSocket;
-            this.representation = representation;
+            this.prototype = prototype;
             this.messageType = messageType;
             this.token = token;
-            this.block2Size = block2Size;
         }
 
         public void run() {
             try {
-                CoapResponse updateNotification = new CoapResponse(messageType, MessageCode.CONTENT_205);
-                updateNotification.setToken(token);
-                updateNotification.setEtag(representation.getEtag());
-                updateNotification.setContent(representation.getContent(), representation.getContentFormat());
-                updateNotification.setMaxAge(representation.getMaxAge());
+                CoapResponse updateNotification =
+                        CoapResponse.createUpdateNotification(prototype, messageType, token);
                 updateNotification.setObserve();
-                updateNotification.setPreferredBlock2Size(block2Size);
 
                 ChannelFuture future = Channels.future(getContext().getChannel());
                 sendCoapMessage(updateNotification, remoteSocket, future);
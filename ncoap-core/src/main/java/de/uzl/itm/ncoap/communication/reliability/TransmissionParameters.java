@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>The transmission parameters for reliable message transfers (see RFC 7252, section 4.8) and the time spans
+ * derived from them (see RFC 7252, section 4.8.2). Instances are immutable.</p>
+ *
+ * <p>The {@link #DEFAULT} parameters (i.e. the values recommended by RFC 7252) lead to an
+ * {@link #getExchangeLifetime()} of 247 seconds, i.e. a message ID can not be used again for the same remote endpoint
+ * for more than 4 minutes. In environments with known, small latencies (e.g. a LAN or a data centre) smaller values,
+ * in particular for <code>MAX_LATENCY</code>, significantly increase the number of message exchanges possible per
+ * remote endpoint.</p>
+ */
+public class TransmissionParameters {
+
+    /**
+     * The default ACK_TIMEOUT ({@value #DEFAULT_ACK_TIMEOUT_MILLIS} milliseconds)
+     */
+    public static final long DEFAULT_ACK_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * The default ACK_RANDOM_FACTOR ({@value #DEFAULT_ACK_RANDOM_FACTOR})
+     */
+    public static final double DEFAULT_ACK_RANDOM_FACTOR = 1.5;
+
+    /**
+     * The default MAX_RETRANSMIT ({@value #DEFAULT_MAX_RETRANSMIT})
+     */
+    public static final int DEFAULT_MAX_RETRANSMIT = 4;
+
+    /**
+     * The default MAX_LATENCY ({@value #DEFAULT_MAX_LATENCY_MILLIS} milliseconds)
+     */
+    public static final long DEFAULT_MAX_LATENCY_MILLIS = 100000;
+
+    /**
+     * The default NSTART ({@value #DEFAULT_NSTART}), i.e. the number of simultaneous outstanding confirmable
+     * requests to a single remote endpoint
+     */
+    public static final int DEFAULT_NSTART = 1;
+
+    /**
+     * The transmission parameters recommended by RFC 7252
+     */
+    public static final TransmissionParameters DEFAULT = new TransmissionParameters(DEFAULT_ACK_TIMEOUT_MILLIS,
+            DEFAULT_ACK_RANDOM_FACTOR, DEFAULT_MAX_RETRANSMIT, DEFAULT_MAX_LATENCY_MILLIS);
+
+    private final long ackTimeout;
+    private final double ackRandomFactor;
+    private final int maxRetransmit;
+    private final long maxLatency;
+    private final int nstart;
+
+    private final long maxTransmitSpan;
+    private final long maxTransmitWait;
+    private final long exchangeLifetime;
+    private final long nonLifetime;
+
+    /**
+     * Creates a new instance of {@link TransmissionParameters}. The PROCESSING_DELAY is assumed to be equal to the
+     * given ACK_TIMEOUT (as recommended by RFC 7252).
+     *
+     * @param ackTimeout the ACK_TIMEOUT (in milliseconds)
+     * @param ackRandomFactor the ACK_RANDOM_FACTOR
+     * @param maxRetransmit the MAX_RETRANSMIT
+     * @param maxLatency the MAX_LATENCY (in milliseconds)
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given values is out of range, i.e. if the ACK_TIMEOUT
+     * is not positive, the ACK_RANDOM_FACTOR is smaller than 1, or MAX_RETRANSMIT or MAX_LATENCY are negative
+     */
+    public TransmissionParameters(long ackTimeout, double ackRandomFactor, int maxRetransmit, long maxLatency)
+            throws IllegalArgumentException {
+        this(ackTimeout, ackRandomFactor, maxRetransmit, maxLatency, DEFAULT_NSTART);
+    }
+
+    /**
+     * Creates a new instance of {@link TransmissionParameters}. The PROCESSING_DELAY is assumed to be equal to the
+     * given ACK_TIMEOUT (as recommended by RFC 7252).
+     *
+     * @param ackTimeout the ACK_TIMEOUT (in milliseconds)
+     * @param ackRandomFactor the ACK_RANDOM_FACTOR
+     * @param maxRetransmit the MAX_RETRANSMIT
+     * @param maxLatency the MAX_LATENCY (in milliseconds)
+     * @param nstart the NSTART, i.e. the number of simultaneous outstanding confirmable requests to a single
+     *               remote endpoint
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given values is out of range, i.e. if the ACK_TIMEOUT
+     * is not positive, the ACK_RANDOM_FACTOR is smaller than 1, MAX_RETRANSMIT or MAX_LATENCY are negative, or
+     * NSTART is not positive
+     */
+    public TransmissionParameters(long ackTimeout, double ackRandomFactor, int maxRetransmit, long maxLatency,
+                                  int nstart) throws IllegalArgumentException {
+
+        if (ackTimeout <= 0) {
+            throw new IllegalArgumentException("ACK_TIMEOUT must be positive (but was " + ackTimeout + ").");
+        }
+        if (ackRandomFactor < 1) {
+            throw new IllegalArgumentException("ACK_RANDOM_FACTOR must be at least 1 "
+                    + "(but was " + ackRandomFactor + ").");
+        }
+        if (maxRetransmit < 0 || maxRetransmit > 30) {
+            throw new IllegalArgumentException("MAX_RETRANSMIT must be between 0 and 30 "
+                    + "(but was " + maxRetransmit + ").");
+        }
+        if (maxLatency < 0) {
+            throw new IllegalArgumentException("MAX_LATENCY must not be negative (but was " + maxLatency + ").");
+        }
+        if (nstart < 1) {
+            throw new IllegalArgumentException("NSTART must be positive (but was " + nstart + ").");
+        }
+
+        this.ackTimeout = ackTimeout;
+        this.ackRandomFactor = ackRandomFactor;
+        this.maxRetransmit = maxRetransmit;
+        this.maxLatency = maxLatency;
+        this.nstart = nstart;
+
+        // RFC 7252, section 4.8.2
+        this.maxTransmitSpan = (long) (ackTimeout * ((1L << maxRetransmit) - 1) * ackRandomFactor);
+        this.maxTransmitWait = (long) (ackTimeout * ((1L << (maxRetransmit + 1)) - 1) * ackRandomFactor);
+        this.exchangeLifetime = this.maxTransmitSpan + 2 * maxLatency + getProcessingDelay();
+        this.nonLifetime = this.maxTransmitSpan + maxLatency;
+    }
+
+    /**
+     * Returns a copy of these {@link TransmissionParameters} with the given NSTART
+     *
+     * @param nstart the NSTART, i.e. the number of simultaneous outstanding confirmable requests to a single
+     *               remote endpoint
+     *
+     * @return a copy of these {@link TransmissionParameters} with the given NSTART
+     *
+     * @throws java.lang.IllegalArgumentException if the given NSTART is not positive
+     */
+    public TransmissionParameters withNstart(int nstart) throws IllegalArgumentException {
+        return new TransmissionParameters(this.ackTimeout, this.ackRandomFactor, this.maxRetransmit, this.maxLatency,
+                nstart);
+    }
+
+    /**
+     * Returns the ACK_TIMEOUT (in milliseconds)
+     *
+     * @return the ACK_TIMEOUT (in milliseconds)
+     */
+    public long getAckTimeout() {
+        return this.ackTimeout;
+    }
+
+    /**
+     * Returns the ACK_RANDOM_FACTOR
+     *
+     * @return the ACK_RANDOM_FACTOR
+     */
+    public double getAckRandomFactor() {
+        return this.ackRandomFactor;
+    }
+
+    /**
+     * Returns the MAX_RETRANSMIT, i.e. the maximum number of retransmissions of a confirmable message
+     *
+     * @return the MAX_RETRANSMIT
+     */
+    public int getMaxRetransmit() {
+        return this.maxRetransmit;
+    }
+
+    /**
+     * Returns the MAX_LATENCY (in milliseconds)
+     *
+     * @return the MAX_LATENCY (in milliseconds)
+     */
+    public long getMaxLatency() {
+        return this.maxLatency;
+    }
+
+    /**
+     * Returns the PROCESSING_DELAY (in milliseconds), i.e. the ACK_TIMEOUT
+     *
+     * @return the PROCESSING_DELAY (in milliseconds)
+     */
+    public long getProcessingDelay() {
+        return this.ackTimeout;
+    }
+
+    /**
+     * Returns the MAX_TRANSMIT_SPAN (in milliseconds), i.e. the maximum time from the first transmission of a
+     * confirmable message to its last retransmission
+     *
+     * @return the MAX_TRANSMIT_SPAN (in milliseconds)
+     */
+    public long getMaxTransmitSpan() {
+        return this.maxTransmitSpan;
+    }
+
+    /**
+     * Returns the MAX_TRANSMIT_WAIT (in milliseconds), i.e. the maximum time from the first transmission of a
+     * confirmable message to the time when the sender gives up on receiving an acknowledgement or reset
+     *
+     * @return the MAX_TRANSMIT_WAIT (in milliseconds)
+     */
+    public long getMaxTransmitWait() {
+        return this.maxTransmitWait;
+    }
+
+    /**
+     * Returns the EXCHANGE_LIFETIME (in milliseconds), i.e. the time from starting to send a confirmable message to
+     * the time when an acknowledgement is no longer expected and the message ID can safely be reused
+     *
+     * @return the EXCHANGE_LIFETIME (in milliseconds)
+     */
+    public long getExchangeLifetime() {
+        return this.exchangeLifetime;
+    }
+
+    /**
+     * Returns the NON_LIFETIME (in milliseconds), i.e. the time from sending a non-confirmable message to the time
+     * its message ID can safely be reused
+     *
+     * @return the NON_LIFETIME (in milliseconds)
+     */
+    public long getNonLifetime() {
+        return this.nonLifetime;
+    }
+
+    /**
+     * Returns the NSTART, i.e. the number of simultaneous outstanding confirmable requests to a single remote
+     * endpoint
+     *
+     * @return the NSTART
+     */
+    public int getNstart() {
+        return this.nstart;
+    }
+
+    /**
+     * Returns a random(!) delay (in milliseconds) between the previous transmission and the given retransmission,
+     * i.e. the initial timeout (between ACK_TIMEOUT and ACK_TIMEOUT * ACK_RANDOM_FACTOR) doubled for each further
+     * retransmission.
+     *
+     * @param retransmission the retransmission number (e.g. 2 for the 2nd retransmission)
+     *
+     * @return a random(!) delay (in milliseconds) for the given retransmission
+     */
+    public long provideRetransmissionDelay(int retransmission) {
+        double random = ThreadLocalRandom.current().nextDouble();
+        return (long) ((1L << (retransmission - 1)) * this.ackTimeout * (1 + random * (this.ackRandomFactor - 1)));
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof TransmissionParameters)) {
+            return false;
+        }
+
+        TransmissionParameters other = (TransmissionParameters) object;
+        return this.ackTimeout == other.ackTimeout && this.ackRandomFactor == other.ackRandomFactor
+                && this.maxRetransmit == other.maxRetransmit && this.maxLatency == other.maxLatency
+                && this.nstart == other.nstart;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((int) (this.ackTimeout * 31 + this.maxLatency) * 31 + this.maxRetransmit) * 31 + this.nstart;
+    }
+
+    @Override
+    public String toString() {
+        return "[ACK_TIMEOUT: " + this.ackTimeout + " ms, ACK_RANDOM_FACTOR: " + this.ackRandomFactor
+                + ", MAX_RETRANSMIT: " + this.maxRetransmit + ", MAX_LATENCY: " + this.maxLatency
+                + " ms, NSTART: " + this.nstart + ", EXCHANGE_LIFETIME: " + this.exchangeLifetime
+                + " ms, NON_LIFETIME: " + this.nonLifetime + " ms]";
+    }
+}
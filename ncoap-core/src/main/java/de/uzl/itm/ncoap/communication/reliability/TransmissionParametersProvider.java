@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides the {@link TransmissionParameters} per remote endpoint, i.e. either the parameters set explicitly for
+ * a remote endpoint or the default parameters of the application. An instance is shared by all reliability related
+ * components of an application.
+ */
+public class TransmissionParametersProvider {
+
+    private volatile TransmissionParameters defaultParameters;
+    private final ConcurrentHashMap<InetSocketAddress, TransmissionParameters> parameters;
+    private final AtomicLong maxLifetime;
+
+    /**
+     * Creates a new instance of {@link TransmissionParametersProvider} with {@link TransmissionParameters#DEFAULT}
+     * as default parameters.
+     */
+    public TransmissionParametersProvider() {
+        this.defaultParameters = TransmissionParameters.DEFAULT;
+        this.parameters = new ConcurrentHashMap<>();
+        this.maxLifetime = new AtomicLong();
+        updateMaxLifetime(this.defaultParameters);
+    }
+
+    /**
+     * Returns the {@link TransmissionParameters} for the given remote endpoint
+     *
+     * @param remoteSocket the socket address of the remote endpoint
+     *
+     * @return the {@link TransmissionParameters} for the given remote endpoint
+     */
+    public TransmissionParameters getTransmissionParameters(InetSocketAddress remoteSocket) {
+        TransmissionParameters result = this.parameters.get(remoteSocket);
+        return result == null ? this.defaultParameters : result;
+    }
+
+    /**
+     * Returns the {@link TransmissionParameters} used for all remote endpoints without explicitly set parameters
+     *
+     * @return the {@link TransmissionParameters} used for all remote endpoints without explicitly set parameters
+     */
+    public TransmissionParameters getDefaultTransmissionParameters() {
+        return this.defaultParameters;
+    }
+
+    /**
+     * Sets the {@link TransmissionParameters} to be used for all remote endpoints without explicitly set parameters.
+     * This does not affect ongoing message exchanges.
+     *
+     * @param defaultParameters the {@link TransmissionParameters} to be used by default
+     */
+    public void setDefaultTransmissionParameters(TransmissionParameters defaultParameters) {
+        if (defaultParameters == null) {
+            throw new NullPointerException("defaultParameters");
+        }
+        updateMaxLifetime(defaultParameters);
+        this.defaultParameters = defaultParameters;
+    }
+
+    /**
+     * Sets the {@link TransmissionParameters} to be used for the given remote endpoint. This does not affect
+     * ongoing message exchanges.
+     *
+     * @param remoteSocket the socket address of the remote endpoint
+     * @param parameters the {@link TransmissionParameters} to be used for the given remote endpoint or
+     * <code>null</code> to use the default parameters
+     */
+    public void setTransmissionParameters(InetSocketAddress remoteSocket, TransmissionParameters parameters) {
+        if (parameters == null) {
+            this.parameters.remove(remoteSocket);
+        } else {
+            updateMaxLifetime(parameters);
+            this.parameters.put(remoteSocket, parameters);
+        }
+    }
+
+    /**
+     * Returns the largest EXCHANGE_LIFETIME or NON_LIFETIME (in milliseconds) of all {@link TransmissionParameters}
+     * ever provided by this {@link TransmissionParametersProvider}, i.e. the maximum time the state of any message
+     * exchange is to be retained (including exchanges started before the parameters were changed).
+     *
+     * @return the largest EXCHANGE_LIFETIME or NON_LIFETIME (in milliseconds) of all {@link TransmissionParameters}
+     * ever provided
+     */
+    public long getMaxLifetime() {
+        return this.maxLifetime.get();
+    }
+
+    private void updateMaxLifetime(TransmissionParameters parameters) {
+        long lifetime = Math.max(parameters.getExchangeLifetime(), parameters.getNonLifetime());
+        long current = this.maxLifetime.get();
+        while (lifetime > current && !this.maxLifetime.compareAndSet(current, lifetime)) {
+            current = this.maxLifetime.get();
+        }
+    }
+}
@@ -24,10 +24,14 @@
  */
 package de.uzl.itm.ncoap.communication.reliability.inbound;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.PeerRegistry;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.events.server.RequestDroppedEvent;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParametersProvider;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import de.uzl.itm.ncoap.message.CoapRequest;
 import de.uzl.itm.ncoap.message.CoapResponse;
@@ -36,10 +40,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -49,20 +54,35 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * {@link de.uzl.itm.ncoap.message.CoapRequest} it schedules the sending of an empty acknowledgement to the
  * sender if there wasn't a response from the addressed webresource within a period of 1.5 seconds.
  *
+ * Once a confirmable request was acknowledged (either by a piggy-backed response or by an empty ACK), the
+ * acknowledgement is kept in a bounded cache for EXCHANGE_LIFETIME. Duplicates of that request (e.g. due to a lost
+ * ACK) are answered from the cache, i.e. without processing the request again.
+ *
+ * All exchanges are identified by the peer ID of the sender (see {@link PeerRegistry}) and the message ID.
+ *
  * @author Oliver Kleine
  */
-public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler {
+public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
+        implements RequestDroppedEvent.Handler {
 
     /**
      * Minimum delay in milliseconds (1500) between the reception of a confirmable request and an empty ACK
      */
     public static final int EMPTY_ACK_DELAY = 1500;
 
+    /**
+     * The maximum number of acknowledgements (10000) kept to answer duplicate confirmable requests
+     */
+    public static final int MAX_CACHED_ACKNOWLEDGEMENTS = 10000;
+
     private static Logger LOG = LoggerFactory.getLogger(ServerInboundReliabilityHandler.class.getName());
 
-    private Table<InetSocketAddress, Integer, Token> unprocessedRequests;
-    private Table<InetSocketAddress, Integer, ScheduledFuture> scheduledEmptyAcknowledgements;
-    private ReentrantReadWriteLock lock;
+    private ConcurrentMap<Long, Token> unprocessedRequests;
+    private ConcurrentMap<Long, ScheduledFuture> scheduledEmptyAcknowledgements;
+
+    private TransmissionParametersProvider parametersProvider;
+    private PeerRegistry peerRegistry;
+    private Cache<Long, Acknowledgement> acknowledgements;
 
 
     /**
@@ -71,13 +91,24 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
      *
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to provide the threads to execute the
      *                 tasks for reliability.
+     * @param parametersProvider the {@link TransmissionParametersProvider} to provide the EXCHANGE_LIFETIME per
+     *                           remote endpoint, i.e. how long acknowledgements are kept to answer duplicates
+     * @param peerRegistry the {@link PeerRegistry} that assigned the peer IDs to inbound messages (i.e. the same
+     *                     instance as used by the {@link de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder})
      */
-    public ServerInboundReliabilityHandler(ScheduledExecutorService executor) {
+    public ServerInboundReliabilityHandler(ScheduledExecutorService executor,
+                                           TransmissionParametersProvider parametersProvider,
+                                           PeerRegistry peerRegistry) {
         super(executor);
-        this.unprocessedRequests = HashBasedTable.create();
-        this.scheduledEmptyAcknowledgements = HashBasedTable.create();
-
-        this.lock = new ReentrantReadWriteLock();
+        this.unprocessedRequests = new ConcurrentHashMap<>();
+        this.scheduledEmptyAcknowledgements = new ConcurrentHashMap<>();
+
+        this.parametersProvider = parametersProvider;
+        this.peerRegistry = peerRegistry;
+        this.acknowledgements = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_ACKNOWLEDGEMENTS)
+                .expireAfterWrite(TransmissionParameters.DEFAULT.getExchangeLifetime(), TimeUnit.MILLISECONDS)
+                .build();
     }
 
 
@@ -105,14 +136,19 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
         if (coapMessage instanceof CoapResponse) {
             Token token = coapMessage.getToken();
             int messageID = coapMessage.getMessageID();
-            removeUnprocessedRequest(remoteSocket, messageID, token);
-            if (!cancelEmptyAcknowledgement(remoteSocket, coapMessage.getMessageID())) {
+            // the response carries the peer ID of the request (if it was created by the framework)
+            int peerID = this.peerRegistry.getPeerID(coapMessage, remoteSocket);
+            long exchange = PeerRegistry.getExchangeKey(peerID, messageID);
+            if (!cancelEmptyAcknowledgement(exchange, remoteSocket, messageID)) {
                 // will be set by the next handler
                 coapMessage.setMessageID(CoapMessage.UNDEFINED_MESSAGE_ID);
             } else {
                 coapMessage.setMessageType(MessageType.ACK);
                 LOG.info("Changed message type to ACK!");
+                addAcknowledgement(exchange, remoteSocket, (CoapResponse) coapMessage);
             }
+            // not before the ACK was added, i.e. a duplicate is always either "unprocessed" or acknowledged
+            removeUnprocessedRequest(exchange, remoteSocket, messageID, token);
         }
         return true;
     }
@@ -122,11 +158,26 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
 
         int messageType = coapRequest.getMessageType();
         int messageID = coapRequest.getMessageID();
+        long exchange = PeerRegistry.getExchangeKey(this.peerRegistry.getPeerID(coapRequest, remoteSocket), messageID);
+
+        if (messageType == MessageType.CON) {
+            Acknowledgement acknowledgement = getAcknowledgement(exchange);
+            if (acknowledgement != null) {
+                LOG.info("Duplicate Request received from \"{}\" (message ID: {}). Send cached ACK...",
+                        remoteSocket, messageID);
+                if (acknowledgement.response == null) {
+                    sendEmptyACK(messageID, remoteSocket);
+                } else {
+                    sendCoapMessage(acknowledgement.response, remoteSocket);
+                }
+                return false;
+            }
+        }
 
-        if (!addUnprocessedRequest(remoteSocket, messageID, coapRequest.getToken())) {
+        if (!addUnprocessedRequest(exchange, coapRequest.getToken())) {
             LOG.info("Duplicate Request received from \"{}\" (message ID: {})", remoteSocket, messageID);
             if (messageType == MessageType.CON) {
-                ScheduledFuture future = getFromScheduledEmptyAcknowledgements(remoteSocket, messageID);
+                ScheduledFuture future = this.scheduledEmptyAcknowledgements.get(exchange);
                 if (future == null || future.isDone()) {
                     LOG.debug("Duplicate was CON. Send immediate empty ACK...");
                     sendEmptyACK(messageID, remoteSocket);
@@ -139,137 +190,117 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
             return false;
         } else {
             if (messageType == MessageType.CON) {
-                scheduleEmptyAcknowledgement(remoteSocket, messageID);
+                scheduleEmptyAcknowledgement(exchange, remoteSocket, messageID);
             }
             return true;
         }
     }
 
 
-    private boolean addUnprocessedRequest(InetSocketAddress remoteSocket, int messageID, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (this.unprocessedRequests.contains(remoteSocket, messageID)) {
-                return false;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
-
-        try {
-            this.lock.writeLock().lock();
-            if (this.unprocessedRequests.contains(remoteSocket, messageID)) {
-                return false;
-            } else {
-                this.unprocessedRequests.put(remoteSocket, messageID, token);
-                return true;
-            }
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+    @Override
+    public void handleEvent(RequestDroppedEvent event) {
+        InetSocketAddress remoteSocket = event.getRemoteSocket();
+        int messageID = event.getMessageID();
+        long exchange = PeerRegistry.getExchangeKey(this.peerRegistry.getPeerID(remoteSocket), messageID);
+        removeUnprocessedRequest(exchange, remoteSocket, messageID, event.getToken());
+        cancelEmptyAcknowledgement(exchange, remoteSocket, messageID);
     }
 
-    private void removeUnprocessedRequest(InetSocketAddress remoteSocket, int messageID, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (!token.equals(this.unprocessedRequests.get(remoteSocket, messageID))) {
-                return;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
 
-        try {
-            this.lock.writeLock().lock();
-            if (token.equals(this.unprocessedRequests.get(remoteSocket, messageID))) {
-                this.unprocessedRequests.remove(remoteSocket, messageID);
-                LOG.debug("Removed request from \"{}\" from \"unprocessed\" (Message ID: {}, Token: {}).",
-                        new Object[]{remoteSocket, messageID, token});
-            }
-        } finally {
-            this.lock.writeLock().unlock();
+    private boolean addUnprocessedRequest(long exchange, Token token) {
+        return this.unprocessedRequests.putIfAbsent(exchange, token) == null;
+    }
+
+    private void removeUnprocessedRequest(long exchange, InetSocketAddress remoteSocket, int messageID, Token token) {
+        if (this.unprocessedRequests.remove(exchange, token)) {
+            LOG.debug("Removed request from \"{}\" from \"unprocessed\" (Message ID: {}, Token: {}).",
+                    new Object[]{remoteSocket, messageID, token});
         }
     }
 
-    private void scheduleEmptyAcknowledgement(final InetSocketAddress remoteSocket, final int messageID) {
+    private void scheduleEmptyAcknowledgement(final long exchange, final InetSocketAddress remoteSocket,
+                                              final int messageID) {
 
-        try {
-            this.lock.readLock().lock();
-            if (this.scheduledEmptyAcknowledgements.contains(remoteSocket, messageID)) {
-                LOG.debug("Empty ACK was already scheduled (RCPT: \"{}\", message ID: {}", remoteSocket, messageID);
-                return;
-            }
-        } finally {
-            this.lock.readLock().unlock();
+        if (this.scheduledEmptyAcknowledgements.containsKey(exchange)) {
+            LOG.debug("Empty ACK was already scheduled (RCPT: \"{}\", message ID: {}", remoteSocket, messageID);
+            return;
         }
 
-        try {
-            this.lock.writeLock().lock();
-            if (this.scheduledEmptyAcknowledgements.contains(remoteSocket, messageID)) {
-                LOG.debug("Empty ACK was already scheduled (RCPT: \"{}\", message ID: {}", remoteSocket, messageID);
-                return;
+        ScheduledFuture future = getExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                removeFromScheduledEmptyAcknowledgements(exchange);
+                addAcknowledgement(exchange, remoteSocket, null);
+                sendEmptyACK(messageID, remoteSocket);
             }
-            //RequestConfirmationTask confirmationTask = new RequestConfirmationTask(ctx, remoteSocket, messageID);
-            ScheduledFuture future = getExecutor().schedule(new Runnable() {
-                @Override
-                public void run() {
-                    removeFromScheduledEmptyAcknowledgements(remoteSocket, messageID);
-                    sendEmptyACK(messageID, remoteSocket);
-                }
-            }, EMPTY_ACK_DELAY, TimeUnit.MILLISECONDS);
-            this.scheduledEmptyAcknowledgements.put(remoteSocket, messageID, future);
+        }, EMPTY_ACK_DELAY, TimeUnit.MILLISECONDS);
+
+        if (this.scheduledEmptyAcknowledgements.putIfAbsent(exchange, future) != null) {
+            future.cancel(false);
+            LOG.debug("Empty ACK was already scheduled (RCPT: \"{}\", message ID: {}", remoteSocket, messageID);
+        } else if (future.isDone()) {
+            // the empty ACK was sent before the future was added
+            this.scheduledEmptyAcknowledgements.remove(exchange, future);
+        } else {
             LOG.debug("Scheduled empty ACK (RCPT: \"{}\", message ID: {}", remoteSocket, messageID);
-        } finally {
-            this.lock.writeLock().unlock();
         }
     }
 
-    private boolean cancelEmptyAcknowledgement(InetSocketAddress remoteSocket, int messageID) {
-        try {
-            this.lock.readLock().lock();
-            ScheduledFuture future = this.scheduledEmptyAcknowledgements.get(remoteSocket, messageID);
-            if (future == null || future.isDone()) {
-                return false;
-            }
-        } finally {
-            this.lock.readLock().unlock();
+    private boolean cancelEmptyAcknowledgement(long exchange, InetSocketAddress remoteSocket, int messageID) {
+        ScheduledFuture future = this.scheduledEmptyAcknowledgements.get(exchange);
+        if (future == null || future.isDone()) {
+            return false;
         }
 
-        ScheduledFuture future = removeFromScheduledEmptyAcknowledgements(remoteSocket, messageID);
-        if (future != null && !future.isDone()) {
-            if (future.cancel(false)) {
-                LOG.info("Canceled empty ACK to \"{}\" (message ID: {})", remoteSocket, messageID);
-                return true;
-            } else {
-                LOG.warn("Could NOT cancel empty ACK to \"{}\" (message ID: {})", remoteSocket, messageID);
-                return false;
-            }
+        if (!this.scheduledEmptyAcknowledgements.remove(exchange, future)) {
+            return false;
+        }
+
+        LOG.debug("Removed scheduled empty ACK (Remaining: {})", this.scheduledEmptyAcknowledgements.size());
+        if (future.cancel(false)) {
+            LOG.info("Canceled empty ACK to \"{}\" (message ID: {})", remoteSocket, messageID);
+            return true;
         } else {
+            LOG.warn("Could NOT cancel empty ACK to \"{}\" (message ID: {})", remoteSocket, messageID);
             return false;
         }
     }
 
 
-    private ScheduledFuture removeFromScheduledEmptyAcknowledgements(InetSocketAddress remoteSocket, int messageID) {
-        try {
-            this.lock.writeLock().lock();
-            ScheduledFuture future = this.scheduledEmptyAcknowledgements.remove(remoteSocket, messageID);
-            if (LOG.isDebugEnabled() && future != null) {
-                LOG.debug("Removed scheduled empty ACK (Remaining: {})", this.scheduledEmptyAcknowledgements.size());
-            }
-            return future;
-        } finally {
-            this.lock.writeLock().unlock();
+    private ScheduledFuture removeFromScheduledEmptyAcknowledgements(long exchange) {
+        ScheduledFuture future = this.scheduledEmptyAcknowledgements.remove(exchange);
+        if (LOG.isDebugEnabled() && future != null) {
+            LOG.debug("Removed scheduled empty ACK (Remaining: {})", this.scheduledEmptyAcknowledgements.size());
         }
+        return future;
     }
 
-    private ScheduledFuture getFromScheduledEmptyAcknowledgements(InetSocketAddress remoteSocket, int messageID) {
-        try {
-            this.lock.readLock().lock();
-            return this.scheduledEmptyAcknowledgements.get(remoteSocket, messageID);
-        } finally {
-            this.lock.readLock().unlock();
+    private void addAcknowledgement(long exchange, InetSocketAddress remoteSocket, CoapResponse response) {
+        long lifetime = this.parametersProvider.getTransmissionParameters(remoteSocket).getExchangeLifetime();
+        Acknowledgement acknowledgement = new Acknowledgement(response, System.currentTimeMillis() + lifetime);
+        this.acknowledgements.put(exchange, acknowledgement);
+    }
+
+    private Acknowledgement getAcknowledgement(long exchange) {
+        Acknowledgement acknowledgement = this.acknowledgements.getIfPresent(exchange);
+        if (acknowledgement != null && acknowledgement.expiry < System.currentTimeMillis()) {
+            // EXCHANGE_LIFETIME for this remote endpoint is shorter than the default
+            this.acknowledgements.invalidate(exchange);
+            return null;
         }
+        return acknowledgement;
     }
-}
 
+
+    private static class Acknowledgement {
+
+        // null for empty ACKs (i.e. separate responses)
+        private final CoapResponse response;
+        private final long expiry;
+
+        private Acknowledgement(CoapResponse response, long expiry) {
+            this.response = response;
+            this.expiry = expiry;
+        }
+    }
+}
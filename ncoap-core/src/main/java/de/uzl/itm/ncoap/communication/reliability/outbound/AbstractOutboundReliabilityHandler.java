@@ -24,15 +24,20 @@
  */
 package de.uzl.itm.ncoap.communication.reliability.outbound;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.PeerRegistry;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.Observer;
-import java.util.Random;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -45,32 +50,34 @@ public abstract class AbstractOutboundReliabilityHandler extends AbstractCoapCha
 
     private static Logger LOG = LoggerFactory.getLogger(AbstractOutboundReliabilityHandler.class.getName());
 
-    public static final int MAX_RETRANSMISSIONS = 4;
+    /**
+     * The default maximum number of retransmissions (4), see {@link TransmissionParameters#DEFAULT_MAX_RETRANSMIT}
+     */
+    public static final int MAX_RETRANSMISSIONS = TransmissionParameters.DEFAULT_MAX_RETRANSMIT;
 
     /**
-     * The minimum number of milliseconds (2000) to wait for the first retransmit of an outgoing
+     * The default minimum number of milliseconds (2000) to wait for the first retransmit of an outgoing
      * {@link de.uzl.itm.ncoap.message.CoapMessage} with
      * {@link de.uzl.itm.ncoap.message.MessageType#CON}
      */
-    public static final int ACK_TIMEOUT_MILLIS = 2000;
+    public static final int ACK_TIMEOUT_MILLIS = (int) TransmissionParameters.DEFAULT_ACK_TIMEOUT_MILLIS;
 
     /**
-     * The factor (1.5) to be multiplied with {@link #ACK_TIMEOUT_MILLIS} to get the maximum number of milliseconds
-     * (3000) to wait for the first retransmit of an outgoing {@link de.uzl.itm.ncoap.message.CoapMessage} with
-     * {@link de.uzl.itm.ncoap.message.MessageType#CON}
+     * The default factor (1.5) to be multiplied with {@link #ACK_TIMEOUT_MILLIS} to get the maximum number of
+     * milliseconds (3000) to wait for the first retransmit of an outgoing {@link de.uzl.itm.ncoap.message.CoapMessage}
+     * with {@link de.uzl.itm.ncoap.message.MessageType#CON}
      */
-    public static final double ACK_RANDOM_FACTOR = 1.5;
-
-    private static final Random RANDOM = new Random(System.currentTimeMillis());
+    public static final double ACK_RANDOM_FACTOR = TransmissionParameters.DEFAULT_ACK_RANDOM_FACTOR;
 
     /**
-     * Provides a random(!) delay for the given retransmission number according to the CoAP specification
+     * Provides a random(!) delay for the given retransmission number according to the CoAP specification and the
+     * {@link TransmissionParameters#DEFAULT} transmission parameters
+     *
      * @param retransmission the retransmission number (e.g. 2 for the 2nd retransmission)
      * @return a random(!) delay for the given retransmission number according to the CoAP specification
      */
     public static long provideRetransmissionDelay(int retransmission) {
-        return (long)(Math.pow(2, retransmission - 1) * ACK_TIMEOUT_MILLIS *
-                (1 + RANDOM.nextDouble() * (ACK_RANDOM_FACTOR - 1)));
+        return TransmissionParameters.DEFAULT.provideRetransmissionDelay(retransmission);
     }
 
     public static long[] provideTransmissionDelays() {
@@ -82,7 +89,14 @@ public abstract class AbstractOutboundReliabilityHandler extends AbstractCoapCha
         return delays;
     }
 
+    /**
+     * The number of minutes (10) after which the RTO estimation for an idle remote endpoint is discarded
+     */
+    public static final int RTO_ESTIMATION_IDLE_MINUTES = 10;
+
     private MessageIDFactory messageIDFactory;
+    private RetransmissionTimer timer;
+    private LoadingCache<InetSocketAddress, RetransmissionTimeoutEstimator> estimators;
 
     /**
      * Creates a new instance of {@link de.uzl.itm.ncoap.communication.reliability.outbound.AbstractOutboundReliabilityHandler}
@@ -93,11 +107,77 @@ public abstract class AbstractOutboundReliabilityHandler extends AbstractCoapCha
         super(executor);
         this.messageIDFactory = factory;
         this.messageIDFactory.addObserver(this);
+        this.timer = new RetransmissionTimer(executor);
+        this.estimators = CacheBuilder.newBuilder()
+                .expireAfterAccess(RTO_ESTIMATION_IDLE_MINUTES, TimeUnit.MINUTES)
+                .build(new CacheLoader<InetSocketAddress, RetransmissionTimeoutEstimator>() {
+                    @Override
+                    public RetransmissionTimeoutEstimator load(InetSocketAddress remoteSocket) {
+                        long ackTimeout = getTransmissionParameters(remoteSocket).getAckTimeout();
+                        return new RetransmissionTimeoutEstimator(ackTimeout);
+                    }
+                });
+    }
+
+    /**
+     * Returns the {@link RetransmissionTimer} to schedule retransmissions
+     *
+     * @return the {@link RetransmissionTimer} to schedule retransmissions
+     */
+    protected RetransmissionTimer getTimer() {
+        return this.timer;
+    }
+
+
+    /**
+     * Returns the {@link TransmissionParameters} to be used for transmissions to the given remote endpoint
+     *
+     * @param remoteSocket the socket address of the remote endpoint
+     *
+     * @return the {@link TransmissionParameters} to be used for transmissions to the given remote endpoint
+     */
+    protected TransmissionParameters getTransmissionParameters(InetSocketAddress remoteSocket) {
+        return this.messageIDFactory.getTransmissionParametersProvider().getTransmissionParameters(remoteSocket);
+    }
+
+
+    /**
+     * Returns the current (adaptive) retransmission timeout (in milliseconds) for the given remote endpoint
+     *
+     * @param remoteSocket the socket address of the remote endpoint
+     *
+     * @return the current (adaptive) retransmission timeout (in milliseconds) for the given remote endpoint
+     */
+    public long getRetransmissionTimeout(InetSocketAddress remoteSocket) {
+        return this.estimators.getUnchecked(remoteSocket).getRetransmissionTimeout();
+    }
+
+
+    RetransmissionSchedule createRetransmissionSchedule(InetSocketAddress remoteSocket) {
+        return new RetransmissionSchedule(
+                getTransmissionParameters(remoteSocket), getRetransmissionTimeout(remoteSocket)
+        );
+    }
+
+
+    void updateRetransmissionTimeout(InetSocketAddress remoteSocket, RetransmissionSchedule schedule) {
+        long roundTripTime = schedule.getElapsedTime();
+        int retransmissions = schedule.getRetransmissions();
+        this.estimators.getUnchecked(remoteSocket).update(roundTripTime, retransmissions);
+        LOG.debug("Updated RTO for \"{}\" (RTT: {} ms, retransmissions: {}).",
+                new Object[]{remoteSocket, roundTripTime, retransmissions});
     }
 
 
     protected int assignMessageID(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
-        int messageID = this.messageIDFactory.getNextMessageID(remoteSocket, coapMessage.getToken());
+        return assignMessageID(coapMessage, remoteSocket, PeerRegistry.UNDEFINED_PEER_ID);
+    }
+
+
+    protected int assignMessageID(CoapMessage coapMessage, InetSocketAddress remoteSocket, int peerID) {
+        int messageID = this.messageIDFactory.getNextMessageID(
+                remoteSocket, peerID, coapMessage.getToken(), coapMessage.getMessageType()
+        );
 
         if (!(messageID == CoapMessage.UNDEFINED_MESSAGE_ID)) {
             coapMessage.setMessageID(messageID);
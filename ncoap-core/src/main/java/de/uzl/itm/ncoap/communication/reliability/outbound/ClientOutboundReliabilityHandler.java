@@ -24,52 +24,94 @@
  */
 package de.uzl.itm.ncoap.communication.reliability.outbound;
 
-import com.google.common.collect.*;
+import de.uzl.itm.ncoap.communication.PeerRegistry;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.*;
+import de.uzl.itm.ncoap.communication.events.client.RequestCancelledEvent;
+import de.uzl.itm.ncoap.communication.events.client.RequestQueueOverflowEvent;
 import de.uzl.itm.ncoap.message.*;
+import org.jboss.netty.channel.ChannelException;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.Observable;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
  * This is the handler to deal with message transmissions (e.g. transmissions of confirmable messages)
  * for CoAP Clients.
  *
+ * There are at most NSTART (see {@link de.uzl.itm.ncoap.communication.reliability.TransmissionParameters#getNstart()})
+ * outstanding confirmable requests per remote endpoint. Further requests are queued (up to
+ * {@link #MAX_QUEUED_REQUESTS}) and sent as soon as an outstanding request was acknowledged (or reset) or the
+ * retransmissions of an outstanding request are exhausted. If the queue is full, the request is discarded and a
+ * {@link RequestQueueOverflowEvent} is fired. The write future of a queued request is completed once the request
+ * was finally sent or discarded (e.g. as it was cancelled).
+ *
  * @author Oliver Kleine
  */
-public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilityHandler {
+public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilityHandler
+        implements RequestCancelledEvent.Handler {
 
     private static Logger LOG = LoggerFactory.getLogger(ClientOutboundReliabilityHandler.class.getName());
 
-    private Table<InetSocketAddress, Integer, TransmissionTask[]> transmissions;
-    private ReentrantReadWriteLock lock;
+    /**
+     * The maximum number of confirmable requests ({@value #MAX_QUEUED_REQUESTS}) to be queued per remote endpoint
+     * while there are NSTART outstanding requests to that endpoint
+     */
+    public static final int MAX_QUEUED_REQUESTS = 256;
+
+    private ConcurrentMap<Long, Transmission> transmissions;
+    private ConcurrentMap<InetSocketAddress, RequestWindow> windows;
+    private PeerRegistry peerRegistry;
 
     /**
      * Creates a new instance of {@link de.uzl.itm.ncoap.communication.reliability.outbound.ClientOutboundReliabilityHandler}
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to process the tasks to ensure
      *                 reliable message transfer
+     * @param peerRegistry the {@link PeerRegistry} that assigned the peer IDs to inbound messages (i.e. the same
+     *                     instance as used by the {@link de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder})
      */
-    public ClientOutboundReliabilityHandler(ScheduledExecutorService executor, MessageIDFactory factory) {
+    public ClientOutboundReliabilityHandler(ScheduledExecutorService executor, MessageIDFactory factory,
+                                            PeerRegistry peerRegistry) {
         super(executor, factory);
-        this.transmissions = HashBasedTable.create();
-        this.lock = new ReentrantReadWriteLock();
+        this.transmissions = new ConcurrentHashMap<>();
+        this.windows = new ConcurrentHashMap<>();
+        this.peerRegistry = peerRegistry;
     }
 
 
     @Override
     public boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
-        if (coapMessage instanceof CoapRequest || coapMessage.isPing()) {
-            handleOutboundCoapMessage2(coapMessage, remoteSocket);
+        return handleOutboundCoapMessage(coapMessage, remoteSocket, Channels.future(getContext().getChannel()));
+    }
+
+
+    @Override
+    protected boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket,
+                                                ChannelFuture future) {
+        if (coapMessage instanceof CoapRequest && coapMessage.getMessageType() == MessageType.CON) {
+            if (!acquireWindowSlot(coapMessage, remoteSocket, future)) {
+                // the request was either queued or discarded
+                return false;
+            }
+            handleOutboundCoapMessage2(coapMessage, remoteSocket, true);
+            return true;
+        } else if (coapMessage instanceof CoapRequest || coapMessage.isPing()) {
+            handleOutboundCoapMessage2(coapMessage, remoteSocket, false);
             return true;
         } else {
             return true;
@@ -89,23 +131,161 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
     }
 
 
-    private void handleOutboundCoapMessage2(CoapMessage coapRequest, InetSocketAddress remoteSocket) {
+    private boolean handleOutboundCoapMessage2(CoapMessage coapRequest, InetSocketAddress remoteSocket,
+                                               boolean windowSlot) {
         LOG.debug("HANDLE OUTBOUND MESSAGE: {}", coapRequest);
 
-        int messageID = assignMessageID(coapRequest, remoteSocket);
+        // the peer is resolved once per exchange (and carried with the transmission and the message ID release)
+        int peerID = this.peerRegistry.getPeerID(remoteSocket);
+        int messageID = assignMessageID(coapRequest, remoteSocket, peerID);
         Token token = coapRequest.getToken();
         if (messageID == CoapMessage.UNDEFINED_MESSAGE_ID) {
             LOG.info("No message ID available for \"{}\" (ID pool exhausted).", remoteSocket);
             triggerEvent(new NoMessageIDAvailableEvent(remoteSocket, token), false);
+            if (windowSlot) {
+                releaseWindowSlot(remoteSocket);
+            }
+            return false;
         } else {
             LOG.info("Set message ID to {}", messageID);
             triggerEvent(new MessageIDAssignedEvent(remoteSocket, messageID, token), false);
 
-            scheduleTransmissions(coapRequest, remoteSocket);
+            scheduleTransmissions(coapRequest, remoteSocket, peerID, windowSlot);
+            return true;
         }
     }
 
 
+    private boolean acquireWindowSlot(CoapMessage coapRequest, InetSocketAddress remoteSocket,
+                                      ChannelFuture future) {
+        int nstart = getTransmissionParameters(remoteSocket).getNstart();
+        while (true) {
+            RequestWindow window = this.windows.get(remoteSocket);
+            if (window == null) {
+                window = new RequestWindow();
+                RequestWindow existing = this.windows.putIfAbsent(remoteSocket, window);
+                if (existing != null) {
+                    window = existing;
+                }
+            }
+
+            synchronized (window) {
+                if (window.removed) {
+                    // the window was removed concurrently (retry with a new one)
+                    continue;
+                }
+                if (window.outstanding < nstart && window.queue.isEmpty()) {
+                    window.outstanding++;
+                    return true;
+                } else if (window.queue.size() < MAX_QUEUED_REQUESTS) {
+                    window.queue.add(new QueuedRequest(coapRequest, future));
+                    LOG.debug("Queued request to \"{}\" ({} outstanding, {} queued).",
+                            new Object[]{remoteSocket, window.outstanding, window.queue.size()});
+                    return false;
+                }
+            }
+            break;
+        }
+
+        LOG.warn("Discarded request to \"{}\" (queue is full, token: {}).", remoteSocket, coapRequest.getToken());
+        triggerEvent(new RequestQueueOverflowEvent(remoteSocket, coapRequest.getToken()), false);
+        future.setFailure(new ChannelException("Request queue for \"" + remoteSocket + "\" is full."));
+        return false;
+    }
+
+
+    private void releaseWindowSlot(InetSocketAddress remoteSocket) {
+        RequestWindow window = this.windows.get(remoteSocket);
+        if (window == null) {
+            return;
+        }
+
+        QueuedRequest queuedRequest;
+        boolean messageIDAssigned;
+        synchronized (window) {
+            // the slot is either passed to the next queued request or released
+            queuedRequest = window.queue.poll();
+            if (queuedRequest == null) {
+                if (--window.outstanding <= 0) {
+                    window.removed = true;
+                    this.windows.remove(remoteSocket, window);
+                }
+                return;
+            }
+            // the transmission is registered before the lock is released, i.e. a concurrent cancellation finds the
+            // request either in the queue or among the transmissions (see handleEvent(RequestCancelledEvent))
+            messageIDAssigned = handleOutboundCoapMessage2(queuedRequest.coapRequest, remoteSocket, true);
+        }
+
+        if (messageIDAssigned) {
+            // the original write future reports the result (e.g. to the ResponseDispatcher)
+            sendCoapMessage(queuedRequest.coapRequest, remoteSocket, queuedRequest.future);
+        } else {
+            queuedRequest.future.setFailure(new ChannelException("No message ID available for \""
+                    + remoteSocket + "\"."));
+        }
+    }
+
+
+    @Override
+    public void handleEvent(RequestCancelledEvent event) {
+        InetSocketAddress remoteSocket = event.getRemoteSocket();
+        int messageID = event.getMessageID();
+        Token token = event.getToken();
+
+        int peerID = PeerRegistry.UNDEFINED_PEER_ID;
+        if (messageID == CoapMessage.UNDEFINED_MESSAGE_ID && !removeQueuedRequest(remoteSocket, token)) {
+            // the request was dequeued (and sent) before the message ID was reported to the application
+            for (Transmission transmission : this.transmissions.values()) {
+                if (transmission.remoteSocket.equals(remoteSocket) && transmission.getToken().equals(token)) {
+                    peerID = transmission.peerID;
+                    messageID = transmission.coapMessage.getMessageID();
+                    break;
+                }
+            }
+        } else if (messageID != CoapMessage.UNDEFINED_MESSAGE_ID) {
+            // a cancellation is (at most) one further lookup per exchange
+            peerID = this.peerRegistry.getPeerID(remoteSocket);
+        }
+
+        if (messageID != CoapMessage.UNDEFINED_MESSAGE_ID) {
+            // the message ID remains allocated as the remote endpoint may still deduplicate the request
+            if (stopRetransmissions(peerID, remoteSocket, messageID) != null) {
+                LOG.info("Stopped transmission of cancelled request (remote socket: \"{}\", message ID: {}).",
+                        remoteSocket, messageID);
+            }
+        }
+    }
+
+
+    private boolean removeQueuedRequest(InetSocketAddress remoteSocket, Token token) {
+        RequestWindow window = this.windows.get(remoteSocket);
+        if (window == null) {
+            return false;
+        }
+
+        QueuedRequest removed = null;
+        synchronized (window) {
+            Iterator<QueuedRequest> iterator = window.queue.iterator();
+            while (iterator.hasNext()) {
+                QueuedRequest queuedRequest = iterator.next();
+                if (queuedRequest.coapRequest.getToken().equals(token)) {
+                    iterator.remove();
+                    removed = queuedRequest;
+                    break;
+                }
+            }
+        }
+
+        if (removed == null) {
+            return false;
+        }
+        LOG.info("Removed cancelled request from queue (remote socket: \"{}\", token: {}).", remoteSocket, token);
+        removed.future.setFailure(new CancellationException("Request was cancelled before it was sent."));
+        return true;
+    }
+
+
     private boolean handleInboundEmptyMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
         int messageType = coapMessage.getMessageType();
         int messageID = coapMessage.getMessageID();
@@ -114,10 +294,15 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
             // incoming PINGs are handled by the inbound reliability handler
             return true;
         } else {
-            Token token = stopRetransmissions(remoteSocket, messageID);
-            if (token == null) {
+            int peerID = this.peerRegistry.getPeerID(coapMessage, remoteSocket);
+            Transmission transmission = stopRetransmissions(peerID, remoteSocket, messageID);
+            if (transmission == null) {
                 return true;
-            } else if (messageType == MessageType.ACK) {
+            }
+
+            transmission.measureRoundTripTime();
+            Token token = transmission.getToken();
+            if (messageType == MessageType.ACK) {
                 LOG.info("Received empty ACK from \"{}\" for token {} (Message ID: {}).",
                     new Object[]{remoteSocket, messageID, token});
                 triggerEvent(new EmptyAckReceivedEvent(remoteSocket, messageID, token), false);
@@ -141,7 +326,10 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
 
         if (messageType == MessageType.ACK) {
             int messageID = coapResponse.getMessageID();
-            if (stopRetransmissions(remoteSocket, messageID) != null) {
+            int peerID = this.peerRegistry.getPeerID(coapResponse, remoteSocket);
+            Transmission transmission = stopRetransmissions(peerID, remoteSocket, messageID);
+            if (transmission != null) {
+                transmission.measureRoundTripTime();
                 return true;
             } else {
                 LOG.warn("Received ACK from \"{}\" for unknown message ID {}", remoteSocket, messageID);
@@ -153,56 +341,27 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
     }
 
 
-    private Token stopRetransmissions(InetSocketAddress remoteSocket, int messageID) {
-        try {
-            this.lock.writeLock().lock();
-            TransmissionTask[] tasks = this.transmissions.remove(remoteSocket, messageID);
-            if (tasks == null) {
-                return null;
-            } else {
-                for (int i = 0; i < tasks.length; i++) {
-                    if (tasks[i].cancel()) {
-                        LOG.debug("Cancelled transmission #{} (Remote Socket: {}, Message ID: {})",
-                                new Object[]{i + 1, remoteSocket, messageID});
-                    } else {
-                        LOG.debug("Could not cancel transmission #{} (Remote Socket: {}, Message ID: {})",
-                                new Object[]{i + 1, remoteSocket, messageID});
-                    }
-                }
-                return tasks[0].getToken();
-            }
-        } finally {
-            this.lock.writeLock().unlock();
+    private Transmission stopRetransmissions(int peerID, InetSocketAddress remoteSocket, int messageID) {
+        Transmission transmission = this.transmissions.remove(PeerRegistry.getExchangeKey(peerID, messageID));
+        if (transmission == null) {
+            return null;
         }
+
+        transmission.cancel();
+        LOG.debug("Cancelled retransmissions (Remote Socket: {}, Message ID: {})", remoteSocket, messageID);
+        transmission.freeWindowSlot();
+        return transmission;
     }
 
 
-    private void scheduleTransmissions(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
-        int messageType = coapMessage.getMessageType();
-        TransmissionTask[] tasks;
-        if(messageType == MessageType.CON) {
-            tasks = new TransmissionTask[5];
-            long[] delays = provideTransmissionDelays();
-            for (int i = 0; i < 5; i++) {
-                tasks[i] = new TransmissionTask(coapMessage, remoteSocket, i);
-                if(i > 0) {
-                    tasks[i].setFuture(this.scheduleTask(tasks[i], delays[i], TimeUnit.MILLISECONDS));
-                    LOG.debug("Scheduled transmission #{} with delay {} ms (Remote Socket: {}, message ID: {}).",
-                            new Object[]{i + 1, delays[i], remoteSocket, coapMessage.getMessageID()}
-                    );
-                }
-            }
-        } else {
-            tasks = new TransmissionTask[1];
-            tasks[0] = new TransmissionTask(coapMessage, remoteSocket, 0);
-            //tasks[0].setFuture(this.scheduleTask(tasks[0], 0, TimeUnit.MILLISECONDS));
-        }
+    private void scheduleTransmissions(CoapMessage coapMessage, InetSocketAddress remoteSocket, int peerID,
+                                       boolean windowSlot) {
+        Transmission transmission = new Transmission(coapMessage, remoteSocket, peerID, windowSlot);
+        this.transmissions.put(PeerRegistry.getExchangeKey(peerID, coapMessage.getMessageID()), transmission);
 
-        try {
-            this.lock.writeLock().lock();
-            this.transmissions.put(remoteSocket, coapMessage.getMessageID(), tasks);
-        } finally {
-            this.lock.writeLock().unlock();
+        // only the next retransmission is scheduled (i.e. the following one is scheduled when it is due)
+        if (coapMessage.getMessageType() == MessageType.CON) {
+            transmission.scheduleRetransmission(1);
         }
     }
 
@@ -219,7 +378,8 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
             int messageID = ((MessageIDFactory.MessageIDRelease) releasedID).getMessageID();
             Token token = ((MessageIDFactory.MessageIDRelease) releasedID).getToken();
 
-            if (stopRetransmissions(remoteSocket, messageID) != null) {
+            int peerID = ((MessageIDFactory.MessageIDRelease) releasedID).getPeerID();
+            if (stopRetransmissions(peerID, remoteSocket, messageID) != null) {
                 // there was an ongoing outbound transfer (i.e. CON with no ACK or NON with no response)
                 LOG.warn("Transmission timed out (remote socket: \"{}\", token: {}, message ID: {})",
                         new Object[]{remoteSocket, token, messageID});
@@ -233,21 +393,70 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
         }
     }
 
-    private class TransmissionTask implements Runnable {
+    private class Transmission {
 
-        private CoapMessage coapMessage;
-        private InetSocketAddress remoteSocket;
-        private int transmissionNumber;
-        private ScheduledFuture future;
+        private final CoapMessage coapMessage;
+        private final InetSocketAddress remoteSocket;
+        private final int peerID;
+        private final RetransmissionSchedule schedule;
+        private boolean windowSlot;
+        private boolean cancelled;
+        private Timeout timeout;
 
-        public TransmissionTask(CoapMessage coapMessage, InetSocketAddress remoteSocket, int transmissionNumber) {
+        private Transmission(CoapMessage coapMessage, InetSocketAddress remoteSocket, int peerID,
+                             boolean windowSlot) {
             this.coapMessage = coapMessage;
             this.remoteSocket = remoteSocket;
-            this.transmissionNumber = transmissionNumber;
+            this.peerID = peerID;
+            this.windowSlot = windowSlot;
+            if (coapMessage.getMessageType() == MessageType.CON) {
+                this.schedule = createRetransmissionSchedule(remoteSocket);
+            } else {
+                this.schedule = null;
+            }
+            this.cancelled = false;
+        }
+
+        private synchronized void scheduleRetransmission(final int retransmissionNo) {
+            if (this.cancelled) {
+                return;
+            }
+
+            final long delay = this.schedule.nextDelay(retransmissionNo);
+            if (delay < 0) {
+                LOG.debug("No more retransmissions (Remote Socket: {}, message ID: {}).",
+                        remoteSocket, coapMessage.getMessageID());
+
+                // the request is no longer outstanding after the last timeout
+                if (this.windowSlot) {
+                    this.timeout = getTimer().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            freeWindowSlot();
+                        }
+                    }, this.schedule.getTimeout(retransmissionNo), TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+
+            this.timeout = getTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    retransmit(retransmissionNo);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+
+            LOG.debug("Scheduled retransmission #{} with delay {} ms (Remote Socket: {}, message ID: {}).",
+                    new Object[]{retransmissionNo, delay, remoteSocket, coapMessage.getMessageID()});
         }
 
-        @Override
-        public void run() {
+        private void retransmit(final int retransmissionNo) {
+            synchronized (this) {
+                if (this.cancelled) {
+                    return;
+                }
+            }
+            this.schedule.setRetransmissions(retransmissionNo);
 
             ChannelFuture channelFuture = sendCoapMessage(coapMessage, remoteSocket);
             channelFuture.addListener(new ChannelFutureListener() {
@@ -257,26 +466,60 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
                     Token token = coapMessage.getToken();
                     if (future.isSuccess()) {
                         triggerEvent(new MessageRetransmittedEvent(remoteSocket, messageID, token), false);
-                        LOG.debug("Finished transmission #{}: {}", transmissionNumber, coapMessage);
+                        LOG.debug("Finished retransmission #{}: {}", retransmissionNo, coapMessage);
                     } else {
                         String desc = "Transmission failed (\"" + future.getCause().getMessage() + "\"";
                         triggerEvent(new MiscellaneousErrorEvent(remoteSocket, messageID, token, desc), false);
                     }
                 }
             });
+
+            scheduleRetransmission(retransmissionNo + 1);
         }
 
-        public void setFuture(ScheduledFuture future) {
-            this.future = future;
+        private void measureRoundTripTime() {
+            if (this.schedule != null) {
+                updateRetransmissionTimeout(this.remoteSocket, this.schedule);
+            }
         }
 
-        public Token getToken() {
+        private Token getToken() {
             return this.coapMessage.getToken();
         }
 
-        public boolean cancel() {
-            return this.future != null && this.future.cancel(true);
+        private void freeWindowSlot() {
+            synchronized (this) {
+                if (!this.windowSlot) {
+                    return;
+                }
+                this.windowSlot = false;
+            }
+            releaseWindowSlot(this.remoteSocket);
+        }
+
+        private synchronized void cancel() {
+            this.cancelled = true;
+            if (this.timeout != null) {
+                this.timeout.cancel();
+            }
         }
+    }
+
+    private static class RequestWindow {
 
+        private int outstanding;
+        private boolean removed;
+        private final Queue<QueuedRequest> queue = new ArrayDeque<>();
+    }
+
+    private static class QueuedRequest {
+
+        private final CoapMessage coapRequest;
+        private final ChannelFuture future;
+
+        private QueuedRequest(CoapMessage coapRequest, ChannelFuture future) {
+            this.coapRequest = coapRequest;
+            this.future = future;
+        }
     }
-}
\ No newline at end of file
+}
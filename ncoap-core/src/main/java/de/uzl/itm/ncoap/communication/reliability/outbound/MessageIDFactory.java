@@ -24,49 +24,73 @@
  */
 package de.uzl.itm.ncoap.communication.reliability.outbound;
 
-import com.google.common.collect.Ordering;
-import com.google.common.collect.TreeMultimap;
+import de.uzl.itm.ncoap.communication.PeerRegistry;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParametersProvider;
 import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.MessageType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
+import java.util.Queue;
 import java.util.Random;
-import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * An instances of {@link MessageIDFactory} creates and manages message IDs for outgoing messages. On creation of
+ * <p>An instances of {@link MessageIDFactory} creates and manages message IDs for outgoing messages. On creation of
  * new message IDs the factory ensures that the same message ID is not used twice for different messages to the
- * same remote CoAP endpoints within {@link #EXCHANGE_LIFETIME} seconds.
+ * same remote CoAP endpoints within the EXCHANGE_LIFETIME (for confirmable messages) or the NON_LIFETIME (for
+ * non-confirmable messages). Both are derived from the {@link TransmissionParameters} for the remote endpoint (see
+ * {@link #getTransmissionParametersProvider()}), i.e. {@link #EXCHANGE_LIFETIME} seconds by default.</p>
+ *
+ * <p>The allocated message IDs per remote endpoint are kept in a bitmap of {@link #MODULUS} bits (which is dropped
+ * as soon as all message IDs for that endpoint are released again), i.e. allocations for different remote endpoints
+ * do not contend for the same lock. The expiry of allocations is bucketed, i.e. rounded up to the next multiple of
+ * {@link #BUCKET_DURATION_MILLIS} milliseconds, and a single periodic sweep releases all message IDs of the expired
+ * buckets. The observers are notified about the released message IDs (see {@link MessageIDRelease}) after the sweep,
+ * i.e. without holding any lock.</p>
  *
  * @author Oliver Kleine
 */
 public class MessageIDFactory extends Observable {
 
     /**
-     * The number of seconds (247) a message ID is allocated by the nCoAP framework to avoid duplicate
-     * usage of the same message ID in communications with the same remote CoAP endpoints.
+     * The default number of seconds (247) a message ID is allocated by the nCoAP framework to avoid duplicate
+     * usage of the same message ID in communications with the same remote CoAP endpoints (see
+     * {@link TransmissionParameters#getExchangeLifetime()}).
      */
     public static final int EXCHANGE_LIFETIME = 247;
 
     /**
      * The number of different message IDs per remote CoAP endpoint (65536), i.e. there are at most 65536
-     * communications with the same endpoints possible within {@link #EXCHANGE_LIFETIME} milliseconds.
+     * communications with the same endpoints possible within {@link #EXCHANGE_LIFETIME} seconds.
      */
     public static final int MODULUS = 65536;
 
+    /**
+     * The duration of an expiry bucket and the interval of the sweeps to release expired message IDs
+     * ({@value #BUCKET_DURATION_MILLIS} milliseconds)
+     */
+    public static final long BUCKET_DURATION_MILLIS = 250;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     private Random random;
+    private TransmissionParametersProvider transmissionParameters;
 
-    private TreeMultimap<InetSocketAddress, Integer> allocations;
-    private ReentrantReadWriteLock lock;
-    private ScheduledExecutorService executor;
+    private ConcurrentHashMap<InetSocketAddress, Allocations> allocations;
+    private ConcurrentHashMap<Long, Queue<Allocation>> expiryQueues;
+    private ScheduledFuture sweeper;
 
 
     /**
@@ -74,101 +98,281 @@ public class MessageIDFactory extends Observable {
      *                        provide available message IDs
      */
     public MessageIDFactory(ScheduledExecutorService executor) {
-        this.executor = executor;
-        this.allocations = TreeMultimap.create(Ordering.arbitrary(), Ordering.natural());
-        this.lock = new ReentrantReadWriteLock();
+        this(executor, new TransmissionParametersProvider());
+    }
+
+
+    /**
+     * @param executor the {@link ScheduledExecutorService} to provide the thread for operations to
+     *                        provide available message IDs
+     * @param transmissionParameters the {@link TransmissionParametersProvider} to determine the lifetimes of
+     *                               allocated message IDs
+     */
+    public MessageIDFactory(ScheduledExecutorService executor, TransmissionParametersProvider transmissionParameters) {
+        this.transmissionParameters = transmissionParameters;
+        this.allocations = new ConcurrentHashMap<>();
+        this.expiryQueues = new ConcurrentHashMap<>();
         this.random = new Random(System.currentTimeMillis());
+
+        this.sweeper = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseExpiredMessageIDs();
+                } catch (Exception ex) {
+                    log.error("Exception while releasing expired message IDs!", ex);
+                }
+            }
+        }, BUCKET_DURATION_MILLIS, BUCKET_DURATION_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Returns the {@link TransmissionParametersProvider} to determine the lifetimes of allocated message IDs
+     *
+     * @return the {@link TransmissionParametersProvider} to determine the lifetimes of allocated message IDs
+     */
+    public TransmissionParametersProvider getTransmissionParametersProvider() {
+        return this.transmissionParameters;
+    }
+
+
+    /**
+     * Returns a message ID to be used for an outgoing confirmable {@link de.uzl.itm.ncoap.message.CoapMessage} (see
+     * {@link #getNextMessageID(InetSocketAddress, Token, int)}).
+     *
+     * @param remoteSocket the recipient of the message the returned message ID is supposed to be used for
+     *
+     * @return the message ID to be used for outgoing messages or
+     * {@link de.uzl.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} if all IDs are in use.
+     */
+    public int getNextMessageID(final InetSocketAddress remoteSocket, final Token token) {
+        return getNextMessageID(remoteSocket, token, MessageType.CON);
     }
 
 
     /**
      * Returns a message ID to be used for outgoing {@link de.uzl.itm.ncoap.message.CoapMessage}s and
-     * allocates this message ID for {@link #EXCHANGE_LIFETIME} seconds, i.e. the returned message ID will not
-     * be returned again within {@link #EXCHANGE_LIFETIME} seconds.
+     * allocates this message ID for the EXCHANGE_LIFETIME (if the given message type is
+     * {@link MessageType#CON}) or the NON_LIFETIME (otherwise), i.e. the returned message ID will not
+     * be returned again within that time.
      *
      * If all message IDs available for the given remote endpoint are in use
      * {@link de.uzl.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} is returned.
      *
      * @param remoteSocket the recipient of the message the returned message ID is supposed to be used for
+     * @param messageType the type of the message the returned message ID is supposed to be used for
      *
      * @return the message ID to be used for outgoing messages or
      * {@link de.uzl.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} if all IDs are in use.
      */
-    public int getNextMessageID(final InetSocketAddress remoteSocket, final Token token) {
+    public int getNextMessageID(final InetSocketAddress remoteSocket, final Token token, int messageType) {
+        return getNextMessageID(remoteSocket, PeerRegistry.UNDEFINED_PEER_ID, token, messageType);
+    }
 
-        try{
-            lock.readLock().lock();
 
-            if (this.allocations.get(remoteSocket).size() == MODULUS) {
-                log.warn("No more message IDs available for remote endpoint {}.", remoteSocket);
-                return CoapMessage.UNDEFINED_MESSAGE_ID;
+    /**
+     * Returns a message ID to be used for outgoing {@link de.uzl.itm.ncoap.message.CoapMessage}s (see
+     * {@link #getNextMessageID(InetSocketAddress, Token, int)}). The given peer ID is reported with the release of
+     * the message ID, i.e. observers can find the state of the message exchange without resolving the peer again.
+     *
+     * @param remoteSocket the recipient of the message the returned message ID is supposed to be used for
+     * @param peerID the ID of the recipient (see {@link PeerRegistry}) or {@link PeerRegistry#UNDEFINED_PEER_ID}
+     * @param messageType the type of the message the returned message ID is supposed to be used for
+     *
+     * @return the message ID to be used for outgoing messages or
+     * {@link de.uzl.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} if all IDs are in use.
+     */
+    public int getNextMessageID(final InetSocketAddress remoteSocket, int peerID, final Token token,
+                                int messageType) {
+        TransmissionParameters parameters = this.transmissionParameters.getTransmissionParameters(remoteSocket);
+        long lifetime = messageType == MessageType.CON
+                ? parameters.getExchangeLifetime()
+                : parameters.getNonLifetime();
+
+        while (true) {
+            Allocations allocations = this.allocations.get(remoteSocket);
+            if (allocations == null) {
+                Allocations newAllocations = new Allocations(this.random.nextInt(MODULUS));
+                allocations = this.allocations.putIfAbsent(remoteSocket, newAllocations);
+                if (allocations == null) {
+                    allocations = newAllocations;
+                }
             }
-        }
-        finally{
-            lock.readLock().unlock();
-        }
 
-        try{
-            lock.writeLock().lock();
+            synchronized (allocations) {
+                if (allocations.isDiscarded()) {
+                    // all message IDs were released (and the bitmap was removed) in the meantime
+                    continue;
+                }
 
-            final SortedSet<Integer> allocations = this.allocations.get(remoteSocket);
-            if (allocations.size() == MODULUS) {
-                log.warn("No more message IDs available for remote endpoint {}.", remoteSocket);
-                return CoapMessage.UNDEFINED_MESSAGE_ID;
+                int messageID = allocations.allocate();
+                if (messageID == CoapMessage.UNDEFINED_MESSAGE_ID) {
+                    log.warn("No more message IDs available for remote endpoint {}.", remoteSocket);
+                } else {
+                    long expiry = getBucket(System.currentTimeMillis() + lifetime);
+                    getExpiryQueue(lifetime).add(new Allocation(remoteSocket, peerID, messageID, token, expiry));
+                }
+                return messageID;
             }
+        }
+    }
+
 
-            final int messageID;
-            if (allocations.size() == 0) {
-                messageID = this.random.nextInt(MODULUS);
-            } else {
-                messageID = (allocations.last() + 1);
+    private Queue<Allocation> getExpiryQueue(long lifetime) {
+        Queue<Allocation> expiryQueue = this.expiryQueues.get(lifetime);
+        if (expiryQueue == null) {
+            Queue<Allocation> newExpiryQueue = new ConcurrentLinkedQueue<>();
+            expiryQueue = this.expiryQueues.putIfAbsent(lifetime, newExpiryQueue);
+            if (expiryQueue == null) {
+                expiryQueue = newExpiryQueue;
             }
-            this.allocations.put(remoteSocket, messageID);
+        }
+        return expiryQueue;
+    }
 
-            this.executor.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    releaseMessageID(remoteSocket, messageID, token);
-                }
-            }, EXCHANGE_LIFETIME, TimeUnit.SECONDS);
 
-            return messageID % MODULUS;
-        } finally {
-            lock.writeLock().unlock();
-        }
+    private static long getBucket(long time) {
+        return ((time + BUCKET_DURATION_MILLIS - 1) / BUCKET_DURATION_MILLIS) * BUCKET_DURATION_MILLIS;
     }
 
-    private void releaseMessageID(InetSocketAddress remoteSocket, int messageID, Token token) {
-        try{
-            lock.writeLock().lock();
-            if (this.allocations.remove(remoteSocket, messageID)) {
-                log.info("Released message ID \"{}\" (Remote Socket: \"{}\", Token: {}",
-                        new Object[]{(messageID % MODULUS), remoteSocket, token});
+
+    private void releaseExpiredMessageIDs() {
+        long now = System.currentTimeMillis();
+        List<Allocation> releases = new ArrayList<>();
+
+        // there is one queue per lifetime, i.e. the allocations of each queue are (roughly) ordered by expiry
+        for (Map.Entry<Long, Queue<Allocation>> entry : this.expiryQueues.entrySet()) {
+            Queue<Allocation> expiryQueue = entry.getValue();
+            Allocation allocation;
+            while ((allocation = expiryQueue.peek()) != null && allocation.expiry <= now) {
+                expiryQueue.poll();
+                Allocations allocations = this.allocations.get(allocation.remoteSocket);
+                if (allocations == null) {
+                    continue;
+                }
+
+                synchronized (allocations) {
+                    if (allocations.release(allocation.messageID)) {
+                        log.debug("Released message ID \"{}\" (Remote Socket: \"{}\", Token: {}",
+                                new Object[]{allocation.messageID, allocation.remoteSocket, allocation.token});
+                        releases.add(allocation);
+                    }
+                    if (allocations.isEmpty()) {
+                        allocations.discard();
+                        this.allocations.remove(allocation.remoteSocket, allocations);
+                    }
+                }
             }
+        }
+
+        // notify the observers without holding any lock
+        for (Allocation release : releases) {
             setChanged();
-            notifyObservers(new MessageIDRelease(remoteSocket, messageID % MODULUS, token));
-        } finally {
-            lock.writeLock().unlock();
+            notifyObservers(new MessageIDRelease(release.remoteSocket, release.peerID, release.messageID,
+                    release.token));
         }
     }
 
+
     public void shutdown() {
-        try{
-            lock.writeLock().lock();
-            this.allocations.clear();
-        } finally {
-            lock.writeLock().lock();
+        this.sweeper.cancel(false);
+        this.allocations.clear();
+        this.expiryQueues.clear();
+    }
+
+
+    /**
+     * The message IDs allocated for a single remote endpoint
+     */
+    private static class Allocations {
+
+        private final long[] bitmap;
+        private int size;
+        private int next;
+        private boolean discarded;
+
+        private Allocations(int first) {
+            this.bitmap = new long[MODULUS / 64];
+            this.size = 0;
+            this.next = first;
+            this.discarded = false;
+        }
+
+        private int allocate() {
+            if (this.size == MODULUS) {
+                return CoapMessage.UNDEFINED_MESSAGE_ID;
+            }
+
+            int index = this.next >>> 6;
+            long word = ~this.bitmap[index] & (-1L << (this.next & 63));
+            while (word == 0) {
+                index = (index + 1) % this.bitmap.length;
+                word = ~this.bitmap[index];
+            }
+
+            int messageID = (index << 6) + Long.numberOfTrailingZeros(word);
+            this.bitmap[index] |= 1L << messageID;
+            this.size++;
+            this.next = (messageID + 1) % MODULUS;
+            return messageID;
+        }
+
+        private boolean release(int messageID) {
+            long mask = 1L << messageID;
+            if ((this.bitmap[messageID >>> 6] & mask) == 0) {
+                return false;
+            }
+            this.bitmap[messageID >>> 6] &= ~mask;
+            this.size--;
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        private void discard() {
+            this.discarded = true;
+        }
+
+        private boolean isDiscarded() {
+            return this.discarded;
         }
     }
 
+
+    /**
+     * A single allocation of a message ID (to be released when expired)
+     */
+    private static class Allocation {
+
+        private final InetSocketAddress remoteSocket;
+        private final int peerID;
+        private final int messageID;
+        private final Token token;
+        private final long expiry;
+
+        private Allocation(InetSocketAddress remoteSocket, int peerID, int messageID, Token token, long expiry) {
+            this.remoteSocket = remoteSocket;
+            this.peerID = peerID;
+            this.messageID = messageID;
+            this.token = token;
+            this.expiry = expiry;
+        }
+    }
+
+
     class MessageIDRelease {
 
         private InetSocketAddress remoteSocket;
+        private int peerID;
         private int messageID;
         private Token token;
 
-        private MessageIDRelease(InetSocketAddress remoteSocket, int messageID, Token token) {
+        private MessageIDRelease(InetSocketAddress remoteSocket, int peerID, int messageID, Token token) {
             this.remoteSocket = remoteSocket;
+            this.peerID = peerID;
             this.messageID = messageID;
             this.token = token;
         }
@@ -177,6 +381,10 @@ public class MessageIDFactory extends Observable {
             return remoteSocket;
         }
 
+        public int getPeerID() {
+            return peerID;
+        }
+
         public int getMessageID() {
             return messageID;
         }
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The retransmission schedule of a single confirmable message. The initial timeout is the RTO of the remote
+ * endpoint dithered with the ACK_RANDOM_FACTOR. Every further timeout is the previous one multiplied with the
+ * variable backoff factor (see {@link RetransmissionTimeoutEstimator#getBackoffFactor(long)}). The last
+ * retransmission never exceeds MAX_TRANSMIT_SPAN, so the derived message ID lifetimes remain valid.
+ */
+class RetransmissionSchedule {
+
+    private final long startTime;
+    private final long initialTimeout;
+    private final double backoffFactor;
+    private final long maxTransmitSpan;
+    private final int maxRetransmit;
+
+    private long scheduledSpan;
+    private int retransmissions;
+
+    RetransmissionSchedule(TransmissionParameters parameters, long retransmissionTimeout) {
+        double randomFactor = 1 + ThreadLocalRandom.current().nextDouble() * (parameters.getAckRandomFactor() - 1);
+        this.startTime = System.nanoTime();
+        this.initialTimeout = (long) (retransmissionTimeout * randomFactor);
+        this.backoffFactor = RetransmissionTimeoutEstimator.getBackoffFactor(retransmissionTimeout);
+        this.maxTransmitSpan = parameters.getMaxTransmitSpan();
+        this.maxRetransmit = parameters.getMaxRetransmit();
+    }
+
+    /**
+     * Returns the delay (in milliseconds) until the given retransmission is due or -1 if there is no such
+     * retransmission, i.e. if it would exceed MAX_RETRANSMIT or MAX_TRANSMIT_SPAN. This method is to be called
+     * once for each retransmission (in ascending order).
+     */
+    synchronized long nextDelay(int retransmissionNo) {
+        if (retransmissionNo > this.maxRetransmit) {
+            return -1;
+        }
+
+        long delay = getTimeout(retransmissionNo);
+        if (this.scheduledSpan + delay > this.maxTransmitSpan) {
+            if (retransmissionNo > 1) {
+                return -1;
+            }
+            // the first retransmission is sent after MAX_TRANSMIT_SPAN at the latest
+            delay = this.maxTransmitSpan;
+        }
+        this.scheduledSpan += delay;
+        return delay;
+    }
+
+    /**
+     * Returns the timeout (in milliseconds) before the given retransmission, i.e. after the previous transmission,
+     * without considering MAX_RETRANSMIT or MAX_TRANSMIT_SPAN.
+     */
+    long getTimeout(int retransmissionNo) {
+        return (long) (this.initialTimeout * Math.pow(this.backoffFactor, retransmissionNo - 1));
+    }
+
+    synchronized void setRetransmissions(int retransmissions) {
+        this.retransmissions = retransmissions;
+    }
+
+    synchronized int getRetransmissions() {
+        return this.retransmissions;
+    }
+
+    int getMaxRetransmit() {
+        return this.maxRetransmit;
+    }
+
+    long getElapsedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startTime);
+    }
+}
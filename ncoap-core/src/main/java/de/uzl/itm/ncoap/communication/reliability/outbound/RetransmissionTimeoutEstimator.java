@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Estimates the retransmission timeout (RTO) for confirmable messages to a single remote endpoint from the
+ * measured round trip times (RTT) as proposed by CoCoA (draft-ietf-core-cocoa).</p>
+ *
+ * <p>There are two RTT estimators (both as in RFC 6298). The strong estimator is fed with RTTs of exchanges
+ * without retransmissions. The weak estimator is fed with RTTs of exchanges with one or two retransmissions,
+ * measured from the first transmission. Exchanges with more retransmissions are ignored. The overall RTO is a
+ * weighted average of the latest estimator RTO and the previous overall RTO.</p>
+ *
+ * <p>If there was no new RTT measurement for a while the overall RTO is aged, i.e. small values (below 1 second)
+ * are doubled after 16 times the RTO and large values (above 3 seconds) are moved towards 2 seconds after 4 times
+ * the RTO.</p>
+ */
+public class RetransmissionTimeoutEstimator {
+
+    /**
+     * The lower bound of the RTO ({@value #MIN_RETRANSMISSION_TIMEOUT_MILLIS} milliseconds), i.e. a single tick of
+     * the {@link RetransmissionTimer}
+     */
+    public static final long MIN_RETRANSMISSION_TIMEOUT_MILLIS = RetransmissionTimer.TICK_DURATION_MILLIS;
+
+    /**
+     * The upper bound of the RTO ({@value #MAX_RETRANSMISSION_TIMEOUT_MILLIS} milliseconds)
+     */
+    public static final long MAX_RETRANSMISSION_TIMEOUT_MILLIS = 60000;
+
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+
+    private final Estimator strongEstimator;
+    private final Estimator weakEstimator;
+
+    private double retransmissionTimeout;
+    private long lastUpdate;
+
+    /**
+     * Creates a new instance of {@link RetransmissionTimeoutEstimator}.
+     *
+     * @param initialRetransmissionTimeout the RTO (in milliseconds) until there are RTT measurements, usually
+     *                                     the ACK_TIMEOUT
+     */
+    public RetransmissionTimeoutEstimator(long initialRetransmissionTimeout) {
+        this.strongEstimator = new Estimator(4);
+        this.weakEstimator = new Estimator(1);
+        this.retransmissionTimeout = initialRetransmissionTimeout;
+        this.lastUpdate = currentTimeMillis();
+    }
+
+    /**
+     * Returns the current (aged) RTO (in milliseconds)
+     *
+     * @return the current (aged) RTO (in milliseconds)
+     */
+    public long getRetransmissionTimeout() {
+        return getRetransmissionTimeout(currentTimeMillis());
+    }
+
+
+    synchronized long getRetransmissionTimeout(long now) {
+        while (true) {
+            double previous = this.retransmissionTimeout;
+            if (previous < 1000 && now - this.lastUpdate > 16 * previous) {
+                this.retransmissionTimeout = 2 * previous;
+            } else if (previous > 3000 && now - this.lastUpdate > 4 * previous) {
+                this.retransmissionTimeout = 1000 + previous / 2;
+            } else {
+                break;
+            }
+            this.lastUpdate += (long) (previous < 1000 ? 16 * previous : 4 * previous);
+        }
+        return (long) this.retransmissionTimeout;
+    }
+
+    /**
+     * Updates the RTO with the given RTT measurement.
+     *
+     * @param roundTripTime the time (in milliseconds) from the first transmission of a confirmable message until
+     *                      the reception of the corresponding ACK (or RST)
+     * @param retransmissions the number of retransmissions of the confirmable message
+     */
+    public void update(long roundTripTime, int retransmissions) {
+        update(roundTripTime, retransmissions, currentTimeMillis());
+    }
+
+
+    synchronized void update(long roundTripTime, int retransmissions, long now) {
+        if (retransmissions == 0) {
+            this.retransmissionTimeout = 0.5 * this.strongEstimator.update(roundTripTime)
+                    + 0.5 * this.retransmissionTimeout;
+        } else if (retransmissions <= 2) {
+            this.retransmissionTimeout = 0.25 * this.weakEstimator.update(roundTripTime)
+                    + 0.75 * this.retransmissionTimeout;
+        } else {
+            // too ambiguous to be considered
+            return;
+        }
+
+        this.retransmissionTimeout = Math.max(MIN_RETRANSMISSION_TIMEOUT_MILLIS,
+                Math.min(MAX_RETRANSMISSION_TIMEOUT_MILLIS, this.retransmissionTimeout));
+        this.lastUpdate = now;
+    }
+
+    /**
+     * Returns the variable backoff factor for the given initial RTO, i.e. 3 for RTOs below 1 second, 1.5 for RTOs
+     * above 3 seconds and 2 otherwise
+     *
+     * @param retransmissionTimeout the initial RTO (in milliseconds)
+     *
+     * @return the variable backoff factor for the given initial RTO
+     */
+    public static double getBackoffFactor(long retransmissionTimeout) {
+        if (retransmissionTimeout < 1000) {
+            return 3;
+        } else if (retransmissionTimeout > 3000) {
+            return 1.5;
+        } else {
+            return 2;
+        }
+    }
+
+
+    private static long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+
+    private static class Estimator {
+
+        private final int k;
+        private boolean initialized;
+        private double smoothedRoundTripTime;
+        private double roundTripTimeVariation;
+
+        private Estimator(int k) {
+            this.k = k;
+        }
+
+        private double update(long roundTripTime) {
+            if (!this.initialized) {
+                this.smoothedRoundTripTime = roundTripTime;
+                this.roundTripTimeVariation = roundTripTime / 2.0;
+                this.initialized = true;
+            } else {
+                this.roundTripTimeVariation = (1 - BETA) * this.roundTripTimeVariation
+                        + BETA * Math.abs(this.smoothedRoundTripTime - roundTripTime);
+                this.smoothedRoundTripTime = (1 - ALPHA) * this.smoothedRoundTripTime + ALPHA * roundTripTime;
+            }
+            return this.smoothedRoundTripTime + this.k * this.roundTripTimeVariation;
+        }
+    }
+}
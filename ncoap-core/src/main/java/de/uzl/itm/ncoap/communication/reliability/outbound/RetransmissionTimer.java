@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A timer to schedule retransmissions (and other short-lived tasks of the reliability handlers) on a
+ * {@link HashedWheelTimer}, i.e. scheduling and cancellation of a task take constant time no matter how many tasks
+ * are pending. This is in contrast to the {@link ScheduledExecutorService} whose delay queue is a heap guarded by a
+ * single lock.</p>
+ *
+ * <p>All instances share a single wheel (and thus a single daemon thread) with a resolution of
+ * {@value #TICK_DURATION_MILLIS} milliseconds. The wheel thread does not execute the tasks but passes them to the
+ * executor given to the constructor.</p>
+ */
+public class RetransmissionTimer {
+
+    private static Logger LOG = LoggerFactory.getLogger(RetransmissionTimer.class.getName());
+
+    /**
+     * The duration of a single tick of the wheel ({@value #TICK_DURATION_MILLIS} milliseconds)
+     */
+    public static final long TICK_DURATION_MILLIS = 20;
+
+    /**
+     * The number of ticks per revolution of the wheel ({@value #TICKS_PER_WHEEL})
+     */
+    public static final int TICKS_PER_WHEEL = 1024;
+
+    private static final HashedWheelTimer WHEEL = new HashedWheelTimer(
+            new ThreadFactoryBuilder().setNameFormat("nCoAP Retransmission Timer").setDaemon(true).build(),
+            TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL
+    );
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a new instance of {@link RetransmissionTimer}.
+     *
+     * @param executor the {@link ScheduledExecutorService} to execute the scheduled tasks
+     */
+    public RetransmissionTimer(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Schedules the given task to be executed (by the executor of this timer) after the given delay.
+     *
+     * @param task the task to be executed
+     * @param delay the delay
+     * @param unit the {@link TimeUnit} of the given delay
+     *
+     * @return the {@link Timeout} to cancel the execution of the given task
+     */
+    public Timeout schedule(final Runnable task, long delay, TimeUnit unit) {
+        return WHEEL.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException ex) {
+                    LOG.debug("Executor was shut down (scheduled task is not executed).");
+                }
+            }
+        }, delay, unit);
+    }
+}
@@ -24,7 +24,8 @@
  */
 package de.uzl.itm.ncoap.communication.reliability.outbound;
 
-import com.google.common.collect.HashBasedTable;
+import de.uzl.itm.ncoap.communication.ConcurrentTable;
+import de.uzl.itm.ncoap.communication.Drainable;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.ResetReceivedEvent;
 import de.uzl.itm.ncoap.communication.events.TransmissionTimeoutEvent;
@@ -43,7 +44,6 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -52,15 +52,13 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
   *
   * @author Oliver Kleine
  */
-public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilityHandler implements Observer {
+public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilityHandler implements Observer,
+        Drainable {
 
     private static Logger LOG = LoggerFactory.getLogger(ServerOutboundReliabilityHandler.class.getName());
 
-    private HashBasedTable<InetSocketAddress, Integer, Token> transfers1;
-    private HashBasedTable<InetSocketAddress, Token, CoapResponse> transfers2;
-
-    private ReentrantReadWriteLock lock;
-    private final MessageIDFactory messageIDFactory;
+    private ConcurrentTable<InetSocketAddress, Integer, Transfer> transfers1;
+    private ConcurrentTable<InetSocketAddress, Token, CoapResponse> transfers2;
 
 
     /**
@@ -70,12 +68,8 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
      */
     public ServerOutboundReliabilityHandler(ScheduledExecutorService executor, MessageIDFactory factory) {
         super(executor, factory);
-        this.transfers1 = HashBasedTable.create();
-        this.transfers2 = HashBasedTable.create();
-
-        this.messageIDFactory = new MessageIDFactory(executor);
-        this.messageIDFactory.addObserver(this);
-        this.lock = new ReentrantReadWriteLock();
+        this.transfers1 = new ConcurrentTable<>();
+        this.transfers2 = new ConcurrentTable<>();
     }
 
 
@@ -118,6 +112,22 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
         }
     }
 
+    /**
+     * Returns the number of confirmable responses (including update notifications) that were not yet acknowledged
+     *
+     * @return the number of confirmable responses that were not yet acknowledged
+     */
+    @Override
+    public int getPendingExchanges() {
+        int pending = 0;
+        for (Transfer transfer : this.transfers1.values()) {
+            if (transfer.schedule != null) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
     private boolean handleInboundEmptyMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
         int messageType = coapMessage.getMessageType();
         if (messageType == MessageType.CON) {
@@ -125,7 +135,12 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
             return true;
         } else {
             int messageID = coapMessage.getMessageID();
-            Token token = removeTransfer(remoteSocket, messageID);
+            Transfer transfer = removeTransfer(remoteSocket, messageID);
+            if (transfer != null && transfer.schedule != null) {
+                updateRetransmissionTimeout(remoteSocket, transfer.schedule);
+            }
+
+            Token token = transfer == null ? null : transfer.token;
             if (token != null && messageType == MessageType.RST) {
                 LOG.info("Received RST from \"{}\" for token {} (Message ID: {}).",
                         new Object[]{remoteSocket, messageID, token});
@@ -161,28 +176,24 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
 
         int messageType = coapResponse.getMessageType();
         if (messageType == MessageType.CON) {
-            addTransfer(remoteSocket, coapResponse);
-            scheduleRetransmission(remoteSocket, coapResponse.getToken(), 1);
+            Transfer transfer = new Transfer(coapResponse.getToken(), createRetransmissionSchedule(remoteSocket));
+            addTransfer(remoteSocket, coapResponse, transfer);
+            scheduleRetransmission(remoteSocket, transfer, 1);
         } else if (messageType == MessageType.NON && coapResponse.isUpdateNotification()) {
-            addTransfer(remoteSocket, coapResponse);
+            addTransfer(remoteSocket, coapResponse, new Transfer(coapResponse.getToken(), null));
             scheduleTransferRemoval(remoteSocket, coapResponse.getMessageID());
         }
         return true;
     }
 
 
-    private void addTransfer(InetSocketAddress remoteSocket, CoapResponse coapResponse) {
-        try {
-            this.lock.writeLock().lock();
-            this.transfers1.put(remoteSocket, coapResponse.getMessageID(), coapResponse.getToken());
-            this.transfers2.put(remoteSocket, coapResponse.getToken(), coapResponse);
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+    private void addTransfer(InetSocketAddress remoteSocket, CoapResponse coapResponse, Transfer transfer) {
+        this.transfers1.put(remoteSocket, coapResponse.getMessageID(), transfer);
+        this.transfers2.put(remoteSocket, coapResponse.getToken(), coapResponse);
     }
 
     private void scheduleTransferRemoval(final InetSocketAddress remoteSocket, final int messageID) {
-        getExecutor().schedule(new Runnable() {
+        getTimer().schedule(new Runnable() {
 
             @Override
             public void run() {
@@ -195,106 +206,83 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
         }, 3, TimeUnit.SECONDS);
     }
 
-    private void scheduleRetransmission(InetSocketAddress remoteSocket, Token token, int retransmissionNo) {
-        long delay = provideRetransmissionDelay(retransmissionNo);
-        ResponseRetransmissionTask task = new ResponseRetransmissionTask(remoteSocket, token, retransmissionNo);
-        getExecutor().schedule(task, delay, TimeUnit.MILLISECONDS);
+    private boolean scheduleRetransmission(InetSocketAddress remoteSocket, Transfer transfer, int retransmissionNo) {
+        long delay = transfer.schedule.nextDelay(retransmissionNo);
+        if (delay < 0) {
+            return false;
+        }
+        ResponseRetransmissionTask task = new ResponseRetransmissionTask(remoteSocket, transfer, retransmissionNo);
+        getTimer().schedule(task, delay, TimeUnit.MILLISECONDS);
+        return true;
     }
 
 
-    private Token removeTransfer(InetSocketAddress remoteSocket, int messageID) {
-        try {
-            this.lock.readLock().lock();
-            if (this.transfers1.get(remoteSocket, messageID) == null) {
-                return null;
+    private Transfer removeTransfer(InetSocketAddress remoteSocket, int messageID) {
+        Transfer transfer = this.transfers1.remove(remoteSocket, messageID);
+        if (transfer != null) {
+            // the latest response with that token may have another message ID (e.g. a subsequent update notification)
+            CoapResponse coapResponse = this.transfers2.get(remoteSocket, transfer.token);
+            if (coapResponse != null && coapResponse.getMessageID() == messageID) {
+                this.transfers2.remove(remoteSocket, transfer.token, coapResponse);
             }
-        } finally {
-            this.lock.readLock().unlock();
-        }
-
-        try {
-            this.lock.writeLock().lock();
-            Token token = this.transfers1.remove(remoteSocket, messageID);
-            if (token != null) {
-                this.transfers2.remove(remoteSocket, token);
-            }
-            return token;
-        } finally {
-            this.lock.writeLock().unlock();
         }
+        return transfer;
     }
 
 
     private CoapResponse removeTransfer(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (!this.transfers2.contains(remoteSocket,token)) {
-                return null;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
-
-        try {
-            this.lock.writeLock().lock();
-            CoapResponse coapResponse = this.transfers2.remove(remoteSocket, token);
-            if (coapResponse != null) {
-                this.transfers1.remove(remoteSocket, coapResponse.getMessageID());
-            }
-            return coapResponse;
-        } finally {
-            this.lock.writeLock().unlock();
+        CoapResponse coapResponse = this.transfers2.remove(remoteSocket, token);
+        if (coapResponse != null) {
+            this.transfers1.remove(remoteSocket, coapResponse.getMessageID());
         }
+        return coapResponse;
     }
 
     private boolean updateRetransmission(InetSocketAddress remoteSocket, CoapResponse updatedResponse) {
+        //update the update notification to be retransmitted
         Token token = updatedResponse.getToken();
-        try{
-            //update the update notification to be retransmitted
-            lock.readLock().lock();
-            if (this.transfers2.get(remoteSocket, token) == null) {
-                return false;
-            }
-        } finally {
-            lock.readLock().unlock();
+        CoapResponse previousResponse = this.transfers2.get(remoteSocket, token);
+        if (previousResponse == null || previousResponse.getMessageType() == MessageType.NON) {
+            return false;
         }
 
-        try{
-            lock.writeLock().lock();
-            CoapResponse previousResponse = this.transfers2.remove(remoteSocket, token);
-            if (previousResponse == null || previousResponse.getMessageType() == MessageType.NON) {
-                return false;
-            } else {
-                int messageID = previousResponse.getMessageID();
-                updatedResponse.setMessageID(messageID);
-                this.transfers2.put(remoteSocket, token, updatedResponse);
-                LOG.info("Retransmission with updated response...");
-                return true;
-            }
-        } finally {
-            lock.writeLock().unlock();
+        int messageID = previousResponse.getMessageID();
+        updatedResponse.setMessageID(messageID);
+        if (this.transfers2.replace(remoteSocket, token, previousResponse, updatedResponse)) {
+            LOG.info("Retransmission with updated response...");
+            return true;
+        } else {
+            return false;
         }
     }
 
 
     private CoapResponse getCoapResponse(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.readLock().lock();
-            return this.transfers2.get(remoteSocket, token);
-        } finally {
-            this.lock.readLock().unlock();
+        return this.transfers2.get(remoteSocket, token);
+    }
+
+    private static class Transfer {
+
+        private final Token token;
+        private final RetransmissionSchedule schedule;
+
+        private Transfer(Token token, RetransmissionSchedule schedule) {
+            this.token = token;
+            this.schedule = schedule;
         }
     }
 
     class ResponseRetransmissionTask implements Runnable {
 
         private InetSocketAddress remoteSocket;
+        private Transfer transfer;
         private Token token;
         private int retransmissionNo;
 
-        private ResponseRetransmissionTask(InetSocketAddress remoteSocket, Token token, int retransmissionNo) {
+        private ResponseRetransmissionTask(InetSocketAddress remoteSocket, Transfer transfer, int retransmissionNo) {
             this.remoteSocket = remoteSocket;
-            this.token = token;
+            this.transfer = transfer;
+            this.token = transfer.token;
             this.retransmissionNo = retransmissionNo;
         }
 
@@ -309,6 +297,7 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
                 }
 
                 // retransmit message
+                this.transfer.schedule.setRetransmissions(retransmissionNo);
                 ChannelFuture future = Channels.future(getContext().getChannel());
                 Channels.write(getContext(), future, coapResponse, remoteSocket);
                 future.addListener(new ChannelFutureListener() {
@@ -322,8 +311,7 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
                     }
                 });
 
-                if (retransmissionNo < MAX_RETRANSMISSIONS) {
-                    scheduleRetransmission(remoteSocket, coapResponse.getToken(), retransmissionNo + 1);
+                if (scheduleRetransmission(remoteSocket, this.transfer, retransmissionNo + 1)) {
                     LOG.debug("Scheduled next retransmission to \"{}\" (Message ID: {})",
                             remoteSocket, coapResponse.getMessageID()
                     );
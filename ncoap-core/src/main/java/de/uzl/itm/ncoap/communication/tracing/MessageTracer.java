@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.tracing;
+
+import de.uzl.itm.ncoap.message.CoapMessage;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A {@link MessageTracer} is notified about every {@link CoapMessage} that was decoded or encoded by the
+ * {@link de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder} or the
+ * {@link de.uzl.itm.ncoap.communication.codec.CoapMessageEncoder}, respectively. It can be set on the
+ * {@link de.uzl.itm.ncoap.application.CoapChannelPipelineFactory} (or the
+ * {@link de.uzl.itm.ncoap.application.AbstractCoapApplication}) to keep diagnostics about the message traffic
+ * without formatting every single message into the log.
+ *
+ * Implementations are invoked by the I/O threads, i.e. they must be thread-safe and should return quickly. In
+ * particular, they should not call {@link CoapMessage#toString()} or any other method that causes options to be
+ * decoded.
+ */
+public interface MessageTracer {
+
+    /**
+     * This method is invoked for every inbound {@link CoapMessage} after it was decoded.
+     *
+     * @param remoteSocket the socket address of the sender
+     * @param coapMessage the decoded {@link CoapMessage}
+     * @param encodedLength the length of the encoded message in bytes
+     */
+    public void traceInbound(InetSocketAddress remoteSocket, CoapMessage coapMessage, int encodedLength);
+
+    /**
+     * This method is invoked for every outbound {@link CoapMessage} after it was encoded.
+     *
+     * @param remoteSocket the socket address of the recipient
+     * @param coapMessage the encoded {@link CoapMessage}
+     * @param encodedLength the length of the encoded message in bytes
+     */
+    public void traceOutbound(InetSocketAddress remoteSocket, CoapMessage coapMessage, int encodedLength);
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.tracing;
+
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A {@link MessageTracer} that writes a fixed-size binary record for every n-th {@link CoapMessage} into a ring
+ * buffer of fixed capacity, i.e. the oldest records are overwritten when the buffer is full. Nothing is formatted
+ * unless the content of the buffer is dumped (see {@link #dump(Appendable)} and {@link #toByteArray()}).</p>
+ *
+ * <p>Each record consists of {@value #RECORD_SIZE} bytes:</p>
+ * <ul>
+ *     <li>the time of tracing (8 bytes, milliseconds since epoch),</li>
+ *     <li>the direction (1 byte, 1 for inbound and 0 for outbound messages),</li>
+ *     <li>the message type, the message code and the token length (1 byte each),</li>
+ *     <li>the message ID and the remote port (2 bytes each),</li>
+ *     <li>the length of the encoded message (4 bytes),</li>
+ *     <li>the token (8 bytes, zero padded),</li>
+ *     <li>the remote IP address (16 bytes, zero padded) and its length (1 byte) and</li>
+ *     <li>3 bytes of padding.</li>
+ * </ul>
+ *
+ * <p><b>Note:</b> Recording does not acquire any locks. Hence, a record that is overwritten while the buffer is
+ * dumped may appear inconsistent.</p>
+ */
+public class RingBufferMessageTracer implements MessageTracer {
+
+    /**
+     * The size of a single record in bytes
+     */
+    public static final int RECORD_SIZE = 48;
+
+    private static final int TIMESTAMP = 0;
+    private static final int DIRECTION = 8;
+    private static final int MESSAGE_TYPE = 9;
+    private static final int MESSAGE_CODE = 10;
+    private static final int TOKEN_LENGTH = 11;
+    private static final int MESSAGE_ID = 12;
+    private static final int PORT = 14;
+    private static final int ENCODED_LENGTH = 16;
+    private static final int TOKEN = 20;
+    private static final int ADDRESS = 28;
+    private static final int ADDRESS_LENGTH = 44;
+
+    private static final byte INBOUND = 1;
+    private static final byte OUTBOUND = 0;
+
+    private final ByteBuffer records;
+    private final int capacity;
+    private final int samplingRate;
+
+    private final AtomicLong messageCount;
+    private final AtomicLong recordCount;
+
+    /**
+     * Creates a new instance of {@link RingBufferMessageTracer}.
+     *
+     * @param capacity the maximum number of records to be kept
+     * @param samplingRate the sampling rate, i.e. <code>1</code> to trace every message, <code>10</code> to trace
+     *                     every 10th message, etc.
+     *
+     * @throws java.lang.IllegalArgumentException if at least one of the given values is smaller than <code>1</code>
+     */
+    public RingBufferMessageTracer(int capacity, int samplingRate) throws IllegalArgumentException {
+        if (capacity < 1 || samplingRate < 1) {
+            throw new IllegalArgumentException("Capacity (" + capacity + ") and sampling rate (" + samplingRate +
+                    ") must be at least 1.");
+        }
+
+        this.records = ByteBuffer.allocate(capacity * RECORD_SIZE);
+        this.capacity = capacity;
+        this.samplingRate = samplingRate;
+        this.messageCount = new AtomicLong(0);
+        this.recordCount = new AtomicLong(0);
+    }
+
+
+    @Override
+    public void traceInbound(InetSocketAddress remoteSocket, CoapMessage coapMessage, int encodedLength) {
+        trace(INBOUND, remoteSocket, coapMessage, encodedLength);
+    }
+
+
+    @Override
+    public void traceOutbound(InetSocketAddress remoteSocket, CoapMessage coapMessage, int encodedLength) {
+        trace(OUTBOUND, remoteSocket, coapMessage, encodedLength);
+    }
+
+
+    private void trace(byte direction, InetSocketAddress remoteSocket, CoapMessage coapMessage, int encodedLength) {
+        if (samplingRate > 1 && messageCount.getAndIncrement() % samplingRate != 0) {
+            return;
+        }
+
+        int offset = (int) (recordCount.getAndIncrement() % capacity) * RECORD_SIZE;
+        byte[] token = coapMessage.getToken().getBytes();
+
+        records.putLong(offset + TIMESTAMP, System.currentTimeMillis());
+        records.put(offset + DIRECTION, direction);
+        records.put(offset + MESSAGE_TYPE, (byte) coapMessage.getMessageType());
+        records.put(offset + MESSAGE_CODE, (byte) coapMessage.getMessageCode());
+        records.put(offset + TOKEN_LENGTH, (byte) token.length);
+        records.putShort(offset + MESSAGE_ID, (short) coapMessage.getMessageID());
+        records.putShort(offset + PORT, (short) (remoteSocket == null ? 0 : remoteSocket.getPort()));
+        records.putInt(offset + ENCODED_LENGTH, encodedLength);
+
+        for (int i = 0; i < Token.MAX_LENGTH; i++) {
+            records.put(offset + TOKEN + i, i < token.length ? token[i] : 0);
+        }
+
+        byte[] address = remoteSocket == null || remoteSocket.getAddress() == null ? new byte[0] :
+                remoteSocket.getAddress().getAddress();
+        for (int i = 0; i < 16; i++) {
+            records.put(offset + ADDRESS + i, i < address.length ? address[i] : 0);
+        }
+        records.put(offset + ADDRESS_LENGTH, (byte) address.length);
+    }
+
+
+    /**
+     * Returns the number of records that are currently available, i.e. at most the capacity of this
+     * {@link RingBufferMessageTracer}
+     *
+     * @return the number of records that are currently available
+     */
+    public int size() {
+        return (int) Math.min(recordCount.get(), capacity);
+    }
+
+
+    /**
+     * Returns a copy of the available records (oldest first) in the binary format described in the class
+     * description.
+     *
+     * @return a copy of the available records (oldest first)
+     */
+    public byte[] toByteArray() {
+        long count = recordCount.get();
+        int size = (int) Math.min(count, capacity);
+        int first = (int) ((count - size) % capacity);
+
+        byte[] result = new byte[size * RECORD_SIZE];
+        byte[] array = records.array();
+        int firstPart = Math.min(size, capacity - first) * RECORD_SIZE;
+        System.arraycopy(array, first * RECORD_SIZE, result, 0, firstPart);
+        System.arraycopy(array, 0, result, firstPart, result.length - firstPart);
+        return result;
+    }
+
+
+    /**
+     * Writes a human readable representation of the available records (oldest first, one record per line) to the
+     * given {@link Appendable}.
+     *
+     * @param appendable the {@link Appendable} to write the records to (e.g. a {@link java.io.Writer} or a
+     *                   {@link StringBuilder})
+     *
+     * @throws IOException if the given {@link Appendable} threw an {@link IOException}
+     */
+    public void dump(Appendable appendable) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(toByteArray());
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+        for (int offset = 0; offset < buffer.capacity(); offset += RECORD_SIZE) {
+            byte[] token = Arrays.copyOfRange(buffer.array(), offset + TOKEN,
+                    offset + TOKEN + Math.min(buffer.get(offset + TOKEN_LENGTH), Token.MAX_LENGTH));
+            int messageCode = buffer.get(offset + MESSAGE_CODE) & 0xFF;
+
+            appendable.append(dateFormat.format(new Date(buffer.getLong(offset + TIMESTAMP))))
+                    .append(buffer.get(offset + DIRECTION) == INBOUND ? " IN  " : " OUT ")
+                    .append(getRemoteSocket(buffer, offset))
+                    .append(" [").append(MessageType.asString(buffer.get(offset + MESSAGE_TYPE)))
+                    .append(", ").append(MessageCode.asString(messageCode))
+                    .append(", ID ").append(String.valueOf(buffer.getShort(offset + MESSAGE_ID) & 0xFFFF))
+                    .append(", Token ").append(new Token(token).toString())
+                    .append(", ").append(String.valueOf(buffer.getInt(offset + ENCODED_LENGTH))).append(" bytes]")
+                    .append(System.lineSeparator());
+        }
+    }
+
+
+    private static String getRemoteSocket(ByteBuffer buffer, int offset) {
+        int length = buffer.get(offset + ADDRESS_LENGTH);
+        int port = buffer.getShort(offset + PORT) & 0xFFFF;
+        try {
+            byte[] address = Arrays.copyOfRange(buffer.array(), offset + ADDRESS, offset + ADDRESS + length);
+            return new InetSocketAddress(InetAddress.getByAddress(address), port).toString();
+        } catch (UnknownHostException | IllegalArgumentException e) {
+            return "<unknown>:" + port;
+        }
+    }
+}
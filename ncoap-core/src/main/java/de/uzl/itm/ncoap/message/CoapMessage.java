@@ -24,9 +24,9 @@
  */
 package de.uzl.itm.ncoap.message;
 
-import com.google.common.base.Supplier;
 import com.google.common.collect.*;
 import com.google.common.primitives.Longs;
+import de.uzl.itm.ncoap.communication.PeerRegistry;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.message.options.*;
@@ -46,6 +46,11 @@ import static de.uzl.itm.ncoap.message.options.Option.*;
  * This class is the base class for inheriting subtypes, e.g. requests and responses. This abstract class provides the
  * cut-set in terms of functionality of {@link CoapRequest} and {@link CoapResponse}.
  *
+ * The options of inbound messages are decoded lazily, i.e. upon the first invocation of a getter. The decoding is
+ * guarded by the message's monitor, so a message may be read by several threads concurrently (e.g. by the framework
+ * and the application). Modifying a message is not thread-safe, i.e. a message must not be modified while it is read
+ * by other threads.
+ *
  * @author Oliver Kleine
  */
 public abstract class CoapMessage {
@@ -80,14 +85,18 @@ public abstract class CoapMessage {
 
     private static final String DOES_NOT_ALLOW_CONTENT = "CoAP messages with code %s do not allow payload.";
     private static final String EXCLUDES = "Already contained option no. %d excludes option no. %d";
+    private static final String OUT_OF_ALLOWED_RANGE = "Value length (%d) is out of allowed range for option no. %d";
+    private static final String OTHER_BUFFER = "Encoded options must be contained in one and the same buffer";
 
 
     private int messageType;
     private int messageCode;
     private int messageID;
     private Token token;
+    private int peerID = PeerRegistry.UNDEFINED_PEER_ID;
 
-    protected SetMultimap<Integer, OptionValue> options;
+    private OptionList options;
+    private EncodedOptionIndex encodedOptions;
     private ChannelBuffer content;
 
 
@@ -118,8 +127,7 @@ public abstract class CoapMessage {
         this.setMessageID(messageID);
         this.setToken(token);
 
-        this.options = Multimaps.newSetMultimap(new TreeMap<Integer, Collection<OptionValue>>(),
-                LinkedHashSetSupplier.getInstance());
+        this.options = new OptionList();
 
         this.content = ChannelBuffers.EMPTY_BUFFER;
 
@@ -233,16 +241,58 @@ public abstract class CoapMessage {
      */
     public void addOption(int optionNumber, OptionValue optionValue) throws IllegalArgumentException {
         this.checkOptionPermission(optionNumber);
+        this.checkMutualExclusion(optionNumber);
 
-        for(int containedOption : options.keySet()) {
-            if (Option.mutuallyExcludes(containedOption, optionNumber))
-                throw new IllegalArgumentException(String.format(EXCLUDES, containedOption, optionNumber));
+        options.add(optionNumber, optionValue);
+
+        log.debug("Added option (number: {}, value: {})", optionNumber, optionValue);
+
+    }
+
+
+    /**
+     * Adds an option to this {@link CoapMessage} whose value is still encoded, i.e. contained in the given
+     * {@link ChannelBuffer}. The {@link OptionValue} instance is not created before the option is actually asked for,
+     * e.g. via {@link #getOptions(int)}. This method is intended for framework internal use, i.e. to decode inbound
+     * messages. All encoded options of a {@link CoapMessage} must be contained in the same {@link ChannelBuffer} and
+     * must be added in ascending order of their option numbers.
+     *
+     * @param optionNumber the number representing the option type
+     * @param buffer the {@link ChannelBuffer} containing the encoded value
+     * @param offset the (absolute) index of the first byte of the encoded value within the given buffer
+     * @param length the length of the encoded value in bytes
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number is unknwon, if the length of the encoded
+     * value exceeds the defined length limits for options with the given option number, or if the option is not
+     * allowed in this {@link CoapMessage}
+     */
+    public void addEncodedOption(int optionNumber, ChannelBuffer buffer, int offset, int length)
+            throws IllegalArgumentException {
+
+        //Leading zeros of uint options are ignored (see UintOptionValue#shortenValue)
+        int valueLength = length;
+        if (OptionValue.getType(optionNumber) == OptionValue.Type.UINT) {
+            while(valueLength > 1 && buffer.getByte(offset + length - valueLength) == 0) {
+                valueLength--;
+            }
         }
 
-        options.put(optionNumber, optionValue);
+        if (!OptionValue.isValidLength(optionNumber, valueLength)) {
+            throw new IllegalArgumentException(String.format(OUT_OF_ALLOWED_RANGE, valueLength, optionNumber));
+        }
+
+        this.checkOptionPermission(optionNumber);
+        this.checkMutualExclusion(optionNumber);
+
+        if (this.encodedOptions == null) {
+            this.encodedOptions = new EncodedOptionIndex(buffer);
+        } else if (this.encodedOptions.getBuffer() != buffer) {
+            throw new IllegalArgumentException(OTHER_BUFFER);
+        }
 
-        log.debug("Added option (number: {}, value: {})", optionNumber, optionValue.toString());
+        this.encodedOptions.add(optionNumber, offset, length);
 
+        log.debug("Added encoded option (number: {}, length: {})", optionNumber, length);
     }
 
 
@@ -333,7 +383,7 @@ public abstract class CoapMessage {
             throw new IllegalArgumentException(String.format(WRONG_OPTION_TYPE, optionNumber, OptionValue.Type.EMPTY));
 
         //Add new option to option list
-        options.put(optionNumber, new EmptyOptionValue(optionNumber));
+        options.add(optionNumber, new EmptyOptionValue(optionNumber));
 
         log.debug("Added empty option (number: {})", optionNumber);
     }
@@ -347,7 +397,10 @@ public abstract class CoapMessage {
      * @return the number of options that were removed, i.e. the count.
      */
     public int removeOptions(int optionNumber) {
-        int result = options.removeAll(optionNumber).size();
+        int result = options.remove(optionNumber);
+        if (encodedOptions != null) {
+            result += encodedOptions.remove(optionNumber);
+        }
         log.debug("Removed {} options with number {}.", result, optionNumber);
         return result;
     }
@@ -358,11 +411,81 @@ public abstract class CoapMessage {
         if (permittedOccurence == Option.Occurence.NONE) {
             throw new IllegalArgumentException(String.format(OPTION_NOT_ALLOWED_WITH_MESSAGE_TYPE,
                     optionNumber, Option.asString(optionNumber), this.getMessageCodeName()));
-        } else if (options.containsKey(optionNumber) && permittedOccurence == Option.Occurence.ONCE) {
+        } else if (containsOption(optionNumber) && permittedOccurence == Option.Occurence.ONCE) {
                 throw new IllegalArgumentException(String.format(OPTION_ALREADY_SET, optionNumber));
         }
     }
 
+    private void checkMutualExclusion(int optionNumber) throws IllegalArgumentException {
+        for(int index = 0; index < options.size(); index++) {
+            int containedOption = options.getOptionNumber(index);
+            if (Option.mutuallyExcludes(containedOption, optionNumber))
+                throw new IllegalArgumentException(String.format(EXCLUDES, containedOption, optionNumber));
+        }
+
+        if (encodedOptions != null) {
+            for(int index = 0; index < encodedOptions.size(); index++) {
+                int containedOption = encodedOptions.getOptionNumber(index);
+                if (Option.mutuallyExcludes(containedOption, optionNumber))
+                    throw new IllegalArgumentException(String.format(EXCLUDES, containedOption, optionNumber));
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the (first) uint option with the given number or {@link UintOptionValue#UNDEFINED} if
+     * there is no such option contained in this {@link CoapMessage}. Options that were not yet decoded are read
+     * directly from the encoded message, i.e. without creating an {@link OptionValue} instance.
+     *
+     * @param optionNumber the number of an option of type {@link OptionValue.Type#UINT}
+     *
+     * @return the value of the (first) uint option with the given number or {@link UintOptionValue#UNDEFINED} if
+     * there is no such option contained in this {@link CoapMessage}
+     */
+    protected synchronized long getUintOptionValue(int optionNumber) {
+        OptionValue optionValue = options.getFirst(optionNumber);
+        if (optionValue != null) {
+            return ((UintOptionValue) optionValue).getDecodedValue();
+        } else if (encodedOptions != null) {
+            return encodedOptions.getUintValue(optionNumber);
+        } else {
+            return UintOptionValue.UNDEFINED;
+        }
+    }
+
+    // decodes the options with the given number only, e.g. the Uri-Path for routing. As long as other options are
+    // still encoded, a later invocation may change the option list, so the caller gets a copy of the decoded values
+    // (created under the monitor) rather than a view.
+    private synchronized Set<OptionValue> decodeOptions(int optionNumber) {
+        if (encodedOptions != null && encodedOptions.contains(optionNumber)) {
+            for (OptionValue optionValue : encodedOptions.decode(optionNumber)) {
+                options.add(optionNumber, optionValue);
+            }
+            if (encodedOptions.isEmpty()) {
+                encodedOptions = null;
+            }
+        }
+        if (encodedOptions == null) {
+            return options.get(optionNumber);
+        } else {
+            return ImmutableSet.copyOf(options.get(optionNumber));
+        }
+    }
+
+    // once this method returned, the options are no longer changed by any getter, i.e. they can be read without
+    // holding the monitor (which in turn is required as the decoding changes both, the options and the index)
+    private synchronized void decodeAllOptions() {
+        if (encodedOptions != null) {
+            while(!encodedOptions.isEmpty()) {
+                int optionNumber = encodedOptions.getOptionNumber(0);
+                for (OptionValue optionValue : encodedOptions.decode(optionNumber)) {
+                    options.add(optionNumber, optionValue);
+                }
+            }
+            encodedOptions = null;
+        }
+    }
+
     private static long extractBits(final long value, final int bits, final int offset) {
         final long shifted = value >>> offset;
         final long masked = (1L << bits) - 1L;
@@ -405,6 +528,30 @@ public abstract class CoapMessage {
     }
 
 
+    /**
+     * Sets the ID of the peer this {@link CoapMessage} was received from (see {@link PeerRegistry}). Responses carry
+     * the peer ID of the request they answer. The peer ID is neither encoded nor considered by
+     * {@link #equals(Object)}.
+     *
+     * @param peerID the ID of the peer this {@link CoapMessage} was received from (or is to be sent to)
+     */
+    public void setPeerID(int peerID) {
+        this.peerID = peerID;
+    }
+
+
+    /**
+     * Returns the ID of the peer this {@link CoapMessage} was received from (or
+     * {@link PeerRegistry#UNDEFINED_PEER_ID} if not set)
+     *
+     * @return the ID of the peer this {@link CoapMessage} was received from (or
+     * {@link PeerRegistry#UNDEFINED_PEER_ID} if not set)
+     */
+    public int getPeerID() {
+        return this.peerID;
+    }
+
+
     /**
      * Returns the number representing the {@link MessageType} of this {@link CoapMessage}
      *
@@ -475,11 +622,8 @@ public abstract class CoapMessage {
      * is present in this {@link CoapMessage}.
      */
     public long getContentFormat() {
-        if (options.containsKey(CONTENT_FORMAT)) {
-            return ((UintOptionValue) options.get(CONTENT_FORMAT).iterator().next()).getDecodedValue();
-        } else {
-            return ContentFormat.UNDEFINED;
-        }
+        long contentFormat = getUintOptionValue(CONTENT_FORMAT);
+        return contentFormat == UintOptionValue.UNDEFINED ? ContentFormat.UNDEFINED : contentFormat;
     }
 
 
@@ -517,11 +661,7 @@ public abstract class CoapMessage {
      * this {@link CoapRequest}.
      */
     public long getObserve() {
-        if (!options.containsKey(OBSERVE)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            return (long) options.get(OBSERVE).iterator().next().getDecodedValue();
-        }
+        return getUintOptionValue(OBSERVE);
     }
 
 
@@ -535,11 +675,8 @@ public abstract class CoapMessage {
      * this {@link CoapRequest}.
      */
     public long getBlock2Number() {
-        if (!options.containsKey(BLOCK_2)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            return (long) options.get(BLOCK_2).iterator().next().getDecodedValue() >> 4;
-        }
+        long value = getUintOptionValue(BLOCK_2);
+        return value == UintOptionValue.UNDEFINED ? UintOptionValue.UNDEFINED : value >> 4;
     }
 
 
@@ -555,12 +692,8 @@ public abstract class CoapMessage {
      * @return <code>true</code> if there are no more blocks expected.
      */
     public boolean isLastBlock2() {
-        if (!options.containsKey(BLOCK_2)) {
-            return true;
-        } else {
-            long m = (long) options.get(BLOCK_2).iterator().next().getDecodedValue();
-            return (extractBits(m, 1, 3) == 0);
-        }
+        long value = getUintOptionValue(BLOCK_2);
+        return value == UintOptionValue.UNDEFINED || extractBits(value, 1, 3) == 0;
     }
 
 
@@ -576,12 +709,8 @@ public abstract class CoapMessage {
      * this {@link CoapRequest}.
      */
     public long getBlock2Szx() {
-        if (!options.containsKey(BLOCK_2)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            long value = (long) options.get(BLOCK_2).iterator().next().getDecodedValue();
-            return extractBits(value, 3, 0);
-        }
+        long value = getUintOptionValue(BLOCK_2);
+        return value == UintOptionValue.UNDEFINED ? UintOptionValue.UNDEFINED : extractBits(value, 3, 0);
     }
 
 
@@ -603,11 +732,8 @@ public abstract class CoapMessage {
      * this {@link CoapRequest}.
      */
     public long getBlock1Number() {
-        if (!options.containsKey(BLOCK_1)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            return (long) options.get(BLOCK_1).iterator().next().getDecodedValue() >> 4;
-        }
+        long value = getUintOptionValue(BLOCK_1);
+        return value == UintOptionValue.UNDEFINED ? UintOptionValue.UNDEFINED : value >> 4;
     }
 
 
@@ -621,12 +747,8 @@ public abstract class CoapMessage {
      * @return <code>true</code> if there are no more blocks expected and <code>false</code> otherwise.
      */
     public boolean isLastBlock1() {
-        if (!options.containsKey(BLOCK_1)) {
-            return true;
-        } else {
-            long m = (long) options.get(BLOCK_1).iterator().next().getDecodedValue();
-            return (extractBits(m, 1, 3) == 0);
-        }
+        long value = getUintOptionValue(BLOCK_1);
+        return value == UintOptionValue.UNDEFINED || extractBits(value, 1, 3) == 0;
     }
 
 
@@ -640,12 +762,8 @@ public abstract class CoapMessage {
      * {@link UintOptionValue#UNDEFINED} if there is no BLOCK1 option contained in this {@link CoapMessage}.
      */
     public long getBlock1Szx() {
-        if (!options.containsKey(BLOCK_1)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            long value = (long) options.get(BLOCK_1).iterator().next().getDecodedValue();
-            return extractBits(value, 3, 0);
-        }
+        long value = getUintOptionValue(BLOCK_1);
+        return value == UintOptionValue.UNDEFINED ? UintOptionValue.UNDEFINED : extractBits(value, 3, 0);
     }
 
     /**
@@ -666,32 +784,24 @@ public abstract class CoapMessage {
 
 
     public void setSize2(long size2) throws IllegalArgumentException{
-        this.options.removeAll(SIZE_2);
+        this.removeOptions(SIZE_2);
         this.addUintOption(SIZE_2, size2);
     }
 
 
     public long getSize2() {
-        if (options.containsKey(SIZE_2)) {
-            return ((UintOptionValue) options.get(SIZE_2).iterator().next()).getDecodedValue();
-        } else {
-            return UintOptionValue.UNDEFINED;
-        }
+        return getUintOptionValue(SIZE_2);
     }
 
 
     public void setSize1(long size1) throws IllegalArgumentException{
-        this.options.removeAll(SIZE_1);
+        this.removeOptions(SIZE_1);
         this.addUintOption(SIZE_1, size1);
     }
 
 
     public long getSize1() {
-        if (options.containsKey(SIZE_1)) {
-            return ((UintOptionValue) options.get(SIZE_1).iterator().next()).getDecodedValue();
-        } else {
-            return UintOptionValue.UNDEFINED;
-        }
+        return getUintOptionValue(SIZE_1);
     }
 
 
@@ -870,29 +980,76 @@ public abstract class CoapMessage {
     /**
      * Returns a {@link Multimap} with the option numbers as keys and
      * {@link de.uzl.itm.ncoap.message.options.OptionValue}s as values.
-     * The returned multimap does not contain options with default values.
+     * The returned multimap does not contain options with default values. It is a live view, i.e. changes of the
+     * multimap are written through to this {@link CoapMessage} and vice versa. Options not yet decoded are decoded
+     * (thread-safe) beforehand. To get an immutable snapshot use {@link #getOptionsSnapshot()}.
      *
      * @return a {@link Multimap} with the option numbers as keys and {@link de.uzl.itm.ncoap.message.options.OptionValue}s as values.
      */
     public SetMultimap<Integer, OptionValue> getAllOptions() {
+        decodeAllOptions();
+        return this.options.asMultimap();
+    }
+
+    /**
+     * Returns an immutable snapshot of the options of this {@link CoapMessage} as {@link Multimap} with the option
+     * numbers as keys and {@link de.uzl.itm.ncoap.message.options.OptionValue}s as values, i.e. subsequent changes
+     * of this {@link CoapMessage} are not reflected.
+     *
+     * @return an immutable snapshot of the options of this {@link CoapMessage}
+     */
+    public SetMultimap<Integer, OptionValue> getOptionsSnapshot() {
+        decodeAllOptions();
+        return this.options.toMultimap();
+    }
+
+    /**
+     * Returns the {@link OptionList} containing all options of this {@link CoapMessage} sorted by option number. This
+     * method is intended for framework internal use, e.g. to encode the options without creating a snapshot. To
+     * change the options use the appropriate methods of {@link CoapMessage}, {@link CoapRequest} and
+     * {@link CoapResponse}. Options not yet decoded are decoded (thread-safe) beforehand, so the returned list can
+     * be read by several threads as long as this {@link CoapMessage} is not modified.
+     *
+     * @return the {@link OptionList} containing all options of this {@link CoapMessage}
+     */
+    public OptionList getOptionList() {
+        decodeAllOptions();
         return this.options;
     }
 
+    /**
+     * Replaces all options of this {@link CoapMessage} with the options of the given {@link CoapMessage}. The
+     * {@link OptionValue} instances are shared, i.e. not copied.
+     *
+     * @param coapMessage the {@link CoapMessage} to copy the options from
+     */
+    void copyOptions(CoapMessage coapMessage) {
+        this.options = new OptionList(coapMessage.getOptionList());
+        this.encodedOptions = null;
+    }
+
     public void setAllOptions (SetMultimap<Integer, OptionValue> options) {
-        this.options = options;
+        this.options.clear();
+        for (Map.Entry<Integer, OptionValue> option : options.entries()) {
+            this.options.add(option.getKey(), option.getValue());
+        }
+        this.encodedOptions = null;
     }
 
     /**
      * Returns a {@link Set} containing the {@link OptionValue}s that are explicitly set in this {@link CoapMessage}.
      * The returned set does not contain options with default values. If this {@link CoapMessage} does not contain any
-     * options of the given option number, then the returned set is empty.
+     * options of the given option number, then the returned set is empty. The returned set is unmodifiable.
+     * Only the options with the given number are decoded (thread-safe) beforehand. As long as other options of an
+     * inbound message are not yet decoded, the returned set is a copy, i.e. it is not changed by concurrent readers
+     * of this {@link CoapMessage}. Otherwise it is a view.
      *
      * @param optionNumber the option number
      *
      * @return a {@link Set} containing the {@link OptionValue}s that are explicitly set in this {@link CoapMessage}.
      */
     public Set<OptionValue> getOptions(int optionNumber) {
-        return this.options.get(optionNumber);
+        return decodeOptions(optionNumber);
     }
 
     /**
@@ -904,8 +1061,8 @@ public abstract class CoapMessage {
      * @return <code>true</code> if an option with the given number is contained in this
      * {@link de.uzl.itm.ncoap.message.CoapMessage} and <code>false</code> otherwise.
      */
-    public boolean containsOption(int optionNumber) {
-        return !getOptions(optionNumber).isEmpty();
+    public synchronized boolean containsOption(int optionNumber) {
+        return options.contains(optionNumber) || (encodedOptions != null && encodedOptions.contains(optionNumber));
     }
 
     @Override
@@ -949,31 +1106,21 @@ public abstract class CoapMessage {
             return false;
 
 
-        //Iterators iterate over the contained options
-        Iterator<Map.Entry<Integer, OptionValue>> iterator1 = this.getAllOptions().entries().iterator();
-        Iterator<Map.Entry<Integer, OptionValue>> iterator2 = other.getAllOptions().entries().iterator();
-
         //Check if both CoAP Messages contain the same options in the same order
-        while(iterator1.hasNext()) {
-
-            //Check if iterator2 has no more options while iterator1 has at least one more
-            if (!iterator2.hasNext())
-                return false;
+        OptionList options1 = this.getOptionList();
+        OptionList options2 = other.getOptionList();
 
-            Map.Entry<Integer, OptionValue> entry1 = iterator1.next();
-            Map.Entry<Integer, OptionValue> entry2 = iterator2.next();
+        if (options1.size() != options2.size())
+            return false;
 
-            if (!entry1.getKey().equals(entry2.getKey()))
+        for(int index = 0; index < options1.size(); index++) {
+            if (options1.getOptionNumber(index) != options2.getOptionNumber(index))
                 return false;
 
-            if (!entry1.getValue().equals(entry2.getValue()))
+            if (!options1.getOptionValue(index).equals(options2.getOptionValue(index)))
                 return false;
         }
 
-        //Check if iterator2 has at least one more option while iterator1 has no more
-        if (iterator2.hasNext())
-            return false;
-
         //Check content
         return this.getContent().equals(other.getContent());
     }
@@ -991,13 +1138,15 @@ public abstract class CoapMessage {
 
         //Options
         result.append("Options:");
-        for(int optionNumber : getAllOptions().keySet()) {
-            result.append(" (No. " + optionNumber + ") ");
-            Iterator<OptionValue> iterator = this.getOptions(optionNumber).iterator();
-            OptionValue optionValue = iterator.next();
-            result.append(optionValue.toString());
-            while(iterator.hasNext())
-                result.append(" / " + iterator.next().toString());
+        OptionList optionList = getOptionList();
+        for(int index = 0; index < optionList.size(); index++) {
+            int optionNumber = optionList.getOptionNumber(index);
+            if (index > 0 && optionList.getOptionNumber(index - 1) == optionNumber) {
+                result.append(" / ");
+            } else {
+                result.append(" (No. " + optionNumber + ") ");
+            }
+            result.append(optionList.getOptionValue(index).toString());
         }
         result.append(" | ");
 
@@ -1020,26 +1169,4 @@ public abstract class CoapMessage {
 
         this.messageCode = messageCode;
     }
-
-
-    /**
-     * This is the supplier to provide the {@link LinkedHashSet} to contain the {@link de.uzl.itm.ncoap.message.options.OptionValue} instances. There
-     * is one {@link LinkedHashSet} provided per option number. The order prevention of the values contained
-     * in such a set is necessary to keep the order of multiple values for one option (e.g. URI path).
-     */
-    private final static class LinkedHashSetSupplier implements Supplier<LinkedHashSet<OptionValue>> {
-
-        public static LinkedHashSetSupplier instance = new LinkedHashSetSupplier();
-
-        private LinkedHashSetSupplier() {}
-
-        public static LinkedHashSetSupplier getInstance() {
-            return instance;
-        }
-
-        @Override
-        public LinkedHashSet<OptionValue> get() {
-            return new LinkedHashSet<>();
-        }
-    }
 }
@@ -50,6 +50,7 @@ public class CoapRequest extends CoapMessage {
     private static final String URI_SCHEME = "URI scheme must be set to \"coap\" (but given URI is: %s)!";
     private static final String URI_FRAGMENT = "URI must not have a fragment (but given URI is: %s)!";
 
+    private Map<String, String> uriPathVariables = Collections.emptyMap();
 
     /**
      * Creates a new {@link CoapRequest} instance and uses the given parameters to create an appropriate header
@@ -114,6 +115,25 @@ public class CoapRequest extends CoapMessage {
         }
     }
 
+    /**
+     * Creates a new {@link CoapRequest} with the same message type, message code, message ID and token as the
+     * given prototype that shares the options and the content with the prototype, i.e. neither the option values nor
+     * the content are copied. Adding or removing options of the copy does not change the prototype.
+     *
+     * @param prototype the {@link CoapRequest} to be copied
+     *
+     * @return a new {@link CoapRequest} sharing the options and the content with the given prototype
+     */
+    public static CoapRequest createCopy(CoapRequest prototype) {
+        CoapRequest coapRequest = new CoapRequest(prototype.getMessageType(), prototype.getMessageCode());
+        coapRequest.setMessageID(prototype.getMessageID());
+        coapRequest.setToken(prototype.getToken());
+        coapRequest.setPeerID(prototype.getPeerID());
+        coapRequest.copyOptions(prototype);
+        coapRequest.setContent(prototype.getContent().duplicate());
+        return coapRequest;
+    }
+
     /**
      * Sets the proxy URI option of this {@link CoapRequest} with the given {@link URI}
      *
@@ -224,7 +244,7 @@ public class CoapRequest extends CoapMessage {
      */
     public Set<byte[]> getIfMatch() {
 
-        Set<OptionValue> ifMatchOptionValues = options.get(IF_MATCH);
+        Set<OptionValue> ifMatchOptionValues = getOptions(IF_MATCH);
         Set<byte[]> result = new HashSet<>(ifMatchOptionValues.size());
 
         for (OptionValue ifMatchOptionValue : ifMatchOptionValues)
@@ -242,8 +262,8 @@ public class CoapRequest extends CoapMessage {
      */
     public String getUriHost() {
 
-        if (options.containsKey(URI_HOST))
-            return ((StringOptionValue) options.get(URI_HOST).iterator().next()).getDecodedValue();
+        if (containsOption(URI_HOST))
+            return ((StringOptionValue) getOptions(URI_HOST).iterator().next()).getDecodedValue();
 
         return null;
     }
@@ -285,7 +305,7 @@ public class CoapRequest extends CoapMessage {
     public Set<byte[]> getEtags() {
         Set<byte[]> result = new HashSet<>();
 
-        for (OptionValue optionValue : options.get(ETAG))
+        for (OptionValue optionValue : getOptions(ETAG))
             result.add(((OpaqueOptionValue) optionValue).getDecodedValue());
 
         return result;
@@ -300,7 +320,7 @@ public class CoapRequest extends CoapMessage {
      * @return <code>true</code> if the option is set after method returned or <code>false</code> otherwise.
      */
     public boolean setIfNonMatch() {
-        if (options.containsKey(IF_NONE_MATCH))
+        if (containsOption(IF_NONE_MATCH))
             return true;
 
         try{
@@ -320,7 +340,7 @@ public class CoapRequest extends CoapMessage {
      * no such option present in this {@link CoapRequest}.
      */
     public boolean isIfNonMatchSet() {
-        return options.containsKey(IF_NONE_MATCH);
+        return containsOption(IF_NONE_MATCH);
     }
 
 
@@ -332,10 +352,8 @@ public class CoapRequest extends CoapMessage {
      * present in this {@link CoapRequest}.
      */
     public long getUriPort() {
-        if (options.containsKey(URI_PORT))
-            return ((UintOptionValue) options.get(URI_PORT).iterator().next()).getDecodedValue();
-
-        return OptionValue.URI_PORT_DEFAULT;
+        long uriPort = getUintOptionValue(URI_PORT);
+        return uriPort == UintOptionValue.UNDEFINED ? OptionValue.URI_PORT_DEFAULT : uriPort;
     }
 
 
@@ -349,7 +367,7 @@ public class CoapRequest extends CoapMessage {
     public String getUriPath() {
         String result = "/";
 
-        Iterator<OptionValue> iterator = options.get(URI_PATH).iterator();
+        Iterator<OptionValue> iterator = getOptions(URI_PATH).iterator();
         if (iterator.hasNext())
             result += ((StringOptionValue) iterator.next()).getDecodedValue();
 
@@ -359,6 +377,48 @@ public class CoapRequest extends CoapMessage {
         return result;
     }
 
+
+    /**
+     * Sets the values of the template segments (e.g. <code>{id}</code>) and the wildcard segment (<code>*</code>) of
+     * the path of the {@link de.uzl.itm.ncoap.application.server.resource.Webresource} addressed by this
+     * {@link CoapRequest}. This method is invoked by the framework when the request is dispatched. The variables are
+     * not encoded.
+     *
+     * @param uriPathVariables the values of the template segments (key: variable name, value: path segment)
+     */
+    public void setUriPathVariables(Map<String, String> uriPathVariables) {
+        this.uriPathVariables = uriPathVariables;
+    }
+
+
+    /**
+     * Returns the values of the template segments (e.g. <code>{id}</code>) and the wildcard segment
+     * (<code>*</code>) of the path of the {@link de.uzl.itm.ncoap.application.server.resource.Webresource} addressed
+     * by this {@link CoapRequest} (or an empty map if there are no such segments).
+     *
+     * @return the values of the template segments (key: variable name, value: path segment)
+     */
+    public Map<String, String> getUriPathVariables() {
+        return this.uriPathVariables;
+    }
+
+
+    /**
+     * Returns the value of the given template segment variable (see {@link #getUriPathVariables()}) or
+     * <code>null</code> if there is no such variable.
+     *
+     * Assume, the addressed {@link de.uzl.itm.ncoap.application.server.resource.Webresource} is registered at
+     * "/sensors/{id}/temp" and the path of this {@link CoapRequest} is "/sensors/42/temp", then this method invocation
+     * with parameter set to "id" returns "42".
+     *
+     * @param variable the name of the variable
+     *
+     * @return the value of the given template segment variable or <code>null</code> if there is no such variable
+     */
+    public String getUriPathVariable(String variable) {
+        return this.uriPathVariables.get(variable);
+    }
+
     /**
      * Returns the full query of the request URI reconstructed from the URI query options present in this
      * {@link CoapRequest} or the empty string ("") if no such option is present.
@@ -369,9 +429,9 @@ public class CoapRequest extends CoapMessage {
     public String getUriQuery() {
         String result = "";
 
-        if (options.containsKey(URI_QUERY)) {
+        if (containsOption(URI_QUERY)) {
 
-            Iterator<OptionValue> iterator = options.get(URI_QUERY).iterator();
+            Iterator<OptionValue> iterator = getOptions(URI_QUERY).iterator();
             result += (((StringOptionValue) iterator.next()).getDecodedValue());
 
             while(iterator.hasNext())
@@ -398,7 +458,7 @@ public class CoapRequest extends CoapMessage {
         if (!parameter.endsWith("="))
             parameter += "=";
 
-        for(OptionValue optionValue : options.get(URI_QUERY)) {
+        for(OptionValue optionValue : getOptions(URI_QUERY)) {
             String value = ((StringOptionValue) optionValue).getDecodedValue();
 
             if (value.startsWith(parameter))
@@ -421,13 +481,13 @@ public class CoapRequest extends CoapMessage {
      * format
      */
     public void setAccept(long... contentFormatNumbers) throws IllegalArgumentException {
-        options.removeAll(ACCEPT);
+        removeOptions(ACCEPT);
         try{
             for(long contentFormatNumber : contentFormatNumbers)
                 this.addUintOption(ACCEPT, contentFormatNumber);
         }
         catch (IllegalArgumentException e) {
-            options.removeAll(ACCEPT);
+            removeOptions(ACCEPT);
             throw e;
         }
     }
@@ -443,7 +503,7 @@ public class CoapRequest extends CoapMessage {
     public Set<Long> getAcceptedContentFormats() {
         Set<Long> result = new HashSet<>();
 
-        for(OptionValue optionValue : options.get(ACCEPT))
+        for(OptionValue optionValue : getOptions(ACCEPT))
             result.add(((UintOptionValue) optionValue).getDecodedValue());
 
         return result;
@@ -466,16 +526,16 @@ public class CoapRequest extends CoapMessage {
      * URI host, URI port, URI path, and URI query options is invalid.
      */
     public URI getProxyURI() throws URISyntaxException {
-        if (options.containsKey(PROXY_URI)) {
-            OptionValue proxyUriOptionValue = options.get(PROXY_URI).iterator().next();
+        if (containsOption(PROXY_URI)) {
+            OptionValue proxyUriOptionValue = getOptions(PROXY_URI).iterator().next();
             return new URI(((StringOptionValue) proxyUriOptionValue).getDecodedValue());
         }
 
-        if (options.get(PROXY_SCHEME).size() == 1) {
-            OptionValue proxySchemeOptionValue = options.get(PROXY_SCHEME).iterator().next();
+        if (getOptions(PROXY_SCHEME).size() == 1) {
+            OptionValue proxySchemeOptionValue = getOptions(PROXY_SCHEME).iterator().next();
             String scheme = ((StringOptionValue) proxySchemeOptionValue).getDecodedValue();
             String uriHost = getUriHost();
-            OptionValue uriPortOptionValue = options.get(URI_PORT).iterator().next();
+            OptionValue uriPortOptionValue = getOptions(URI_PORT).iterator().next();
             int uriPort = ((UintOptionValue) uriPortOptionValue).getDecodedValue().intValue();
             String uriPath = getUriPath();
             String uriQuery = getUriQuery();
@@ -569,6 +629,6 @@ public class CoapRequest extends CoapMessage {
      * {@link CoapRequest} or <code>false</code> otherwise.
      */
     public boolean isObservationRequest() {
-        return(!options.get(OBSERVE).isEmpty());
+        return containsOption(OBSERVE);
     }
 }
@@ -25,6 +25,8 @@
 package de.uzl.itm.ncoap.message;
 
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.codec.UpdateNotificationTemplate;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.observing.ResourceStatusAge;
 import de.uzl.itm.ncoap.message.options.*;
 import org.slf4j.Logger;
@@ -63,6 +65,7 @@ public class CoapResponse extends CoapMessage {
 
     private static final String NO_ERRROR_CODE = "Code no. %s is no error code!";
 
+    private UpdateNotificationTemplate updateNotificationTemplate;
 
     /**
      * Creates a new instance of {@link CoapResponse}.
@@ -139,6 +142,57 @@ public class CoapResponse extends CoapMessage {
     }
 
 
+    /**
+     * Creates a new update notification with the given {@link MessageType} and {@link Token} that shares the options,
+     * the content and the {@link UpdateNotificationTemplate} (if any) with the given prototype, i.e. neither the
+     * option values nor the content are copied. This is to efficiently send the same resource status to many
+     * observers. The observe option is to be set afterwards (see {@link #setObserve()}).
+     *
+     * @param prototype the {@link CoapResponse} to share the options and the content with
+     * @param messageType the number representing the {@link MessageType} of the update notification
+     * @param token the {@link Token} of the observation
+     *
+     * @return a new update notification sharing the options and the content with the given prototype
+     *
+     * @throws java.lang.IllegalArgumentException if the given message type is invalid
+     */
+    public static CoapResponse createUpdateNotification(CoapResponse prototype, int messageType, Token token)
+            throws IllegalArgumentException {
+
+        CoapResponse updateNotification = new CoapResponse(messageType, prototype.getMessageCode());
+        updateNotification.setToken(token);
+        updateNotification.copyOptions(prototype);
+        updateNotification.setContent(prototype.getContent().duplicate());
+        updateNotification.setUpdateNotificationTemplate(prototype.getUpdateNotificationTemplate());
+
+        return updateNotification;
+    }
+
+
+    /**
+     * Returns the {@link UpdateNotificationTemplate} to encode this {@link CoapResponse} with or <code>null</code>
+     * if this {@link CoapResponse} is to be encoded from scratch.
+     *
+     * @return the {@link UpdateNotificationTemplate} to encode this {@link CoapResponse} with or <code>null</code>
+     * if there is none
+     */
+    public UpdateNotificationTemplate getUpdateNotificationTemplate() {
+        return this.updateNotificationTemplate;
+    }
+
+
+    /**
+     * Sets the {@link UpdateNotificationTemplate} to encode this {@link CoapResponse} with, i.e. to share the encoded
+     * options and content with other update notifications of the same resource status.
+     *
+     * @param updateNotificationTemplate the {@link UpdateNotificationTemplate} to encode this {@link CoapResponse}
+     *                                   with (or <code>null</code> to encode it from scratch)
+     */
+    public void setUpdateNotificationTemplate(UpdateNotificationTemplate updateNotificationTemplate) {
+        this.updateNotificationTemplate = updateNotificationTemplate;
+    }
+
+
     public boolean isErrorResponse() {
         return MessageCode.isErrorMessage(this.getMessageCode());
     }
@@ -162,8 +216,8 @@ public class CoapResponse extends CoapMessage {
      * @return the byte array representing the ETAG of the content returned by {@link #getContent()}
      */
     public byte[] getEtag() {
-        if (options.containsKey(ETAG)) {
-            return ((OpaqueOptionValue) options.get(ETAG).iterator().next()).getDecodedValue();
+        if (containsOption(ETAG)) {
+            return ((OpaqueOptionValue) getOptions(ETAG).iterator().next()).getDecodedValue();
         } else {
             return null;
         }
@@ -256,8 +310,8 @@ public class CoapResponse extends CoapMessage {
      */
     public void setLocationURI(URI locationURI) throws IllegalArgumentException {
 
-        options.removeAll(LOCATION_PATH);
-        options.removeAll(LOCATION_QUERY);
+        removeOptions(LOCATION_PATH);
+        removeOptions(LOCATION_QUERY);
 
         String locationPath = locationURI.getRawPath();
         String locationQuery = locationURI.getRawQuery();
@@ -277,8 +331,8 @@ public class CoapResponse extends CoapMessage {
                     this.addStringOption(LOCATION_QUERY, queryComponent);
             }
         } catch(IllegalArgumentException ex) {
-            options.removeAll(LOCATION_PATH);
-            options.removeAll(LOCATION_QUERY);
+            removeOptions(LOCATION_PATH);
+            removeOptions(LOCATION_QUERY);
             throw ex;
         }
     }
@@ -296,16 +350,16 @@ public class CoapResponse extends CoapMessage {
         //Reconstruct path
         StringBuilder locationPath = new StringBuilder();
 
-        if (options.containsKey(LOCATION_PATH)) {
-            for (OptionValue optionValue : options.get(LOCATION_PATH))
+        if (containsOption(LOCATION_PATH)) {
+            for (OptionValue optionValue : getOptions(LOCATION_PATH))
                 locationPath.append("/").append(((StringOptionValue) optionValue).getDecodedValue());
         }
 
         //Reconstruct query
         StringBuilder locationQuery = new StringBuilder();
 
-        if (options.containsKey(LOCATION_QUERY)) {
-            Iterator<OptionValue> queryComponentIterator = options.get(LOCATION_QUERY).iterator();
+        if (containsOption(LOCATION_QUERY)) {
+            Iterator<OptionValue> queryComponentIterator = getOptions(LOCATION_QUERY).iterator();
             locationQuery.append(((StringOptionValue) queryComponentIterator.next()).getDecodedValue());
             while(queryComponentIterator.hasNext())
                 locationQuery.append("&")
@@ -327,7 +381,7 @@ public class CoapResponse extends CoapMessage {
      */
     public void setMaxAge(long maxAge) {
         try {
-            this.options.removeAll(MAX_AGE);
+            removeOptions(MAX_AGE);
             this.addUintOption(MAX_AGE, maxAge);
         } catch (IllegalArgumentException e) {
             log.error("This should never happen.", e);
@@ -343,10 +397,7 @@ public class CoapResponse extends CoapMessage {
      * exists, this method returns {@link de.uzl.itm.ncoap.message.options.OptionValue#MAX_AGE_DEFAULT}.
      */
     public long getMaxAge() {
-        if (options.containsKey(MAX_AGE)) {
-            return ((UintOptionValue) options.get(MAX_AGE).iterator().next()).getDecodedValue();
-        } else {
-            return OptionValue.MAX_AGE_DEFAULT;
-        }
+        long maxAge = getUintOptionValue(MAX_AGE);
+        return maxAge == UintOptionValue.UNDEFINED ? OptionValue.MAX_AGE_DEFAULT : maxAge;
     }
 }
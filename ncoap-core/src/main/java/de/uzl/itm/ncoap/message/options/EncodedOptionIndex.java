@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.message.options;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An {@link EncodedOptionIndex} is a compact index of options that were received but not yet converted into
+ * {@link OptionValue} instances. For every option it only keeps the option number as well as the offset and the
+ * length of the encoded value within the {@link ChannelBuffer} that contains the received message. The
+ * {@link OptionValue} instances are created on demand, i.e. when the option is actually asked for.
+ *
+ * The options must be added in ascending order of their option numbers, i.e. in the order they appear in an encoded
+ * message. Multiple options with the same number keep the order they were added in.
+ */
+public class EncodedOptionIndex {
+
+    private static final int ENTRY_SIZE = 3;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private ChannelBuffer buffer;
+    private int[] entries;
+    private int size;
+
+    /**
+     * Creates a new (empty) instance of {@link EncodedOptionIndex}.
+     *
+     * @param buffer the {@link ChannelBuffer} containing the encoded option values
+     */
+    public EncodedOptionIndex(ChannelBuffer buffer) {
+        this.buffer = buffer;
+        this.entries = new int[INITIAL_CAPACITY * ENTRY_SIZE];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the {@link ChannelBuffer} containing the encoded option values
+     *
+     * @return the {@link ChannelBuffer} containing the encoded option values
+     */
+    public ChannelBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Adds an option to this index.
+     *
+     * @param optionNumber the option number
+     * @param offset the (absolute) index of the first byte of the encoded value in the {@link ChannelBuffer}
+     * @param length the length of the encoded value in bytes
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number is smaller than the option number that
+     * was added before
+     */
+    public void add(int optionNumber, int offset, int length) throws IllegalArgumentException {
+        if (size > 0 && optionNumber < getOptionNumber(size - 1)) {
+            throw new IllegalArgumentException("Option no. " + optionNumber + " must not follow option no. " +
+                    getOptionNumber(size - 1));
+        }
+
+        if ((size + 1) * ENTRY_SIZE > entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+
+        int position = size * ENTRY_SIZE;
+        entries[position] = optionNumber;
+        entries[position + 1] = offset;
+        entries[position + 2] = length;
+        size++;
+    }
+
+    /**
+     * Returns the number of options contained in this index
+     *
+     * @return the number of options contained in this index
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns <code>true</code> if there are no options contained in this index and <code>false</code> otherwise
+     *
+     * @return <code>true</code> if there are no options contained in this index and <code>false</code> otherwise
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns the option number of the option at the given position of this index
+     *
+     * @param index the position of the option in this index
+     *
+     * @return the option number of the option at the given position of this index
+     */
+    public int getOptionNumber(int index) {
+        return entries[index * ENTRY_SIZE];
+    }
+
+    /**
+     * Returns <code>true</code> if this index contains at least one option with the given number and
+     * <code>false</code> otherwise.
+     *
+     * @param optionNumber the option number
+     *
+     * @return <code>true</code> if this index contains at least one option with the given number and
+     * <code>false</code> otherwise.
+     */
+    public boolean contains(int optionNumber) {
+        return indexOf(optionNumber) != -1;
+    }
+
+    /**
+     * Returns the decoded value of the (first) option with the given number, assuming that it is an unsigned
+     * integer, or {@link UintOptionValue#UNDEFINED} if there is no such option contained in this index. This method
+     * does not create any {@link OptionValue} instance.
+     *
+     * @param optionNumber the option number
+     *
+     * @return the decoded value of the (first) option with the given number or {@link UintOptionValue#UNDEFINED} if
+     * there is no such option contained in this index.
+     */
+    public long getUintValue(int optionNumber) {
+        int index = indexOf(optionNumber);
+        if (index == -1) {
+            return UintOptionValue.UNDEFINED;
+        }
+
+        int offset = entries[index * ENTRY_SIZE + 1];
+        int length = entries[index * ENTRY_SIZE + 2];
+
+        long result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            result = (result << 8) | (buffer.getByte(i) & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * Creates the {@link OptionValue} instances for all options with the given number and removes these options from
+     * this index.
+     *
+     * @param optionNumber the option number
+     *
+     * @return a {@link List} containing the {@link OptionValue}s of all options with the given number (in the order
+     * they were added)
+     */
+    public List<OptionValue> decode(int optionNumber) {
+        int first = indexOf(optionNumber);
+        if (first == -1) {
+            return Collections.emptyList();
+        }
+
+        List<OptionValue> result = new ArrayList<>(1);
+        for (int index = first; index < size && getOptionNumber(index) == optionNumber; index++) {
+            byte[] value = new byte[entries[index * ENTRY_SIZE + 2]];
+            buffer.getBytes(entries[index * ENTRY_SIZE + 1], value);
+            result.add(createOptionValue(optionNumber, value));
+        }
+
+        remove(optionNumber);
+        return result;
+    }
+
+    /**
+     * Removes all options with the given number from this index.
+     *
+     * @param optionNumber the option number
+     *
+     * @return the number of options that were removed
+     */
+    public int remove(int optionNumber) {
+        int first = indexOf(optionNumber);
+        if (first == -1) {
+            return 0;
+        }
+
+        int last = first;
+        while (last < size && getOptionNumber(last) == optionNumber) {
+            last++;
+        }
+
+        System.arraycopy(entries, last * ENTRY_SIZE, entries, first * ENTRY_SIZE, (size - last) * ENTRY_SIZE);
+        size -= (last - first);
+        return last - first;
+    }
+
+
+    private int indexOf(int optionNumber) {
+        for (int index = 0; index < size; index++) {
+            int number = getOptionNumber(index);
+            if (number == optionNumber) {
+                return index;
+            } else if (number > optionNumber) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+
+    private static OptionValue createOptionValue(int optionNumber, byte[] value) {
+        switch (OptionValue.getType(optionNumber)) {
+            case EMPTY:
+                return new EmptyOptionValue(optionNumber);
+            case OPAQUE:
+                return new OpaqueOptionValue(optionNumber, value);
+            case STRING:
+                return new StringOptionValue(optionNumber, value, true);
+            case UINT:
+                return new UintOptionValue(optionNumber, value, true);
+            default:
+                throw new RuntimeException("This should never happen!");
+        }
+    }
+}
@@ -480,6 +480,13 @@ public abstract class Option {
                         .build()
         );
 
+        OCCURENCE_CONSTRAINTS.row(SERVICE_UNAVAILABLE_503).putAll(ImmutableMap.<Integer, Occurence>builder()
+                        .put(MAX_AGE, ONCE)
+                        .put(CONTENT_FORMAT, ONCE)
+                        .put(ENDPOINT_ID_2, ONCE)
+                        .build()
+        );
+
         OCCURENCE_CONSTRAINTS.row(GATEWAY_TIMEOUT_504).putAll(ImmutableMap.<Integer, Occurence>builder()
                         .put(MAX_AGE, ONCE)
                         .put(CONTENT_FORMAT, ONCE)
@@ -0,0 +1,332 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.message.options;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+
+import java.util.*;
+
+/**
+ * An {@link OptionList} is a compact container for the options of a {@link de.uzl.itm.ncoap.message.CoapMessage}.
+ * The option numbers and the {@link OptionValue}s are kept in two parallel arrays sorted by option number, i.e. in
+ * the order they are to be encoded. Multiple options with the same number keep the order they were added in. Like
+ * for sets, an option is not added if there is already an option with the same number and an equal value.
+ *
+ * As CoAP messages usually contain only a few options, lookups are done by a linear scan that stops at the first
+ * larger option number.
+ */
+public class OptionList {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] numbers;
+    private OptionValue[] values;
+    private int size;
+
+    /**
+     * Creates a new (empty) instance of {@link OptionList}.
+     */
+    public OptionList() {
+        this.numbers = new int[INITIAL_CAPACITY];
+        this.values = new OptionValue[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Creates a new instance of {@link OptionList} containing the same options as the given {@link OptionList}. The
+     * {@link OptionValue} instances are shared, i.e. not copied.
+     *
+     * @param optionList the {@link OptionList} to copy the options from
+     */
+    public OptionList(OptionList optionList) {
+        int capacity = Math.max(INITIAL_CAPACITY, optionList.size);
+        this.numbers = Arrays.copyOf(optionList.numbers, capacity);
+        this.values = Arrays.copyOf(optionList.values, capacity);
+        this.size = optionList.size;
+    }
+
+    /**
+     * Adds the given option behind all options with the same or a smaller option number.
+     *
+     * @param optionNumber the option number
+     * @param optionValue the {@link OptionValue}
+     *
+     * @return <code>true</code> if the option was added or <code>false</code> if there was already an option with
+     * the given number and an equal value
+     */
+    public boolean add(int optionNumber, OptionValue optionValue) {
+        int position = 0;
+        while (position < size && numbers[position] <= optionNumber) {
+            if (numbers[position] == optionNumber && values[position].equals(optionValue)) {
+                return false;
+            }
+            position++;
+        }
+
+        if (size == numbers.length) {
+            numbers = Arrays.copyOf(numbers, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        System.arraycopy(numbers, position, numbers, position + 1, size - position);
+        System.arraycopy(values, position, values, position + 1, size - position);
+        numbers[position] = optionNumber;
+        values[position] = optionValue;
+        size++;
+        return true;
+    }
+
+    /**
+     * Returns the number of options contained in this {@link OptionList}
+     *
+     * @return the number of options contained in this {@link OptionList}
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns <code>true</code> if there are no options contained in this {@link OptionList} and <code>false</code>
+     * otherwise
+     *
+     * @return <code>true</code> if there are no options contained in this {@link OptionList} and <code>false</code>
+     * otherwise
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns the option number of the option at the given position
+     *
+     * @param index the position of the option in this {@link OptionList}
+     *
+     * @return the option number of the option at the given position
+     */
+    public int getOptionNumber(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * Returns the {@link OptionValue} of the option at the given position
+     *
+     * @param index the position of the option in this {@link OptionList}
+     *
+     * @return the {@link OptionValue} of the option at the given position
+     */
+    public OptionValue getOptionValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns <code>true</code> if this {@link OptionList} contains at least one option with the given number and
+     * <code>false</code> otherwise.
+     *
+     * @param optionNumber the option number
+     *
+     * @return <code>true</code> if this {@link OptionList} contains at least one option with the given number and
+     * <code>false</code> otherwise.
+     */
+    public boolean contains(int optionNumber) {
+        return indexOf(optionNumber) != -1;
+    }
+
+    /**
+     * Returns the {@link OptionValue} of the (first) option with the given number or <code>null</code> if there is
+     * no such option.
+     *
+     * @param optionNumber the option number
+     *
+     * @return the {@link OptionValue} of the (first) option with the given number or <code>null</code> if there is
+     * no such option.
+     */
+    public OptionValue getFirst(int optionNumber) {
+        int index = indexOf(optionNumber);
+        return index == -1 ? null : values[index];
+    }
+
+    /**
+     * Returns an unmodifiable view on the {@link OptionValue}s of all options with the given number (in the order
+     * they were added). The view reflects subsequent changes of this {@link OptionList}.
+     *
+     * @param optionNumber the option number
+     *
+     * @return an unmodifiable view on the {@link OptionValue}s of all options with the given number
+     */
+    public Set<OptionValue> get(int optionNumber) {
+        return new OptionValueSet(optionNumber);
+    }
+
+    /**
+     * Removes all options with the given number.
+     *
+     * @param optionNumber the option number
+     *
+     * @return the number of options that were removed
+     */
+    public int remove(int optionNumber) {
+        int first = indexOf(optionNumber);
+        if (first == -1) {
+            return 0;
+        }
+
+        int last = first;
+        while (last < size && numbers[last] == optionNumber) {
+            last++;
+        }
+
+        System.arraycopy(numbers, last, numbers, first, size - last);
+        System.arraycopy(values, last, values, first, size - last);
+        int removed = last - first;
+        Arrays.fill(values, size - removed, size, null);
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * Removes the option with the given number and value.
+     *
+     * @param optionNumber the option number
+     * @param optionValue the {@link OptionValue}
+     *
+     * @return <code>true</code> if the option was removed or <code>false</code> if there was no such option
+     */
+    public boolean remove(int optionNumber, OptionValue optionValue) {
+        int index = indexOf(optionNumber);
+        while (index != -1 && index < size && numbers[index] == optionNumber) {
+            if (values[index].equals(optionValue)) {
+                System.arraycopy(numbers, index + 1, numbers, index, size - index - 1);
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                values[--size] = null;
+                return true;
+            }
+            index++;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all options.
+     */
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Returns an (immutable) snapshot of this {@link OptionList} as {@link SetMultimap} with the option numbers as
+     * keys (in ascending order) and the {@link OptionValue}s as values.
+     *
+     * @return an (immutable) snapshot of this {@link OptionList} as {@link SetMultimap}
+     */
+    public SetMultimap<Integer, OptionValue> toMultimap() {
+        ImmutableSetMultimap.Builder<Integer, OptionValue> builder = ImmutableSetMultimap.builder();
+        for (int index = 0; index < size; index++) {
+            builder.put(numbers[index], values[index]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns a live view on this {@link OptionList} as {@link SetMultimap} with the option numbers as keys (in
+     * ascending order) and the {@link OptionValue}s as values. Changes of the view are written through to this
+     * {@link OptionList} and vice versa.
+     *
+     * @return a live view on this {@link OptionList} as {@link SetMultimap}
+     */
+    public SetMultimap<Integer, OptionValue> asMultimap() {
+        return new OptionListMultimap(this);
+    }
+
+
+    private int indexOf(int optionNumber) {
+        for (int index = 0; index < size; index++) {
+            if (numbers[index] == optionNumber) {
+                return index;
+            } else if (numbers[index] > optionNumber) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+
+    private class OptionValueSet extends AbstractSet<OptionValue> {
+
+        private final int optionNumber;
+
+        private OptionValueSet(int optionNumber) {
+            this.optionNumber = optionNumber;
+        }
+
+        @Override
+        public Iterator<OptionValue> iterator() {
+            final int first = indexOf(optionNumber);
+
+            return new Iterator<OptionValue>() {
+
+                private int next = first;
+
+                @Override
+                public boolean hasNext() {
+                    return next != -1 && next < size && numbers[next] == optionNumber;
+                }
+
+                @Override
+                public OptionValue next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return values[next++];
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int first = indexOf(optionNumber);
+            if (first == -1) {
+                return 0;
+            }
+
+            int last = first;
+            while (last < size && numbers[last] == optionNumber) {
+                last++;
+            }
+            return last - first;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !contains(optionNumber);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.message.options;
+
+import com.google.common.collect.*;
+
+import java.util.*;
+
+/**
+ * A live {@link SetMultimap} view on an {@link OptionList} with the option numbers as keys (in ascending order) and
+ * the {@link OptionValue}s as values. Changes of the view are written through to the {@link OptionList} and vice
+ * versa. The only exception is {@link #keys()} which returns a snapshot.
+ */
+class OptionListMultimap implements SetMultimap<Integer, OptionValue> {
+
+    private final OptionList optionList;
+
+    OptionListMultimap(OptionList optionList) {
+        this.optionList = optionList;
+    }
+
+    @Override
+    public int size() {
+        return optionList.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return optionList.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && optionList.contains((Integer) key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int index = 0; index < optionList.size(); index++) {
+            if (optionList.getOptionValue(index).equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean containsEntry(Object key, Object value) {
+        return key instanceof Integer && get((Integer) key).contains(value);
+    }
+
+    @Override
+    public boolean put(Integer key, OptionValue value) {
+        return optionList.add(key, value);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return key instanceof Integer && value instanceof OptionValue
+                && optionList.remove((Integer) key, (OptionValue) value);
+    }
+
+    @Override
+    public boolean putAll(Integer key, Iterable<? extends OptionValue> values) {
+        boolean changed = false;
+        for (OptionValue value : values) {
+            changed |= optionList.add(key, value);
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean putAll(Multimap<? extends Integer, ? extends OptionValue> multimap) {
+        boolean changed = false;
+        for (Map.Entry<? extends Integer, ? extends OptionValue> entry : multimap.entries()) {
+            changed |= optionList.add(entry.getKey(), entry.getValue());
+        }
+        return changed;
+    }
+
+    @Override
+    public Set<OptionValue> replaceValues(Integer key, Iterable<? extends OptionValue> values) {
+        Set<OptionValue> result = removeAll(key);
+        putAll(key, values);
+        return result;
+    }
+
+    @Override
+    public Set<OptionValue> removeAll(Object key) {
+        if (!(key instanceof Integer)) {
+            return ImmutableSet.of();
+        }
+        Set<OptionValue> result = ImmutableSet.copyOf(optionList.get((Integer) key));
+        optionList.remove((Integer) key);
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        optionList.clear();
+    }
+
+    @Override
+    public Set<OptionValue> get(Integer key) {
+        return new ValueSet(key);
+    }
+
+    @Override
+    public Set<Integer> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Multiset<Integer> keys() {
+        ImmutableMultiset.Builder<Integer> builder = ImmutableMultiset.builder();
+        for (int index = 0; index < optionList.size(); index++) {
+            builder.add(optionList.getOptionNumber(index));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Collection<OptionValue> values() {
+        return new AbstractCollection<OptionValue>() {
+            @Override
+            public Iterator<OptionValue> iterator() {
+                return new OptionIterator<OptionValue>(-1) {
+                    @Override
+                    OptionValue get(int index) {
+                        return optionList.getOptionValue(index);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return optionList.size();
+            }
+
+            @Override
+            public void clear() {
+                optionList.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, OptionValue>> entries() {
+        return new AbstractSet<Map.Entry<Integer, OptionValue>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, OptionValue>> iterator() {
+                return new OptionIterator<Map.Entry<Integer, OptionValue>>(-1) {
+                    @Override
+                    Map.Entry<Integer, OptionValue> get(int index) {
+                        return Maps.immutableEntry(optionList.getOptionNumber(index), optionList.getOptionValue(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return optionList.size();
+            }
+
+            @Override
+            public void clear() {
+                optionList.clear();
+            }
+        };
+    }
+
+    @Override
+    public Map<Integer, Collection<OptionValue>> asMap() {
+        return new AbstractMap<Integer, Collection<OptionValue>>() {
+            @Override
+            public Set<Entry<Integer, Collection<OptionValue>>> entrySet() {
+                return new AbstractSet<Entry<Integer, Collection<OptionValue>>>() {
+                    @Override
+                    public Iterator<Entry<Integer, Collection<OptionValue>>> iterator() {
+                        final Iterator<Integer> keys = new KeySet().iterator();
+                        return new Iterator<Entry<Integer, Collection<OptionValue>>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return keys.hasNext();
+                            }
+
+                            @Override
+                            public Entry<Integer, Collection<OptionValue>> next() {
+                                Integer key = keys.next();
+                                return Maps.<Integer, Collection<OptionValue>>immutableEntry(key, new ValueSet(key));
+                            }
+
+                            @Override
+                            public void remove() {
+                                keys.remove();
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return new KeySet().size();
+                    }
+                };
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return OptionListMultimap.this.containsKey(key);
+            }
+
+            @Override
+            public Collection<OptionValue> get(Object key) {
+                return containsKey(key) ? OptionListMultimap.this.get((Integer) key) : null;
+            }
+
+            @Override
+            public Collection<OptionValue> remove(Object key) {
+                return containsKey(key) ? OptionListMultimap.this.removeAll(key) : null;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object == this || (object instanceof Multimap && asMap().equals(((Multimap<?, ?>) object).asMap()));
+    }
+
+    @Override
+    public int hashCode() {
+        return asMap().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+
+    // iterates over the options with the given number or over all options if the number is -1
+    private abstract class OptionIterator<T> implements Iterator<T> {
+
+        private final int optionNumber;
+        private int next;
+        private int last = -1;
+
+        private OptionIterator(int optionNumber) {
+            this.optionNumber = optionNumber;
+            this.next = 0;
+            if (optionNumber != -1) {
+                while (next < optionList.size() && optionList.getOptionNumber(next) < optionNumber) {
+                    next++;
+                }
+            }
+        }
+
+        abstract T get(int index);
+
+        @Override
+        public boolean hasNext() {
+            return next < optionList.size() && (optionNumber == -1 || optionList.getOptionNumber(next) == optionNumber);
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return get(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == -1) {
+                throw new IllegalStateException();
+            }
+            optionList.remove(optionList.getOptionNumber(last), optionList.getOptionValue(last));
+            next = last;
+            last = -1;
+        }
+    }
+
+
+    private class ValueSet extends AbstractSet<OptionValue> {
+
+        private final int optionNumber;
+
+        private ValueSet(int optionNumber) {
+            this.optionNumber = optionNumber;
+        }
+
+        @Override
+        public Iterator<OptionValue> iterator() {
+            return new OptionIterator<OptionValue>(optionNumber) {
+                @Override
+                OptionValue get(int index) {
+                    return optionList.getOptionValue(index);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return optionList.get(optionNumber).size();
+        }
+
+        @Override
+        public boolean add(OptionValue optionValue) {
+            return optionList.add(optionNumber, optionValue);
+        }
+
+        @Override
+        public boolean remove(Object object) {
+            return object instanceof OptionValue && optionList.remove(optionNumber, (OptionValue) object);
+        }
+
+        @Override
+        public void clear() {
+            optionList.remove(optionNumber);
+        }
+    }
+
+
+    private class KeySet extends AbstractSet<Integer> {
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+
+                private int next = 0;
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next < optionList.size();
+                }
+
+                @Override
+                public Integer next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    last = optionList.getOptionNumber(next);
+                    while (next < optionList.size() && optionList.getOptionNumber(next) == last) {
+                        next++;
+                    }
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == -1) {
+                        throw new IllegalStateException();
+                    }
+                    next -= optionList.remove(last);
+                    last = -1;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int result = 0;
+            for (int index = 0; index < optionList.size(); index++) {
+                if (index == 0 || optionList.getOptionNumber(index) != optionList.getOptionNumber(index - 1)) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            return containsKey(object);
+        }
+
+        @Override
+        public boolean remove(Object object) {
+            return object instanceof Integer && optionList.remove((Integer) object) > 0;
+        }
+    }
+}
@@ -220,6 +220,23 @@ public abstract class OptionValue<T>{
     }
 
 
+    /**
+     * Returns <code>true</code> if the given length (in bytes) of an encoded value is within the allowed range for
+     * options with the given option number and <code>false</code> otherwise.
+     *
+     * @param optionNumber the option number
+     * @param length the length of the encoded value in bytes
+     *
+     * @return <code>true</code> if the given length is within the allowed range for options with the given option
+     * number and <code>false</code> otherwise.
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number refers to an unknown option
+     */
+    public static boolean isValidLength(int optionNumber, int length) throws IllegalArgumentException {
+        return getMinLength(optionNumber) <= length && getMaxLength(optionNumber) >= length;
+    }
+
+
     protected byte[] value;
 
     /**
@@ -236,7 +253,7 @@ public abstract class OptionValue<T>{
             throw new IllegalArgumentException(String.format(VALUE_IS_DEFAULT_VALUE, optionNumber));
         }
 
-        if (getMinLength(optionNumber) > value.length || getMaxLength(optionNumber) < value.length) {
+        if (!isValidLength(optionNumber, value.length)) {
             throw new IllegalArgumentException(String.format(OUT_OF_ALLOWED_RANGE, value.length, optionNumber,
                     getMinLength(optionNumber), getMaxLength(optionNumber)));
         }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.events.client.RequestCancelledEvent;
+import de.uzl.itm.ncoap.endpoints.DummyEndpoint;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the write futures of confirmable requests queued due to NSTART are completed, i.e. successfully once a
+ * queued request was sent and with failure if a queued request was cancelled.
+ */
+public class ClientCompletesWriteFuturesOfQueuedRequestsTest extends AbstractCoapCommunicationTest {
+
+    private static CoapClient client;
+    private static DummyEndpoint endpoint;
+
+    private static ChannelFuture outstandingFuture;
+    private static ChannelFuture queuedFuture;
+    private static ChannelFuture cancelledFuture;
+
+    private static boolean queuedFutureDoneBeforeAck;
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        client = new CoapClient();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                      endpoint       DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET----------------->|       outstanding (NSTART = 1)
+//              (2) |  (queued)                   |
+//              (3) |  (queued, cancelled)        |
+//                  |<---ACK----------------------|       acknowledges (1)
+//              (2) |----CON-GET----------------->|
+
+        InetSocketAddress endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+        outstandingFuture = client.getChannel().write(createRequest(1), endpointSocket);
+        queuedFuture = client.getChannel().write(createRequest(2), endpointSocket);
+        cancelledFuture = client.getChannel().write(createRequest(3), endpointSocket);
+
+        Channels.fireMessageReceived(client.getChannel(), new RequestCancelledEvent(
+                endpointSocket, CoapMessage.UNDEFINED_MESSAGE_ID, new Token(new byte[]{3})
+        ));
+        Thread.sleep(500);
+        queuedFutureDoneBeforeAck = queuedFuture.isDone();
+
+        int messageID = endpoint.getReceivedMessage(0).getMessageID();
+        InetSocketAddress clientSocket = new InetSocketAddress("localhost", client.getPort());
+        endpoint.writeMessage(CoapMessage.createEmptyAcknowledgement(messageID), clientSocket);
+        queuedFuture.await(1000);
+    }
+
+    private static CoapRequest createRequest(int token) throws Exception {
+        URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/path");
+        CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetURI);
+        coapRequest.setToken(new Token(new byte[]{(byte) token}));
+        return coapRequest;
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testOutstandingRequestWasWritten() {
+        assertTrue("Future was not successful!", outstandingFuture.isSuccess());
+    }
+
+    @Test
+    public void testQueuedRequestWasWrittenAfterAck() {
+        assertFalse("Future was done before ACK!", queuedFutureDoneBeforeAck);
+        assertTrue("Future was not successful!", queuedFuture.isSuccess());
+    }
+
+    @Test
+    public void testCancelledRequestFailed() {
+        assertTrue("Future was not done!", cancelledFuture.isDone());
+        assertTrue("Wrong cause: " + cancelledFuture.getCause(),
+                cancelledFuture.getCause() instanceof CancellationException);
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.ClientCallback;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the coalescing of identical requests, i.e. that identical requests in flight share a single message exchange
+ * and that the response is delivered to all of them.
+ */
+public class ClientSendsCoalescedRequestsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH = "/slow";
+
+    private static CoapClient client;
+    private static CoapServer server;
+    private static CountingWebresource webresource;
+
+    private static ListenableFuture<CoapResponse> firstFuture;
+    private static ListenableFuture<CoapResponse> secondFuture;
+    private static ListenableFuture<CoapResponse> cancelledFuture;
+    private static ListenableFuture<CoapResponse> otherFuture;
+    private static ListenableFuture<CoapResponse> block2Future;
+    private static ListenableFuture<CoapResponse> laterFuture;
+    private static ReadingClientCallback firstReadingCallback;
+    private static ReadingClientCallback secondReadingCallback;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer();
+        webresource = new CountingWebresource(PATH, "Status", server.getExecutor());
+        server.registerWebresource(webresource);
+
+        client = new CoapClient();
+        client.setRequestCoalescing(true);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        client.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                        server       DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET----------------->|       processing takes 1 sec
+//              (2) |  (joins 1)                  |
+//              (3) |  (joins 1, cancelled)       |
+//              (4) |----NON-GET----------------->|       not joined (other message type)
+//              (5) |----CON-GET (Block2)-------->|       not joined (other options)
+//                  |<---NON-2.05-----------------|
+//                  |<---ACK-2.05 (Block2)--------|
+//                  |<---ACK-2.05-----------------|       delivered to (1) and (2)
+//                  |                             |
+//              (6) |----CON-GET----------------->|       new exchange
+//              (7) |  (joins 6, reads content)   |
+//              (8) |  (joins 6, reads content)   |
+//                  |<---ACK-2.05-----------------|       delivered to (6), (7) and (8)
+
+        firstFuture = client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket());
+        Thread.sleep(100);
+        secondFuture = client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket());
+        cancelledFuture = client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket());
+        otherFuture = client.sendCoapRequest(createRequest(MessageType.NON), getServerSocket());
+        CoapRequest block2Request = createRequest(MessageType.CON);
+        block2Request.setPreferredBlock2Size(BlockSize.SIZE_64);
+        block2Future = client.sendCoapRequest(block2Request, getServerSocket());
+        Thread.sleep(100);
+        cancelledFuture.cancel(false);
+
+        firstFuture.get(5, TimeUnit.SECONDS);
+        otherFuture.get(5, TimeUnit.SECONDS);
+        block2Future.get(5, TimeUnit.SECONDS);
+        laterFuture = client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket());
+        firstReadingCallback = new ReadingClientCallback();
+        client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket(), firstReadingCallback);
+        secondReadingCallback = new ReadingClientCallback();
+        client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket(), secondReadingCallback);
+        laterFuture.get(5, TimeUnit.SECONDS);
+        firstReadingCallback.content.get(5, TimeUnit.SECONDS);
+        secondReadingCallback.content.get(5, TimeUnit.SECONDS);
+    }
+
+    private static CoapRequest createRequest(int messageType) throws Exception {
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH);
+        return new CoapRequest(messageType, MessageCode.GET, targetUri);
+    }
+
+    private static InetSocketAddress getServerSocket() {
+        return new InetSocketAddress("localhost", server.getPort());
+    }
+
+    @Test
+    public void testServerReceivedFourRequests() {
+        assertEquals("Wrong number of requests!", 4, webresource.requests.get());
+    }
+
+    @Test
+    public void testCoalescedRequestsReceivedResponse() throws Exception {
+        assertEquals(MessageCode.CONTENT_205, firstFuture.get().getMessageCode());
+        assertEquals(MessageCode.CONTENT_205, secondFuture.get().getMessageCode());
+        assertEquals("Status", secondFuture.get().getContent().toString(CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testCancelledFutureWasCancelled() {
+        assertTrue("Future was not cancelled!", cancelledFuture.isCancelled());
+    }
+
+    @Test
+    public void testOtherRequestsReceivedResponse() throws Exception {
+        assertEquals(MessageCode.CONTENT_205, otherFuture.get().getMessageCode());
+        assertEquals(MessageCode.CONTENT_205, block2Future.get().getMessageCode());
+        assertEquals(MessageCode.CONTENT_205, laterFuture.get().getMessageCode());
+    }
+
+    @Test
+    public void testCoalescedRequestsReadTheWholeContent() throws Exception {
+        assertEquals("Status", firstReadingCallback.content.get());
+        assertEquals("Status", secondReadingCallback.content.get());
+        assertEquals("Status", laterFuture.get().getContent().toString(CoapMessage.CHARSET));
+    }
+
+
+    private static class ReadingClientCallback extends ClientCallback {
+
+        private final SettableFuture<String> content = SettableFuture.create();
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            content.set(new String(coapResponse.getContentAsByteArray(), CoapMessage.CHARSET));
+        }
+    }
+
+
+    private static class CountingWebresource extends NotObservableTestWebresource {
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private CountingWebresource(String path, String initialStatus, ScheduledExecutorService executor) {
+            super(path, initialStatus, 0, 1000, executor);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteAddress) throws Exception {
+            requests.incrementAndGet();
+            super.processCoapRequest(responseFuture, coapRequest, remoteAddress);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.endpoints.DummyEndpoint;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the future based API of the {@link CoapClient}, i.e. completion with a response, per-request timeouts and
+ * cancellation (which must stop the retransmissions).
+ */
+public class ClientSendsRequestsWithFuturesTest extends AbstractCoapCommunicationTest {
+
+    private static CoapClient client;
+    private static CoapServer server;
+    private static DummyEndpoint testEndpoint;
+
+    private static ListenableFuture<CoapResponse> responseFuture;
+    private static ListenableFuture<CoapResponse> timeoutFuture;
+    private static ListenableFuture<CoapResponse> cancelledFuture;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        client = new CoapClient();
+        // send both requests to the test endpoint at once (instead of queueing the second one)
+        client.setTransmissionParameters(TransmissionParameters.DEFAULT.withNstart(2));
+        server = new CoapServer();
+        testEndpoint = new DummyEndpoint();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        client.shutdown();
+        testEndpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                     server / testEndpoint     DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET----------------->|                 request to server (unknown resource)
+//                  |<---ACK-4.04-----------------|                 future completes with 4.04
+//                  |                             |
+//              (2) |----CON-GET----------------->|                 request to testEndpoint with 1 sec timeout
+//                  |                             |
+//              (3) |----CON-GET----------------->|                 request to testEndpoint (cancelled after 0.5 sec)
+//                  |                             |
+//                  |                             |                 no retransmissions of (2) and (3)
+
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+        URI serverUri = new URI("coap://localhost:" + server.getPort() + "/unknown");
+        responseFuture = client.sendCoapRequest(new CoapRequest(MessageType.CON, MessageCode.GET, serverUri),
+                serverSocket);
+
+        InetSocketAddress endpointSocket = new InetSocketAddress("localhost", testEndpoint.getPort());
+        URI endpointUri = new URI("coap://localhost:" + testEndpoint.getPort() + "/test");
+        timeoutFuture = client.sendCoapRequest(new CoapRequest(MessageType.CON, MessageCode.GET, endpointUri),
+                endpointSocket, MoreExecutors.sameThreadExecutor(), 1, TimeUnit.SECONDS);
+
+        Thread.sleep(500);
+        cancelledFuture = client.sendCoapRequest(new CoapRequest(MessageType.CON, MessageCode.GET, endpointUri),
+                endpointSocket);
+        Thread.sleep(500);
+        cancelledFuture.cancel(false);
+
+        // the first retransmissions would have been sent after 2 to 3 seconds
+        Thread.sleep(5000);
+    }
+
+    @Test
+    public void testResponseFutureCompleted() throws Exception {
+        assertTrue("Future was not completed!", responseFuture.isDone());
+        assertEquals(MessageCode.NOT_FOUND_404, responseFuture.get().getMessageCode());
+    }
+
+    @Test
+    public void testTimeoutFutureFailed() throws Exception {
+        assertTrue("Future was not completed!", timeoutFuture.isDone());
+        try {
+            timeoutFuture.get();
+            fail("Future did not fail!");
+        } catch (ExecutionException ex) {
+            assertTrue("Wrong cause: " + ex.getCause(), ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testCancelledFutureWasCancelled() {
+        assertTrue("Future was not cancelled!", cancelledFuture.isCancelled());
+    }
+
+    @Test
+    public void testNoRetransmissionsAfterTimeoutAndCancellation() {
+        assertEquals("Wrong number of received messages!", 2, testEndpoint.getReceivedCoapMessages().size());
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.communication.reliability.outbound.ClientOutboundReliabilityHandler;
+import de.uzl.itm.ncoap.endpoints.DummyEndpoint;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a client has at most NSTART outstanding confirmable requests per remote endpoint, queues further
+ * requests (up to {@link ClientOutboundReliabilityHandler#MAX_QUEUED_REQUESTS}), sends queued requests as soon as
+ * outstanding requests were acknowledged and discards requests if the queue is full.
+ */
+public class ClientSendsRequestsWithinWindowTest extends AbstractCoapCommunicationTest {
+
+    private static final int NSTART = 2;
+    private static final int REQUESTS = NSTART + ClientOutboundReliabilityHandler.MAX_QUEUED_REQUESTS + 1;
+
+    private static CoapClient client;
+    private static DummyEndpoint endpoint;
+    private static TestCallback[] callbacks;
+
+    private static int requestsBeforeAck;
+    private static int requestsAfterAck;
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        client = new CoapClient();
+
+        InetSocketAddress endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+        client.setTransmissionParameters(endpointSocket, TransmissionParameters.DEFAULT.withNstart(NSTART));
+
+        callbacks = new TestCallback[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            callbacks[i] = new TestCallback(i);
+        }
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+        URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/path");
+
+        for (int i = 0; i < REQUESTS; i++) {
+            CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetURI);
+            client.sendCoapRequest(coapRequest, endpointSocket, callbacks[i]);
+        }
+
+        // the first retransmission is not due before ACK_TIMEOUT (2 seconds)
+        Thread.sleep(1000);
+        requestsBeforeAck = getSentRequests();
+
+        int messageID = endpoint.getReceivedMessage(0).getMessageID();
+        InetSocketAddress clientSocket = new InetSocketAddress("localhost", client.getPort());
+        endpoint.writeMessage(CoapMessage.createEmptyAcknowledgement(messageID), clientSocket);
+        Thread.sleep(500);
+        requestsAfterAck = getSentRequests();
+    }
+
+    private static int getSentRequests() {
+        // message IDs are assigned when the requests are actually sent
+        int result = 0;
+        for (TestCallback callback : callbacks) {
+            result += callback.getMessageIDs().size();
+        }
+        return result;
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testOnlyNstartRequestsWereSent() {
+        assertEquals(NSTART, requestsBeforeAck);
+    }
+
+    @Test
+    public void testQueuedRequestWasSentAfterAck() {
+        assertEquals(NSTART + 1, requestsAfterAck);
+    }
+
+    @Test
+    public void testOneRequestWasDiscarded() {
+        // the requests are written concurrently, i.e. any of them may be the one to be discarded
+        int discarded = 0;
+        for (TestCallback callback : callbacks) {
+            discarded += callback.getRequestQueueOverflows().size();
+        }
+        assertEquals(1, discarded);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ConcurrentTable}.
+ */
+public class ConcurrentTableTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testPutGetAndRemove() {
+        ConcurrentTable<String, Integer, String> table = new ConcurrentTable<>();
+        assertNull(table.put("a", 1, "a1"));
+        assertEquals("a1", table.put("a", 1, "a1'"));
+        table.put("a", 2, "a2");
+        table.put("b", 1, "b1");
+
+        assertEquals(3, table.size());
+        assertEquals("a1'", table.get("a", 1));
+        assertTrue(table.contains("b", 1));
+        assertFalse(table.contains("b", 2));
+
+        assertEquals("a1'", table.remove("a", 1));
+        assertNull(table.remove("a", 1));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void testConditionalOperations() {
+        ConcurrentTable<String, Integer, String> table = new ConcurrentTable<>();
+        assertNull(table.putIfAbsent("a", 1, "x"));
+        assertEquals("x", table.putIfAbsent("a", 1, "y"));
+
+        assertFalse(table.replace("a", 1, "y", "z"));
+        assertTrue(table.replace("a", 1, "x", "z"));
+        assertEquals("z", table.get("a", 1));
+
+        assertFalse(table.remove("a", 1, "x"));
+        assertTrue(table.remove("a", 1, "z"));
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void testRowIsSnapshot() {
+        ConcurrentTable<String, Integer, String> table = new ConcurrentTable<>();
+        table.put("a", 1, "a1");
+        table.put("a", 2, "a2");
+
+        Map<Integer, String> row = table.row("a");
+        table.remove("a", 1);
+
+        assertEquals(2, row.size());
+        assertEquals(1, table.row("a").size());
+        assertTrue(table.row("b").isEmpty());
+
+        Set<String> rowKeys = table.rowKeySet();
+        table.remove("a", 2);
+        assertEquals(Collections.singleton("a"), rowKeys);
+        assertTrue(table.rowKeySet().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConcurrencyLevelIsRejected() {
+        new ConcurrentTable<String, Integer, String>(0);
+    }
+
+    @Test
+    public void testConcurrentPutIfAbsentAndRemove() throws Exception {
+        final ConcurrentTable<Integer, Integer, Integer> table = new ConcurrentTable<>(2);
+        final int threads = 8;
+        final int cells = 1000;
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger removed = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < cells; i++) {
+                        // few rows, i.e. the rows are frequently created and removed
+                        if (table.putIfAbsent(i % 4, i, i) == null) {
+                            added.incrementAndGet();
+                        }
+                        if (table.remove(i % 4, i) != null) {
+                            removed.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(added.get(), removed.get());
+        assertEquals(0, table.size());
+        assertTrue(table.isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParametersProvider;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link PeerRegistry}.
+ */
+public class PeerRegistryTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testPeerIDsAreStableAndDistinct() {
+        PeerRegistry registry = new PeerRegistry();
+        InetSocketAddress remoteSocket1 = new InetSocketAddress("127.0.0.1", 5683);
+        InetSocketAddress remoteSocket2 = new InetSocketAddress("127.0.0.1", 5684);
+
+        int peerID1 = registry.getPeerID(remoteSocket1);
+        int peerID2 = registry.getPeerID(remoteSocket2);
+
+        assertNotEquals(peerID1, peerID2);
+        assertEquals(peerID1, registry.getPeerID(new InetSocketAddress("127.0.0.1", 5683)));
+        assertEquals(remoteSocket2, registry.getRemoteSocket(peerID2));
+        assertNull(registry.getRemoteSocket(peerID2 + 1));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testPeerIDOfMessage() {
+        PeerRegistry registry = new PeerRegistry();
+        InetSocketAddress remoteSocket = new InetSocketAddress("127.0.0.1", 5683);
+        CoapMessage ping = CoapMessage.createPing(1);
+
+        assertEquals(PeerRegistry.UNDEFINED_PEER_ID, ping.getPeerID());
+        int peerID = registry.getPeerID(ping, remoteSocket);
+        assertEquals(registry.getPeerID(remoteSocket), peerID);
+
+        ping.setPeerID(4711);
+        assertEquals(4711, registry.getPeerID(ping, remoteSocket));
+    }
+
+    @Test
+    public void testIdleTimeoutExceedsLargestExchangeLifetime() {
+        TransmissionParametersProvider provider = new TransmissionParametersProvider();
+        PeerRegistry registry = new PeerRegistry(provider);
+        long margin = PeerRegistry.PEER_IDLE_MARGIN_MILLIS;
+        assertEquals(TransmissionParameters.DEFAULT.getExchangeLifetime() + margin, registry.getIdleTimeout());
+
+        TransmissionParameters parameters = new TransmissionParameters(2000, 1.5, 4, 1000000);
+        provider.setTransmissionParameters(new InetSocketAddress("127.0.0.1", 5683), parameters);
+        assertEquals(parameters.getExchangeLifetime() + margin, registry.getIdleTimeout());
+
+        // ongoing exchanges might still use the larger lifetime
+        provider.setTransmissionParameters(new InetSocketAddress("127.0.0.1", 5683), null);
+        assertEquals(parameters.getExchangeLifetime() + margin, registry.getIdleTimeout());
+    }
+
+    @Test
+    public void testExchangeKeysAreDistinct() {
+        assertNotEquals(PeerRegistry.getExchangeKey(1, 2), PeerRegistry.getExchangeKey(2, 1));
+        assertNotEquals(PeerRegistry.getExchangeKey(0, 65535), PeerRegistry.getExchangeKey(1, 0));
+        assertEquals(PeerRegistry.getExchangeKey(7, 42), PeerRegistry.getExchangeKey(7, 42));
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the processing of inbound requests with a dedicated resource executor, i.e. that blocking requests (as many
+ * as there are I/O threads) do not delay requests to other resources.
+ */
+public class ServerProcessesRequestsWithResourceExecutorTest extends AbstractCoapCommunicationTest {
+
+    private static CoapClient client;
+    private static CoapServer server;
+    private static ExecutorService resourceExecutor;
+    private static int ioThreads;
+
+    private static List<ListenableFuture<CoapResponse>> blockingFutures;
+    private static ListenableFuture<CoapResponse> fastFuture;
+    private static long fastResponseTime;
+    private static boolean blockingDoneBeforeFast;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer();
+        server.registerWebresource(new NotObservableTestWebresource("/blocking", "Blocking", 0, 2000,
+                server.getExecutor()));
+        server.registerWebresource(new NotObservableTestWebresource("/fast", "Fast", 0, 0, server.getExecutor()));
+        resourceExecutor = Executors.newCachedThreadPool();
+        server.setResourceExecutor(resourceExecutor);
+
+        blockingFutures = new ArrayList<>();
+        ioThreads = ((ScheduledThreadPoolExecutor) server.getExecutor()).getCorePoolSize();
+        client = new CoapClient();
+        client.setTransmissionParameters(TransmissionParameters.DEFAULT.withNstart(ioThreads + 1));
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        client.shutdown();
+        resourceExecutor.shutdownNow();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                        server       DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET /blocking------->|       processing blocks for 2 sec
+//                  |            ...              |       (as many requests as the server has I/O threads)
+//              (2) |----CON-GET /fast----------->|
+//                  |<---ACK-2.05-----------------|       response to (2)
+//                  |<---ACK-2.05-----------------|       responses to (1)
+
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+        URI blockingUri = new URI("coap://localhost:" + server.getPort() + "/blocking");
+        for (int i = 0; i < ioThreads; i++) {
+            blockingFutures.add(client.sendCoapRequest(
+                    new CoapRequest(MessageType.CON, MessageCode.GET, blockingUri), serverSocket
+            ));
+        }
+        Thread.sleep(300);
+
+        long start = System.currentTimeMillis();
+        URI fastUri = new URI("coap://localhost:" + server.getPort() + "/fast");
+        fastFuture = client.sendCoapRequest(new CoapRequest(MessageType.CON, MessageCode.GET, fastUri),
+                serverSocket);
+        fastFuture.get(5, TimeUnit.SECONDS);
+        fastResponseTime = System.currentTimeMillis() - start;
+        for (ListenableFuture<CoapResponse> blockingFuture : blockingFutures) {
+            blockingDoneBeforeFast |= blockingFuture.isDone();
+        }
+
+        for (ListenableFuture<CoapResponse> blockingFuture : blockingFutures) {
+            blockingFuture.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testFastRequestWasNotDelayed() {
+        assertFalse("Blocking request was answered first!", blockingDoneBeforeFast);
+        assertTrue("Response took " + fastResponseTime + " ms!", fastResponseTime < 1000);
+    }
+
+    @Test
+    public void testAllRequestsWereAnswered() throws Exception {
+        assertEquals(MessageCode.CONTENT_205, fastFuture.get().getMessageCode());
+        for (ListenableFuture<CoapResponse> blockingFuture : blockingFutures) {
+            assertEquals(MessageCode.CONTENT_205, blockingFuture.get().getMessageCode());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.reliability.inbound.ServerInboundReliabilityHandler;
+import de.uzl.itm.ncoap.endpoints.DummyEndpoint;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Tests that a duplicate confirmable request received after the piggy-backed response was sent is answered with
+ * the cached response, i.e. without being processed by the webresource again.
+ */
+public class ServerReceivesDuplicateCONRequestAfterResponseTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH = "/path";
+
+    private static CoapServer server;
+    private static NotObservableTestWebresource webresource;
+    private static DummyEndpoint endpoint;
+    private static InetSocketAddress serverSocket;
+
+    private static CoapRequest coapRequest1;
+    private static CoapRequest coapRequest2;
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer();
+        webresource = new NotObservableTestWebresource(PATH, "Status 1", 0, 0, server.getExecutor());
+        server.registerWebresource(webresource);
+
+        endpoint = new DummyEndpoint();
+        serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        URI serviceURI = new URI("coap", null, "localhost", server.getPort(), PATH, null, null);
+
+        coapRequest1 = new CoapRequest(MessageType.CON, MessageCode.GET, serviceURI);
+        coapRequest1.setMessageID(1);
+        coapRequest1.setToken(new Token(new byte[]{1, 2, 3, 4}));
+
+        coapRequest2 = new CoapRequest(MessageType.CON, MessageCode.GET, serviceURI);
+        coapRequest2.setMessageID(2);
+        coapRequest2.setToken(new Token(new byte[]{5, 6, 7, 8}));
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        endpoint.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+        /*
+             testEndpoint                    Server               DESCRIPTION
+                  |                             |
+              (1) |--------GET (MID 1)--------->|                 send request
+                  |                             |
+              (2) |<-------ACK-RESPONSE---------|                 "Status 1"
+                  |                             |                 (status of the webresource changes)
+              (3) |--------GET (MID 1)--------->|                 send duplicate of (1)
+                  |                             |
+              (4) |<-------ACK-RESPONSE---------|                 "Status 1" (from cache)
+                  |                             |
+              (5) |--------GET (MID 2)--------->|                 send new request
+                  |                             |
+              (6) |<-------ACK-RESPONSE---------|                 "Status 2"
+        */
+
+        endpoint.writeMessage(coapRequest1, serverSocket);
+        Thread.sleep(500);
+
+        webresource.setResourceStatus("Status 2", 0);
+
+        endpoint.writeMessage(coapRequest1, serverSocket);
+        Thread.sleep(500);
+
+        endpoint.writeMessage(coapRequest2, serverSocket);
+        Thread.sleep(500);
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(DummyEndpoint.class.getName()).setLevel(Level.DEBUG);
+        Logger.getLogger(ServerInboundReliabilityHandler.class.getName()).setLevel(Level.DEBUG);
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testEndpointReceivedThreeMessages() {
+        assertEquals(3, endpoint.getReceivedCoapMessages().size());
+    }
+
+    @Test
+    public void testDuplicateWasAnsweredWithCachedResponse() {
+        CoapMessage message1 = endpoint.getReceivedMessage(0);
+        CoapMessage message2 = endpoint.getReceivedMessage(1);
+
+        assertEquals("Wrong message type!", MessageType.ACK, message2.getMessageType());
+        assertEquals("Wrong message ID!", 1, message2.getMessageID());
+        assertEquals("Wrong content!", "Status 1", message2.getContent().toString(CoapMessage.CHARSET));
+        assertEquals("Cached response differs from original response!", message1, message2);
+    }
+
+    @Test
+    public void testNewRequestWasProcessed() {
+        CoapMessage message3 = endpoint.getReceivedMessage(2);
+
+        assertEquals("Wrong message ID!", 2, message3.getMessageID());
+        assertEquals("Wrong content!", "Status 2", message3.getContent().toString(CoapMessage.CHARSET));
+    }
+}
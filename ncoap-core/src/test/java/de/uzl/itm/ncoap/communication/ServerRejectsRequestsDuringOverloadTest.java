@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the admission control of the {@link CoapServer}, i.e. that requests exceeding the limit of requests in flight
+ * are answered with 5.03 (if confirmable) or dropped (if non-confirmable) and that requests never answered by the
+ * resource are no longer counted after their EXCHANGE_LIFETIME.
+ */
+public class ServerRejectsRequestsDuringOverloadTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH = "/slow";
+
+    private static CoapClient client;
+    private static CoapServer server;
+    private static SlowWebresource webresource;
+    private static CoapServer stuckServer;
+
+    private static ListenableFuture<CoapResponse> admittedFuture;
+    private static ListenableFuture<CoapResponse> rejectedFuture;
+    private static ListenableFuture<CoapResponse> droppedFuture;
+    private static ListenableFuture<CoapResponse> laterFuture;
+    private static ListenableFuture<CoapResponse> afterExpiryFuture;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer();
+        webresource = new SlowWebresource(PATH, server.getExecutor());
+        server.registerWebresource(webresource);
+        server.setAdmissionControl(1, 0, 7);
+
+        // EXCHANGE_LIFETIME: 300 + 2 * 100 + 200 = 700 ms
+        stuckServer = new CoapServer(0);
+        stuckServer.setTransmissionParameters(new TransmissionParameters(200, 1.5, 1, 100));
+        stuckServer.registerWebresource(new FirstRequestStuckWebresource(PATH, stuckServer.getExecutor()));
+        stuckServer.setAdmissionControl(1, 0, 7);
+        stuckServer.setShutdownTimeout(500);
+
+        client = new CoapClient();
+        client.setTransmissionParameters(TransmissionParameters.DEFAULT.withNstart(2));
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        stuckServer.shutdown().get();
+        client.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                        server       DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET----------------->|       processing takes 1 sec
+//              (2) |----CON-GET----------------->|
+//                  |<---ACK-5.03-----------------|       Max-Age: 7
+//              (3) |----NON-GET----------------->|       dropped
+//                  |<---ACK-2.05-----------------|       response to (1)
+//                  |                             |
+//              (4) |----CON-GET----------------->|
+//                  |<---ACK-2.05-----------------|
+//
+//             client                  stuck server       DESCRIPTION
+//                  |                             |
+//              (5) |----CON-GET----------------->|       never answered
+//                  |<---ACK----------------------|
+//                  |                             |       EXCHANGE_LIFETIME of (5) expires
+//              (6) |----CON-GET----------------->|
+//                  |<---ACK-2.05-----------------|
+
+        admittedFuture = client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket());
+        Thread.sleep(200);
+        rejectedFuture = client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket());
+        droppedFuture = client.sendCoapRequest(createRequest(MessageType.NON), getServerSocket(),
+                MoreExecutors.sameThreadExecutor(), 1500, TimeUnit.MILLISECONDS);
+
+        admittedFuture.get(5, TimeUnit.SECONDS);
+        laterFuture = client.sendCoapRequest(createRequest(MessageType.CON), getServerSocket());
+        laterFuture.get(5, TimeUnit.SECONDS);
+        Thread.sleep(1500);
+
+        client.sendCoapRequest(createRequest(stuckServer, MessageType.CON), getServerSocket(stuckServer));
+        Thread.sleep(1000);
+        afterExpiryFuture = client.sendCoapRequest(
+                createRequest(stuckServer, MessageType.CON), getServerSocket(stuckServer)
+        );
+        afterExpiryFuture.get(5, TimeUnit.SECONDS);
+    }
+
+    private static CoapRequest createRequest(int messageType) throws Exception {
+        return createRequest(server, messageType);
+    }
+
+    private static CoapRequest createRequest(CoapServer server, int messageType) throws Exception {
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH);
+        return new CoapRequest(messageType, MessageCode.GET, targetUri);
+    }
+
+    private static InetSocketAddress getServerSocket() {
+        return getServerSocket(server);
+    }
+
+    private static InetSocketAddress getServerSocket(CoapServer server) {
+        return new InetSocketAddress("localhost", server.getPort());
+    }
+
+    @Test
+    public void testWebresourceReceivedTwoRequests() {
+        assertEquals("Wrong number of requests!", 2, webresource.requests.get());
+    }
+
+    @Test
+    public void testAdmittedRequestsWereAnswered() throws Exception {
+        assertEquals(MessageCode.CONTENT_205, admittedFuture.get(5, TimeUnit.SECONDS).getMessageCode());
+        assertEquals(MessageCode.CONTENT_205, laterFuture.get(5, TimeUnit.SECONDS).getMessageCode());
+    }
+
+    @Test
+    public void testConfirmableRequestWasRejected() throws Exception {
+        CoapResponse coapResponse = rejectedFuture.get(5, TimeUnit.SECONDS);
+        assertEquals(MessageCode.SERVICE_UNAVAILABLE_503, coapResponse.getMessageCode());
+        assertEquals(7, coapResponse.getMaxAge());
+    }
+
+    @Test
+    public void testNonConfirmableRequestWasDropped() throws Exception {
+        try {
+            droppedFuture.get(5, TimeUnit.SECONDS);
+            fail("Future did not fail!");
+        } catch (ExecutionException ex) {
+            assertTrue("Wrong cause: " + ex.getCause(), ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+
+    @Test
+    public void testExpiredRequestIsNoLongerInFlight() throws Exception {
+        assertEquals(MessageCode.CONTENT_205, afterExpiryFuture.get(5, TimeUnit.SECONDS).getMessageCode());
+    }
+
+
+    private static class FirstRequestStuckWebresource extends NotObservableTestWebresource {
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private FirstRequestStuckWebresource(String path, ScheduledExecutorService executor) {
+            super(path, "Status", 0, 0, executor);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                InetSocketAddress remoteAddress) throws Exception {
+
+            // the response future of the first request is never completed
+            if (requests.incrementAndGet() > 1) {
+                super.processCoapRequest(responseFuture, coapRequest, remoteAddress);
+            }
+        }
+    }
+
+
+    private static class SlowWebresource extends NotObservableTestWebresource {
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private SlowWebresource(String path, ScheduledExecutorService executor) {
+            super(path, "Status", 0, 0, executor);
+        }
+
+        @Override
+        public void processCoapRequest(final SettableFuture<CoapResponse> responseFuture,
+                final CoapRequest coapRequest, InetSocketAddress remoteAddress) throws Exception {
+
+            requests.incrementAndGet();
+            // answer asynchronously, i.e. without blocking the I/O thread
+            getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageType(),
+                            MessageCode.CONTENT_205);
+                    coapResponse.setContent(getSerializedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8),
+                            ContentFormat.TEXT_PLAIN_UTF8);
+                    responseFuture.set(coapResponse);
+                }
+            }, 1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the graceful shutdown of the {@link CoapServer}, i.e. that an idle server shuts down immediately, that
+ * pending responses are awaited (also if they were sent blockwise) and that the shutdown timeout is not exceeded if
+ * a response is never sent.
+ */
+public class ServerShutsDownGracefullyTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH = "/slow";
+    private static final String LONG_STATUS = "This status is too long to be sent within a single block of 16 bytes.";
+
+    private static CoapClient client;
+    private static CoapServer idleServer;
+    private static CoapServer busyServer;
+    private static CoapServer stuckServer;
+    private static CoapServer blockwiseServer;
+
+    private static long idleShutdownMillis;
+    private static long busyShutdownMillis;
+    private static long stuckShutdownMillis;
+    private static long blockwiseShutdownMillis;
+    private static ListenableFuture<CoapResponse> busyFuture;
+    private static CoapResponse blockwiseResponse;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        idleServer = new CoapServer(0);
+        idleServer.registerWebresource(new SlowWebresource(PATH, "Status", 1000, idleServer.getExecutor()));
+
+        busyServer = new CoapServer(0);
+        busyServer.registerWebresource(new SlowWebresource(PATH, "Status", 1000, busyServer.getExecutor()));
+
+        stuckServer = new CoapServer(0);
+        stuckServer.registerWebresource(new SlowWebresource(PATH, "Status", -1, stuckServer.getExecutor()));
+        stuckServer.setShutdownTimeout(500);
+
+        blockwiseServer = new CoapServer("Blockwise Server", NotFoundHandler.getDefault(), 0, BlockSize.UNBOUND,
+                BlockSize.SIZE_16);
+        blockwiseServer.registerWebresource(
+                new SlowWebresource(PATH, LONG_STATUS, 0, blockwiseServer.getExecutor())
+        );
+
+        client = new CoapClient();
+        client.setTransmissionParameters(TransmissionParameters.DEFAULT.withNstart(2));
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                     idle server    busy server    stuck server    DESCRIPTION
+//                  |                             |              |              |
+//                  |                     shutdown|              |              |       completes immediately
+//              (1) |----CON-GET---------------------------------->|              |       processing takes 1 sec
+//                  |                             |      shutdown|              |       awaits response to (1)
+//                  |<---ACK-2.05----------------------------------|              |
+//              (2) |----CON-GET------------------------------------------------->|       never answered
+//                  |                             |              |      shutdown|       timeout after 500 ms
+//
+//             client                blockwise server    DESCRIPTION
+//                  |                             |
+//              (3) |----CON-GET----------------->|
+//                  |<---ACK-2.05 (Block2)--------|       several blocks
+//                  |                     shutdown|       completes immediately
+
+        idleShutdownMillis = shutdown(idleServer);
+
+        busyFuture = client.sendCoapRequest(createRequest(busyServer), getServerSocket(busyServer));
+        Thread.sleep(200);
+        busyShutdownMillis = shutdown(busyServer);
+
+        client.sendCoapRequest(createRequest(stuckServer), getServerSocket(stuckServer));
+        Thread.sleep(200);
+        stuckShutdownMillis = shutdown(stuckServer);
+
+        blockwiseResponse = client.sendCoapRequest(
+                createRequest(blockwiseServer), getServerSocket(blockwiseServer)
+        ).get(5, TimeUnit.SECONDS);
+        blockwiseShutdownMillis = shutdown(blockwiseServer);
+    }
+
+    private static long shutdown(CoapServer server) throws Exception {
+        long start = System.currentTimeMillis();
+        server.shutdown().get(10, TimeUnit.SECONDS);
+        return System.currentTimeMillis() - start;
+    }
+
+    private static CoapRequest createRequest(CoapServer server) throws Exception {
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH);
+        return new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+    }
+
+    private static InetSocketAddress getServerSocket(CoapServer server) {
+        return new InetSocketAddress("localhost", server.getPort());
+    }
+
+    @Test
+    public void testIdleServerShutsDownImmediately() {
+        assertTrue("Shutdown took " + idleShutdownMillis + " ms!", idleShutdownMillis < 1000);
+    }
+
+    @Test
+    public void testBusyServerAwaitsPendingResponse() throws Exception {
+        assertEquals(MessageCode.CONTENT_205, busyFuture.get(5, TimeUnit.SECONDS).getMessageCode());
+        assertTrue("Shutdown took " + busyShutdownMillis + " ms!", busyShutdownMillis >= 500);
+        assertTrue("Shutdown took " + busyShutdownMillis + " ms!", busyShutdownMillis < 3000);
+    }
+
+    @Test
+    public void testStuckServerShutsDownAfterTimeout() {
+        assertTrue("Shutdown took " + stuckShutdownMillis + " ms!", stuckShutdownMillis >= 400);
+        assertTrue("Shutdown took " + stuckShutdownMillis + " ms!", stuckShutdownMillis < 2000);
+    }
+
+
+    @Test
+    public void testBlockwiseServerShutsDownImmediately() {
+        assertEquals(LONG_STATUS, blockwiseResponse.getContent().toString(CoapMessage.CHARSET));
+        assertTrue("Shutdown took " + blockwiseShutdownMillis + " ms!", blockwiseShutdownMillis < 1000);
+    }
+
+
+    private static class SlowWebresource extends NotObservableTestWebresource {
+
+        private final long delay;
+
+        private SlowWebresource(String path, String status, long delay, ScheduledExecutorService executor) {
+            super(path, status, 0, 0, executor);
+            this.delay = delay;
+        }
+
+        @Override
+        public void processCoapRequest(final SettableFuture<CoapResponse> responseFuture,
+                final CoapRequest coapRequest, InetSocketAddress remoteAddress) throws Exception {
+
+            if (this.delay < 0) {
+                // never answer
+                return;
+            }
+
+            getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageType(),
+                            MessageCode.CONTENT_205);
+                    coapResponse.setContent(getSerializedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8),
+                            ContentFormat.TEXT_PLAIN_UTF8);
+                    responseFuture.set(coapResponse);
+                }
+            }, this.delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.application.ReusePortDatagramChannelFactory;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests a {@link CoapServer} receiving requests from several clients via multiple sockets bound to the same port
+ * (SO_REUSEPORT), i.e. all responses must be correct no matter which socket received the request.
+ */
+public class ServerWithReceiveShardsTest extends AbstractCoapCommunicationTest {
+
+    private static final int NUMBER_OF_RECEIVE_SHARDS = 4;
+    private static final int NUMBER_OF_CLIENTS = 8;
+    private static final int NUMBER_OF_REQUESTS_PER_CLIENT = 25;
+
+    private static CoapServer server;
+    private static InetSocketAddress serverSocket;
+
+    private static CoapClient[] clients = new CoapClient[NUMBER_OF_CLIENTS];
+    private static TestCallback[][] clientCallbacks =
+            new TestCallback[NUMBER_OF_CLIENTS][NUMBER_OF_REQUESTS_PER_CLIENT];
+
+    @BeforeClass
+    public static void checkReusePortSupport() {
+        Assume.assumeTrue(ReusePortDatagramChannelFactory.isSupported());
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer("CoAP Server", NotFoundHandler.getDefault(), new InetSocketAddress(0),
+                BlockSize.UNBOUND, BlockSize.UNBOUND, NUMBER_OF_RECEIVE_SHARDS);
+        serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        for (int i = 0; i < NUMBER_OF_REQUESTS_PER_CLIENT; i++) {
+            server.registerWebresource(new NotObservableTestWebresource("/service" + (i + 1),
+                    "This is the status of service " + (i + 1), 0, 0, server.getExecutor()));
+        }
+
+        for (int c = 0; c < NUMBER_OF_CLIENTS; c++) {
+            clients[c] = new CoapClient("CoAP Client #" + c, new InetSocketAddress(0));
+            for (int i = 0; i < NUMBER_OF_REQUESTS_PER_CLIENT; i++) {
+                clientCallbacks[c][i] = new TestCallback();
+            }
+        }
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        for (CoapClient client : clients) {
+            client.shutdown();
+        }
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        for (int i = 0; i < NUMBER_OF_REQUESTS_PER_CLIENT; i++) {
+            for (int c = 0; c < NUMBER_OF_CLIENTS; c++) {
+                CoapRequest request = new CoapRequest(MessageType.CON, MessageCode.GET,
+                        new URI("coap://localhost:" + server.getPort() + "/service" + (i + 1)));
+                clients[c].sendCoapRequest(request, serverSocket, clientCallbacks[c][i]);
+            }
+        }
+
+        //await responses
+        Thread.sleep(5000);
+    }
+
+    @Test
+    public void testServerIsBoundToMultipleSockets() {
+        assertEquals("Wrong number of receive shards", NUMBER_OF_RECEIVE_SHARDS, server.getReceiveShards());
+    }
+
+    @Test
+    public void testClientsReceivedCorrectResponses() {
+        for (int c = 0; c < NUMBER_OF_CLIENTS; c++) {
+            for (int i = 0; i < NUMBER_OF_REQUESTS_PER_CLIENT; i++) {
+                assertEquals("Client " + c + " received wrong number of responses for service " + (i + 1),
+                        1, clientCallbacks[c][i].getCoapResponses().size());
+
+                CoapResponse coapResponse = clientCallbacks[c][i].getCoapResponses().values().iterator().next();
+                assertEquals("Client " + c + " received wrong message content",
+                        "This is the status of service " + (i + 1),
+                        coapResponse.getContent().toString(Charset.forName("UTF-8")));
+            }
+        }
+    }
+}
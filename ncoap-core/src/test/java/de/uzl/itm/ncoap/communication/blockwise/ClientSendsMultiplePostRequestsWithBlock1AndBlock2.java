@@ -109,8 +109,8 @@ public class ClientSendsMultiplePostRequestsWithBlock1AndBlock2 extends Abstract
 
     @Override
     public void shutdownComponents() throws Exception {
+        coapServer.shutdown().get();
         coapClient.shutdown();
-        coapServer.shutdown();
     }
 
     @Override
@@ -94,8 +94,8 @@ public class ClientSendsPostRequestWithBlock1 extends AbstractCoapCommunicationT
 
     @Override
     public void shutdownComponents() throws Exception {
+        coapServer.shutdown().get();
         coapClient.shutdown();
-        coapServer.shutdown();
     }
 
     @Override
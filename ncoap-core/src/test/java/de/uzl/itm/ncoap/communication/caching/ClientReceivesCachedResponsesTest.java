@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.caching;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.AbstractCoapCommunicationTest;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ClientCachingHandler}, i.e. that fresh responses are served from the cache, that stale responses
+ * are revalidated using the ETag option and that requests with other cache key options are not served with the
+ * cached response.
+ */
+public class ClientReceivesCachedResponsesTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH = "/cached";
+
+    private static CoapClient client;
+    private static CoapServer server;
+    private static CountingWebresource webresource;
+
+    private static List<CoapRequest> requests;
+    private static List<CoapResponse> responses;
+    private static List<String> contents;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer();
+        webresource = new CountingWebresource(PATH, "Status 1", server.getExecutor());
+        server.registerWebresource(webresource);
+
+        client = new CoapClient();
+        client.setResponseCacheSize(10);
+        requests = new ArrayList<>();
+        responses = new ArrayList<>();
+        contents = new ArrayList<>();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        client.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                        server       DESCRIPTION
+//                  |                             |
+//              (1) |----GET--------------------->|       Max-Age: 1 sec
+//                  |<---2.05 (ETag 1)------------|
+//              (2) |  (answered from cache)      |
+//                  |                             |       (response is stale)
+//              (3) |----GET (ETag 1)------------>|
+//                  |<---2.03 (ETag 1)------------|       cached response is refreshed (Max-Age: 2 sec)
+//              (4) |  (answered from cache)      |
+//                  |                             |       status changed, response is stale
+//              (5) |----GET (ETag 1)------------>|
+//                  |<---2.05 (ETag 2)------------|
+//              (6) |----GET (Block2)------------>|       other cache key, i.e. not answered from cache
+//                  |<---2.05 (ETag 2)------------|
+
+        sendRequest(false);
+        Thread.sleep(300);
+        sendRequest(false);
+        Thread.sleep(1500);
+        sendRequest(false);
+        Thread.sleep(300);
+        sendRequest(false);
+        webresource.setResourceStatus("Status 2", 0);
+        Thread.sleep(2200);
+        sendRequest(false);
+        Thread.sleep(300);
+        sendRequest(true);
+    }
+
+    private static void sendRequest(boolean block2) throws Exception {
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH);
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+        CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+        if (block2) {
+            coapRequest.setPreferredBlock2Size(BlockSize.SIZE_64);
+        }
+        requests.add(coapRequest);
+        CoapResponse coapResponse = client.sendCoapRequest(coapRequest, serverSocket).get(5, TimeUnit.SECONDS);
+        responses.add(coapResponse);
+
+        // read the content (i.e. drain the buffer) like an application before the next request is sent
+        contents.add(new String(coapResponse.getContentAsByteArray(), CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testServerReceivedFourRequests() {
+        assertEquals("Wrong number of requests!", 4, webresource.requests);
+        assertEquals("Wrong number of requests with ETag!", 2, webresource.validations);
+    }
+
+    @Test
+    public void testClientReceivedSixResponses() {
+        assertEquals("Wrong number of responses!", 6, responses.size());
+        for (CoapResponse coapResponse : responses) {
+            assertEquals(MessageCode.CONTENT_205, coapResponse.getMessageCode());
+        }
+    }
+
+    @Test
+    public void testRefreshedResponseHasMaxAgeOfValidation() {
+        assertEquals("Wrong Max-Age of refreshed response!", 2, responses.get(2).getMaxAge());
+        assertEquals("Wrong Max-Age of response from refreshed cache!", 2, responses.get(3).getMaxAge());
+    }
+
+    @Test
+    public void testRequestsOfApplicationRemainUnchanged() {
+        for (int i = 0; i < requests.size(); i++) {
+            assertTrue("ETag was added to request #" + (i + 1), requests.get(i).getEtags().isEmpty());
+        }
+    }
+
+    @Test
+    public void testResponsesHaveExpectedContent() {
+        String[] expected = new String[]{"Status 1", "Status 1", "Status 1", "Status 1", "Status 2", "Status 2"};
+        for (int i = 0; i < expected.length; i++) {
+            String actual = contents.get(i);
+            assertEquals("Wrong content of response #" + (i + 1), expected[i], actual);
+        }
+    }
+
+
+    private static class CountingWebresource extends NotObservableTestWebresource {
+
+        private volatile int requests;
+        private volatile int validations;
+
+        private CountingWebresource(String path, String initialStatus, ScheduledExecutorService executor) {
+            super(path, initialStatus, 0, 0, executor);
+        }
+
+        @Override
+        public byte[] getEtag(long contentFormat) {
+            return getResourceStatus().getBytes(CoapMessage.CHARSET);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteAddress) throws Exception {
+            requests++;
+            byte[] etag = getEtag(ContentFormat.TEXT_PLAIN_UTF8);
+
+            CoapResponse coapResponse;
+            if (coapRequest.getEtags().isEmpty()) {
+                coapResponse = new CoapResponse(coapRequest.getMessageType(), MessageCode.CONTENT_205);
+                coapResponse.setContent(getSerializedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8),
+                        ContentFormat.TEXT_PLAIN_UTF8);
+            } else {
+                validations++;
+                if (Arrays.equals(coapRequest.getEtags().iterator().next(), etag)) {
+                    coapResponse = new CoapResponse(coapRequest.getMessageType(), MessageCode.VALID_203);
+                    coapResponse.setEtag(etag);
+                    coapResponse.setMaxAge(2);
+                    responseFuture.set(coapResponse);
+                    return;
+                } else {
+                    coapResponse = new CoapResponse(coapRequest.getMessageType(), MessageCode.CONTENT_205);
+                    coapResponse.setContent(getSerializedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8),
+                            ContentFormat.TEXT_PLAIN_UTF8);
+                }
+            }
+            coapResponse.setEtag(etag);
+            coapResponse.setMaxAge(1);
+            responseFuture.set(coapResponse);
+        }
+    }
+}
@@ -24,6 +24,7 @@
  */
 package de.uzl.itm.ncoap.communication.codec;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import de.uzl.itm.ncoap.AbstractCoapTest;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
@@ -73,7 +74,15 @@ public class DecodeEncodedMessageTest extends AbstractCoapTest {
                         new URI("coap://coap.me:5683/p1/p2/p3/p4/p5/p6/p7"))},
 
                 new Object[]{new CoapRequest(MessageType.NON, MessageCode.GET,
-                        new URI("coap://example.org/"), true)}
+                        new URI("coap://example.org/"), true)},
+
+                //[3] Options with extended option length (1 and 2 bytes)
+                new Object[]{new CoapRequest(MessageType.CON, MessageCode.POST,
+                        new URI("coap://example.org/" + Strings.repeat("a", 200) + "/" + Strings.repeat("b", 255)))},
+
+                //[4] Option with extended option delta (2 bytes)
+                new Object[]{new CoapRequest(MessageType.CON, MessageCode.GET,
+                        new URI("coap://example.org/" + Strings.repeat("c", 300)), true)}
         );
     }
 
@@ -84,7 +93,8 @@ public class DecodeEncodedMessageTest extends AbstractCoapTest {
         coapMessage.setMessageID(1234);
         coapMessage.setToken(new Token(new byte[]{1,2,3,4}));
 
-        if (coapMessage.getMessageCode() == MessageCode.POST) {
+        //the parameters are shared by all test methods, i.e. the payload is to be set only once
+        if (coapMessage.getMessageCode() == MessageCode.POST && coapMessage.getContentLength() == 0) {
             String payload = "Some arbitrary payload";
             coapMessage.setContent(payload.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
         }
@@ -103,6 +113,11 @@ public class DecodeEncodedMessageTest extends AbstractCoapTest {
         encodedMessage = new CoapTestEncoder().encode(coapMessage);
     }
 
+    @Test
+    public void testEncodedMessageHasExactSize() throws Exception {
+        assertEquals(encodedMessage.capacity(), encodedMessage.readableBytes());
+    }
+
     @Test
     public void testDecoding() throws Exception {
         CoapMessage decodedMessage = (CoapMessage) new CoapTestDecoder().decode(encodedMessage);
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.codec;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.codec.tools.CoapTestDecoder;
+import de.uzl.itm.ncoap.communication.codec.tools.CoapTestEncoder;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.*;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import de.uzl.itm.ncoap.message.options.Option;
+import de.uzl.itm.ncoap.message.options.OptionValue;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that options of inbound messages are decoded on demand only but nevertheless provide the same values as
+ * the options of the original (encoded) message.
+ */
+public class LazyOptionDecodingTest extends AbstractCoapTest {
+
+    private CoapRequest coapRequest;
+    private CoapRequest decodedRequest;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Before
+    public void decodeRequest() throws Exception {
+        coapRequest = new CoapRequest(MessageType.CON, MessageCode.POST,
+                new URI("coap://example.org:5684/sensors/1/temp?unit=celsius"));
+        coapRequest.setMessageID(4711);
+        coapRequest.setToken(new Token(new byte[]{1, 2, 3, 4}));
+        coapRequest.setBlock2(3, 2);
+        coapRequest.setAccept(ContentFormat.TEXT_PLAIN_UTF8, ContentFormat.APP_XML);
+        coapRequest.setContent("Some arbitrary payload".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+        ChannelBuffer encodedRequest = new CoapTestEncoder().encode(coapRequest);
+        decodedRequest = (CoapRequest) new CoapTestDecoder().decode(encodedRequest);
+    }
+
+    @Test
+    public void testUintOptions() {
+        assertEquals(coapRequest.getBlock2Number(), decodedRequest.getBlock2Number());
+        assertEquals(coapRequest.getBlock2Szx(), decodedRequest.getBlock2Szx());
+        assertEquals(coapRequest.getUriPort(), decodedRequest.getUriPort());
+        assertEquals(coapRequest.getContentFormat(), decodedRequest.getContentFormat());
+        assertEquals(coapRequest.getAcceptedContentFormats(), decodedRequest.getAcceptedContentFormats());
+    }
+
+    @Test
+    public void testStringOptions() {
+        assertEquals("/sensors/1/temp", decodedRequest.getUriPath());
+        assertEquals(coapRequest.getUriHost(), decodedRequest.getUriHost());
+        assertEquals("celsius", decodedRequest.getUriQueryParameterValue("unit"));
+    }
+
+    @Test
+    public void testOptionsDecodedPartially() {
+        Set<OptionValue> uriPathOptions = decodedRequest.getOptions(Option.URI_PATH);
+        assertEquals(3, uriPathOptions.size());
+
+        //decoding the remaining options must not change the previously returned set
+        assertEquals(coapRequest.getAllOptions(), decodedRequest.getAllOptions());
+        assertEquals(3, uriPathOptions.size());
+        assertEquals(decodedRequest.getOptions(Option.URI_PATH), uriPathOptions);
+    }
+
+    @Test
+    public void testContainsAndRemoveOptions() {
+        assertTrue(decodedRequest.containsOption(Option.URI_PATH));
+        assertEquals(3, decodedRequest.removeOptions(Option.URI_PATH));
+        assertFalse(decodedRequest.containsOption(Option.URI_PATH));
+        assertEquals("/", decodedRequest.getUriPath());
+    }
+
+    @Test
+    public void testPayload() {
+        assertEquals("Some arbitrary payload", decodedRequest.getContent().toString(CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testEquality() {
+        assertEquals(coapRequest, decodedRequest);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.codec;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.codec.tools.CoapTestDecoder;
+import de.uzl.itm.ncoap.communication.codec.tools.CoapTestEncoder;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.*;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import de.uzl.itm.ncoap.message.options.Option;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that update notifications encoded with a shared {@link UpdateNotificationTemplate} are exactly the same as
+ * update notifications that are encoded from scratch.
+ */
+public class UpdateNotificationTemplateTest extends AbstractCoapTest {
+
+    private CoapTestEncoder encoder;
+    private CoapResponse prototype;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Before
+    public void createPrototype() {
+        encoder = new CoapTestEncoder();
+        prototype = new CoapResponse(MessageType.NON, MessageCode.CONTENT_205);
+        prototype.setEtag(new byte[]{1, 2, 3, 4});
+        prototype.setContent("Some arbitrary status".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        prototype.setMaxAge(120);
+        prototype.setPreferredBlock2Size(BlockSize.SIZE_512);
+        prototype.setUpdateNotificationTemplate(new UpdateNotificationTemplate());
+    }
+
+    private CoapResponse createUpdateNotification(int messageType, int messageID, byte[] token, long observe) {
+        CoapResponse updateNotification = CoapResponse.createUpdateNotification(prototype, messageType,
+                new Token(token));
+        updateNotification.setMessageID(messageID);
+        updateNotification.setObserve(observe);
+        return updateNotification;
+    }
+
+    private ChannelBuffer encodeFromScratch(CoapResponse updateNotification) throws Exception {
+        UpdateNotificationTemplate template = updateNotification.getUpdateNotificationTemplate();
+        updateNotification.setUpdateNotificationTemplate(null);
+        ChannelBuffer result = encoder.encode(updateNotification);
+        updateNotification.setUpdateNotificationTemplate(template);
+        return result;
+    }
+
+    @Test
+    public void testNotificationsEqualNotificationsEncodedFromScratch() throws Exception {
+        CoapResponse[] updateNotifications = new CoapResponse[]{
+                createUpdateNotification(MessageType.NON, 1, new byte[]{1}, 0),
+                createUpdateNotification(MessageType.CON, 2, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 1234),
+                createUpdateNotification(MessageType.NON, 3, new byte[0], 7654321),
+                createUpdateNotification(MessageType.CON, 65535, new byte[]{9, 8}, 17)
+        };
+
+        for (CoapResponse updateNotification : updateNotifications) {
+            assertEquals(encodeFromScratch(updateNotification), encoder.encode(updateNotification));
+        }
+    }
+
+    @Test
+    public void testNotificationsCanBeDecoded() throws Exception {
+        CoapResponse updateNotification = createUpdateNotification(MessageType.CON, 4711, new byte[]{1, 2}, 815);
+        encoder.encode(createUpdateNotification(MessageType.NON, 1, new byte[]{3}, 1));
+
+        CoapMessage decoded = (CoapMessage) new CoapTestDecoder().decode(encoder.encode(updateNotification));
+        assertEquals(updateNotification, decoded);
+    }
+
+    @Test
+    public void testChangedNotificationIsEncodedFromScratch() throws Exception {
+        encoder.encode(createUpdateNotification(MessageType.NON, 1, new byte[]{1}, 1));
+
+        CoapResponse updateNotification = createUpdateNotification(MessageType.NON, 2, new byte[]{2}, 2);
+        updateNotification.setEndpointID1(new byte[]{5, 6, 7});
+        assertEquals(encodeFromScratch(updateNotification), encoder.encode(updateNotification));
+
+        updateNotification = createUpdateNotification(MessageType.NON, 3, new byte[]{3}, 3);
+        updateNotification.setContent("Another status".getBytes(CoapMessage.CHARSET));
+        assertEquals(encodeFromScratch(updateNotification), encoder.encode(updateNotification));
+    }
+
+    @Test
+    public void testUpdateNotificationsShareOptionsAndContent() {
+        CoapResponse updateNotification1 = createUpdateNotification(MessageType.NON, 1, new byte[]{1}, 1);
+        CoapResponse updateNotification2 = createUpdateNotification(MessageType.CON, 2, new byte[]{2}, 2);
+
+        assertSame(updateNotification1.getOptions(Option.ETAG).iterator().next(),
+                updateNotification2.getOptions(Option.ETAG).iterator().next());
+        assertSame(updateNotification1.getContent().array(), updateNotification2.getContent().array());
+        assertNotSame(updateNotification1.getContent(), updateNotification2.getContent());
+    }
+}
@@ -24,6 +24,7 @@
  */
 package de.uzl.itm.ncoap.communication.codec.tools;
 
+import de.uzl.itm.ncoap.communication.PeerRegistry;
 import de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder;
 import org.jboss.netty.buffer.ChannelBuffer;
 
@@ -36,6 +37,10 @@ import org.jboss.netty.buffer.ChannelBuffer;
 */
 public class CoapTestDecoder extends CoapMessageDecoder{
 
+    public CoapTestDecoder() {
+        super(new PeerRegistry());
+    }
+
     public Object decode(ChannelBuffer buffer) throws Exception {
         return super.decode(null, buffer);
     }
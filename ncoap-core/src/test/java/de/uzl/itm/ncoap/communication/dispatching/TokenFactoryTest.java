@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.dispatching;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TokenFactory}.
+ */
+public class TokenFactoryTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testTokensHaveConfiguredLength() {
+        TokenFactory factory = new TokenFactory(3);
+        assertEquals(3, factory.getNextToken().getBytes().length);
+
+        factory.setTokenLength(1);
+        assertEquals(1, factory.getNextToken().getBytes().length);
+        assertEquals(TokenFactory.DEFAULT_TOKEN_LENGTH, new TokenFactory().getNextToken().getBytes().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTokenLengthOutOfRange() {
+        new TokenFactory(9);
+    }
+
+    @Test
+    public void testTokenSpaceIsExhaustedAndReleased() {
+        TokenFactory factory = new TokenFactory(1);
+        Set<Token> tokens = new HashSet<>();
+        for (int i = 0; i < 256; i++) {
+            assertTrue("Duplicate token!", tokens.add(factory.getNextToken()));
+        }
+        assertNull(factory.getNextToken());
+
+        Token token = tokens.iterator().next();
+        assertTrue(factory.releaseToken(token));
+        assertFalse(factory.releaseToken(token));
+        assertEquals(token, factory.getNextToken());
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.dispatching.server;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.application.server.resource.Webresource;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link UriRouter}, i.e. the matching of literal, template and wildcard segments.
+ */
+public class UriRouterTest extends AbstractCoapTest {
+
+    private static ScheduledExecutorService executor;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @BeforeClass
+    public static void createExecutor() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterClass
+    public static void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    private static Webresource createWebresource(String path) {
+        return new NotObservableTestWebresource(path, "", 0, 0, executor);
+    }
+
+    private static CoapRequest createRequest(String path) throws Exception {
+        return new CoapRequest(MessageType.CON, MessageCode.GET, new URI("coap://localhost" + path));
+    }
+
+    @Test
+    public void testLiteralSegmentsAreMatched() throws Exception {
+        UriRouter router = new UriRouter();
+        Webresource root = createWebresource("/");
+        Webresource temp = createWebresource("/sensors/1/temp");
+        assertTrue(router.register(root));
+        assertTrue(router.register(temp));
+        assertFalse(router.register(createWebresource("/sensors/1/temp")));
+
+        assertSame(root, router.route(createRequest("/")));
+        assertSame(temp, router.route(createRequest("/sensors/1/temp")));
+        assertNull(router.route(createRequest("/sensors/1")));
+        assertNull(router.route(createRequest("/sensors/1/temp/x")));
+        assertEquals(2, router.size());
+    }
+
+    @Test
+    public void testTemplateSegmentsAreMatchedAndCaptured() throws Exception {
+        UriRouter router = new UriRouter();
+        Webresource template = createWebresource("/sensors/{id}/{property}");
+        Webresource literal = createWebresource("/sensors/1/temp");
+        router.register(template);
+        router.register(literal);
+
+        CoapRequest coapRequest = createRequest("/sensors/42/humidity");
+        assertSame(template, router.route(coapRequest));
+        assertEquals("42", coapRequest.getUriPathVariable("id"));
+        assertEquals("humidity", coapRequest.getUriPathVariable("property"));
+
+        coapRequest = createRequest("/sensors/1/temp");
+        assertSame(literal, router.route(coapRequest));
+        assertTrue(coapRequest.getUriPathVariables().isEmpty());
+
+        // no match for the literal path falls back to the template
+        coapRequest = createRequest("/sensors/1/light");
+        assertSame(template, router.route(coapRequest));
+        assertEquals("1", coapRequest.getUriPathVariable("id"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConflictingTemplateVariables() {
+        UriRouter router = new UriRouter();
+        router.register(createWebresource("/sensors/{id}/temp"));
+        router.register(createWebresource("/sensors/{name}/light"));
+    }
+
+    @Test
+    public void testRejectedPathsDoNotChangeTheRouter() throws Exception {
+        UriRouter router = new UriRouter();
+        Webresource template = createWebresource("/sensors/{id}/temp");
+        router.register(template);
+        assertFalse(router.isRegistrable("/sensors/{id}/temp"));
+        assertTrue(router.isRegistrable("/sensors/{id}/light"));
+
+        try {
+            router.register(createWebresource("/files/a/*/b"));
+            fail("Wildcard segment was accepted as inner segment");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        assertNull(router.route(createRequest("/files/a")));
+        assertEquals(1, router.size());
+
+        // removing the only registered resource prunes all nodes, i.e. the rejected path did not create any
+        assertSame(template, router.remove("/sensors/{id}/temp"));
+        assertTrue(router.isEmpty());
+    }
+
+    @Test
+    public void testWildcardSegmentMatchesRemainingPath() throws Exception {
+        UriRouter router = new UriRouter();
+        Webresource wildcard = createWebresource("/files/*");
+        router.register(wildcard);
+
+        CoapRequest coapRequest = createRequest("/files/a/b/c");
+        assertSame(wildcard, router.route(coapRequest));
+        assertEquals("a/b/c", coapRequest.getUriPathVariable(UriRouter.WILDCARD));
+
+        coapRequest = createRequest("/files");
+        assertSame(wildcard, router.route(coapRequest));
+        assertEquals("", coapRequest.getUriPathVariable(UriRouter.WILDCARD));
+        assertNull(router.route(createRequest("/other")));
+    }
+
+    @Test
+    public void testRemovedWebresourcesAreNotMatched() throws Exception {
+        UriRouter router = new UriRouter();
+        Webresource template = createWebresource("/sensors/{id}/temp");
+        Webresource wildcard = createWebresource("/files/*");
+        router.register(template);
+        router.register(wildcard);
+        assertSame(template, router.get("/sensors/{id}/temp"));
+        assertEquals(2, router.getWebresources().size());
+
+        assertSame(template, router.remove("/sensors/{id}/temp"));
+        assertSame(wildcard, router.remove("/files/*"));
+        assertNull(router.remove("/files/*"));
+        assertNull(router.route(createRequest("/sensors/1/temp")));
+        assertEquals(0, router.size());
+
+        // the pruned path can be registered with another variable name
+        assertTrue(router.register(createWebresource("/sensors/{name}/temp")));
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.loopback;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.AbstractCoapCommunicationTest;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the communication between a {@link CoapClient} and a {@link CoapServer} attached to the same
+ * {@link LoopbackNetwork} that delays and reorders datagrams.
+ */
+public class ClientSendsRequestsViaLoopbackNetworkTest extends AbstractCoapCommunicationTest {
+
+    private static final int NUMBER_OF_REQUESTS = 100;
+
+    private static LoopbackNetwork network;
+    private static CoapServer server;
+    private static CoapClient client;
+
+    private static TestCallback[] clientCallbacks = new TestCallback[NUMBER_OF_REQUESTS];
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        network = new LoopbackNetwork(4711);
+        network.setDelay(0, 20);
+        network.setReordering(0.2, 50);
+
+        // the default port is used by a virtual socket, i.e. there is no conflict with real UDP sockets
+        server = new CoapServer("CoAP Server", NotFoundHandler.getDefault(), CoapServer.getDefaultSocket(),
+                BlockSize.UNBOUND, BlockSize.UNBOUND, network);
+
+        for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+            server.registerWebresource(new NotObservableTestWebresource("/service" + (i + 1),
+                    "This is the status of service " + (i + 1), 0, 0, server.getExecutor()));
+        }
+
+        client = new CoapClient("CoAP Client", new InetSocketAddress(0), network);
+        // send all requests at once (i.e. reordered by the network)
+        client.setTransmissionParameters(TransmissionParameters.DEFAULT.withNstart(NUMBER_OF_REQUESTS));
+        for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+            clientCallbacks[i] = new TestCallback();
+        }
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        client.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+        for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+            CoapRequest request = new CoapRequest(MessageType.CON, MessageCode.GET,
+                    new URI("coap://localhost:" + server.getPort() + "/service" + (i + 1)));
+            client.sendCoapRequest(request, serverSocket, clientCallbacks[i]);
+        }
+
+        //await responses
+        Thread.sleep(3000);
+    }
+
+    @Test
+    public void testServerIsBoundToVirtualPort() {
+        assertEquals("Wrong port", CoapServer.DEFAULT_PORT_NUMBER, server.getPort());
+    }
+
+    @Test
+    public void testClientIsBoundToEphemeralPort() {
+        assertEquals("Wrong port", LoopbackNetwork.FIRST_EPHEMERAL_PORT, client.getPort());
+    }
+
+    @Test
+    public void testNoDatagramWasDropped() {
+        assertEquals("Wrong number of dropped datagrams", 0, network.getDroppedDatagrams());
+    }
+
+    @Test
+    public void testClientReceivedCorrectResponses() {
+        for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+            assertEquals("Wrong number of responses for service " + (i + 1),
+                    1, clientCallbacks[i].getCoapResponses().size());
+
+            CoapResponse coapResponse = clientCallbacks[i].getCoapResponses().values().iterator().next();
+            assertEquals("Wrong message content for service " + (i + 1),
+                    "This is the status of service " + (i + 1),
+                    coapResponse.getContent().toString(Charset.forName("UTF-8")));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.observe.client;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.communication.AbstractCoapCommunicationTest;
+import de.uzl.itm.ncoap.endpoints.DummyEndpoint;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that a request to stop an observation (GET with Observe = 1 and the token of the observation) is sent,
+ * although the token is still assigned to the callback of the observation.
+ */
+public class ClientStopsObservationTest extends AbstractCoapCommunicationTest {
+
+    private static CoapClient client;
+    private static DummyEndpoint endpoint;
+
+    private static TestCallback observationCallback;
+    private static TestCallback stopCallback;
+
+    private static CoapMessage observationRequest;
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        client = new CoapClient();
+
+        observationCallback = new TestCallback() {
+            @Override
+            public boolean continueObservation() {
+                return true;
+            }
+        };
+        stopCallback = new TestCallback();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                      endpoint       DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET OBS: 0---------->|       start observation
+//                  |<---ACK-205 OBS: 1-----------|
+//              (2) |----CON-GET OBS: 1---------->|       stop observation (same token)
+
+        InetSocketAddress endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+        URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/observable");
+
+        CoapRequest request1 = new CoapRequest(MessageType.CON, MessageCode.GET, targetURI);
+        request1.setObserve(0);
+        client.sendCoapRequest(request1, endpointSocket, observationCallback);
+        Thread.sleep(500);
+
+        observationRequest = endpoint.getReceivedMessage(0);
+        CoapResponse response = new CoapResponse(MessageType.ACK, MessageCode.CONTENT_205);
+        response.setMessageID(observationRequest.getMessageID());
+        response.setToken(observationRequest.getToken());
+        response.setObserve(1);
+        endpoint.writeMessage(response, new InetSocketAddress("localhost", client.getPort()));
+        Thread.sleep(500);
+
+        CoapRequest request2 = new CoapRequest(MessageType.CON, MessageCode.GET, targetURI);
+        request2.setToken(observationRequest.getToken());
+        request2.setObserve(1);
+        client.sendCoapRequest(request2, endpointSocket, stopCallback);
+        Thread.sleep(500);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testObservationWasStarted() {
+        assertEquals("Wrong number of notifications!", 1, observationCallback.getCoapResponses().size());
+    }
+
+    @Test
+    public void testEndpointReceivedStopRequest() {
+        assertEquals("Wrong number of received messages!", 2, endpoint.getReceivedCoapMessages().size());
+
+        CoapMessage stopRequest = endpoint.getReceivedMessage(1);
+        assertEquals("Wrong observe option!", 1, stopRequest.getObserve());
+        assertEquals("Wrong token!", observationRequest.getToken(), stopRequest.getToken());
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the derivation of the time values from the {@link TransmissionParameters} (see RFC 7252, section 4.8.2).
+ */
+public class TransmissionParametersTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_SOCKET = new InetSocketAddress("127.0.0.1", 5683);
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testDefaultTimeValues() {
+        TransmissionParameters parameters = TransmissionParameters.DEFAULT;
+        assertEquals(45000, parameters.getMaxTransmitSpan());
+        assertEquals(93000, parameters.getMaxTransmitWait());
+        assertEquals(247000, parameters.getExchangeLifetime());
+        assertEquals(145000, parameters.getNonLifetime());
+    }
+
+    @Test
+    public void testDerivedTimeValues() {
+        TransmissionParameters parameters = new TransmissionParameters(4000, 2, 2, 50000);
+        assertEquals(24000, parameters.getMaxTransmitSpan());
+        assertEquals(56000, parameters.getMaxTransmitWait());
+        assertEquals(128000, parameters.getExchangeLifetime());
+        assertEquals(74000, parameters.getNonLifetime());
+    }
+
+    @Test
+    public void testRetransmissionDelaysAreWithinBounds() {
+        TransmissionParameters parameters = new TransmissionParameters(1000, 1.5, 4, 100000);
+        for (int i = 1; i <= parameters.getMaxRetransmit(); i++) {
+            long delay = parameters.provideRetransmissionDelay(i);
+            long minDelay = 1000L << (i - 1);
+            assertTrue("Delay " + delay + " too small", delay >= minDelay);
+            assertTrue("Delay " + delay + " too large", delay <= minDelay * 1.5);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRandomFactorIsRejected() {
+        new TransmissionParameters(2000, 0.5, 4, 100000);
+    }
+
+    @Test
+    public void testParametersForRemoteEndpoint() {
+        TransmissionParametersProvider provider = new TransmissionParametersProvider();
+        TransmissionParameters parameters = new TransmissionParameters(10000, 1.5, 4, 100000);
+
+        provider.setTransmissionParameters(REMOTE_SOCKET, parameters);
+        assertEquals(parameters, provider.getTransmissionParameters(REMOTE_SOCKET));
+        assertEquals(TransmissionParameters.DEFAULT,
+                provider.getTransmissionParameters(new InetSocketAddress("127.0.0.1", 5684)));
+
+        provider.setTransmissionParameters(REMOTE_SOCKET, null);
+        assertEquals(TransmissionParameters.DEFAULT, provider.getTransmissionParameters(REMOTE_SOCKET));
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParametersProvider;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the allocation and the (bucketed) release of message IDs by the {@link MessageIDFactory}.
+ */
+public class MessageIDFactoryTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_SOCKET_1 = new InetSocketAddress("127.0.0.1", 5683);
+    private static final InetSocketAddress REMOTE_SOCKET_2 = new InetSocketAddress("127.0.0.1", 5684);
+    private static final Token TOKEN = new Token(new byte[]{1, 2, 3, 4});
+
+    private ScheduledThreadPoolExecutor executor;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Before
+    public void createExecutor() {
+        this.executor = new ScheduledThreadPoolExecutor(1);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testMessageIDsAreConsecutive() {
+        MessageIDFactory factory = new MessageIDFactory(this.executor);
+        int first = factory.getNextMessageID(REMOTE_SOCKET_1, TOKEN);
+        for (int i = 1; i < 100; i++) {
+            assertEquals((first + i) % MessageIDFactory.MODULUS, factory.getNextMessageID(REMOTE_SOCKET_1, TOKEN));
+        }
+    }
+
+    @Test
+    public void testAllMessageIDsAreAllocatedOnceBeforeExhaustion() {
+        MessageIDFactory factory = new MessageIDFactory(this.executor);
+        Set<Integer> messageIDs = new HashSet<>();
+        for (int i = 0; i < MessageIDFactory.MODULUS; i++) {
+            int messageID = factory.getNextMessageID(REMOTE_SOCKET_1, TOKEN);
+            assertTrue("Invalid message ID " + messageID, messageID >= 0 && messageID < MessageIDFactory.MODULUS);
+            assertTrue("Message ID " + messageID + " was allocated twice", messageIDs.add(messageID));
+        }
+
+        assertEquals(CoapMessage.UNDEFINED_MESSAGE_ID, factory.getNextMessageID(REMOTE_SOCKET_1, TOKEN));
+        assertNotEquals("Allocations for different endpoints are not independent",
+                CoapMessage.UNDEFINED_MESSAGE_ID, factory.getNextMessageID(REMOTE_SOCKET_2, TOKEN));
+    }
+
+    @Test
+    public void testExpiredMessageIDsAreReleasedAndObserversNotified() throws Exception {
+        // EXCHANGE_LIFETIME = 0 + 2 * 45 + 10 = 100 ms
+        TransmissionParametersProvider provider = new TransmissionParametersProvider();
+        provider.setDefaultTransmissionParameters(new TransmissionParameters(10, 1, 0, 45));
+        MessageIDFactory factory = new MessageIDFactory(this.executor, provider);
+        final CountDownLatch latch = new CountDownLatch(10);
+        final Set<Integer> releasedIDs = new HashSet<>();
+        factory.addObserver(new Observer() {
+            @Override
+            public void update(Observable observable, Object release) {
+                synchronized (releasedIDs) {
+                    releasedIDs.add(((MessageIDFactory.MessageIDRelease) release).getMessageID());
+                }
+                latch.countDown();
+            }
+        });
+
+        Set<Integer> allocatedIDs = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            allocatedIDs.add(factory.getNextMessageID(REMOTE_SOCKET_1, TOKEN));
+        }
+
+        assertTrue("Message IDs were not released", latch.await(2, TimeUnit.SECONDS));
+        synchronized (releasedIDs) {
+            assertEquals(allocatedIDs, releasedIDs);
+        }
+
+        // the message IDs may now be allocated again
+        for (int i = 0; i < MessageIDFactory.MODULUS; i++) {
+            assertNotEquals(CoapMessage.UNDEFINED_MESSAGE_ID, factory.getNextMessageID(REMOTE_SOCKET_1, TOKEN));
+        }
+    }
+
+    @Test
+    public void testNonConfirmableMessageIDsAreReleasedAfterNonLifetime() throws Exception {
+        // NON_LIFETIME = 0 + 100 = 100 ms, EXCHANGE_LIFETIME = 0 + 2 * 100 + 5000 = 5200 ms
+        TransmissionParametersProvider provider = new TransmissionParametersProvider();
+        provider.setTransmissionParameters(REMOTE_SOCKET_1, new TransmissionParameters(5000, 1, 0, 100));
+        MessageIDFactory factory = new MessageIDFactory(this.executor, provider);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Set<Integer> releasedIDs = new HashSet<>();
+        factory.addObserver(new Observer() {
+            @Override
+            public void update(Observable observable, Object release) {
+                synchronized (releasedIDs) {
+                    releasedIDs.add(((MessageIDFactory.MessageIDRelease) release).getMessageID());
+                }
+                latch.countDown();
+            }
+        });
+
+        int conMessageID = factory.getNextMessageID(REMOTE_SOCKET_1, TOKEN, MessageType.CON);
+        int nonMessageID = factory.getNextMessageID(REMOTE_SOCKET_1, TOKEN, MessageType.NON);
+
+        assertTrue("Message ID was not released", latch.await(2, TimeUnit.SECONDS));
+        synchronized (releasedIDs) {
+            assertTrue("NON message ID was not released", releasedIDs.contains(nonMessageID));
+            assertFalse("CON message ID was released too early", releasedIDs.contains(conMessageID));
+        }
+    }
+
+    @Test
+    public void testReleaseCarriesPeerID() throws Exception {
+        TransmissionParametersProvider provider = new TransmissionParametersProvider();
+        provider.setDefaultTransmissionParameters(new TransmissionParameters(10, 1, 0, 45));
+        MessageIDFactory factory = new MessageIDFactory(this.executor, provider);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Set<Integer> releasedPeerIDs = new HashSet<>();
+        factory.addObserver(new Observer() {
+            @Override
+            public void update(Observable observable, Object release) {
+                synchronized (releasedPeerIDs) {
+                    releasedPeerIDs.add(((MessageIDFactory.MessageIDRelease) release).getPeerID());
+                }
+                latch.countDown();
+            }
+        });
+
+        factory.getNextMessageID(REMOTE_SOCKET_1, 42, TOKEN, MessageType.CON);
+
+        assertTrue("Message ID was not released", latch.await(2, TimeUnit.SECONDS));
+        synchronized (releasedPeerIDs) {
+            assertEquals(Collections.singleton(42), releasedPeerIDs);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.reliability.TransmissionParameters;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the RTO estimation of the {@link RetransmissionTimeoutEstimator} and the resulting
+ * {@link RetransmissionSchedule}s.
+ */
+public class RetransmissionTimeoutEstimatorTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Test
+    public void testInitialRetransmissionTimeout() {
+        RetransmissionTimeoutEstimator estimator = new RetransmissionTimeoutEstimator(2000);
+        assertEquals(2000, estimator.getRetransmissionTimeout(0));
+        assertEquals(2, RetransmissionTimeoutEstimator.getBackoffFactor(2000), 0);
+    }
+
+    @Test
+    public void testStrongEstimatorUpdate() {
+        RetransmissionTimeoutEstimator estimator = new RetransmissionTimeoutEstimator(2000);
+
+        // strong RTO = 100 + 4 * 50 = 300, overall RTO = 0.5 * 300 + 0.5 * 2000 = 1150
+        estimator.update(100, 0, 0);
+        assertEquals(1150, estimator.getRetransmissionTimeout(0));
+
+        for (int i = 0; i < 10; i++) {
+            estimator.update(100, 0, 0);
+        }
+        long retransmissionTimeout = estimator.getRetransmissionTimeout(0);
+        assertTrue("RTO " + retransmissionTimeout + " did not adapt", retransmissionTimeout < 1000);
+        assertEquals(3, RetransmissionTimeoutEstimator.getBackoffFactor(retransmissionTimeout), 0);
+    }
+
+    @Test
+    public void testWeakEstimatorUpdate() {
+        RetransmissionTimeoutEstimator estimator = new RetransmissionTimeoutEstimator(2000);
+
+        // weak RTO = 6000 + 1 * 3000 = 9000, overall RTO = 0.25 * 9000 + 0.75 * 2000 = 3750
+        estimator.update(6000, 2, 0);
+        assertEquals(3750, estimator.getRetransmissionTimeout(0));
+
+        // ambiguous measurements are ignored
+        estimator.update(100, 3, 0);
+        assertEquals(3750, estimator.getRetransmissionTimeout(0));
+    }
+
+    @Test
+    public void testRetransmissionTimeoutAging() {
+        RetransmissionTimeoutEstimator estimator = new RetransmissionTimeoutEstimator(400);
+
+        // small RTOs are doubled after 16 * RTO without update
+        assertEquals(400, estimator.getRetransmissionTimeout(0));
+        estimator.update(400, 0, 0);
+        long retransmissionTimeout = estimator.getRetransmissionTimeout(0);
+        assertEquals(2 * retransmissionTimeout, estimator.getRetransmissionTimeout(16 * retransmissionTimeout + 1));
+
+        // large RTOs are moved towards 2 seconds after 4 * RTO without update
+        estimator = new RetransmissionTimeoutEstimator(5000);
+        estimator.update(5000, 0, 0);
+        retransmissionTimeout = estimator.getRetransmissionTimeout(0);
+        long agedRetransmissionTimeout = estimator.getRetransmissionTimeout(4 * retransmissionTimeout + 1);
+        assertEquals(1000 + retransmissionTimeout / 2, agedRetransmissionTimeout);
+    }
+
+    @Test
+    public void testScheduleWithDefaultParameters() {
+        TransmissionParameters parameters = TransmissionParameters.DEFAULT;
+        RetransmissionSchedule schedule = new RetransmissionSchedule(parameters, parameters.getAckTimeout());
+
+        long span = 0;
+        long previousDelay = 0;
+        for (int i = 1; i <= parameters.getMaxRetransmit(); i++) {
+            long delay = schedule.nextDelay(i);
+            assertTrue("Delay " + delay + " too small", delay >= 2 * previousDelay);
+            previousDelay = delay;
+            span += delay;
+        }
+
+        assertTrue("MAX_TRANSMIT_SPAN exceeded", span <= parameters.getMaxTransmitSpan());
+        assertEquals(-1, schedule.nextDelay(parameters.getMaxRetransmit() + 1));
+    }
+
+    @Test
+    public void testScheduleDoesNotExceedMaxTransmitSpan() {
+        TransmissionParameters parameters = TransmissionParameters.DEFAULT;
+        RetransmissionSchedule schedule = new RetransmissionSchedule(
+                parameters, RetransmissionTimeoutEstimator.MAX_RETRANSMISSION_TIMEOUT_MILLIS
+        );
+
+        assertEquals(parameters.getMaxTransmitSpan(), schedule.nextDelay(1));
+        assertEquals(-1, schedule.nextDelay(2));
+    }
+}
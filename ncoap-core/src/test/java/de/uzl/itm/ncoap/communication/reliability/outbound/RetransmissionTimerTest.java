@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the execution and the cancellation of tasks scheduled with a {@link RetransmissionTimer}.
+ */
+public class RetransmissionTimerTest extends AbstractCoapTest {
+
+    private ScheduledThreadPoolExecutor executor;
+    private RetransmissionTimer timer;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Before
+    public void createTimer() {
+        this.executor = new ScheduledThreadPoolExecutor(1);
+        this.timer = new RetransmissionTimer(this.executor);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testTaskIsExecutedByExecutorAfterDelay() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+
+        long start = System.nanoTime();
+        this.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+                latch.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue("Task was not executed", latch.await(2, TimeUnit.SECONDS));
+        assertTrue("Task was executed too early", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertFalse("Task was executed by the timer thread", thread.get().getName().contains("Timer"));
+    }
+
+    @Test
+    public void testCancelledTaskIsNotExecuted() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Timeout timeout = this.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+
+        assertTrue(timeout.isCancelled());
+        assertFalse("Cancelled task was executed", latch.await(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testTaskIsDroppedAfterExecutorShutdown() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Timeout timeout = this.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        this.executor.shutdown();
+
+        assertFalse("Task was executed after shutdown", latch.await(500, TimeUnit.MILLISECONDS));
+        assertTrue(timeout.isExpired());
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.tracing;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the sampling and the ring buffer of the {@link RingBufferMessageTracer}.
+ */
+public class RingBufferMessageTracerTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_SOCKET = new InetSocketAddress("127.0.0.1", 5683);
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    private static CoapMessage createMessage(int messageID) throws Exception {
+        CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, new URI("coap://localhost/test"));
+        coapRequest.setMessageID(messageID);
+        coapRequest.setToken(new Token(new byte[]{1, 2, 3}));
+        return coapRequest;
+    }
+
+    private static int getMessageID(byte[] records, int index) {
+        return ByteBuffer.wrap(records).getShort(index * RingBufferMessageTracer.RECORD_SIZE + 12) & 0xFFFF;
+    }
+
+    @Test
+    public void testOldestRecordsAreOverwritten() throws Exception {
+        RingBufferMessageTracer tracer = new RingBufferMessageTracer(4, 1);
+        for (int messageID = 1; messageID <= 6; messageID++) {
+            tracer.traceOutbound(REMOTE_SOCKET, createMessage(messageID), 20);
+        }
+
+        assertEquals(4, tracer.size());
+        byte[] records = tracer.toByteArray();
+        assertEquals(4 * RingBufferMessageTracer.RECORD_SIZE, records.length);
+        for (int index = 0; index < 4; index++) {
+            assertEquals(index + 3, getMessageID(records, index));
+        }
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        RingBufferMessageTracer tracer = new RingBufferMessageTracer(100, 10);
+        for (int messageID = 0; messageID < 35; messageID++) {
+            tracer.traceInbound(REMOTE_SOCKET, createMessage(messageID), 20);
+        }
+
+        assertEquals(4, tracer.size());
+        byte[] records = tracer.toByteArray();
+        for (int index = 0; index < 4; index++) {
+            assertEquals(index * 10, getMessageID(records, index));
+        }
+    }
+
+    @Test
+    public void testDump() throws Exception {
+        RingBufferMessageTracer tracer = new RingBufferMessageTracer(10, 1);
+        tracer.traceInbound(REMOTE_SOCKET, createMessage(4711), 23);
+        tracer.traceOutbound(REMOTE_SOCKET, CoapMessage.createEmptyAcknowledgement(4711), 4);
+
+        StringBuilder dump = new StringBuilder();
+        tracer.dump(dump);
+        String[] lines = dump.toString().split(System.lineSeparator());
+
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" IN  /127.0.0.1:5683 [CON (0), GET (1), ID 4711, Token 0x010203, " +
+                "23 bytes]"));
+        assertTrue(lines[1], lines[1].contains(" OUT /127.0.0.1:5683 [ACK (2), EMPTY (0), ID 4711, Token "));
+        assertTrue(lines[1], lines[1].endsWith(", 4 bytes]"));
+    }
+}
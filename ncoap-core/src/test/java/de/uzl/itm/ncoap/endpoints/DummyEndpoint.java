@@ -25,6 +25,7 @@
 package de.uzl.itm.ncoap.endpoints;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uzl.itm.ncoap.communication.PeerRegistry;
 import de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder;
 import de.uzl.itm.ncoap.communication.codec.CoapMessageEncoder;
 import de.uzl.itm.ncoap.message.CoapMessage;
@@ -101,7 +102,7 @@ public class DummyEndpoint extends SimpleChannelHandler {
             public ChannelPipeline getPipeline() throws Exception {
                 ChannelPipeline pipeline = Channels.pipeline();
                 pipeline.addLast("Encoder", new CoapMessageEncoder());
-                pipeline.addLast("Decoder", new CoapMessageDecoder());
+                pipeline.addLast("Decoder", new CoapMessageDecoder(new PeerRegistry()));
                 pipeline.addLast("CoAP Endpoint", DummyEndpoint.this );
                 return pipeline;
             }
@@ -48,6 +48,8 @@ public class TestCallback extends ClientCallback {
     private Set<Long> transmissionTimeouts;
     private Set<Long> responseBlockReceptions;
     private Set<Long> continueResponseReceptions;
+    private Set<Long> requestQueueOverflows;
+    private Set<Integer> messageIDs;
 
     private int number = 0;
 
@@ -61,6 +63,8 @@ public class TestCallback extends ClientCallback {
         this.transmissionTimeouts = Collections.synchronizedSet(new TreeSet<Long>((Ordering.natural())));
         this.responseBlockReceptions = Collections.synchronizedSet(new TreeSet<Long>((Ordering.natural())));
         this.continueResponseReceptions = Collections.synchronizedSet(new TreeSet<Long>((Ordering.natural())));
+        this.requestQueueOverflows = Collections.synchronizedSet(new TreeSet<Long>((Ordering.natural())));
+        this.messageIDs = Collections.synchronizedSet(new TreeSet<Integer>((Ordering.natural())));
     }
 
     public TestCallback(int number) {
@@ -122,6 +126,19 @@ public class TestCallback extends ClientCallback {
         log.info("[{}] Received request block delivery confirmation (Size: {} bytes).", this.number, block1Size.getSize());
     }
 
+    @Override
+    public void processMessageIDAssignment(int messageID) {
+        this.messageIDs.add(messageID);
+        log.info("[{}] Message ID assigned: {}.", this.number, messageID);
+    }
+
+    @Override
+    public void processRequestQueueOverflow() {
+        long actualTime = System.currentTimeMillis();
+        this.requestQueueOverflows.add(actualTime);
+        log.info("[{}] Request discarded (queue overflow).", this.number);
+    }
+
     /**
      * Returns a {@link SortedMap} containing all received {@link CoapResponse} instances as values and their reception
      * timestamps as key.
@@ -164,4 +181,12 @@ public class TestCallback extends ClientCallback {
     public Set<Long> getRequestBlockDeliveryConfirmations() {
         return this.continueResponseReceptions;
     }
+
+    public Set<Long> getRequestQueueOverflows() {
+        return this.requestQueueOverflows;
+    }
+
+    public Set<Integer> getMessageIDs() {
+        return this.messageIDs;
+    }
 }
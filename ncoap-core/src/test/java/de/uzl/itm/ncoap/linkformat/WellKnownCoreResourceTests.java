@@ -119,7 +119,7 @@ public class WellKnownCoreResourceTests extends AbstractCoapCommunicationTest {
 
     @Override
     public void shutdownComponents() throws Exception {
-        server.shutdown();
+        server.shutdown().get();
         client.shutdown();
     }
 
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.message.options;
+
+import com.google.common.collect.SetMultimap;
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that an {@link OptionList} keeps its options sorted by option number (and in the order they were added for
+ * equal option numbers) and behaves like the multimap it replaced.
+ */
+public class OptionListTest extends AbstractCoapTest {
+
+    private OptionList optionList;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Before
+    public void createOptionList() throws Exception {
+        optionList = new OptionList();
+        optionList.add(Option.URI_PATH, new StringOptionValue(Option.URI_PATH, "a"));
+        optionList.add(Option.URI_HOST, new StringOptionValue(Option.URI_HOST, "example.org"));
+        optionList.add(Option.ACCEPT, new UintOptionValue(Option.ACCEPT, new byte[]{41}));
+        optionList.add(Option.URI_PATH, new StringOptionValue(Option.URI_PATH, "b"));
+        optionList.add(Option.URI_PATH, new StringOptionValue(Option.URI_PATH, "c"));
+        optionList.add(Option.IF_NONE_MATCH, new EmptyOptionValue(Option.IF_NONE_MATCH));
+    }
+
+    @Test
+    public void testOptionsAreSortedByNumber() {
+        assertEquals(6, optionList.size());
+        for (int index = 1; index < optionList.size(); index++) {
+            assertTrue(optionList.getOptionNumber(index - 1) <= optionList.getOptionNumber(index));
+        }
+    }
+
+    @Test
+    public void testOptionsWithEqualNumberKeepOrder() {
+        Iterator<OptionValue> iterator = optionList.get(Option.URI_PATH).iterator();
+        assertEquals("a", iterator.next().getDecodedValue());
+        assertEquals("b", iterator.next().getDecodedValue());
+        assertEquals("c", iterator.next().getDecodedValue());
+        assertFalse(iterator.hasNext());
+        assertEquals("a", optionList.getFirst(Option.URI_PATH).getDecodedValue());
+    }
+
+    @Test
+    public void testEqualOptionIsNotAddedTwice() {
+        assertFalse(optionList.add(Option.URI_PATH, new StringOptionValue(Option.URI_PATH, "b")));
+        assertEquals(3, optionList.get(Option.URI_PATH).size());
+    }
+
+    @Test
+    public void testViewReflectsChanges() {
+        Set<OptionValue> uriQueries = optionList.get(Option.URI_QUERY);
+        assertTrue(uriQueries.isEmpty());
+        assertFalse(optionList.contains(Option.URI_QUERY));
+
+        optionList.add(Option.URI_QUERY, new StringOptionValue(Option.URI_QUERY, "x=1"));
+        assertEquals(1, uriQueries.size());
+        assertTrue(optionList.contains(Option.URI_QUERY));
+    }
+
+    @Test
+    public void testRemove() {
+        assertEquals(3, optionList.remove(Option.URI_PATH));
+        assertEquals(0, optionList.remove(Option.URI_PATH));
+        assertFalse(optionList.contains(Option.URI_PATH));
+        assertNull(optionList.getFirst(Option.URI_PATH));
+        assertEquals(3, optionList.size());
+        assertTrue(optionList.contains(Option.ACCEPT));
+    }
+
+    @Test
+    public void testMultimapSnapshot() {
+        SetMultimap<Integer, OptionValue> multimap = optionList.toMultimap();
+        assertEquals(6, multimap.size());
+        assertEquals(optionList.get(Option.URI_PATH), multimap.get(Option.URI_PATH));
+
+        Iterator<Integer> keys = multimap.keySet().iterator();
+        assertEquals(Option.URI_HOST, (int) keys.next());
+        assertEquals(Option.IF_NONE_MATCH, (int) keys.next());
+        assertEquals(Option.URI_PATH, (int) keys.next());
+        assertEquals(Option.ACCEPT, (int) keys.next());
+    }
+
+    @Test
+    public void testMultimapView() {
+        SetMultimap<Integer, OptionValue> multimap = optionList.asMultimap();
+        assertEquals(optionList.toMultimap(), multimap);
+        assertEquals(4, multimap.keySet().size());
+
+        //changes of the view are written through to the list
+        assertTrue(multimap.get(Option.URI_PATH).remove(new StringOptionValue(Option.URI_PATH, "b")));
+        assertTrue(multimap.put(Option.CONTENT_FORMAT, new UintOptionValue(Option.CONTENT_FORMAT, new byte[]{50})));
+        assertEquals(2, optionList.get(Option.URI_PATH).size());
+        assertTrue(optionList.contains(Option.CONTENT_FORMAT));
+
+        //changes of the list are reflected by the view
+        optionList.remove(Option.URI_HOST);
+        assertFalse(multimap.containsKey(Option.URI_HOST));
+        assertEquals(optionList.toMultimap(), multimap);
+
+        Iterator<OptionValue> values = multimap.get(Option.URI_PATH).iterator();
+        values.next();
+        values.remove();
+        assertEquals("c", ((StringOptionValue) optionList.getFirst(Option.URI_PATH)).getDecodedValue());
+    }
+}